@@ -1,8 +1,12 @@
 package vk.itmo.teamgray.sharded.storage.client;
 
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import vk.itmo.teamgray.sharded.storage.client.service.ClientService;
+import vk.itmo.teamgray.sharded.storage.client.service.ReadConsistency;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.proto.CachedGrpcStubCreator;
 
@@ -29,9 +33,14 @@ public class CLI {
                 case "get" -> handleGet();
                 case "set" -> handleSet();
                 case "setfile" -> handleSetFromFile();
+                case "buildshards" -> handleBuildShardFiles();
+                case "ingestshards" -> handleIngestShardFiles();
                 case "addserver" -> handleAddServer();
                 case "deleteserver" -> handleDeleteServer();
                 case "changeshards" -> handleChangeShardCount();
+                case "splitshard" -> handleSplitShard();
+                case "mergeshards" -> handleMergeShards();
+                case "replication" -> handleSetReplicationFactor();
                 case "topology" -> handleGetTopology();
                 case "heartbeat" -> handleHeartbeat();
                 case "serverstates" -> handleServerStates();
@@ -58,9 +67,14 @@ public class CLI {
         println("  get            - Get value by key");
         println("  set            - Set key-value pair");
         println("  setfile        - Set values from file");
+        println("  buildshards    - Build shard files from file for bulk load");
+        println("  ingestshards   - Load shard files on nodes");
         println("  addserver      - Add new server");
         println("  deleteserver   - Delete server");
         println("  changeshards   - Change number of shards");
+        println("  splitshard     - Split one shard in two at a hash");
+        println("  mergeshards    - Merge two adjacent shards");
+        println("  replication    - Set number of copies of every shard");
         println("  topology       - Show current topology");
         println("  heartbeat      - Send heartbeat to master");
         println("  serverstates   - Get current states of all servers");
@@ -71,14 +85,26 @@ public class CLI {
     private void handleGet() {
         print("Enter key: ");
         String key = scanner.nextLine().trim();
+        print("Enter consistency (primary, session or max staleness in ms, empty for default): ");
+        String consistency = scanner.nextLine().trim();
         try {
-            String value = clientService.getValue(key);
+            String value = consistency.isEmpty()
+                ? clientService.getValue(key)
+                : clientService.getValue(key, parseReadConsistency(consistency));
             println("Value: " + value);
         } catch (Exception e) {
             errPrintln("Error getting value: " + e.getMessage());
         }
     }
 
+    private static ReadConsistency parseReadConsistency(String consistency) {
+        return switch (consistency) {
+            case "primary" -> ReadConsistency.primary();
+            case "session" -> ReadConsistency.readYourWrites();
+            default -> ReadConsistency.boundedStaleness(Duration.ofMillis(Long.parseLong(consistency)));
+        };
+    }
+
     private void handleSet() {
         print("Enter key: ");
         String key = scanner.nextLine().trim();
@@ -96,7 +122,16 @@ public class CLI {
         print("Enter file path: ");
         String filePath = scanner.nextLine().trim();
         try {
-            var response = clientService.setFromFile(filePath);
+            var response = clientService.setFromFile(
+                filePath,
+                progress -> println(MessageFormat.format(
+                    "Imported {0,number,#} of {1,number,#} read pairs, {2,number,#} failed, {3,number,#} pairs/s",
+                    progress.imported(),
+                    progress.read(),
+                    progress.failed(),
+                    progress.pairsPerSecond()
+                ))
+            );
             println(response.getMessage());
             println(response.isSuccess() ? "Success" : "Failed");
         } catch (Exception e) {
@@ -104,6 +139,32 @@ public class CLI {
         }
     }
 
+    private void handleBuildShardFiles() {
+        print("Enter file path: ");
+        String filePath = scanner.nextLine().trim();
+        print("Enter output directory: ");
+        String outputDir = scanner.nextLine().trim();
+        try {
+            var response = clientService.buildShardFiles(filePath, outputDir);
+            println(response.getMessage());
+            println(response.isSuccess() ? "Success" : "Failed");
+        } catch (Exception e) {
+            errPrintln("Error building shard files: " + e.getMessage());
+        }
+    }
+
+    private void handleIngestShardFiles() {
+        print("Enter shard files directory on nodes: ");
+        String directory = scanner.nextLine().trim();
+        try {
+            var response = clientService.ingestShardFiles(directory);
+            println(response.getMessage());
+            println(response.isSuccess() ? "Success" : "Failed");
+        } catch (Exception e) {
+            errPrintln("Error ingesting shard files: " + e.getMessage());
+        }
+    }
+
     private void handleAddServer() {
         print("Enter server ID: ");
 
@@ -158,15 +219,82 @@ public class CLI {
         }
     }
 
+    private void handleSplitShard() {
+        print("Enter shard id: ");
+        Integer shardId = parseIntSafely(scanner.nextLine().trim());
+
+        if (shardId == null) {
+            return;
+        }
+
+        print("Enter hash to split at (shard keeps hashes up to it): ");
+        Long atHash = parseLongSafely(scanner.nextLine().trim());
+
+        if (atHash == null) {
+            return;
+        }
+
+        try {
+            var response = clientService.splitShard(shardId, atHash);
+            println(response.getMessage());
+            println(response.isSuccess() ? "Success" : "Failed");
+        } catch (Exception e) {
+            errPrintln("Error splitting shard: " + e.getMessage());
+        }
+    }
+
+    private void handleMergeShards() {
+        print("Enter id of the shard to keep: ");
+        Integer shardId = parseIntSafely(scanner.nextLine().trim());
+
+        if (shardId == null) {
+            return;
+        }
+
+        print("Enter id of the adjacent shard to merge into it: ");
+        Integer otherShardId = parseIntSafely(scanner.nextLine().trim());
+
+        if (otherShardId == null) {
+            return;
+        }
+
+        try {
+            var response = clientService.mergeShards(shardId, otherShardId);
+            println(response.getMessage());
+            println(response.isSuccess() ? "Success" : "Failed");
+        } catch (Exception e) {
+            errPrintln("Error merging shards: " + e.getMessage());
+        }
+    }
+
+    private void handleSetReplicationFactor() {
+        print("Enter replication factor: ");
+        Integer replicationFactor = parseIntSafely(scanner.nextLine().trim());
+
+        if (replicationFactor == null) {
+            return;
+        }
+
+        try {
+            var response = clientService.setReplicationFactor(replicationFactor);
+            println(response.getMessage());
+            println(response.isSuccess() ? "Success" : "Failed");
+        } catch (Exception e) {
+            errPrintln("Error setting replication factor: " + e.getMessage());
+        }
+    }
+
     private void handleGetTopology() {
         try {
             Map<Integer, DiscoverableServiceDTO> shardToServer = clientService.getShardServerMapping();
             Map<Long, Integer> hashToShard = clientService.getHashToShardMapping();
+            Map<Integer, List<Integer>> shardToReplicas = clientService.getShardReplicasMapping();
 
             println(System.lineSeparator() + "Shard to Server mapping:");
             shardToServer.forEach((shard, server) ->
                 println(
-                    "  Shard " + shard + " -> ID: " + server.id() + " Host: " + server.host() + "/" + server.containerName()));
+                    "  Shard " + shard + " -> ID: " + server.id() + " Host: " + server.host() + "/" + server.containerName()
+                        + (shardToReplicas.containsKey(shard) ? " Replicas: " + shardToReplicas.get(shard) : "")));
 
             println(System.lineSeparator() + "Hash to Shard mapping:");
             hashToShard.entrySet().stream()
@@ -223,6 +351,16 @@ public class CLI {
         }
     }
 
+    private Long parseLongSafely(String line) {
+        try {
+            return Long.parseLong(line);
+        } catch (NumberFormatException e) {
+            errPrintln("Not a valid number: '" + line + "'");
+
+            return null;
+        }
+    }
+
     @SuppressWarnings("UseOfSystemOutOrSystemErr")
     private static void print(String string) {
         System.out.print(string);
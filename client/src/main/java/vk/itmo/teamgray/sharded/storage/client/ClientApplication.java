@@ -4,9 +4,12 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
 import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeManagementClient;
 import vk.itmo.teamgray.sharded.storage.client.proto.MasterGrpcClient;
 import vk.itmo.teamgray.sharded.storage.client.proto.NodeGrpcClient;
+import vk.itmo.teamgray.sharded.storage.client.proto.NodeManagementGrpcClient;
 import vk.itmo.teamgray.sharded.storage.client.service.ClientService;
+import vk.itmo.teamgray.sharded.storage.client.service.FileReaderProvider;
 import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.proto.DiscoveryGrpcClient;
@@ -24,6 +27,7 @@ public class ClientApplication {
         clientCachingFactory.registerClientCreator(DiscoveryClient.class, DiscoveryGrpcClient::new);
         clientCachingFactory.registerClientCreator(MasterClient.class, MasterGrpcClient::new);
         clientCachingFactory.registerClientCreator(NodeClient.class, NodeGrpcClient::new);
+        clientCachingFactory.registerClientCreator(NodeManagementClient.class, NodeManagementGrpcClient::new);
 
         DiscoveryClient discoveryClient = clientCachingFactory.getClient(
             getServerHost("discovery"),
@@ -44,9 +48,11 @@ public class ClientApplication {
             masterClient,
             discoveryClient,
             clientCachingFactory,
-            fileName -> new BufferedReader(new FileReader(fileName))
+            fileName -> new BufferedReader(new FileReader(fileName), FileReaderProvider.BUFFER_SIZE)
         );
 
+        clientService.watchTopology();
+
         CLI cli = new CLI(clientService);
         cli.start();
     }
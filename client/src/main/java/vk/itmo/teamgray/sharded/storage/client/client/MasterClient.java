@@ -1,8 +1,12 @@
 package vk.itmo.teamgray.sharded.storage.client.client;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import vk.itmo.teamgray.sharded.storage.common.client.Client;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 
 public interface MasterClient extends Client {
@@ -19,4 +23,19 @@ public interface MasterClient extends Client {
     Map<Integer, NodeState> getServerToState();
 
     StatusResponseDTO changeShardCount(int newShardCount);
+
+    StatusResponseDTO splitShard(int shardId, long atHash);
+
+    StatusResponseDTO mergeShards(int shardId, int otherShardId);
+
+    StatusResponseDTO setReplicationFactor(int replicationFactor);
+
+    TopologyDTO getTopology();
+
+    /**
+     * Streams topology updates to the consumer, starting with the full topology unless its epoch is {@code knownEpoch}.
+     *
+     * @return future completed when the stream ends, cancel it to stop watching
+     */
+    CompletableFuture<Void> watchTopology(long knownEpoch, Consumer<TopologyUpdateDTO> consumer);
 }
@@ -1,15 +1,52 @@
 package vk.itmo.teamgray.sharded.storage.client.client;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import vk.itmo.teamgray.sharded.storage.common.client.Client;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 
+/**
+ * Every request carries the topology epoch it was routed with, 0 if unknown. Node answers wrong node with the owner of the key if it
+ * knows a newer topology. Reads carry bounds a replica should be within to serve them, replicas out of bounds answer wrong node too.
+ */
 public interface NodeClient extends Client {
-    SetResponseDTO setKey(String key, String value, Instant timestamp);
+    SetResponseDTO setKey(String key, String value, Instant timestamp, long epoch);
 
-    GetResponseDTO getKey(String key);
+    GetResponseDTO getKey(String key, long epoch, ReadBoundsDTO bounds);
+
+    /**
+     * Same as {@link #setKey}, but does not block the calling thread.
+     */
+    CompletableFuture<SetResponseDTO> setKeyAsync(String key, String value, Instant timestamp, long epoch);
+
+    /**
+     * Same as {@link #getKey}, but does not block the calling thread.
+     */
+    CompletableFuture<GetResponseDTO> getKeyAsync(String key, long epoch, ReadBoundsDTO bounds);
+
+    /**
+     * Sets all entries with one call, every entry gets its own result.
+     *
+     * @return results by key
+     */
+    Map<String, SetResponseDTO> multiSet(Map<String, String> entries, Instant timestamp, long epoch);
+
+    /**
+     * Same as {@link #multiSet}, but does not block the calling thread.
+     */
+    CompletableFuture<Map<String, SetResponseDTO>> multiSetAsync(Map<String, String> entries, Instant timestamp, long epoch);
+
+    /**
+     * Gets all keys with one call, every key gets its own result.
+     *
+     * @return results by key
+     */
+    Map<String, GetResponseDTO> multiGet(Collection<String> keys, long epoch, ReadBoundsDTO bounds);
 
     NodeStatusResponseDTO getNodeStatus();
 }
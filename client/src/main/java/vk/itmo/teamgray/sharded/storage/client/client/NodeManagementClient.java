@@ -0,0 +1,11 @@
+package vk.itmo.teamgray.sharded.storage.client.client;
+
+import vk.itmo.teamgray.sharded.storage.common.client.Client;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+
+public interface NodeManagementClient extends Client {
+    /**
+     * @param path path to the shard file on the node
+     */
+    StatusResponseDTO ingestShardFile(int shardId, String path);
+}
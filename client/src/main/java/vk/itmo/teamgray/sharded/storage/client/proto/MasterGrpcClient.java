@@ -1,11 +1,17 @@
 package vk.itmo.teamgray.sharded.storage.client.proto;
 
 import io.grpc.ManagedChannel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.proto.AbstractGrpcClient;
 import vk.itmo.teamgray.sharded.storage.master.client.AddServerRequest;
@@ -16,11 +22,21 @@ import vk.itmo.teamgray.sharded.storage.master.client.GetServerToShardResponse;
 import vk.itmo.teamgray.sharded.storage.master.client.GetServerToStateRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.GetShardToHashRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.GetShardToHashResponse;
+import vk.itmo.teamgray.sharded.storage.master.client.GetTopologyRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.MasterClientServiceGrpc;
+import vk.itmo.teamgray.sharded.storage.master.client.MergeShardsRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.SetReplicationFactorRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.SplitShardRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.TopologyUpdate;
+import vk.itmo.teamgray.sharded.storage.master.client.WatchTopologyRequest;
 
 public class MasterGrpcClient extends AbstractGrpcClient<MasterClientServiceGrpc.MasterClientServiceBlockingStub> implements MasterClient {
+    private final MasterClientServiceGrpc.MasterClientServiceStub asyncStub;
+
     public MasterGrpcClient(String host, int port) {
         super(host, port);
+
+        this.asyncStub = MasterClientServiceGrpc.newStub(blockingStub.getChannel());
     }
 
     @Override
@@ -105,4 +121,75 @@ public class MasterGrpcClient extends AbstractGrpcClient<MasterClientServiceGrpc
         var response = blockingStub.changeShardCount(request);
         return new StatusResponseDTO(response);
     }
+
+    @Override
+    public StatusResponseDTO splitShard(int shardId, long atHash) {
+        SplitShardRequest request = SplitShardRequest.newBuilder()
+            .setShardId(shardId)
+            .setAtHash(atHash)
+            .build();
+
+        return new StatusResponseDTO(blockingStub.splitShard(request));
+    }
+
+    @Override
+    public StatusResponseDTO mergeShards(int shardId, int otherShardId) {
+        MergeShardsRequest request = MergeShardsRequest.newBuilder()
+            .setShardId(shardId)
+            .setOtherShardId(otherShardId)
+            .build();
+
+        return new StatusResponseDTO(blockingStub.mergeShards(request));
+    }
+
+    @Override
+    public StatusResponseDTO setReplicationFactor(int replicationFactor) {
+        SetReplicationFactorRequest request = SetReplicationFactorRequest.newBuilder()
+            .setReplicationFactor(replicationFactor)
+            .build();
+
+        return new StatusResponseDTO(blockingStub.setReplicationFactor(request));
+    }
+
+    @Override
+    public TopologyDTO getTopology() {
+        return TopologyDTO.fromGrpc(blockingStub.getTopology(GetTopologyRequest.newBuilder().build()));
+    }
+
+    @Override
+    public CompletableFuture<Void> watchTopology(long knownEpoch, Consumer<TopologyUpdateDTO> consumer) {
+        WatchTopologyRequest request = WatchTopologyRequest.newBuilder()
+            .setKnownEpoch(knownEpoch)
+            .build();
+
+        var done = new CompletableFuture<Void>();
+
+        asyncStub.watchTopology(request, new ClientResponseObserver<WatchTopologyRequest, TopologyUpdate>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WatchTopologyRequest> requestStream) {
+                done.whenComplete((ignored, e) -> {
+                    if (done.isCancelled()) {
+                        requestStream.cancel("Stopped watching topology", null);
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(TopologyUpdate update) {
+                consumer.accept(TopologyUpdateDTO.fromGrpc(update));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                done.complete(null);
+            }
+        });
+
+        return done;
+    }
 }
@@ -2,22 +2,38 @@ package vk.itmo.teamgray.sharded.storage.client.proto;
 
 import io.grpc.ManagedChannel;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
 import vk.itmo.teamgray.sharded.storage.common.Empty;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.enums.GetStatus;
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
 import vk.itmo.teamgray.sharded.storage.common.proto.AbstractGrpcClient;
+import vk.itmo.teamgray.sharded.storage.common.proto.FutureStreamObserver;
 import vk.itmo.teamgray.sharded.storage.node.client.GetKeyRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.GetKeyResponse;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiGetRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiSetRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiSetResponse;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeClientServiceGrpc;
 import vk.itmo.teamgray.sharded.storage.node.client.SetKeyRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.SetKeyResponse;
 
 public class NodeGrpcClient extends AbstractGrpcClient<NodeClientServiceGrpc.NodeClientServiceBlockingStub> implements NodeClient {
+    private final NodeClientServiceGrpc.NodeClientServiceStub asyncStub;
+
     public NodeGrpcClient(String host, int port) {
         super(host, port);
+
+        this.asyncStub = NodeClientServiceGrpc.newStub(blockingStub.getChannel());
     }
 
     @Override
@@ -26,33 +42,98 @@ public class NodeGrpcClient extends AbstractGrpcClient<NodeClientServiceGrpc.Nod
     }
 
     @Override
-    public SetResponseDTO setKey(String key, String value, Instant timestamp) {
+    public SetResponseDTO setKey(String key, String value, Instant timestamp, long epoch) {
+        SetKeyRequest request = SetKeyRequest.newBuilder()
+            .setKey(key)
+            .setValue(value)
+            .setTimestamp(timestamp.toEpochMilli())
+            .setEpoch(epoch)
+            .build();
+
+        return fromGrpc(blockingStub.setKey(request));
+    }
+
+    @Override
+    public CompletableFuture<SetResponseDTO> setKeyAsync(String key, String value, Instant timestamp, long epoch) {
         SetKeyRequest request = SetKeyRequest.newBuilder()
             .setKey(key)
             .setValue(value)
             .setTimestamp(timestamp.toEpochMilli())
+            .setEpoch(epoch)
             .build();
 
-        var response = blockingStub.setKey(request);
+        var observer = new FutureStreamObserver<SetKeyResponse>();
+
+        asyncStub.setKey(request, observer);
 
-        return new SetResponseDTO(SetStatus.valueOf(response.getStatus()), response.getMessage(), response.getNewNodeId());
+        return observer.getFuture().thenApply(NodeGrpcClient::fromGrpc);
     }
 
     @Override
-    public GetResponseDTO getKey(String key) {
+    public Map<String, SetResponseDTO> multiSet(Map<String, String> entries, Instant timestamp, long epoch) {
+        MultiSetRequest request = MultiSetRequest.newBuilder()
+            .putAllEntries(entries)
+            .setTimestamp(timestamp.toEpochMilli())
+            .setEpoch(epoch)
+            .build();
+
+        return fromGrpc(blockingStub.multiSet(request));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, SetResponseDTO>> multiSetAsync(Map<String, String> entries, Instant timestamp, long epoch) {
+        MultiSetRequest request = MultiSetRequest.newBuilder()
+            .putAllEntries(entries)
+            .setTimestamp(timestamp.toEpochMilli())
+            .setEpoch(epoch)
+            .build();
+
+        var observer = new FutureStreamObserver<MultiSetResponse>();
+
+        asyncStub.multiSet(request, observer);
+
+        return observer.getFuture().thenApply(NodeGrpcClient::fromGrpc);
+    }
+
+    @Override
+    public GetResponseDTO getKey(String key, long epoch, ReadBoundsDTO bounds) {
         GetKeyRequest request = GetKeyRequest.newBuilder()
             .setKey(key)
+            .setEpoch(epoch)
+            .setBounds(bounds.toGrpc())
             .build();
 
-        var response = blockingStub.getKey(request);
+        return fromGrpc(blockingStub.getKey(request));
+    }
 
-        return new GetResponseDTO(
-            GetStatus.valueOf(response.getStatus()),
-            //TODO Work on better strategy to handle null values in gRPC.
-            response.getValue().isBlank()
-                ? null
-                : response.getValue()
-        );
+    @Override
+    public CompletableFuture<GetResponseDTO> getKeyAsync(String key, long epoch, ReadBoundsDTO bounds) {
+        GetKeyRequest request = GetKeyRequest.newBuilder()
+            .setKey(key)
+            .setEpoch(epoch)
+            .setBounds(bounds.toGrpc())
+            .build();
+
+        var observer = new FutureStreamObserver<GetKeyResponse>();
+
+        asyncStub.getKey(request, observer);
+
+        return observer.getFuture().thenApply(NodeGrpcClient::fromGrpc);
+    }
+
+    @Override
+    public Map<String, GetResponseDTO> multiGet(Collection<String> keys, long epoch, ReadBoundsDTO bounds) {
+        MultiGetRequest request = MultiGetRequest.newBuilder()
+            .addAllKeys(keys)
+            .setEpoch(epoch)
+            .setBounds(bounds.toGrpc())
+            .build();
+
+        Map<String, GetResponseDTO> results = new HashMap<>();
+
+        blockingStub.multiGet(request).getResultsMap().forEach((key, response) -> results.put(key, fromGrpc(response)));
+
+        return results;
     }
 
     @Override
@@ -61,4 +142,33 @@ public class NodeGrpcClient extends AbstractGrpcClient<NodeClientServiceGrpc.Nod
             blockingStub.getNodeStatus(Empty.newBuilder().build())
         );
     }
+
+    private static SetResponseDTO fromGrpc(SetKeyResponse response) {
+        return new SetResponseDTO(
+            SetStatus.valueOf(response.getStatus()),
+            response.getMessage(),
+            response.getNewNodeId(),
+            response.hasOwnerHint() ? OwnerHintDTO.fromGrpc(response.getOwnerHint()) : null,
+            response.getPosition()
+        );
+    }
+
+    private static Map<String, SetResponseDTO> fromGrpc(MultiSetResponse response) {
+        Map<String, SetResponseDTO> results = new HashMap<>();
+
+        response.getResultsMap().forEach((key, result) -> results.put(key, fromGrpc(result)));
+
+        return results;
+    }
+
+    private static GetResponseDTO fromGrpc(GetKeyResponse response) {
+        return new GetResponseDTO(
+            GetStatus.valueOf(response.getStatus()),
+            //TODO Work on better strategy to handle null values in gRPC.
+            response.getValue().isBlank()
+                ? null
+                : response.getValue(),
+            response.hasOwnerHint() ? OwnerHintDTO.fromGrpc(response.getOwnerHint()) : null
+        );
+    }
 }
@@ -0,0 +1,31 @@
+package vk.itmo.teamgray.sharded.storage.client.proto;
+
+import io.grpc.ManagedChannel;
+import java.util.function.Function;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeManagementClient;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.proto.AbstractGrpcClient;
+import vk.itmo.teamgray.sharded.storage.node.management.IngestShardFileRequest;
+import vk.itmo.teamgray.sharded.storage.node.management.NodeManagementServiceGrpc;
+
+public class NodeManagementGrpcClient extends AbstractGrpcClient<NodeManagementServiceGrpc.NodeManagementServiceBlockingStub>
+    implements NodeManagementClient {
+    public NodeManagementGrpcClient(String host, int port) {
+        super(host, port);
+    }
+
+    @Override
+    protected Function<ManagedChannel, NodeManagementServiceGrpc.NodeManagementServiceBlockingStub> getStubFactory() {
+        return NodeManagementServiceGrpc::newBlockingStub;
+    }
+
+    @Override
+    public StatusResponseDTO ingestShardFile(int shardId, String path) {
+        IngestShardFileRequest request = IngestShardFileRequest.newBuilder()
+            .setShardId(shardId)
+            .setPath(path)
+            .build();
+
+        return new StatusResponseDTO(blockingStub.ingestShardFile(request));
+    }
+}
@@ -2,36 +2,81 @@ package vk.itmo.teamgray.sharded.storage.client.service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
 import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeManagementClient;
 import vk.itmo.teamgray.sharded.storage.client.exception.ClientException;
 import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
-import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.health.dto.HeartbeatResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.shardfile.ShardFile;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 
-import static vk.itmo.teamgray.sharded.storage.common.utils.ShardUtils.getShardIdForKey;
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getIntProperty;
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getProperty;
 
 public class ClientService {
     public static final int RETRIES = 3;
 
+    // Max number of keys in one multi-get or multi-set call, keeps requests under message.max.size.
+    public static final int BATCH_SIZE = getIntProperty("client.batch.size", 1000);
+
+    private static final int IMPORT_PARALLELISM = getIntProperty("client.import.parallelism", 4);
+
+    private static final Duration IMPORT_PROGRESS_INTERVAL = Duration.ofMillis(getIntProperty("client.import.progress.interval-ms", 5000));
+
+    private static final Duration WRITE_LINGER = Duration.ofNanos(getIntProperty("client.write.linger-us", 0) * 1000L);
+
     private static final Logger log = LoggerFactory.getLogger(ClientService.class);
 
     private static final Duration CACHE_EXPIRATION = Duration.of(30, ChronoUnit.MINUTES);
 
+    private static final Duration TOPOLOGY_WATCH_RETRY_DELAY = Duration.ofMillis(getIntProperty("client.topology.watch.retry-ms", 1000));
+
+    private static final ReadConsistency DEFAULT_READ_CONSISTENCY = ReadConsistency.of(
+        getProperty("client.read.consistency", "primary"),
+        Duration.ofMillis(getIntProperty("client.read.max-staleness-ms", 1000))
+    );
+
     private final MasterClient masterClient;
 
     private final DiscoveryClient discoveryClient;
@@ -40,7 +85,28 @@ public class ClientService {
 
     private final FileReaderProvider fileReaderProvider;
 
-    private TopologyCache topologyCache;
+    // Replaced as a whole, read by async continuations on gRPC threads.
+    private volatile TopologyCache topologyCache;
+
+    // Cache refresh in progress, shared by all async requests that got to the wrong node meanwhile.
+    private final AtomicReference<CompletableFuture<Void>> cacheRefresh = new AtomicReference<>();
+
+    private volatile CompletableFuture<Void> topologyWatch;
+
+    private volatile boolean topologyWatchStopped;
+
+    private final LongAdder misroutes = new LongAdder();
+
+    private final LongAdder patchedRoutes = new LongAdder();
+
+    private final LongAdder topologyReads = new LongAdder();
+
+    // Session token: log position of the latest write of this client by shard id, replicas serve read-your-writes reads once they
+    // applied it.
+    private final Map<Integer, Long> sessionPositions = new ConcurrentHashMap<>();
+
+    // Null if writes are not coalesced.
+    private volatile WriteCoalescer writeCoalescer;
 
     public ClientService(
         MasterClient masterClient,
@@ -53,28 +119,65 @@ public class ClientService {
         this.clientCachingFactory = clientCachingFactory;
         this.fileReaderProvider = fileReaderProvider;
 
+        setWriteLinger(WRITE_LINGER);
+
         updateCaches();
     }
 
     /**
-     * Gets value by key from node
+     * Enables coalescing of concurrent writes to the same node into batches of up to {@link #BATCH_SIZE} pairs, which are sent once
+     * full or after {@code linger}. Zero linger disables coalescing.
+     */
+    public void setWriteLinger(Duration linger) {
+        var previous = writeCoalescer;
+
+        writeCoalescer = linger.isZero()
+            ? null
+            : new WriteCoalescer(
+                linger,
+                BATCH_SIZE,
+                server -> clientCachingFactory.getClient(server, NodeClient.class),
+                () -> topologyCache.getEpoch()
+            );
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Gets value by key from node, with default read consistency
      *
      * @return value by key
      */
     public String getValue(String key) {
-        NodeClient nodeClient = getNodeClient(key);
+        return getValue(key, DEFAULT_READ_CONSISTENCY);
+    }
+
+    /**
+     * Gets value by key from the owner of its shard or, if consistency allows, from one of its replicas. Replica that is not within
+     * consistency bounds answers wrong node, and the key is read from the owner.
+     *
+     * @return value by key
+     */
+    public String getValue(String key, ReadConsistency consistency) {
+        DiscoverableServiceDTO server = getReadServer(key, consistency);
 
         for (int i = 0; i < RETRIES; i++) {
-            GetResponseDTO result = nodeClient.getKey(key);
+            GetResponseDTO result = clientCachingFactory.getClient(server, NodeClient.class)
+                .getKey(key, topologyCache.getEpoch(), readBounds(List.of(key), consistency));
 
             switch (result.status()) {
                 case ERROR -> throw new ClientException(result.value());
                 case WRONG_NODE -> {
-                    log.debug("Wrong node. Refreshing caches and retrying for key: {}", key);
+                    // Replica may have no copy of the shard yet, owner is asked next without updating routing.
+                    if (server.equals(getServer(key))) {
+                        log.debug("Wrong node. Updating routing and retrying for key: {}", key);
 
-                    updateCaches();
+                        onWrongNode(key, result.ownerHint());
+                    }
 
-                    nodeClient = getNodeClient(key);
+                    server = getServer(key);
                 }
                 case SUCCESS -> {
                     return result.value();
@@ -92,16 +195,29 @@ public class ClientService {
      * @return Returns success of operation
      */
     public boolean setValue(String key, String value) {
+        // Waiting for the batch, so that concurrent callers share one call.
+        if (writeCoalescer != null) {
+            try {
+                return setValueAsync(key, value).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+
+                throw e;
+            }
+        }
+
         NodeClient nodeClient = getNodeClient(key);
 
         for (int i = 0; i < RETRIES; i++) {
             Instant timestamp = Instant.now();
 
-            SetResponseDTO result = nodeClient.setKey(key, value, timestamp);
+            SetResponseDTO result = nodeClient.setKey(key, value, timestamp, topologyCache.getEpoch());
 
             switch (result.status()) {
                 // If node is resharding or moving shards and the key is within the moved ones, node will respond with new node ID to retry sending pair to.
-                // Also node will add the pair to Rollback queue, that will be applied in case of a rollback.
+                // Node keeps the pair in its current shard as well, so that it is not lost in case of a rollback.
                 case TRANSFER -> {
                     var newServer = topologyCache.getServerById(result.newNodeId());
 
@@ -119,8 +235,16 @@ public class ClientService {
                             NodeClient.class
                         );
                 }
-                // QUEUED means that node has added a pair to the queue, that will be applied at the end of successful resharding/shard moving.
-                case QUEUED, SUCCESS -> {
+                case WRONG_NODE -> {
+                    log.debug("Wrong node. Updating routing and retrying for key: {}", key);
+
+                    onWrongNode(key, result.ownerHint());
+
+                    nodeClient = getNodeClient(key);
+                }
+                case SUCCESS -> {
+                    observePosition(key, result.position());
+
                     return true;
                 }
                 case ERROR -> {
@@ -133,6 +257,296 @@ public class ClientService {
         throw new ClientException("Retries exhausted.");
     }
 
+    /**
+     * Same as {@link #getValue}, but does not block the calling thread, retries are done in continuations of node responses.
+     *
+     * @return future of value by key
+     */
+    public CompletableFuture<String> getValueAsync(String key) {
+        return getValueAsync(key, DEFAULT_READ_CONSISTENCY);
+    }
+
+    /**
+     * Same as {@link #getValue(String, ReadConsistency)}, but does not block the calling thread.
+     *
+     * @return future of value by key
+     */
+    public CompletableFuture<String> getValueAsync(String key, ReadConsistency consistency) {
+        return getValueAsync(key, consistency, 0);
+    }
+
+    private CompletableFuture<String> getValueAsync(String key, ReadConsistency consistency, int attempt) {
+        if (attempt == RETRIES) {
+            return CompletableFuture.failedFuture(new ClientException("Wrong node. Retries exhausted."));
+        }
+
+        DiscoverableServiceDTO server;
+        ReadBoundsDTO bounds;
+
+        try {
+            server = attempt == 0 ? getReadServer(key, consistency) : getServer(key);
+            bounds = readBounds(List.of(key), consistency);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return clientCachingFactory.getClient(server, NodeClient.class).getKeyAsync(key, topologyCache.getEpoch(), bounds)
+            .thenCompose(result -> switch (result.status()) {
+                case ERROR -> CompletableFuture.failedFuture(new ClientException(result.value()));
+                case WRONG_NODE -> {
+                    // Same as for blocking get, replica is not a reason to update routing.
+                    if (!server.equals(getServer(key))) {
+                        yield getValueAsync(key, consistency, attempt + 1);
+                    }
+
+                    log.debug("Wrong node. Updating routing and retrying for key: {}", key);
+
+                    yield onWrongNodeAsync(key, result.ownerHint()).thenCompose(ignored -> getValueAsync(key, consistency, attempt + 1));
+                }
+                case SUCCESS -> CompletableFuture.completedFuture(result.value());
+                case null, default -> CompletableFuture.failedFuture(new IllegalStateException("Unexpected value: " + result.status()));
+            });
+    }
+
+    /**
+     * Same as {@link #setValue}, but does not block the calling thread, retries are done in continuations of node responses.
+     *
+     * @return future of success of operation
+     */
+    public CompletableFuture<Boolean> setValueAsync(String key, String value) {
+        try {
+            return setValueAsync(key, value, getServer(key), 0);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<Boolean> setValueAsync(String key, String value, DiscoverableServiceDTO server, int attempt) {
+        if (attempt == RETRIES) {
+            return CompletableFuture.failedFuture(new ClientException("Retries exhausted."));
+        }
+
+        return sendAsync(server, key, value)
+            .thenCompose(result -> switch (result.status()) {
+                case TRANSFER -> {
+                    log.debug("Key {} is transferred to node {}. Retrying on destination node.", key, result.newNodeId());
+
+                    yield setValueAsync(key, value, topologyCache.getServerById(result.newNodeId()), attempt + 1);
+                }
+                case WRONG_NODE -> {
+                    log.debug("Wrong node. Updating routing and retrying for key: {}", key);
+
+                    yield onWrongNodeAsync(key, result.ownerHint())
+                        .thenCompose(ignored -> setValueAsync(key, value, getServer(key), attempt + 1));
+                }
+                case SUCCESS -> {
+                    observePosition(key, result.position());
+
+                    yield CompletableFuture.completedFuture(true);
+                }
+                case ERROR -> CompletableFuture.completedFuture(false);
+                case null, default -> CompletableFuture.failedFuture(new IllegalStateException("Unexpected value: " + result.status()));
+            });
+    }
+
+    private CompletableFuture<SetResponseDTO> sendAsync(DiscoverableServiceDTO server, String key, String value) {
+        var coalescer = writeCoalescer;
+
+        if (coalescer != null) {
+            return coalescer.set(server, key, value);
+        }
+
+        try {
+            return clientCachingFactory.getClient(server, NodeClient.class)
+                .setKeyAsync(key, value, Instant.now(), topologyCache.getEpoch());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Same as {@link #getValues(Collection, ReadConsistency)}, with default read consistency.
+     *
+     * @return values by key, missing keys have null values
+     */
+    public Map<String, String> getValues(Collection<String> keys) {
+        return getValues(keys, DEFAULT_READ_CONSISTENCY);
+    }
+
+    /**
+     * Gets values by keys, keys are grouped by node and sent to all nodes in parallel with one call per {@link #BATCH_SIZE} keys.
+     * First attempt spreads keys over replicas of their shards, if consistency allows. Only keys that got to the wrong node are retried
+     * on shard owners, after updating routing.
+     *
+     * @return values by key, missing keys have null values
+     */
+    public Map<String, String> getValues(Collection<String> keys, ReadConsistency consistency) {
+        Map<String, String> values = new HashMap<>();
+
+        Set<String> pending = new LinkedHashSet<>(keys);
+
+        for (int i = 0; i < RETRIES && !pending.isEmpty(); i++) {
+            long epoch = topologyCache.getEpoch();
+
+            Map<DiscoverableServiceDTO, List<String>> batches = new HashMap<>();
+
+            Set<String> sentToReplicas = new HashSet<>();
+
+            for (String key : pending) {
+                var owner = getServer(key);
+                var server = i == 0 ? getReadServer(key, consistency) : owner;
+
+                if (!server.equals(owner)) {
+                    sentToReplicas.add(key);
+                }
+
+                batches.computeIfAbsent(server, s -> new ArrayList<>()).add(key);
+            }
+
+            Map<String, GetResponseDTO> results = fanOut(
+                batches,
+                (nodeClient, batch) -> {
+                    Map<String, GetResponseDTO> batchResults = new HashMap<>();
+
+                    for (int from = 0; from < batch.size(); from += BATCH_SIZE) {
+                        var chunk = batch.subList(from, Math.min(from + BATCH_SIZE, batch.size()));
+
+                        batchResults.putAll(nodeClient.multiGet(chunk, epoch, readBounds(chunk, consistency)));
+                    }
+
+                    return batchResults;
+                }
+            );
+
+            pending = new LinkedHashSet<>();
+
+            boolean refresh = false;
+
+            for (var entry : results.entrySet()) {
+                GetResponseDTO result = entry.getValue();
+
+                switch (result.status()) {
+                    case ERROR -> throw new ClientException(result.value());
+                    case WRONG_NODE -> {
+                        pending.add(entry.getKey());
+
+                        if (!sentToReplicas.contains(entry.getKey())) {
+                            refresh |= !applyOwnerHint(entry.getKey(), result.ownerHint());
+                        }
+                    }
+                    case SUCCESS -> values.put(entry.getKey(), result.value());
+                    case null, default -> throw new IllegalStateException("Unexpected value: " + result.status());
+                }
+            }
+
+            if (refresh) {
+                log.debug("Wrong node for {} keys. Refreshing caches and retrying.", pending.size());
+
+                updateCaches();
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            throw new ClientException("Wrong node. Retries exhausted for " + pending.size() + " keys.");
+        }
+
+        return values;
+    }
+
+    /**
+     * Puts values by keys, entries are grouped by owning node and sent to all nodes in parallel with one call per {@link #BATCH_SIZE}
+     * entries. Only entries that were transferred or got to the wrong node are retried.
+     *
+     * @return success of operation by key
+     */
+    public Map<String, Boolean> setValues(Map<String, String> entries) {
+        Map<String, Boolean> success = new HashMap<>();
+
+        Map<String, DiscoverableServiceDTO> pending = new LinkedHashMap<>();
+
+        entries.keySet().forEach(key -> pending.put(key, getServer(key)));
+
+        for (int i = 0; i < RETRIES && !pending.isEmpty(); i++) {
+            Instant timestamp = Instant.now();
+            long epoch = topologyCache.getEpoch();
+
+            Map<DiscoverableServiceDTO, Map<String, String>> batches = new HashMap<>();
+
+            pending.forEach((key, server) -> batches.computeIfAbsent(server, s -> new LinkedHashMap<>()).put(key, entries.get(key)));
+
+            Map<String, SetResponseDTO> results = fanOut(
+                batches,
+                (nodeClient, batch) -> {
+                    Map<String, SetResponseDTO> batchResults = new HashMap<>();
+                    Map<String, String> chunk = new HashMap<>();
+
+                    for (var entry : batch.entrySet()) {
+                        chunk.put(entry.getKey(), entry.getValue());
+
+                        if (chunk.size() == BATCH_SIZE) {
+                            batchResults.putAll(nodeClient.multiSet(chunk, timestamp, epoch));
+
+                            chunk = new HashMap<>();
+                        }
+                    }
+
+                    if (!chunk.isEmpty()) {
+                        batchResults.putAll(nodeClient.multiSet(chunk, timestamp, epoch));
+                    }
+
+                    return batchResults;
+                }
+            );
+
+            pending.clear();
+
+            boolean wrongNode = false;
+
+            for (var entry : results.entrySet()) {
+                String key = entry.getKey();
+                SetResponseDTO result = entry.getValue();
+
+                switch (result.status()) {
+                    // Same as for single key, pair is retried on the node it is transferred to.
+                    case TRANSFER -> {
+                        var newServer = topologyCache.getServerById(result.newNodeId());
+
+                        pending.put(key, newServer);
+
+                        // Node is not in cached topology yet.
+                        wrongNode |= newServer == null;
+                    }
+                    case WRONG_NODE -> {
+                        pending.put(key, null);
+
+                        wrongNode |= !applyOwnerHint(key, result.ownerHint());
+                    }
+                    case SUCCESS -> {
+                        observePosition(key, result.position());
+
+                        success.put(key, true);
+                    }
+                    case ERROR -> success.put(key, false);
+                    case null, default -> throw new IllegalStateException("Unexpected value: " + result.status());
+                }
+            }
+
+            if (wrongNode) {
+                log.debug("Wrong node for some of {} retried keys. Refreshing caches and retrying.", pending.size());
+
+                updateCaches();
+            }
+
+            pending.replaceAll((key, server) -> server == null ? getServer(key) : server);
+        }
+
+        if (!pending.isEmpty()) {
+            throw new ClientException("Retries exhausted for " + pending.size() + " keys.");
+        }
+
+        return success;
+    }
+
     /**
      * Puts value by key pairs from file
      *
@@ -141,29 +555,126 @@ public class ClientService {
      * @return result of set operation
      */
     public StatusResponseDTO setFromFile(String filePath) {
+        return setFromFile(filePath, progress -> {
+            // No-op.
+        });
+    }
+
+    /**
+     * Puts value by key pairs from file with a streaming import, see {@link FileImport}.
+     *
+     * @param progressListener called with import progress periodically and once import is done
+     *
+     * @return result of set operation
+     */
+    public StatusResponseDTO setFromFile(String filePath, Consumer<ImportProgress> progressListener) {
+        ImportProgress result;
+
         try (BufferedReader reader = fileReaderProvider.getReader(filePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-
-                String key = parts[0].trim();
-                String value = parts[1].trim();
-
-                try {
-                    var nodeClient = getNodeClient(key);
-
-                    //TODO Think about applying retry logic here also somehow.
-                    nodeClient.setKey(key, value, Instant.now());
-                } catch (NodeException e) {
-                    String errMessage = MessageFormat.format("Error while setting key=[{0}] value=[{1}].", key, value);
-                    log.warn(errMessage, e);
-                    return new StatusResponseDTO(false, errMessage);
-                }
-            }
+            result = new FileImport(this, IMPORT_PARALLELISM, BATCH_SIZE, IMPORT_PROGRESS_INTERVAL, progressListener).run(reader);
+        } catch (IOException | ClientException e) {
+            return new StatusResponseDTO(false, e.getMessage());
+        }
+
+        String message = MessageFormat.format(
+            "Imported {0,number,#} pairs in {1,number,#} ms ({2,number,#} pairs/s).",
+            result.imported(),
+            result.elapsed().toMillis(),
+            result.pairsPerSecond()
+        );
+
+        if (result.failed() > 0) {
+            return new StatusResponseDTO(
+                false,
+                MessageFormat.format("{0} Failed to set {1,number,#} pairs: {2}", message, result.failed(), result.errors())
+            );
+        }
+
+        return new StatusResponseDTO(true, message);
+    }
+
+    /**
+     * Builds shard files of the current shard scheme from {@code key,value} pairs file, see {@link ShardFileBuilder}. Files are then
+     * copied to the nodes owning the shards and loaded with {@link #ingestShardFiles}.
+     *
+     * @param outputDir directory to write {@link ShardFile#fileName} files to
+     */
+    public StatusResponseDTO buildShardFiles(String filePath, String outputDir) {
+        Map<Integer, Long> shardToHash = new HashMap<>();
+
+        topologyCache.getHashToShard().forEach((hash, shardId) -> shardToHash.put(shardId, hash));
+
+        long start = System.nanoTime();
+
+        ShardFileBuilder.Result result;
+
+        try (BufferedReader reader = fileReaderProvider.getReader(filePath)) {
+            result = new ShardFileBuilder(ShardBoundaries.fromShardToHash(shardToHash)).build(reader, Path.of(outputDir));
         } catch (IOException e) {
             return new StatusResponseDTO(false, e.getMessage());
         }
-        return new StatusResponseDTO(true, "Keys from file successfully set.");
+
+        String message = MessageFormat.format(
+            "Built {0} shard files with {1,number,#} pairs in {2,number,#} ms.",
+            result.entriesByShard().size(),
+            result.entries(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        );
+
+        if (result.malformed() > 0) {
+            return new StatusResponseDTO(
+                false,
+                MessageFormat.format("{0} Skipped {1,number,#} malformed lines.", message, result.malformed())
+            );
+        }
+
+        return new StatusResponseDTO(true, message);
+    }
+
+    /**
+     * Makes every node replace its shards with shard files from {@code directory}, all shards at once. Meant for initial loads, writes
+     * to a shard while it is replaced may be lost.
+     *
+     * @param directory directory with {@link ShardFile#fileName} files on the nodes' file system
+     */
+    public StatusResponseDTO ingestShardFiles(String directory) {
+        Map<Integer, Future<StatusResponseDTO>> responses = new TreeMap<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            topologyCache.getShardToServer().forEach((shardId, server) -> {
+                NodeManagementClient nodeManagementClient = clientCachingFactory.getClient(server, NodeManagementClient.class);
+
+                String path = Path.of(directory, ShardFile.fileName(shardId)).toString();
+
+                responses.put(shardId, executor.submit(() -> nodeManagementClient.ingestShardFile(shardId, path)));
+            });
+        }
+
+        List<String> errors = new ArrayList<>();
+
+        for (var response : responses.entrySet()) {
+            StatusResponseDTO result;
+
+            try {
+                result = response.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new ClientException("Interrupted.");
+            } catch (ExecutionException e) {
+                result = new StatusResponseDTO(false, String.valueOf(e.getCause().getMessage()));
+            }
+
+            if (!result.isSuccess()) {
+                errors.add("shard " + response.getKey() + ": " + result.getMessage());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            return new StatusResponseDTO(false, "Failed to ingest " + errors.size() + " of " + responses.size() + " shards: " + errors);
+        }
+
+        return new StatusResponseDTO(true, "Ingested " + responses.size() + " shards.");
     }
 
     /**
@@ -201,6 +712,41 @@ public class ClientService {
         return result;
     }
 
+    /**
+     * Splits shard in two on its node, other shards keep serving without a pause.
+     *
+     * @param atHash shard keeps hashes up to this one, hashes above it go to a new shard
+     * @return result of the operation
+     */
+    public StatusResponseDTO splitShard(int shardId, long atHash) {
+        StatusResponseDTO result = masterClient.splitShard(shardId, atHash);
+        updateCaches();
+        return result;
+    }
+
+    /**
+     * Merges two adjacent shards, only nodes owning them take part.
+     *
+     * @param shardId merged shard keeps id and node of this shard
+     * @return result of the operation
+     */
+    public StatusResponseDTO mergeShards(int shardId, int otherShardId) {
+        StatusResponseDTO result = masterClient.mergeShards(shardId, otherShardId);
+        updateCaches();
+        return result;
+    }
+
+    /**
+     * Sets number of copies of every shard, owner included. Reads are spread over all copies, replicas get writes asynchronously.
+     *
+     * @return result of the operation
+     */
+    public StatusResponseDTO setReplicationFactor(int replicationFactor) {
+        StatusResponseDTO result = masterClient.setReplicationFactor(replicationFactor);
+        updateCaches();
+        return result;
+    }
+
     public String getMasterHost() {
         return masterClient.getHost();
     }
@@ -209,12 +755,67 @@ public class ClientService {
         return masterClient.getPort();
     }
 
+    /**
+     * Calls every node with its batch on a separate virtual thread and waits for all of them.
+     *
+     * @return merged results of all nodes
+     */
+    private <B, R> Map<String, R> fanOut(
+        Map<DiscoverableServiceDTO, B> batches,
+        BiFunction<NodeClient, B, Map<String, R>> call
+    ) {
+        Map<String, R> results = new HashMap<>();
+
+        // No need to switch threads for the common single node case.
+        if (batches.size() == 1) {
+            var batch = batches.entrySet().iterator().next();
+
+            results.putAll(call.apply(clientCachingFactory.getClient(batch.getKey(), NodeClient.class), batch.getValue()));
+
+            return results;
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Map<String, R>>> futures = new ArrayList<>();
+
+            batches.forEach((server, batch) -> {
+                NodeClient nodeClient = clientCachingFactory.getClient(server, NodeClient.class);
+
+                futures.add(executor.submit(() -> call.apply(nodeClient, batch)));
+            });
+
+            for (Future<Map<String, R>> future : futures) {
+                results.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new ClientException("Interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw new ClientException(String.valueOf(e.getCause().getMessage()));
+        }
+
+        return results;
+    }
+
     private NodeClient getNodeClient(String key) {
+        return clientCachingFactory
+            .getClient(
+                getServer(key),
+                NodeClient.class
+            );
+    }
+
+    DiscoverableServiceDTO getServer(String key) {
         if (topologyCache == null || topologyCache.getLastUpdate().isBefore(Instant.now().minus(CACHE_EXPIRATION))) {
             updateCaches();
         }
 
-        var shardId = getShardIdForKey(key, topologyCache.getShardCount());
+        var shardId = topologyCache.getShardIdForKey(key);
 
         var server = topologyCache.getServerByShardId(shardId);
 
@@ -234,21 +835,251 @@ public class ClientService {
 
         log.debug("Found shard {} for key '{}' in server {} ", shardId, key, server.id());
 
-        return clientCachingFactory
-            .getClient(
-                server,
-                NodeClient.class
-            );
+        return server;
+    }
+
+    /**
+     * Server to read the key from: shard owner or, unless consistency requires the owner, one of its replicas, picked at random to
+     * spread reads of hot shards over all copies.
+     */
+    DiscoverableServiceDTO getReadServer(String key, ReadConsistency consistency) {
+        var owner = getServer(key);
+
+        if (consistency.level() == ReadConsistency.Level.PRIMARY) {
+            return owner;
+        }
+
+        var readServers = topologyCache.getReadServers(topologyCache.getShardIdForKey(key));
+
+        if (readServers.size() <= 1) {
+            return owner;
+        }
+
+        return readServers.get(ThreadLocalRandom.current().nextInt(readServers.size()));
+    }
+
+    // Owners ignore bounds, they only limit replicas.
+    private ReadBoundsDTO readBounds(Collection<String> keys, ReadConsistency consistency) {
+        return switch (consistency.level()) {
+            case PRIMARY -> ReadBoundsDTO.NONE;
+            case BOUNDED_STALENESS -> new ReadBoundsDTO(consistency.maxStaleness().toMillis(), Map.of());
+            case READ_YOUR_WRITES -> {
+                Map<Integer, Long> minPositions = new HashMap<>();
+
+                for (String key : keys) {
+                    int shardId = topologyCache.getShardIdForKey(key);
+
+                    var position = sessionPositions.get(shardId);
+
+                    if (position != null) {
+                        minPositions.put(shardId, position);
+                    }
+                }
+
+                yield new ReadBoundsDTO(0, minPositions);
+            }
+        };
     }
 
+    private void observePosition(String key, long position) {
+        if (position > 0) {
+            sessionPositions.merge(topologyCache.getShardIdForKey(key), position, Math::max);
+        }
+    }
+
+    /**
+     * @return log positions of the latest writes of this client by shard id, replicas need to apply them to serve read-your-writes reads
+     */
+    public Map<Integer, Long> getSessionToken() {
+        return Map.copyOf(sessionPositions);
+    }
+
+    /**
+     * Refreshes caches on a separate virtual thread, concurrent callers get the refresh that is already in progress.
+     */
+    private CompletableFuture<Void> updateCachesAsync() {
+        var refresh = new CompletableFuture<Void>();
+
+        var inProgress = cacheRefresh.compareAndExchange(null, refresh);
+
+        if (inProgress != null) {
+            return inProgress;
+        }
+
+        Thread.ofVirtual().name("topology-refresh").start(() -> {
+            try {
+                updateCaches();
+
+                cacheRefresh.set(null);
+
+                refresh.complete(null);
+            } catch (Throwable e) {
+                cacheRefresh.set(null);
+
+                refresh.completeExceptionally(e);
+            }
+        });
+
+        return refresh;
+    }
+
+    /**
+     * Reads the whole topology from master in one call. Always installed, even if older than the cached one, as master is the source of
+     * truth, e.g. after its restart.
+     */
     public void updateCaches() {
-        var shardToServerId = masterClient.getShardToServerMap();
+        topologyReads.increment();
 
-        topologyCache = new TopologyCache(
-            shardToServerId,
-            discoveryClient.getNodeMapWithRetries(new HashSet<>(shardToServerId.values())),
-            masterClient.getHashToShardMap()
-        );
+        var topology = withMissingServers(masterClient.getTopology());
+
+        synchronized (this) {
+            topologyCache = new TopologyCache(topology);
+        }
+
+        log.debug("Installed topology of epoch {}", topology.epoch());
+    }
+
+    /**
+     * Subscribes to topology changes pushed by master, so that routing is updated before requests get to the wrong node. Resubscribes
+     * with the cached epoch if the stream breaks.
+     */
+    public void watchTopology() {
+        if (topologyWatchStopped) {
+            return;
+        }
+
+        var watch = masterClient.watchTopology(topologyCache.getEpoch(), this::onTopologyUpdate);
+
+        topologyWatch = watch;
+
+        watch.whenComplete((ignored, e) -> {
+            if (watch.isCancelled() || topologyWatchStopped) {
+                return;
+            }
+
+            log.warn("Topology watch ended, resubscribing in {} ms", TOPOLOGY_WATCH_RETRY_DELAY.toMillis(), e);
+
+            CompletableFuture.delayedExecutor(TOPOLOGY_WATCH_RETRY_DELAY.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(this::watchTopology);
+        });
+    }
+
+    public void stopWatchingTopology() {
+        topologyWatchStopped = true;
+
+        var watch = topologyWatch;
+
+        if (watch != null) {
+            watch.cancel(false);
+        }
+    }
+
+    void onTopologyUpdate(TopologyUpdateDTO update) {
+        TopologyDTO topology;
+
+        synchronized (this) {
+            var current = topologyCache.getTopology();
+
+            if (!update.isFull() && update.fromEpoch() != current.epoch()) {
+                topology = null;
+            } else {
+                topology = update.applyTo(current);
+
+                if (missingServers(topology).isEmpty()) {
+                    topologyCache = new TopologyCache(topology);
+
+                    log.debug("Applied topology update from epoch {} to {}", update.fromEpoch(), update.epoch());
+
+                    return;
+                }
+            }
+        }
+
+        // Gap in updates or unknown server address, both are resolved by a full read.
+        log.debug("Could not apply topology update from epoch {} to {}, refreshing caches", update.fromEpoch(), update.epoch());
+
+        updateCachesAsync();
+    }
+
+    /**
+     * Routes the key to its owner from a newer topology, so that only the next request goes to the right node, without reading the whole
+     * topology. The rest of the cache stays at its epoch.
+     *
+     * @return whether the key is routed with a topology at least as new as the hint, false if caches need to be refreshed
+     */
+    private boolean applyOwnerHint(String key, OwnerHintDTO hint) {
+        misroutes.increment();
+
+        if (hint == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            var cache = topologyCache;
+
+            if (hint.epoch() <= cache.getEpoch()) {
+                return true;
+            }
+
+            // Shard ids of another scheme can not be patched in, whole topology is needed.
+            if (hint.shardCount() != cache.getShardCount() || hint.shardId() != cache.getShardIdForKey(key)) {
+                return false;
+            }
+
+            topologyCache = cache.withShardOwner(hint.shardId(), hint.server());
+        }
+
+        patchedRoutes.increment();
+
+        log.debug("Routed shard {} to node {} from topology of epoch {}", hint.shardId(), hint.server().id(), hint.epoch());
+
+        return true;
+    }
+
+    private void onWrongNode(String key, OwnerHintDTO hint) {
+        if (!applyOwnerHint(key, hint)) {
+            updateCaches();
+        }
+    }
+
+    private CompletableFuture<Void> onWrongNodeAsync(String key, OwnerHintDTO hint) {
+        return applyOwnerHint(key, hint) ? CompletableFuture.completedFuture(null) : updateCachesAsync();
+    }
+
+    /**
+     * Routing counters since start, to see how often requests get to the wrong node and what it costs.
+     */
+    public RoutingStats getRoutingStats() {
+        return new RoutingStats(misroutes.sum(), patchedRoutes.sum(), topologyReads.sum());
+    }
+
+    // Master only knows addresses of servers it has seen during a topology change.
+    private TopologyDTO withMissingServers(TopologyDTO topology) {
+        var missing = missingServers(topology);
+
+        if (missing.isEmpty()) {
+            return topology;
+        }
+
+        var servers = new HashMap<>(topology.servers());
+
+        discoveryClient.getNodeMapWithRetries(missing).forEach((serverId, server) -> {
+            if (missing.contains(serverId)) {
+                servers.put(serverId, server);
+            }
+        });
+
+        return topology.withShardToServer(topology.shardToServer(), servers);
+    }
+
+    private static Set<Integer> missingServers(TopologyDTO topology) {
+        var missing = new HashSet<>(topology.shardToServer().values());
+
+        topology.shardToReplicas().values().forEach(missing::addAll);
+
+        missing.removeAll(topology.servers().keySet());
+
+        return missing;
     }
 
     public HeartbeatResponseDTO sendMasterHeartbeat() {
@@ -264,6 +1095,13 @@ public class ClientService {
         return topologyCache.getShardToServer();
     }
 
+    /**
+     * @return servers keeping replicas of a shard by shard id, owner excluded
+     */
+    public Map<Integer, List<Integer>> getShardReplicasMapping() {
+        return topologyCache.getTopology().shardToReplicas();
+    }
+
     /**
      * Get cached hash-to-shard mapping as a Map
      *
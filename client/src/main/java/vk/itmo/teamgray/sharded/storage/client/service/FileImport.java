@@ -0,0 +1,305 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.client.exception.ClientException;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+
+/**
+ * Streaming import of {@code key,value} lines. The reading thread hands blocks of lines to parsing workers, which group pairs by
+ * owning node into bounded per-node queues, and one sender per node sends them in batches with {@link ClientService#setValues}.
+ * Full queues block parsing and reading, so memory use does not depend on file size.
+ * <p>
+ * Pairs of the same key in different blocks may be applied in any order. Pairs the node failed to set are retried with backoff.
+ */
+class FileImport {
+    private static final Logger log = LoggerFactory.getLogger(FileImport.class);
+
+    private static final int NODE_QUEUE_CAPACITY = 4;
+
+    private static final int MAX_ERRORS = 10;
+
+    private static final Duration RETRY_BACKOFF = Duration.ofMillis(100);
+
+    // End of input markers, compared by identity.
+    private static final List<String> END_OF_BLOCKS = new ArrayList<>();
+
+    private static final Map<String, String> END_OF_BATCHES = new HashMap<>();
+
+    private final ClientService clientService;
+
+    private final int parallelism;
+
+    private final int batchSize;
+
+    private final Duration progressInterval;
+
+    private final Consumer<ImportProgress> progressListener;
+
+    private final AtomicLong read = new AtomicLong();
+
+    private final AtomicLong imported = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    private final Map<DiscoverableServiceDTO, BlockingQueue<Map<String, String>>> nodeQueues = new ConcurrentHashMap<>();
+
+    private final List<Future<?>> senders = Collections.synchronizedList(new ArrayList<>());
+
+    private ExecutorService executor;
+
+    private long start;
+
+    FileImport(
+        ClientService clientService,
+        int parallelism,
+        int batchSize,
+        Duration progressInterval,
+        Consumer<ImportProgress> progressListener
+    ) {
+        this.clientService = clientService;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.progressInterval = progressInterval;
+        this.progressListener = progressListener;
+    }
+
+    ImportProgress run(BufferedReader reader) throws IOException {
+        start = System.nanoTime();
+
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+            runnable -> Thread.ofPlatform().name("import-progress").daemon().unstarted(runnable)
+        );
+
+        reporter.scheduleAtFixedRate(this::report, progressInterval.toMillis(), progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        try {
+            BlockingQueue<List<String>> blocks = new ArrayBlockingQueue<>(parallelism * 2);
+
+            List<Future<?>> parsers = new ArrayList<>();
+
+            for (int i = 0; i < parallelism; i++) {
+                parsers.add(executor.submit(() -> parse(blocks)));
+            }
+
+            readBlocks(reader, blocks);
+
+            for (int i = 0; i < parallelism; i++) {
+                blocks.put(END_OF_BLOCKS);
+            }
+
+            for (Future<?> parser : parsers) {
+                parser.get();
+            }
+
+            // Parsers are done, no new queues or batches.
+            for (BlockingQueue<Map<String, String>> queue : nodeQueues.values()) {
+                queue.put(END_OF_BATCHES);
+            }
+
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new ClientException("Import interrupted.");
+        } catch (ExecutionException e) {
+            throw new ClientException("Import failed: " + e.getCause().getMessage());
+        } finally {
+            // Stops workers blocked on queues if reading failed.
+            executor.shutdownNow();
+            reporter.shutdownNow();
+        }
+
+        return report();
+    }
+
+    private void readBlocks(BufferedReader reader, BlockingQueue<List<String>> blocks) throws IOException, InterruptedException {
+        List<String> block = new ArrayList<>(batchSize);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            block.add(line);
+
+            if (block.size() == batchSize) {
+                blocks.put(block);
+
+                block = new ArrayList<>(batchSize);
+            }
+        }
+
+        if (!block.isEmpty()) {
+            blocks.put(block);
+        }
+    }
+
+    private Void parse(BlockingQueue<List<String>> blocks) throws InterruptedException {
+        List<String> block;
+
+        while ((block = blocks.take()) != END_OF_BLOCKS) {
+            Map<DiscoverableServiceDTO, Map<String, String>> batches = new HashMap<>();
+
+            for (String line : block) {
+                read.incrementAndGet();
+
+                int keyEnd = line.indexOf(',');
+
+                if (keyEnd < 0) {
+                    fail(1, "Malformed line: " + line);
+
+                    continue;
+                }
+
+                int valueEnd = line.indexOf(',', keyEnd + 1);
+
+                String key = line.substring(0, keyEnd).trim();
+                String value = line.substring(keyEnd + 1, valueEnd < 0 ? line.length() : valueEnd).trim();
+
+                try {
+                    batches.computeIfAbsent(clientService.getServer(key), server -> new LinkedHashMap<>()).put(key, value);
+                } catch (RuntimeException e) {
+                    fail(1, "Could not find node for key " + key + ": " + e.getMessage());
+                }
+            }
+
+            for (var batch : batches.entrySet()) {
+                getQueue(batch.getKey()).put(batch.getValue());
+            }
+        }
+
+        return null;
+    }
+
+    private BlockingQueue<Map<String, String>> getQueue(DiscoverableServiceDTO server) {
+        return nodeQueues.computeIfAbsent(server, s -> {
+            BlockingQueue<Map<String, String>> queue = new ArrayBlockingQueue<>(NODE_QUEUE_CAPACITY);
+
+            senders.add(executor.submit(() -> send(queue)));
+
+            return queue;
+        });
+    }
+
+    private Void send(BlockingQueue<Map<String, String>> queue) throws InterruptedException {
+        while (true) {
+            Map<String, String> first = queue.take();
+
+            if (first == END_OF_BATCHES) {
+                return null;
+            }
+
+            Map<String, String> batch = new HashMap<>(first);
+
+            // Parsers split blocks between nodes, so small batches queued meanwhile are merged.
+            Map<String, String> next;
+            while (batch.size() < batchSize && (next = queue.peek()) != null && next != END_OF_BATCHES) {
+                batch.putAll(queue.remove());
+            }
+
+            importBatch(batch);
+        }
+    }
+
+    private void importBatch(Map<String, String> batch) throws InterruptedException {
+        Map<String, String> pending = batch;
+
+        for (int attempt = 1; ; attempt++) {
+            String error;
+
+            try {
+                Map<String, String> failedEntries = new HashMap<>();
+
+                for (var result : clientService.setValues(pending).entrySet()) {
+                    if (result.getValue()) {
+                        imported.incrementAndGet();
+                    } else {
+                        failedEntries.put(result.getKey(), pending.get(result.getKey()));
+                    }
+                }
+
+                if (failedEntries.isEmpty()) {
+                    return;
+                }
+
+                pending = failedEntries;
+
+                error = "Node returned error";
+            } catch (RuntimeException e) {
+                error = e.getMessage();
+            }
+
+            if (attempt == ClientService.RETRIES) {
+                String example = pending.keySet().iterator().next();
+
+                fail(pending.size(), "Could not set " + pending.size() + " keys, e.g. " + example + ": " + error);
+
+                return;
+            }
+
+            log.debug("Retrying {} keys after error: {}", pending.size(), error);
+
+            Thread.sleep(RETRY_BACKOFF.toMillis() * attempt);
+        }
+    }
+
+    private void fail(int count, String error) {
+        failed.addAndGet(count);
+
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+    }
+
+    private ImportProgress report() {
+        var progress = new ImportProgress(
+            read.get(),
+            imported.get(),
+            failed.get(),
+            Duration.ofNanos(System.nanoTime() - start),
+            List.copyOf(errors)
+        );
+
+        log.info(
+            "Imported {} of {} read pairs, {} failed, {} pairs/s",
+            progress.imported(),
+            progress.read(),
+            progress.failed(),
+            progress.pairsPerSecond()
+        );
+
+        progressListener.accept(progress);
+
+        return progress;
+    }
+}
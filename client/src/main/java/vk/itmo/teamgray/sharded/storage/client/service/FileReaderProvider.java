@@ -5,5 +5,8 @@ import java.io.IOException;
 
 @FunctionalInterface
 public interface FileReaderProvider {
+    // Large reads keep import parsing from waiting on the disk.
+    int BUFFER_SIZE = 1 << 20;
+
     BufferedReader getReader(String fileName) throws IOException;
 }
@@ -0,0 +1,22 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Snapshot of a file import.
+ *
+ * @param read   pairs read from the file so far, including malformed lines
+ * @param errors first errors of failed pairs
+ */
+public record ImportProgress(
+    long read,
+    long imported,
+    long failed,
+    Duration elapsed,
+    List<String> errors
+) {
+    public long pairsPerSecond() {
+        return elapsed.isZero() ? 0 : imported * 1000 / Math.max(1, elapsed.toMillis());
+    }
+}
@@ -0,0 +1,49 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.time.Duration;
+
+/**
+ * Where a read may be served from. Owner of a shard always has the latest value, replicas may be behind it.
+ *
+ * @param maxStaleness max time since a replica last caught up with the owner, only for {@link Level#BOUNDED_STALENESS}
+ */
+public record ReadConsistency(Level level, Duration maxStaleness) {
+    public enum Level {
+        // Owner only.
+        PRIMARY,
+        // Owner or replicas caught up with it within max staleness.
+        BOUNDED_STALENESS,
+        // Owner or replicas that applied all writes of this client to the shard.
+        READ_YOUR_WRITES
+    }
+
+    public ReadConsistency {
+        if (level == Level.BOUNDED_STALENESS && (maxStaleness == null || !maxStaleness.isPositive())) {
+            throw new IllegalArgumentException("Max staleness should be positive, got " + maxStaleness);
+        }
+    }
+
+    public static ReadConsistency primary() {
+        return new ReadConsistency(Level.PRIMARY, null);
+    }
+
+    public static ReadConsistency boundedStaleness(Duration maxStaleness) {
+        return new ReadConsistency(Level.BOUNDED_STALENESS, maxStaleness);
+    }
+
+    public static ReadConsistency readYourWrites() {
+        return new ReadConsistency(Level.READ_YOUR_WRITES, null);
+    }
+
+    /**
+     * @param name {@code primary}, {@code bounded} or {@code session}
+     */
+    public static ReadConsistency of(String name, Duration maxStaleness) {
+        return switch (name) {
+            case "primary" -> primary();
+            case "bounded" -> boundedStaleness(maxStaleness);
+            case "session" -> readYourWrites();
+            default -> throw new IllegalArgumentException("Unknown read consistency: " + name);
+        };
+    }
+}
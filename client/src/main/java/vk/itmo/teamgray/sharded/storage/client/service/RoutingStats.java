@@ -0,0 +1,12 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+/**
+ * @param misroutes keys that got to the wrong node
+ * @param patchedRoutes misroutes fixed by the owner answered by node, without reading topology from master
+ * @param topologyReads full topology reads from master
+ */
+public record RoutingStats(long misroutes, long patchedRoutes, long topologyReads) {
+    public RoutingStats minus(RoutingStats other) {
+        return new RoutingStats(misroutes - other.misroutes, patchedRoutes - other.patchedRoutes, topologyReads - other.topologyReads);
+    }
+}
@@ -0,0 +1,182 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.shardfile.ShardFile;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+
+/**
+ * Offline build of {@link ShardFile}s from {@code key,value} lines. Pairs are first partitioned into a spill file per shard, then every
+ * shard is sorted in memory and written out, so memory use is bounded by the largest shard instead of the whole dataset.
+ * <p>
+ * The last pair of the same key wins. A file is written for every shard of the scheme, empty ones included.
+ */
+class ShardFileBuilder {
+    private static final Logger log = LoggerFactory.getLogger(ShardFileBuilder.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ShardBoundaries boundaries;
+
+    ShardFileBuilder(ShardBoundaries boundaries) {
+        this.boundaries = boundaries;
+    }
+
+    Result build(BufferedReader dataset, Path outputDir) throws IOException {
+        if (boundaries.isEmpty()) {
+            throw new IOException("No shards to build files for.");
+        }
+
+        Files.createDirectories(outputDir);
+
+        long malformed = partition(dataset, outputDir);
+
+        Map<Integer, Integer> entriesByShard = new LinkedHashMap<>();
+
+        for (int position = 0; position < boundaries.getShardCount(); position++) {
+            int shardId = boundaries.shardIdAt(position);
+
+            entriesByShard.put(shardId, writeShard(outputDir, shardId));
+        }
+
+        return new Result(entriesByShard, malformed);
+    }
+
+    /**
+     * @return number of malformed lines
+     */
+    private long partition(BufferedReader dataset, Path outputDir) throws IOException {
+        Map<Integer, DataOutputStream> spills = new HashMap<>();
+
+        long malformed = 0;
+
+        try {
+            String line;
+
+            while ((line = dataset.readLine()) != null) {
+                int keyEnd = line.indexOf(',');
+
+                if (keyEnd < 0) {
+                    malformed++;
+
+                    continue;
+                }
+
+                int valueEnd = line.indexOf(',', keyEnd + 1);
+
+                String key = line.substring(0, keyEnd).trim();
+                String value = line.substring(keyEnd + 1, valueEnd < 0 ? line.length() : valueEnd).trim();
+
+                long hash = HashingUtils.calculate64BitHash(key);
+                int shardId = boundaries.shardIdForHash(hash);
+
+                DataOutputStream spill = spills.get(shardId);
+
+                if (spill == null) {
+                    spill = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(spillPath(outputDir, shardId)), BUFFER_SIZE)
+                    );
+
+                    spills.put(shardId, spill);
+                }
+
+                spill.writeLong(hash);
+                writeString(spill, key);
+                writeString(spill, value);
+            }
+        } finally {
+            for (DataOutputStream spill : spills.values()) {
+                spill.close();
+            }
+        }
+
+        return malformed;
+    }
+
+    private int writeShard(Path outputDir, int shardId) throws IOException {
+        Path spillPath = spillPath(outputDir, shardId);
+
+        TreeMap<HashedKey, String> entries = new TreeMap<>();
+
+        if (Files.exists(spillPath)) {
+            try (var spill = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillPath), BUFFER_SIZE))) {
+                while (true) {
+                    long hash;
+
+                    try {
+                        hash = spill.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    String key = readString(spill);
+
+                    entries.put(new HashedKey(hash, key), readString(spill));
+                }
+            }
+        }
+
+        try (var writer = new ShardFile.Writer(outputDir.resolve(ShardFile.fileName(shardId)), shardId)) {
+            for (var entry : entries.entrySet()) {
+                writer.append(entry.getKey().hash(), entry.getKey().key(), entry.getValue());
+            }
+        }
+
+        Files.deleteIfExists(spillPath);
+
+        log.info("Written {} entries of shard {}", entries.size(), shardId);
+
+        return entries.size();
+    }
+
+    private static Path spillPath(Path outputDir, int shardId) {
+        return outputDir.resolve(ShardFile.fileName(shardId) + ".spill");
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param entriesByShard number of entries written by shard id
+     * @param malformed number of skipped lines
+     */
+    record Result(Map<Integer, Integer> entriesByShard, long malformed) {
+        long entries() {
+            return entriesByShard.values().stream().mapToLong(Integer::longValue).sum();
+        }
+    }
+
+    private record HashedKey(long hash, String key) implements Comparable<HashedKey> {
+        @Override
+        public int compareTo(HashedKey other) {
+            return ShardFile.compare(hash, key, other.hash, other.key);
+        }
+    }
+}
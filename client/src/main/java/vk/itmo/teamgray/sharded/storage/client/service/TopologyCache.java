@@ -1,11 +1,17 @@
 package vk.itmo.teamgray.sharded.storage.client.service;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 
 public class TopologyCache {
+    private final TopologyDTO topology;
+
     private final int serverCount;
 
     private final int shardCount;
@@ -16,24 +22,70 @@ public class TopologyCache {
 
     private final Map<Integer, DiscoverableServiceDTO> serverById;
 
+    private final Map<Integer, List<DiscoverableServiceDTO>> shardToReadServers;
+
+    private final ShardBoundaries shardBoundaries;
+
     private final Instant lastUpdate;
 
-    public TopologyCache(
-        Map<Integer, Integer> shardToServerId,
-        Map<Integer, DiscoverableServiceDTO> serverById,
-        Map<Long, Integer> hashToShard
-    ) {
+    public TopologyCache(TopologyDTO topology) {
+        this.topology = topology;
         this.shardToServer = new HashMap<>();
+        this.hashToShard = new HashMap<>();
+
+        topology.shardToServer().forEach((shardId, serverId) -> shardToServer.put(shardId, topology.servers().get(serverId)));
+        topology.shardToHash().forEach((shardId, hash) -> hashToShard.put(hash, shardId));
+
+        this.serverById = topology.servers();
+        this.shardToReadServers = new HashMap<>();
+
+        topology.shardToReplicas().forEach((shardId, replicas) -> {
+            var owner = shardToServer.get(shardId);
 
-        shardToServerId.forEach((shardId, serverId) -> shardToServer.put(shardId, serverById.get(serverId)));
+            if (owner == null) {
+                return;
+            }
+
+            List<DiscoverableServiceDTO> readServers = new ArrayList<>();
+
+            readServers.add(owner);
+
+            // Replicas with unknown addresses are skipped, owner is always there.
+            replicas.stream()
+                .map(serverById::get)
+                .filter(server -> server != null && !server.equals(owner))
+                .forEach(readServers::add);
+
+            shardToReadServers.put(shardId, List.copyOf(readServers));
+        });
 
-        this.hashToShard = hashToShard;
-        this.serverById = serverById;
         this.serverCount = serverById.size();
         this.shardCount = hashToShard.size();
+        this.shardBoundaries = ShardBoundaries.fromShardToHash(topology.shardToHash());
         this.lastUpdate = Instant.now();
     }
 
+    public TopologyDTO getTopology() {
+        return topology;
+    }
+
+    public long getEpoch() {
+        return topology.epoch();
+    }
+
+    /**
+     * Same topology with the shard moved to the server, epoch is kept as other shards are still routed with it.
+     */
+    public TopologyCache withShardOwner(int shardId, DiscoverableServiceDTO server) {
+        Map<Integer, Integer> newShardToServer = new HashMap<>(topology.shardToServer());
+        Map<Integer, DiscoverableServiceDTO> newServers = new HashMap<>(topology.servers());
+
+        newShardToServer.put(shardId, server.id());
+        newServers.put(server.id(), server);
+
+        return new TopologyCache(topology.withShardToServer(newShardToServer, newServers));
+    }
+
     public DiscoverableServiceDTO getServerById(Integer id) {
         if (id == null) {
             return null;
@@ -50,6 +102,17 @@ public class TopologyCache {
         return shardToServer.get(shardId);
     }
 
+    /**
+     * @return owner of the shard followed by its replicas, empty if shard has no replicas
+     */
+    public List<DiscoverableServiceDTO> getReadServers(int shardId) {
+        return shardToReadServers.getOrDefault(shardId, List.of());
+    }
+
+    public int getShardIdForKey(String key) {
+        return shardBoundaries.shardIdForKey(key);
+    }
+
     public Map<Integer, DiscoverableServiceDTO> getShardToServer() {
         return shardToServer;
     }
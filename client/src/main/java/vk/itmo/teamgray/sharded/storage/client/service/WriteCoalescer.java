@@ -0,0 +1,152 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
+
+/**
+ * Collects concurrent writes to the same node into batches, which are sent with one multi-set call once they are full or the linger
+ * time has passed since their first write. Writes of the same key in one batch are sent once with the last value, all of their
+ * futures get the same result.
+ */
+class WriteCoalescer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private final Duration linger;
+
+    private final int maxBatchSize;
+
+    private final Function<DiscoverableServiceDTO, NodeClient> clientProvider;
+
+    private final LongSupplier epochProvider;
+
+    private final Map<DiscoverableServiceDTO, Batch> batches = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        runnable -> Thread.ofPlatform().name("write-coalescer").daemon().unstarted(runnable)
+    );
+
+    /**
+     * @param epochProvider epoch of the topology batches are routed with, read when a batch is sent
+     */
+    WriteCoalescer(
+        Duration linger,
+        int maxBatchSize,
+        Function<DiscoverableServiceDTO, NodeClient> clientProvider,
+        LongSupplier epochProvider
+    ) {
+        this.linger = linger;
+        this.maxBatchSize = maxBatchSize;
+        this.clientProvider = clientProvider;
+        this.epochProvider = epochProvider;
+    }
+
+    Duration getLinger() {
+        return linger;
+    }
+
+    CompletableFuture<SetResponseDTO> set(DiscoverableServiceDTO server, String key, String value) {
+        var future = new CompletableFuture<SetResponseDTO>();
+
+        var full = new Batch[1];
+
+        batches.compute(server, (s, batch) -> {
+            if (batch == null) {
+                var created = new Batch();
+
+                scheduler.schedule(() -> flushIfCurrent(s, created), linger.toNanos(), TimeUnit.NANOSECONDS);
+
+                batch = created;
+            }
+
+            batch.add(key, value, future);
+
+            if (batch.entries.size() >= maxBatchSize) {
+                full[0] = batch;
+
+                return null;
+            }
+
+            return batch;
+        });
+
+        if (full[0] != null) {
+            send(server, full[0]);
+        }
+
+        return future;
+    }
+
+    private void flushIfCurrent(DiscoverableServiceDTO server, Batch batch) {
+        // Batch could have been sent already when it got full.
+        if (batches.remove(server, batch)) {
+            send(server, batch);
+        }
+    }
+
+    private void send(DiscoverableServiceDTO server, Batch batch) {
+        log.debug("Sending {} coalesced writes to node {}", batch.entries.size(), server.id());
+
+        CompletableFuture<Map<String, SetResponseDTO>> call;
+
+        try {
+            call = clientProvider.apply(server).multiSetAsync(batch.entries, Instant.now(), epochProvider.getAsLong());
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+
+        call.whenComplete((results, error) -> batch.waiters.forEach((key, futures) -> {
+            for (CompletableFuture<SetResponseDTO> future : futures) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else if (results.get(key) == null) {
+                    future.completeExceptionally(new IllegalStateException("No result for key: " + key));
+                } else {
+                    future.complete(results.get(key));
+                }
+            }
+        }));
+    }
+
+    /**
+     * Sends all pending batches right away.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        batches.forEach((server, batch) -> {
+            if (batches.remove(server, batch)) {
+                send(server, batch);
+            }
+        });
+    }
+
+    // Only modified inside compute of its server.
+    private static class Batch {
+        private final Map<String, String> entries = new LinkedHashMap<>();
+
+        private final Map<String, List<CompletableFuture<SetResponseDTO>>> waiters = new LinkedHashMap<>();
+
+        private void add(String key, String value, CompletableFuture<SetResponseDTO> future) {
+            entries.put(key, value);
+
+            waiters.computeIfAbsent(key, k -> new ArrayList<>()).add(future);
+        }
+    }
+}
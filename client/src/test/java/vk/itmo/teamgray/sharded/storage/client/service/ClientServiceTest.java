@@ -1,36 +1,63 @@
 package vk.itmo.teamgray.sharded.storage.client.service;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.stubbing.Answer;
 import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
 import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeManagementClient;
 import vk.itmo.teamgray.sharded.storage.client.exception.ClientException;
 import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.enums.GetStatus;
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
+import vk.itmo.teamgray.sharded.storage.common.shardfile.ShardFile;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -45,6 +72,8 @@ class ClientServiceTest {
 
     private MasterClient masterClient = mock();
 
+    private NodeManagementClient nodeManagementClient = mock();
+
     private Map<String, String> fakeFileMap = new HashMap<>();
 
     @BeforeEach
@@ -53,10 +82,8 @@ class ClientServiceTest {
         ClientCachingFactory clientCachingFactory = mock();
 
         //2 Shards on 2 Servers
-        when(masterClient.getHashToShardMap())
-            .thenReturn(Map.of(0L, 1, Long.MAX_VALUE, 2));
-        when(masterClient.getShardToServerMap())
-            .thenReturn(Map.of(0, 1, 1, 2));
+        when(masterClient.getTopology())
+            .thenReturn(topology(1, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 1, 1, 2)));
         when(discoveryClient.getNodeMapWithRetries(any()))
             .thenReturn(Map.of(
                 1, new DiscoverableServiceDTO(1, DiscoverableServiceType.NODE, "test1", "test1"),
@@ -67,6 +94,8 @@ class ClientServiceTest {
             .thenReturn(nodeClient1);
         when(clientCachingFactory.getClient(argThat(server -> server != null && server.id() == 2), eq(NodeClient.class)))
             .thenReturn(nodeClient2);
+        when(clientCachingFactory.getClient(any(DiscoverableServiceDTO.class), eq(NodeManagementClient.class)))
+            .thenReturn(nodeManagementClient);
 
         clientService = new ClientService(
             masterClient,
@@ -78,9 +107,9 @@ class ClientServiceTest {
 
     @Test
     void testGetValueRetries() {
-        when(nodeClient1.getKey(any()))
+        when(nodeClient1.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null));
-        when(nodeClient2.getKey(any()))
+        when(nodeClient2.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null));
 
         assertThrows(ClientException.class, () -> clientService.getValue(UUID.randomUUID().toString()));
@@ -98,9 +127,9 @@ class ClientServiceTest {
 
     @Test
     void testSetValueRetries() {
-        when(nodeClient1.setKey(any(), any(), any()))
+        when(nodeClient1.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.TRANSFER, null, 2));
-        when(nodeClient2.setKey(any(), any(), any()))
+        when(nodeClient2.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.TRANSFER, null, 1));
 
         assertThrows(ClientException.class, () -> clientService.setValue(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
@@ -118,9 +147,9 @@ class ClientServiceTest {
 
     @Test
     void testGetFail() {
-        when(nodeClient1.getKey(any()))
+        when(nodeClient1.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.ERROR, null));
-        when(nodeClient2.getKey(any()))
+        when(nodeClient2.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.ERROR, null));
 
         assertThrows(ClientException.class, () -> clientService.getValue(UUID.randomUUID().toString()));
@@ -128,9 +157,9 @@ class ClientServiceTest {
 
     @Test
     void testSetFail() {
-        when(nodeClient1.setKey(any(), any(), any()))
+        when(nodeClient1.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.ERROR, null, 0));
-        when(nodeClient2.setKey(any(), any(), any()))
+        when(nodeClient2.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.ERROR, null, 0));
 
         assertFalse(clientService.setValue(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
@@ -141,33 +170,292 @@ class ClientServiceTest {
         clientService.updateCaches();
 
         //Flip shard map, but old one is already cached
-        when(masterClient.getShardToServerMap())
-            .thenReturn(Map.of(0, 2, 1, 1));
+        when(masterClient.getTopology())
+            .thenReturn(topology(2, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 2, 1, 1)));
 
         String testValue = "test_value";
 
-        when(nodeClient1.getKey(any()))
+        when(nodeClient1.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null))
             .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, testValue));
-        when(nodeClient2.getKey(any()))
+        when(nodeClient2.getKey(any(), anyLong(), any()))
             .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null))
             .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, testValue));
 
         assertEquals(testValue, clientService.getValue(UUID.randomUUID().toString()));
     }
 
+    @Test
+    void testWrongNodeOwnerHintPatchesRouting() {
+        // Shard 0 is on server 1 in the cached topology.
+        String key = IntStream.range(0, 100)
+            .mapToObj(i -> "key" + i)
+            .filter(k -> ShardBoundaries.even(2).shardIdForKey(k) == 0)
+            .findFirst()
+            .orElseThrow();
+
+        var server2 = new DiscoverableServiceDTO(2, DiscoverableServiceType.NODE, "test2", "test2");
+
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null, new OwnerHintDTO(2, 0, 2, server2)));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        assertEquals("value", clientService.getValue(key));
+        assertEquals("value", clientService.getValue(key));
+
+        verify(nodeClient1, times(1)).getKey(eq(key), eq(1L), any());
+        verify(nodeClient2, times(2)).getKey(eq(key), eq(1L), any());
+
+        // Only the initial read, epoch stays the same until the next read.
+        verify(masterClient, times(1)).getTopology();
+        assertEquals(new RoutingStats(1, 1, 1), clientService.getRoutingStats());
+    }
+
+    @Test
+    void testWrongNodeStaleOwnerHintRefreshesCaches() {
+        var server2 = new DiscoverableServiceDTO(2, DiscoverableServiceType.NODE, "test2", "test2");
+
+        // Hint of another shard scheme can not be applied.
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null, new OwnerHintDTO(2, 0, 4, server2)))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null, new OwnerHintDTO(2, 0, 4, server2)))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        assertEquals("value", clientService.getValue(UUID.randomUUID().toString()));
+
+        verify(masterClient, times(2)).getTopology();
+        assertEquals(new RoutingStats(1, 0, 2), clientService.getRoutingStats());
+    }
+
+    @Test
+    void testGetValueReadsOwnerByDefault() {
+        when(masterClient.getTopology()).thenReturn(replicatedTopology());
+
+        clientService.updateCaches();
+
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        String key = keyOfShard(0);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value", clientService.getValue(key));
+        }
+
+        verify(nodeClient1, times(20)).getKey(eq(key), eq(1L), eq(ReadBoundsDTO.NONE));
+        verify(nodeClient2, never()).getKey(any(), anyLong(), any());
+    }
+
+    @Test
+    void testBoundedReadsSpreadOverReplicas() {
+        when(masterClient.getTopology()).thenReturn(replicatedTopology());
+
+        clientService.updateCaches();
+
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value", clientService.getValue("key", ReadConsistency.boundedStaleness(Duration.ofSeconds(1))));
+        }
+
+        verify(nodeClient1, atLeastOnce()).getKey(eq("key"), eq(1L), any());
+        verify(nodeClient2, atLeastOnce()).getKey(eq("key"), eq(1L), any());
+    }
+
+    @Test
+    void testWrongNodeFromReplicaRetriesOwner() {
+        when(masterClient.getTopology()).thenReturn(replicatedTopology());
+
+        clientService.updateCaches();
+
+        // Replicas have no copies yet.
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.WRONG_NODE, null));
+
+        String key = keyOfShard(0);
+
+        when(nodeClient1.getKey(eq(key), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value", clientService.getValue(key, ReadConsistency.boundedStaleness(Duration.ofSeconds(1))));
+        }
+
+        // Routing is not touched, only the initial reads.
+        verify(masterClient, times(2)).getTopology();
+        assertEquals(new RoutingStats(0, 0, 2), clientService.getRoutingStats());
+    }
+
+    @Test
+    void testPrimaryReadsGoToOwner() {
+        when(masterClient.getTopology()).thenReturn(replicatedTopology());
+
+        clientService.updateCaches();
+
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        String key = keyOfShard(0);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value", clientService.getValue(key, ReadConsistency.primary()));
+        }
+
+        verify(nodeClient1, times(20)).getKey(eq(key), eq(1L), eq(ReadBoundsDTO.NONE));
+        verify(nodeClient2, never()).getKey(any(), anyLong(), any());
+    }
+
+    @Test
+    void testReadYourWritesSendsSessionPosition() {
+        when(masterClient.getTopology()).thenReturn(replicatedTopology());
+
+        clientService.updateCaches();
+
+        String key = keyOfShard(0);
+
+        when(nodeClient1.setKey(eq(key), any(), any(), anyLong()))
+            .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0, null, 42));
+        when(nodeClient1.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+        when(nodeClient2.getKey(any(), anyLong(), any()))
+            .thenReturn(new GetResponseDTO(GetStatus.SUCCESS, "value"));
+
+        assertTrue(clientService.setValue(key, "value"));
+        assertEquals(Map.of(0, 42L), clientService.getSessionToken());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value", clientService.getValue(key, ReadConsistency.readYourWrites()));
+        }
+
+        var session = new ReadBoundsDTO(0, Map.of(0, 42L));
+
+        // Both owner and replica are asked, none of them may answer older than the write.
+        verify(nodeClient1, atLeastOnce()).getKey(eq(key), eq(1L), eq(session));
+        verify(nodeClient2, atLeastOnce()).getKey(eq(key), eq(1L), eq(session));
+    }
+
     @Test
     void testSetValueEventuallySuccessful() {
-        when(nodeClient1.setKey(any(), any(), any()))
+        when(nodeClient1.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.TRANSFER, null, 2))
             .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0));
-        when(nodeClient2.setKey(any(), any(), any()))
+        when(nodeClient2.setKey(any(), any(), any(), anyLong()))
             .thenReturn(new SetResponseDTO(SetStatus.TRANSFER, null, 1))
             .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0));
 
         assertTrue(clientService.setValue(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
     }
 
+    @Test
+    void testGetValueAsyncEventuallySuccessful() throws Exception {
+        clientService.updateCaches();
+
+        //Flip shard map, but old one is already cached
+        when(masterClient.getTopology())
+            .thenReturn(topology(2, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 2, 1, 1)));
+
+        String testValue = "test_value";
+
+        when(nodeClient1.getKeyAsync(any(), anyLong(), any()))
+            .thenReturn(CompletableFuture.completedFuture(new GetResponseDTO(GetStatus.WRONG_NODE, null)))
+            .thenReturn(CompletableFuture.completedFuture(new GetResponseDTO(GetStatus.SUCCESS, testValue)));
+        when(nodeClient2.getKeyAsync(any(), anyLong(), any()))
+            .thenReturn(CompletableFuture.completedFuture(new GetResponseDTO(GetStatus.WRONG_NODE, null)))
+            .thenReturn(CompletableFuture.completedFuture(new GetResponseDTO(GetStatus.SUCCESS, testValue)));
+
+        assertEquals(testValue, clientService.getValueAsync(UUID.randomUUID().toString()).get(10, TimeUnit.SECONDS));
+
+        verify(nodeClient1, never()).getKey(any(), anyLong(), any());
+        verify(nodeClient2, never()).getKey(any(), anyLong(), any());
+    }
+
+    @Test
+    void testSetValueAsyncRetries() {
+        when(nodeClient1.setKeyAsync(any(), any(), any(), anyLong()))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.TRANSFER, null, 2)));
+        when(nodeClient2.setKeyAsync(any(), any(), any(), anyLong()))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.TRANSFER, null, 1)));
+
+        var future = clientService.setValueAsync(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+        var exception = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+
+        assertInstanceOf(ClientException.class, exception.getCause());
+
+        assertEquals(
+            RETRIES,
+            (int)Stream.concat(
+                    mockingDetails(nodeClient1).getInvocations().stream(),
+                    mockingDetails(nodeClient2).getInvocations().stream()
+                )
+                .filter(i -> i.getMethod().getName().equals("setKeyAsync"))
+                .count()
+        );
+    }
+
+    @Test
+    void testSetValueAsyncEventuallySuccessful() throws Exception {
+        when(nodeClient1.setKeyAsync(any(), any(), any(), anyLong()))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.TRANSFER, null, 2)))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0)));
+        when(nodeClient2.setKeyAsync(any(), any(), any(), anyLong()))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.WRONG_NODE, null, 0)))
+            .thenReturn(CompletableFuture.completedFuture(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0)));
+
+        assertTrue(clientService.setValueAsync(UUID.randomUUID().toString(), UUID.randomUUID().toString()).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSetValueAsyncCoalescesWrites() {
+        clientService.setWriteLinger(Duration.ofSeconds(1));
+
+        when(nodeClient1.multiSetAsync(any(), any(), anyLong()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS)));
+        when(nodeClient2.multiSetAsync(any(), any(), anyLong()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS)));
+
+        List<CompletableFuture<Boolean>> futures = IntStream.range(0, 20)
+            .mapToObj(i -> clientService.setValueAsync("key" + i, "value" + i))
+            .toList();
+
+        futures.forEach(future -> assertTrue(future.join()));
+
+        // One batch per node after linger.
+        verify(nodeClient1, times(1)).multiSetAsync(any(), any(), anyLong());
+        verify(nodeClient2, times(1)).multiSetAsync(any(), any(), anyLong());
+        verify(nodeClient1, never()).setKeyAsync(any(), any(), any(), anyLong());
+        verify(nodeClient2, never()).setKeyAsync(any(), any(), any(), anyLong());
+    }
+
+    @Test
+    void testSetValueCoalescedRetriesTransferredKeys() {
+        clientService.setWriteLinger(Duration.ofMillis(1));
+
+        when(nodeClient1.multiSetAsync(any(), any(), anyLong()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(
+                allWithStatus(invocation.getArgument(0), new SetResponseDTO(SetStatus.TRANSFER, "Transfer", 2))
+            ));
+        when(nodeClient2.multiSetAsync(any(), any(), anyLong()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS)));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(clientService.setValue("key" + i, "value" + i));
+        }
+
+        verify(nodeClient1, never()).setKey(any(), any(), any(), anyLong());
+        verify(nodeClient2, never()).setKey(any(), any(), any(), anyLong());
+    }
+
     @Test
     void testSetFromFile() {
         var entryCount = 10;
@@ -181,17 +469,209 @@ class ClientServiceTest {
                 .collect(Collectors.joining(System.lineSeparator()))
         );
 
-        clientService.setFromFile(fileName);
+        when(nodeClient1.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+        when(nodeClient2.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+
+        assertTrue(clientService.setFromFile(fileName).isSuccess());
 
+        // All pairs are sent in batches, none one by one.
         assertEquals(
             entryCount,
-            (int)Stream.concat(
+            Stream.concat(
                     mockingDetails(nodeClient1).getInvocations().stream(),
                     mockingDetails(nodeClient2).getInvocations().stream()
                 )
-                .filter(i -> i.getMethod().getName().equals("setKey"))
-                .count()
+                .filter(i -> i.getMethod().getName().equals("multiSet"))
+                .mapToInt(i -> i.<Map<String, String>>getArgument(0).size())
+                .sum()
         );
+
+        verify(nodeClient1, never()).setKey(any(), any(), any(), anyLong());
+        verify(nodeClient2, never()).setKey(any(), any(), any(), anyLong());
+    }
+
+    @Test
+    void testSetValuesRetriesOnlyTransferredKeys() {
+        Map<String, String> entries = IntStream.range(0, 20)
+            .boxed()
+            .collect(Collectors.toMap(i -> "key" + i, i -> "value" + i));
+
+        Set<String> transferred = ConcurrentHashMap.newKeySet();
+
+        // Node 1 transfers all its keys to node 2, node 2 accepts everything.
+        when(nodeClient1.multiSet(any(), any(), anyLong())).thenAnswer(invocation -> {
+            Map<String, String> batch = invocation.getArgument(0);
+
+            transferred.addAll(batch.keySet());
+
+            return allWithStatus(batch, new SetResponseDTO(SetStatus.TRANSFER, "Transfer", 2));
+        });
+        when(nodeClient2.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+
+        Map<String, Boolean> results = clientService.setValues(entries);
+
+        assertEquals(entries.keySet(), results.keySet());
+        assertTrue(results.values().stream().allMatch(success -> success));
+
+        assertFalse(transferred.isEmpty());
+
+        verify(nodeClient1, times(1)).multiSet(any(), any(), anyLong());
+        // First batch with own keys, second one with transferred keys only.
+        verify(nodeClient2, times(2)).multiSet(any(), any(), anyLong());
+        verify(nodeClient2).multiSet(eq(entries.entrySet().stream()
+            .filter(entry -> transferred.contains(entry.getKey()))
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))), any(), anyLong());
+    }
+
+    @Test
+    void testGetValuesRetriesOnlyWrongNodeKeys() {
+        clientService.updateCaches();
+
+        //Flip shard map, but old one is already cached
+        when(masterClient.getTopology())
+            .thenReturn(topology(2, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 2, 1, 1)));
+
+        List<String> keys = IntStream.range(0, 20)
+            .mapToObj(i -> "key" + i)
+            .toList();
+
+        Set<String> requested = ConcurrentHashMap.newKeySet();
+
+        // Every key is on the wrong node first time it is requested.
+        Answer<Map<String, GetResponseDTO>> answer = invocation -> {
+            Map<String, GetResponseDTO> results = new HashMap<>();
+
+            for (String key : invocation.<Collection<String>>getArgument(0)) {
+                results.put(
+                    key,
+                    requested.add(key)
+                        ? new GetResponseDTO(GetStatus.WRONG_NODE, null)
+                        : new GetResponseDTO(GetStatus.SUCCESS, "value-" + key)
+                );
+            }
+
+            return results;
+        };
+
+        when(nodeClient1.multiGet(any(), anyLong(), any())).thenAnswer(answer);
+        when(nodeClient2.multiGet(any(), anyLong(), any())).thenAnswer(answer);
+
+        Map<String, String> values = clientService.getValues(keys);
+
+        assertEquals(keys.size(), values.size());
+        keys.forEach(key -> assertEquals("value-" + key, values.get(key)));
+
+        // Every key requested exactly twice in total.
+        assertEquals(
+            keys.size() * 2,
+            Stream.concat(
+                    mockingDetails(nodeClient1).getInvocations().stream(),
+                    mockingDetails(nodeClient2).getInvocations().stream()
+                )
+                .filter(i -> i.getMethod().getName().equals("multiGet"))
+                .mapToInt(i -> i.<Collection<String>>getArgument(0).size())
+                .sum()
+        );
+    }
+
+    @Test
+    void testSetValueOnWrongNode() {
+        when(nodeClient1.setKey(any(), any(), any(), anyLong()))
+            .thenReturn(new SetResponseDTO(SetStatus.WRONG_NODE, null, 0))
+            .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0));
+        when(nodeClient2.setKey(any(), any(), any(), anyLong()))
+            .thenReturn(new SetResponseDTO(SetStatus.WRONG_NODE, null, 0))
+            .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "Success", 0));
+
+        assertTrue(clientService.setValue(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
+
+        // Cache updated twice, once on init, second time on wrong node
+        verify(masterClient, times(2)).getTopology();
+    }
+
+    @Test
+    void testSetFromFileRetriesFailedPairs() {
+        String fileName = "filename.txt";
+
+        fakeFileMap.put(
+            fileName,
+            IntStream.range(0, 10)
+                .mapToObj(i -> "testKey" + i + ", testValue" + i)
+                .collect(Collectors.joining(System.lineSeparator()))
+        );
+
+        when(nodeClient1.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.ERROR))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+        when(nodeClient2.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.ERROR))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+
+        List<ImportProgress> progress = new ArrayList<>();
+
+        var result = clientService.setFromFile(fileName, progress::add);
+
+        assertTrue(result.isSuccess(), result.getMessage());
+
+        // Last report is the final one.
+        assertEquals(10, progress.getLast().imported());
+        assertEquals(0, progress.getLast().failed());
+    }
+
+    @Test
+    void testSetFromFileReportsMalformedLines() {
+        String fileName = "filename.txt";
+
+        fakeFileMap.put(fileName, String.join(System.lineSeparator(), "testKey1,testValue1", "malformed", "", "testKey2,testValue2"));
+
+        when(nodeClient1.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+        when(nodeClient2.multiSet(any(), any(), anyLong()))
+            .thenAnswer(invocation -> allWithStatus(invocation.getArgument(0), SetStatus.SUCCESS));
+
+        var result = clientService.setFromFile(fileName);
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getMessage().contains("Imported 2 pairs"), result.getMessage());
+        assertTrue(result.getMessage().contains("Malformed line: malformed"), result.getMessage());
+    }
+
+    @Test
+    void testBuildShardFilesKeepsLastPairOfKey(@TempDir Path dir) throws IOException {
+        String fileName = "filename.txt";
+
+        fakeFileMap.put(fileName, String.join(System.lineSeparator(), "key1,value1", "key2,value2", "key1,value3"));
+
+        var result = clientService.buildShardFiles(fileName, dir.toString());
+
+        assertTrue(result.isSuccess(), result.getMessage());
+
+        Map<String, String> entries = new HashMap<>();
+
+        // Shards of the master scheme.
+        for (int shardId : List.of(0, 1)) {
+            ShardFile.read(dir.resolve(ShardFile.fileName(shardId)), shardId, (hash, key, value) -> entries.put(key, value));
+        }
+
+        assertEquals(Map.of("key1", "value3", "key2", "value2"), entries);
+    }
+
+    @Test
+    void testIngestShardFilesCallsOwnerOfEveryShard() {
+        when(nodeManagementClient.ingestShardFile(anyInt(), any()))
+            .thenReturn(new StatusResponseDTO(true, ""))
+            .thenReturn(new StatusResponseDTO(false, "No file"));
+
+        var result = clientService.ingestShardFiles("/data");
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getMessage().contains("No file"), result.getMessage());
+
+        verify(nodeManagementClient).ingestShardFile(0, Path.of("/data", ShardFile.fileName(0)).toString());
+        verify(nodeManagementClient).ingestShardFile(1, Path.of("/data", ShardFile.fileName(1)).toString());
     }
 
     @Test
@@ -201,8 +681,7 @@ class ClientServiceTest {
         verify(masterClient, times(1)).addServer(eq(1), eq(false));
 
         // Cache updated twice, once on init, second time on add
-        verify(masterClient, times(2)).getShardToServerMap();
-        verify(masterClient, times(2)).getHashToShardMap();
+        verify(masterClient, times(2)).getTopology();
     }
 
     @Test
@@ -212,8 +691,7 @@ class ClientServiceTest {
         verify(masterClient, times(1)).deleteServer(eq(1));
 
         // Cache updated twice, once on init, second time on delete
-        verify(masterClient, times(2)).getShardToServerMap();
-        verify(masterClient, times(2)).getHashToShardMap();
+        verify(masterClient, times(2)).getTopology();
     }
 
     @Test
@@ -222,14 +700,12 @@ class ClientServiceTest {
         verify(masterClient, times(1)).changeShardCount(eq(1));
 
         // Cache updated twice, once on init, second time on chg
-        verify(masterClient, times(2)).getShardToServerMap();
-        verify(masterClient, times(2)).getHashToShardMap();
+        verify(masterClient, times(2)).getTopology();
     }
 
     @Test
     void testCaches() {
-        when(masterClient.getShardToServerMap()).thenReturn(Map.of(0, 1, 1, 2));
-        when(masterClient.getHashToShardMap()).thenReturn(Map.of(0L, 0, Long.MAX_VALUE, 1));
+        when(masterClient.getTopology()).thenReturn(topology(2, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 1, 1, 2)));
 
         clientService.updateCaches();
 
@@ -239,8 +715,8 @@ class ClientServiceTest {
 
     @Test
     void testEmptyTopology() {
-        when(masterClient.getHashToShardMap())
-            .thenReturn(Map.of());
+        when(masterClient.getTopology())
+            .thenReturn(topology(2, Map.of(), Map.of(0, 1, 1, 2)));
 
         clientService.updateCaches();
 
@@ -250,12 +726,90 @@ class ClientServiceTest {
 
     @Test
     void testEmptyTopology2() {
-        when(masterClient.getShardToServerMap())
-            .thenReturn(Map.of());
+        when(masterClient.getTopology())
+            .thenReturn(topology(2, ShardBoundaries.even(2).toShardToHash(), Map.of()));
 
         clientService.updateCaches();
 
         assertThrows(IllegalStateException.class, () -> clientService.setValue("key", "value"));
         assertThrows(IllegalStateException.class, () -> clientService.getValue("key"));
     }
+
+    @Test
+    void testTopologyUpdateAppliedWithoutMasterCalls() {
+        var initial = clientService.getShardServerMapping();
+
+        // Shards swap servers, addresses are already known.
+        clientService.onTopologyUpdate(new TopologyUpdateDTO(1, 2, false, Map.of(), Map.of(0, 2, 1, 1), Set.of(), Map.of(), Set.of()));
+
+        assertEquals(initial.get(0), clientService.getShardServerMapping().get(1));
+        assertEquals(initial.get(1), clientService.getShardServerMapping().get(0));
+
+        // Only the initial read.
+        verify(masterClient, times(1)).getTopology();
+    }
+
+    @Test
+    void testTopologyUpdateGapRefreshesCaches() {
+        when(masterClient.getTopology())
+            .thenReturn(topology(3, ShardBoundaries.even(2).toShardToHash(), Map.of(0, 2, 1, 1)));
+
+        // Update from epoch 2 was missed.
+        clientService.onTopologyUpdate(new TopologyUpdateDTO(2, 3, false, Map.of(), Map.of(0, 2, 1, 1), Set.of(), Map.of(), Set.of()));
+
+        verify(masterClient, timeout(1000).times(2)).getTopology();
+    }
+
+    @Test
+    void testWatchTopologyResubscribesFromCachedEpoch() {
+        var firstWatch = new CompletableFuture<Void>();
+
+        when(masterClient.watchTopology(anyLong(), any()))
+            .thenReturn(firstWatch)
+            .thenReturn(new CompletableFuture<>());
+
+        clientService.watchTopology();
+
+        clientService.onTopologyUpdate(new TopologyUpdateDTO(1, 2, false, Map.of(), Map.of(0, 2, 1, 1), Set.of(), Map.of(), Set.of()));
+
+        firstWatch.completeExceptionally(new IllegalStateException("Stream broken"));
+
+        verify(masterClient).watchTopology(eq(1L), any());
+        verify(masterClient, timeout(5000)).watchTopology(eq(2L), any());
+
+        clientService.stopWatchingTopology();
+    }
+
+    private static TopologyDTO topology(long epoch, Map<Integer, Long> shardToHash, Map<Integer, Integer> shardToServer) {
+        // No server addresses, they are taken from discovery.
+        return new TopologyDTO(epoch, shardToHash, shardToServer, Map.of());
+    }
+
+    // Shards are replicated to each other's server.
+    private static TopologyDTO replicatedTopology() {
+        return new TopologyDTO(
+            1,
+            ShardBoundaries.even(2).toShardToHash(),
+            Map.of(0, 1, 1, 2),
+            Map.of(),
+            Map.of(0, List.of(2), 1, List.of(1))
+        );
+    }
+
+    private static String keyOfShard(int shardId) {
+        return IntStream.range(0, 100)
+            .mapToObj(i -> "key" + i)
+            .filter(k -> ShardBoundaries.even(2).shardIdForKey(k) == shardId)
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private static Map<String, SetResponseDTO> allWithStatus(Map<String, String> batch, SetStatus status) {
+        return allWithStatus(batch, new SetResponseDTO(status, status.name()));
+    }
+
+    private static Map<String, SetResponseDTO> allWithStatus(Map<String, String> batch, SetResponseDTO response) {
+        return batch.keySet().stream()
+            .collect(Collectors.toMap(key -> key, key -> response));
+    }
 }
@@ -0,0 +1,67 @@
+package vk.itmo.teamgray.sharded.storage.client.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WriteCoalescerTest {
+    private final DiscoverableServiceDTO server = new DiscoverableServiceDTO(1, DiscoverableServiceType.NODE, "test1", "test1");
+
+    private final NodeClient nodeClient = mock();
+
+    @Test
+    void fullBatchIsSentWithoutLinger() {
+        when(nodeClient.multiSetAsync(any(), any(), anyLong())).thenAnswer(invocation -> CompletableFuture.completedFuture(
+            invocation.<Map<String, String>>getArgument(0).keySet().stream()
+                .collect(Collectors.toMap(key -> key, key -> new SetResponseDTO(SetStatus.SUCCESS, "OK")))
+        ));
+
+        try (var coalescer = new WriteCoalescer(Duration.ofHours(1), 5, s -> nodeClient, () -> 1L)) {
+            List<CompletableFuture<SetResponseDTO>> futures = IntStream.range(0, 10)
+                .mapToObj(i -> coalescer.set(server, "key" + i, "value" + i))
+                .toList();
+
+            futures.forEach(future -> assertEquals(SetStatus.SUCCESS, future.join().status()));
+        }
+
+        verify(nodeClient, times(2)).multiSetAsync(argThat(batch -> batch.size() == 5), any(), anyLong());
+    }
+
+    @Test
+    void failedCallFailsAllWritesOfBatch() {
+        var error = new IllegalStateException("Node is down");
+
+        when(nodeClient.multiSetAsync(any(), any(), anyLong())).thenReturn(CompletableFuture.failedFuture(error));
+
+        try (var coalescer = new WriteCoalescer(Duration.ofMillis(1), 100, s -> nodeClient, () -> 1L)) {
+            var first = coalescer.set(server, "key1", "value1");
+            var second = coalescer.set(server, "key1", "value2");
+
+            assertSame(error, assertThrows(CompletionException.class, first::join).getCause());
+            assertSame(error, assertThrows(CompletionException.class, second::join).getCause());
+        }
+
+        verify(nodeClient, times(1)).multiSetAsync(argThat(batch -> batch.equals(Map.of("key1", "value2"))), any(), anyLong());
+    }
+}
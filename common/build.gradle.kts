@@ -4,6 +4,7 @@ plugins {
     id("java")
     id("java-library")
     alias(libs.plugins.google.protobuf)
+    alias(libs.plugins.champeau.jmh)
 }
 
 group = "vk.itmo.teamgray.sharded.storage"
@@ -24,6 +25,10 @@ dependencies {
     api(libs.protobuf.java)
 
     compileOnly(libs.javax.annotation.api)
+
+    testImplementation(libs.junit.jupiter.api)
+    testImplementation(libs.junit.platform.launcher)
+    testRuntimeOnly(libs.junit.jupiter.engine)
 }
 
 sourceSets {
@@ -83,6 +88,12 @@ tasks.test {
     useJUnitPlatform()
 }
 
+jmh {
+    warmupIterations = 3
+    iterations = 5
+    fork = 1
+}
+
 private fun getDependencyAsString(provider: Provider<MinimalExternalModuleDependency>): String {
     val dependency = provider.get()
 
@@ -0,0 +1,72 @@
+package vk.itmo.teamgray.sharded.storage.common.utils;
+
+import com.google.common.hash.Hashing;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares {@link HashingUtils} with Guava murmur3 it replaced. Setup fails if any hash differs.
+ * <p>
+ * Run with {@code ./gradlew :common:jmh}, add {@code -prof gc} to JMH args to see allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HashingBenchmark {
+    private static final int KEY_COUNT = 1 << 10;
+
+    @Param({"8", "16", "37", "128", "1024"})
+    private int keyLength;
+
+    private String[] keys;
+
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        var random = new SplittableRandom(42);
+
+        keys = new String[KEY_COUNT];
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            var key = new StringBuilder(keyLength);
+
+            for (int j = 0; j < keyLength; j++) {
+                // Mostly ASCII, with some chars outside of Latin-1 to cover the high byte.
+                key.append((char)(random.nextInt(8) == 0 ? random.nextInt(Character.MAX_VALUE) : 'a' + random.nextInt(26)));
+            }
+
+            keys[i] = key.toString();
+
+            if (guava(keys[i]) != HashingUtils.calculate64BitHash(keys[i])) {
+                throw new IllegalStateException("Hash mismatch for key " + keys[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public long guava() {
+        return guava(nextKey());
+    }
+
+    @Benchmark
+    public long hashingUtils() {
+        return HashingUtils.calculate64BitHash(nextKey());
+    }
+
+    private String nextKey() {
+        return keys[cursor++ & (KEY_COUNT - 1)];
+    }
+
+    private static long guava(String key) {
+        return Hashing.murmur3_128().hashUnencodedChars(key).asLong();
+    }
+}
@@ -0,0 +1,112 @@
+package vk.itmo.teamgray.sharded.storage.common.utils;
+
+import java.math.BigInteger;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares shard lookup by hash: legacy linear scan against {@link ShardBoundaries} arithmetic and binary search modes.
+ * <p>
+ * Run with {@code ./gradlew :common:jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ShardLookupBenchmark {
+    private static final int HASH_COUNT = 1 << 12;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    private int shardCount;
+
+    private long[] hashes;
+
+    private int cursor;
+
+    private ShardBoundaries evenBoundaries;
+
+    private ShardBoundaries searchBoundaries;
+
+    @Setup
+    public void setUp() {
+        var random = new SplittableRandom(42);
+
+        hashes = new long[HASH_COUNT];
+
+        for (int i = 0; i < HASH_COUNT; i++) {
+            hashes[i] = random.nextLong();
+        }
+
+        evenBoundaries = ShardBoundaries.even(shardCount);
+
+        // Same scheme, but built from a map as master would send it, forcing binary search.
+        searchBoundaries = ShardBoundaries.fromShardToHash(evenBoundaries.toShardToHash());
+
+        for (long hash : hashes) {
+            int expected = legacyShardIdForHash(hash, shardCount);
+
+            if (evenBoundaries.shardIdForHash(hash) != expected || searchBoundaries.shardIdForHash(hash) != expected) {
+                throw new IllegalStateException("Lookup mismatch for hash " + hash);
+            }
+        }
+    }
+
+    @Benchmark
+    public int legacyLoop() {
+        return legacyShardIdForHash(nextHash(), shardCount);
+    }
+
+    @Benchmark
+    public int arithmetic() {
+        return evenBoundaries.shardIdForHash(nextHash());
+    }
+
+    @Benchmark
+    public int binarySearch() {
+        return searchBoundaries.shardIdForHash(nextHash());
+    }
+
+    private long nextHash() {
+        return hashes[cursor++ & (HASH_COUNT - 1)];
+    }
+
+    // Copy of the previous ShardUtils.getShardIdForHash implementation, without logging.
+    private static int legacyShardIdForHash(long hash, int shardCount) {
+        if (shardCount == 1) {
+            return 0;
+        }
+
+        BigInteger range = BigInteger
+            .valueOf(Long.MAX_VALUE)
+            .subtract(BigInteger.valueOf(Long.MIN_VALUE));
+
+        long stepSize = range
+            .divide(BigInteger.valueOf(shardCount))
+            .longValue();
+
+        long previousBoundary = Long.MIN_VALUE;
+
+        for (int i = 1; i <= shardCount; i++) {
+            long hashBoundary = previousBoundary + stepSize;
+
+            if (i == shardCount) {
+                hashBoundary = Long.MAX_VALUE;
+            }
+
+            if (hashBoundary >= hash && previousBoundary < hash) {
+                return i - 1;
+            }
+
+            previousBoundary = hashBoundary;
+        }
+
+        return shardCount - 1;
+    }
+}
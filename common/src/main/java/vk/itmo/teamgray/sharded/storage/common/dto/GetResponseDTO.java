@@ -2,9 +2,15 @@ package vk.itmo.teamgray.sharded.storage.common.dto;
 
 import vk.itmo.teamgray.sharded.storage.common.enums.GetStatus;
 
+/**
+ * @param ownerHint owner of the key if the request got to the wrong node with outdated routing, null otherwise
+ */
 public record GetResponseDTO(
     GetStatus status,
-    String value
+    String value,
+    OwnerHintDTO ownerHint
 ) {
-    // No-op.
+    public GetResponseDTO(GetStatus status, String value) {
+        this(status, value, null);
+    }
 }
@@ -15,10 +15,6 @@ public class NodeStatusResponseDTO {
 
     private Map<Integer, ShardStatsDTO> stagedShardStats;
 
-    private int applyQueueSize;
-
-    private int rollbackQueueSize;
-
     public NodeState getState() {
         return state;
     }
@@ -43,29 +39,11 @@ public class NodeStatusResponseDTO {
         this.stagedShardStats = stagedShardStats;
     }
 
-    public int getApplyQueueSize() {
-        return applyQueueSize;
-    }
-
-    public void setApplyQueueSize(int applyQueueSize) {
-        this.applyQueueSize = applyQueueSize;
-    }
-
-    public int getRollbackQueueSize() {
-        return rollbackQueueSize;
-    }
-
-    public void setRollbackQueueSize(int rollbackQueueSize) {
-        this.rollbackQueueSize = rollbackQueueSize;
-    }
-
     public NodeStatusResponse toGrpc() {
         return NodeStatusResponse.newBuilder()
             .setState(state.name())
             .putAllShardStats(shardStatsToGrpc(shardStats))
             .putAllStagedShardStats(shardStatsToGrpc(stagedShardStats))
-            .setApplyQueueSize(applyQueueSize)
-            .setRollbackQueueSize(rollbackQueueSize)
             .build();
     }
 
@@ -74,9 +52,7 @@ public class NodeStatusResponseDTO {
 
         dto.setState(NodeState.valueOf(grpc.getState()));
         dto.setShardStats(shardStatsFromGrpc(grpc.getShardStatsMap()));
-        dto.setShardStats(shardStatsFromGrpc(grpc.getStagedShardStatsMap()));
-        dto.setApplyQueueSize(grpc.getApplyQueueSize());
-        dto.setRollbackQueueSize(grpc.getRollbackQueueSize());
+        dto.setStagedShardStats(shardStatsFromGrpc(grpc.getStagedShardStatsMap()));
 
         return dto;
     }
@@ -0,0 +1,29 @@
+package vk.itmo.teamgray.sharded.storage.common.dto;
+
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.node.client.OwnerHint;
+
+/**
+ * Owner of a key's shard in topology of the epoch, sent by nodes to clients routing with an older topology.
+ *
+ * @param shardCount number of shards in the topology, shard id is only valid for the same scheme
+ */
+public record OwnerHintDTO(long epoch, int shardId, int shardCount, DiscoverableServiceDTO server) {
+    public OwnerHint toGrpc() {
+        return OwnerHint.newBuilder()
+            .setEpoch(epoch)
+            .setShardId(shardId)
+            .setShardCount(shardCount)
+            .setServer(server.toGrpc())
+            .build();
+    }
+
+    public static OwnerHintDTO fromGrpc(OwnerHint grpc) {
+        return new OwnerHintDTO(
+            grpc.getEpoch(),
+            grpc.getShardId(),
+            grpc.getShardCount(),
+            DiscoverableServiceDTO.fromGrpc(grpc.getServer())
+        );
+    }
+}
@@ -0,0 +1,33 @@
+package vk.itmo.teamgray.sharded.storage.common.dto;
+
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.node.client.ReadBounds;
+
+/**
+ * How far behind the owner a replica may be to serve a read. Owners always serve reads.
+ *
+ * @param maxStalenessMs max time since the replica last caught up with the owner, 0 if not limited
+ * @param minPositions min log position of the shard the replica should have applied, by shard id
+ */
+public record ReadBoundsDTO(long maxStalenessMs, Map<Integer, Long> minPositions) {
+    public static final ReadBoundsDTO NONE = new ReadBoundsDTO(0, Map.of());
+
+    public ReadBoundsDTO {
+        minPositions = Map.copyOf(minPositions);
+    }
+
+    public long minPosition(int shardId) {
+        return minPositions.getOrDefault(shardId, 0L);
+    }
+
+    public ReadBounds toGrpc() {
+        return ReadBounds.newBuilder()
+            .setMaxStalenessMs(maxStalenessMs)
+            .putAllMinPositions(minPositions)
+            .build();
+    }
+
+    public static ReadBoundsDTO fromGrpc(ReadBounds grpc) {
+        return new ReadBoundsDTO(grpc.getMaxStalenessMs(), grpc.getMinPositionsMap());
+    }
+}
@@ -0,0 +1,51 @@
+package vk.itmo.teamgray.sharded.storage.common.dto;
+
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.node.node.ReplicateEntriesRequest;
+
+/**
+ * Entries of a shard shipped by its owner to a replica.
+ *
+ * @param rangeFrom lower bound of shard hash range in the owner's scheme, exclusive
+ * @param rangeTo upper bound of shard hash range in the owner's scheme, inclusive
+ * @param reset first message of a full copy, replica drops entries it had
+ * @param synced last message of a full copy, replica serves reads after it
+ * @param position log position of the shard the replica has once entries are applied
+ * @param caughtUp owner had no more writes to ship, replica was caught up when the message was sent
+ */
+public record ReplicateEntriesDTO(
+    int shardId,
+    long rangeFrom,
+    long rangeTo,
+    boolean reset,
+    boolean synced,
+    Map<String, String> entries,
+    long position,
+    boolean caughtUp
+) {
+    public ReplicateEntriesRequest toGrpc() {
+        return ReplicateEntriesRequest.newBuilder()
+            .setShardId(shardId)
+            .setRangeFrom(rangeFrom)
+            .setRangeTo(rangeTo)
+            .setReset(reset)
+            .setSynced(synced)
+            .putAllEntries(entries)
+            .setPosition(position)
+            .setCaughtUp(caughtUp)
+            .build();
+    }
+
+    public static ReplicateEntriesDTO fromGrpc(ReplicateEntriesRequest grpc) {
+        return new ReplicateEntriesDTO(
+            grpc.getShardId(),
+            grpc.getRangeFrom(),
+            grpc.getRangeTo(),
+            grpc.getReset(),
+            grpc.getSynced(),
+            grpc.getEntriesMap(),
+            grpc.getPosition(),
+            grpc.getCaughtUp()
+        );
+    }
+}
@@ -2,12 +2,30 @@ package vk.itmo.teamgray.sharded.storage.common.dto;
 
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
 
+/**
+ * @param ownerHint owner of the key if the request got to the wrong node with outdated routing, null otherwise
+ * @param position position of the write in the log of its shard, replicas that applied it serve it, 0 if the shard is not replicated
+ */
 public record SetResponseDTO(
     SetStatus status,
     String message,
-    int newNodeId
+    int newNodeId,
+    OwnerHintDTO ownerHint,
+    long position
 ) {
+    public SetResponseDTO(SetStatus status, String message, int newNodeId, OwnerHintDTO ownerHint) {
+        this(status, message, newNodeId, ownerHint, 0);
+    }
+
+    public SetResponseDTO(SetStatus status, String message, int newNodeId) {
+        this(status, message, newNodeId, null);
+    }
+
     public SetResponseDTO(SetStatus status, String message) {
         this(status, message, 0);
     }
+
+    public SetResponseDTO withPosition(long newPosition) {
+        return new SetResponseDTO(status, message, newNodeId, ownerHint, newPosition);
+    }
 }
@@ -5,6 +5,12 @@ import vk.itmo.teamgray.sharded.storage.node.client.ShardStats;
 public class ShardStatsDTO {
     private int size;
 
+    private long bytesUsed;
+
+    private double opsPerSecond;
+
+    private long splitHash;
+
     public int getSize() {
         return size;
     }
@@ -13,15 +19,54 @@ public class ShardStatsDTO {
         this.size = size;
     }
 
+    /**
+     * Bytes occupied by shard data, {@code -1} if the storage engine does not track it.
+     */
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public void setBytesUsed(long bytesUsed) {
+        this.bytesUsed = bytesUsed;
+    }
+
+    /**
+     * Reads and writes per second over the last load window of the node.
+     */
+    public double getOpsPerSecond() {
+        return opsPerSecond;
+    }
+
+    public void setOpsPerSecond(double opsPerSecond) {
+        this.opsPerSecond = opsPerSecond;
+    }
+
+    /**
+     * Hash splitting recent operations on the shard in halves, shard upper bound if there were none.
+     */
+    public long getSplitHash() {
+        return splitHash;
+    }
+
+    public void setSplitHash(long splitHash) {
+        this.splitHash = splitHash;
+    }
+
     public ShardStats toGrpc() {
         return ShardStats.newBuilder()
             .setSize(size)
+            .setBytesUsed(bytesUsed)
+            .setOpsPerSecond(opsPerSecond)
+            .setSplitHash(splitHash)
             .build();
     }
 
     public static ShardStatsDTO fromGrpc(ShardStats value) {
         ShardStatsDTO dto = new ShardStatsDTO();
         dto.setSize(value.getSize());
+        dto.setBytesUsed(value.getBytesUsed());
+        dto.setOpsPerSecond(value.getOpsPerSecond());
+        dto.setSplitHash(value.getSplitHash());
         return dto;
     }
 }
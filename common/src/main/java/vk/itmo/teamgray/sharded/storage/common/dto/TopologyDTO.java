@@ -0,0 +1,88 @@
+package vk.itmo.teamgray.sharded.storage.common.dto;
+
+import java.util.List;
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.master.client.IntList;
+import vk.itmo.teamgray.sharded.storage.master.client.Topology;
+
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toUnmodifiableMap;
+
+/**
+ * Whole topology of a single epoch, maps are consistent with each other.
+ *
+ * @param servers servers owning shards by server id
+ * @param shardToReplicas servers keeping replicas of a shard, owner excluded, shards without replicas are absent
+ */
+public record TopologyDTO(
+    long epoch,
+    Map<Integer, Long> shardToHash,
+    Map<Integer, Integer> shardToServer,
+    Map<Integer, DiscoverableServiceDTO> servers,
+    Map<Integer, List<Integer>> shardToReplicas
+) {
+    public static final TopologyDTO EMPTY = new TopologyDTO(0, Map.of(), Map.of(), Map.of());
+
+    public TopologyDTO {
+        shardToHash = Map.copyOf(shardToHash);
+        shardToServer = Map.copyOf(shardToServer);
+        servers = Map.copyOf(servers);
+        shardToReplicas = shardToReplicas.entrySet().stream()
+            .collect(toUnmodifiableMap(Map.Entry::getKey, it -> List.copyOf(it.getValue())));
+    }
+
+    public TopologyDTO(
+        long epoch,
+        Map<Integer, Long> shardToHash,
+        Map<Integer, Integer> shardToServer,
+        Map<Integer, DiscoverableServiceDTO> servers
+    ) {
+        this(epoch, shardToHash, shardToServer, servers, Map.of());
+    }
+
+    /**
+     * @return replicas of the shard, owner excluded
+     */
+    public List<Integer> getReplicas(int shardId) {
+        return shardToReplicas.getOrDefault(shardId, List.of());
+    }
+
+    public TopologyDTO withShardToServer(Map<Integer, Integer> newShardToServer, Map<Integer, DiscoverableServiceDTO> newServers) {
+        return new TopologyDTO(epoch, shardToHash, newShardToServer, newServers, shardToReplicas);
+    }
+
+    public Topology toGrpc() {
+        return Topology.newBuilder()
+            .setEpoch(epoch)
+            .putAllShardToHash(shardToHash)
+            .putAllShardToServer(shardToServer)
+            .putAllServers(
+                servers.entrySet().stream()
+                    .collect(toMap(Map.Entry::getKey, it -> it.getValue().toGrpc()))
+            )
+            .putAllShardToReplicas(toGrpcReplicas(shardToReplicas))
+            .build();
+    }
+
+    public static TopologyDTO fromGrpc(Topology grpc) {
+        return new TopologyDTO(
+            grpc.getEpoch(),
+            grpc.getShardToHashMap(),
+            grpc.getShardToServerMap(),
+            grpc.getServersMap().entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, it -> DiscoverableServiceDTO.fromGrpc(it.getValue()))),
+            fromGrpcReplicas(grpc.getShardToReplicasMap())
+        );
+    }
+
+    static Map<Integer, IntList> toGrpcReplicas(Map<Integer, List<Integer>> shardToReplicas) {
+        return shardToReplicas.entrySet().stream()
+            .collect(toMap(Map.Entry::getKey, it -> IntList.newBuilder().addAllValues(it.getValue()).build()));
+    }
+
+    static Map<Integer, List<Integer>> fromGrpcReplicas(Map<Integer, IntList> shardToReplicas) {
+        return shardToReplicas.entrySet().stream()
+            .collect(toMap(Map.Entry::getKey, it -> it.getValue().getValuesList()));
+    }
+}
@@ -0,0 +1,157 @@
+package vk.itmo.teamgray.sharded.storage.common.dto;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.master.client.TopologyUpdate;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Difference between topologies of two epochs. Full update has {@code fromEpoch} of 0 and applies to {@link TopologyDTO#EMPTY}.
+ *
+ * @param shardToHash whole new shard to hash map if {@code shardToHashChanged}, empty otherwise
+ * @param shardToServer added or moved shards
+ * @param servers added or changed servers
+ * @param shardToReplicas whole new shard to replicas map if {@code shardToReplicasChanged}, empty otherwise
+ */
+public record TopologyUpdateDTO(
+    long fromEpoch,
+    long epoch,
+    boolean shardToHashChanged,
+    Map<Integer, Long> shardToHash,
+    Map<Integer, Integer> shardToServer,
+    Set<Integer> removedShards,
+    Map<Integer, DiscoverableServiceDTO> servers,
+    Set<Integer> removedServers,
+    boolean shardToReplicasChanged,
+    Map<Integer, List<Integer>> shardToReplicas
+) {
+    public TopologyUpdateDTO {
+        shardToHash = Map.copyOf(shardToHash);
+        shardToServer = Map.copyOf(shardToServer);
+        removedShards = Set.copyOf(removedShards);
+        servers = Map.copyOf(servers);
+        removedServers = Set.copyOf(removedServers);
+        shardToReplicas = Map.copyOf(shardToReplicas);
+    }
+
+    public TopologyUpdateDTO(
+        long fromEpoch,
+        long epoch,
+        boolean shardToHashChanged,
+        Map<Integer, Long> shardToHash,
+        Map<Integer, Integer> shardToServer,
+        Set<Integer> removedShards,
+        Map<Integer, DiscoverableServiceDTO> servers,
+        Set<Integer> removedServers
+    ) {
+        this(fromEpoch, epoch, shardToHashChanged, shardToHash, shardToServer, removedShards, servers, removedServers, false, Map.of());
+    }
+
+    /**
+     * @param from topology known to the receiver, {@link TopologyDTO#EMPTY} for a full update
+     */
+    public static TopologyUpdateDTO between(TopologyDTO from, TopologyDTO to) {
+        boolean shardToHashChanged = !from.shardToHash().equals(to.shardToHash());
+        boolean shardToReplicasChanged = !from.shardToReplicas().equals(to.shardToReplicas());
+
+        return new TopologyUpdateDTO(
+            from.epoch(),
+            to.epoch(),
+            shardToHashChanged,
+            shardToHashChanged ? to.shardToHash() : Map.of(),
+            changed(from.shardToServer(), to.shardToServer()),
+            removed(from.shardToServer(), to.shardToServer()),
+            changed(from.servers(), to.servers()),
+            removed(from.servers(), to.servers()),
+            shardToReplicasChanged,
+            shardToReplicasChanged ? to.shardToReplicas() : Map.of()
+        );
+    }
+
+    public boolean isFull() {
+        return fromEpoch == 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if update is not based on the given topology
+     */
+    public TopologyDTO applyTo(TopologyDTO topology) {
+        var base = isFull() ? TopologyDTO.EMPTY : topology;
+
+        if (base.epoch() != fromEpoch) {
+            throw new IllegalArgumentException("Update from epoch " + fromEpoch + " can not be applied to epoch " + base.epoch());
+        }
+
+        var newShardToServer = new HashMap<>(base.shardToServer());
+
+        removedShards.forEach(newShardToServer::remove);
+        newShardToServer.putAll(shardToServer);
+
+        var newServers = new HashMap<>(base.servers());
+
+        removedServers.forEach(newServers::remove);
+        newServers.putAll(servers);
+
+        return new TopologyDTO(
+            epoch,
+            shardToHashChanged ? shardToHash : base.shardToHash(),
+            newShardToServer,
+            newServers,
+            shardToReplicasChanged ? shardToReplicas : base.shardToReplicas()
+        );
+    }
+
+    public TopologyUpdate toGrpc() {
+        return TopologyUpdate.newBuilder()
+            .setFromEpoch(fromEpoch)
+            .setEpoch(epoch)
+            .setShardToHashChanged(shardToHashChanged)
+            .putAllShardToHash(shardToHash)
+            .putAllShardToServer(shardToServer)
+            .addAllRemovedShards(removedShards)
+            .putAllServers(
+                servers.entrySet().stream()
+                    .collect(toMap(Map.Entry::getKey, it -> it.getValue().toGrpc()))
+            )
+            .addAllRemovedServers(removedServers)
+            .setShardToReplicasChanged(shardToReplicasChanged)
+            .putAllShardToReplicas(TopologyDTO.toGrpcReplicas(shardToReplicas))
+            .build();
+    }
+
+    public static TopologyUpdateDTO fromGrpc(TopologyUpdate grpc) {
+        return new TopologyUpdateDTO(
+            grpc.getFromEpoch(),
+            grpc.getEpoch(),
+            grpc.getShardToHashChanged(),
+            grpc.getShardToHashMap(),
+            grpc.getShardToServerMap(),
+            new HashSet<>(grpc.getRemovedShardsList()),
+            grpc.getServersMap().entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, it -> DiscoverableServiceDTO.fromGrpc(it.getValue()))),
+            new HashSet<>(grpc.getRemovedServersList()),
+            grpc.getShardToReplicasChanged(),
+            TopologyDTO.fromGrpcReplicas(grpc.getShardToReplicasMap())
+        );
+    }
+
+    private static <K, V> Map<K, V> changed(Map<K, V> from, Map<K, V> to) {
+        return to.entrySet().stream()
+            .filter(it -> !Objects.equals(from.get(it.getKey()), it.getValue()))
+            .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private static <K> Set<K> removed(Map<K, ?> from, Map<K, ?> to) {
+        var removed = new HashSet<>(from.keySet());
+
+        removed.removeAll(to.keySet());
+
+        return removed;
+    }
+}
@@ -4,5 +4,5 @@ public enum SetStatus {
     SUCCESS,
     ERROR,
     TRANSFER,
-    QUEUED
+    WRONG_NODE
 }
@@ -0,0 +1,31 @@
+package vk.itmo.teamgray.sharded.storage.common.proto;
+
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Response observer of a unary call on an async stub, completes the future with the response or the error.
+ */
+public class FutureStreamObserver<T> implements StreamObserver<T> {
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    @Override
+    public void onNext(T value) {
+        future.complete(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        future.completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        // No-op if response was received.
+        future.completeExceptionally(new IllegalStateException("Call completed without response"));
+    }
+
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+}
@@ -0,0 +1,204 @@
+package vk.itmo.teamgray.sharded.storage.common.shardfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary layout of pre-built shard files, used to bulk load a shard without sending every key through the client API.
+ * <p>
+ * Header: {@code [int magic][int version][int shardId]}, then entries sorted by key hash and key, each one
+ * {@code [byte 1][long hash][int keyLength][key][int valueLength][value]}, and the footer {@code [byte 0][long entryCount][int crc32c]}
+ * with checksum of everything before it. Strings are UTF-8, keys are unique.
+ */
+public final class ShardFile {
+    public static final int MAGIC = 0x53485244;
+
+    public static final int VERSION = 1;
+
+    private static final byte ENTRY = 1;
+
+    private static final byte END = 0;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Protects from allocating huge arrays on garbage length.
+    private static final int MAX_STRING_SIZE = 1 << 30;
+
+    private ShardFile() {
+        // No-op.
+    }
+
+    public static String fileName(int shardId) {
+        return "shard-" + shardId + ".bin";
+    }
+
+    public interface EntryHandler {
+        void onEntry(long hash, String key, String value);
+    }
+
+    /**
+     * Writes entries in the order they are appended, which must be ascending by hash and key. Not thread-safe.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        private final CheckedOutputStream checked;
+
+        private long entryCount;
+
+        private long lastHash;
+
+        private String lastKey;
+
+        public Writer(Path path, int shardId) throws IOException {
+            this.checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE), new CRC32C());
+            this.out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(shardId);
+        }
+
+        public void append(long hash, String key, String value) throws IOException {
+            if (lastKey != null && compare(hash, key, lastHash, lastKey) <= 0) {
+                throw new IllegalArgumentException("Entries must be unique and sorted by hash and key, got " + key + " after " + lastKey);
+            }
+
+            out.writeByte(ENTRY);
+            out.writeLong(hash);
+            writeString(key);
+            writeString(value);
+
+            lastHash = hash;
+            lastKey = key;
+            entryCount++;
+        }
+
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeByte(END);
+                out.writeLong(entryCount);
+
+                // Data stream does not buffer, so checksum covers everything written so far.
+                int crc = (int)checked.getChecksum().getValue();
+
+                out.writeInt(crc);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeString(String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the whole file, passing entries to the handler as they are read. Checksum is verified only at the end, so on exception
+     * entries already passed to the handler must be discarded.
+     *
+     * @return number of entries read
+     * @throws IOException if file is not a valid shard file of the expected shard
+     */
+    public static long read(Path path, int expectedShardId, EntryHandler handler) throws IOException {
+        try (
+            var checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), new CRC32C());
+            var in = new DataInputStream(checked)
+        ) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a shard file: " + path);
+            }
+
+            int version = in.readInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported shard file version " + version + ": " + path);
+            }
+
+            int shardId = in.readInt();
+
+            if (shardId != expectedShardId) {
+                throw new IOException("Shard file " + path + " is for shard " + shardId + ", expected " + expectedShardId);
+            }
+
+            long entryCount = 0;
+
+            long lastHash = 0;
+            String lastKey = null;
+
+            byte marker;
+
+            while ((marker = in.readByte()) == ENTRY) {
+                long hash = in.readLong();
+                String key = readString(in);
+                String value = readString(in);
+
+                if (lastKey != null && compare(hash, key, lastHash, lastKey) <= 0) {
+                    throw new IOException("Shard file " + path + " is not sorted at key " + key);
+                }
+
+                handler.onEntry(hash, key, value);
+
+                lastHash = hash;
+                lastKey = key;
+                entryCount++;
+            }
+
+            if (marker != END || in.readLong() != entryCount) {
+                throw new IOException("Shard file " + path + " is corrupted");
+            }
+
+            int expectedCrc = (int)checked.getChecksum().getValue();
+
+            if (in.readInt() != expectedCrc || in.read() != -1) {
+                throw new IOException("Shard file " + path + " checksum mismatch");
+            }
+
+            return entryCount;
+        } catch (EOFException e) {
+            throw new IOException("Shard file " + path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Same order as entries of a shard ordered by hash.
+     */
+    public static int compare(long hash, String key, long otherHash, String otherKey) {
+        int result = Long.compare(hash, otherHash);
+
+        return result != 0 ? result : key.compareTo(otherKey);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_STRING_SIZE) {
+            throw new IOException("Invalid string length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,13 +1,106 @@
 package vk.itmo.teamgray.sharded.storage.common.utils;
 
-import com.google.common.hash.Hashing;
-
+/**
+ * Key hashing shared by all services, must stay bit-compatible with {@code Hashing.murmur3_128().hashUnencodedChars(key).asLong()}.
+ * <p>
+ * MurmurHash3 x64 128-bit with seed 0, calculated straight over UTF-16 chars in little-endian order, without intermediate objects.
+ */
 public class HashingUtils {
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
     private HashingUtils() {
         // No-op.
     }
 
     public static long calculate64BitHash(String key) {
-        return Hashing.murmur3_128().hashUnencodedChars(key).asLong();
+        int length = key.length();
+
+        long h1 = 0;
+        long h2 = 0;
+
+        int index = 0;
+
+        // 16 byte blocks, 8 chars each.
+        for (int blockEnd = length & ~7; index < blockEnd; index += 8) {
+            long k1 = packChars(key, index, 4);
+            long k2 = packChars(key, index + 4, 4);
+
+            h1 ^= mixK1(k1);
+
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int remaining = length - index;
+
+        if (remaining > 0) {
+            long k1 = packChars(key, index, Math.min(remaining, 4));
+            long k2 = remaining > 4 ? packChars(key, index + 4, remaining - 4) : 0;
+
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+        }
+
+        // Length is in bytes.
+        long byteLength = (long)length * Character.BYTES;
+
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+
+        // Lower 64 bits of the 128-bit hash are h1.
+        return h1;
+    }
+
+    private static long packChars(String key, int from, int count) {
+        long packed = 0;
+
+        for (int i = 0; i < count; i++) {
+            packed |= (long)key.charAt(from + i) << (i * Character.SIZE);
+        }
+
+        return packed;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+
+        return k;
     }
 }
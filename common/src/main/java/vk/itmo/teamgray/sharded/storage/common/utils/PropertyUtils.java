@@ -71,6 +71,25 @@ public class PropertyUtils {
         return getNullableString(serverType + ".grpc.host", APP_PROPS);
     }
 
+    public static String getProperty(String key, String defaultValue) {
+        return Optional.ofNullable(getNullableString(key, APP_PROPS))
+            .filter(it -> !it.isBlank())
+            .orElse(defaultValue);
+    }
+
+    public static int getIntProperty(String key, int defaultValue) {
+        return Optional.ofNullable(getNullableString(key, APP_PROPS))
+            .filter(it -> !it.isBlank())
+            .map(String::trim)
+            .map(Integer::parseInt)
+            .orElse(defaultValue);
+    }
+
+    public static long getMemSizeProperty(String key, long defaultValue) {
+        return Optional.ofNullable(MemoryUtils.parseMemSize(getNullableString(key, APP_PROPS)))
+            .orElse(defaultValue);
+    }
+
     public static int getMessageMaxSize() {
         Long value = MemoryUtils.parseMemSize(getNullableString("message.max.size", APP_PROPS));
 
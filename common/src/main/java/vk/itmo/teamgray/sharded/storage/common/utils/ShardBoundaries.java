@@ -0,0 +1,206 @@
+package vk.itmo.teamgray.sharded.storage.common.utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of shard hash boundaries, built once per shard scheme.
+ * <p>
+ * Shard at position {@code i} owns hashes in {@code (upperBound(i - 1), upperBound(i)]}, the first shard also owns {@link Long#MIN_VALUE}.
+ * Evenly split schemes are resolved with arithmetic, arbitrary schemes with a binary search over upper bounds. Lookups allocate nothing.
+ */
+public final class ShardBoundaries {
+    public static final int NO_SHARD = -1;
+
+    private static final ShardBoundaries EMPTY = new ShardBoundaries(new long[0], null, 0);
+
+    // Single slot cache for static lookups, as shard count changes rarely.
+    private static volatile ShardBoundaries lastEven = EMPTY;
+
+    private final int shardCount;
+
+    private final long[] upperBounds;
+
+    // Null when shard id is equal to position.
+    private final int[] shardIds;
+
+    // Unsigned width of each range for evenly split schemes, 0 otherwise.
+    private final long step;
+
+    private ShardBoundaries(long[] upperBounds, int[] shardIds, long step) {
+        this.shardCount = upperBounds.length;
+        this.upperBounds = upperBounds;
+        this.shardIds = shardIds;
+        this.step = step;
+    }
+
+    /**
+     * Returns evenly split scheme, same as the one master creates on changing shard count.
+     */
+    public static ShardBoundaries even(int shardCount) {
+        if (shardCount <= 0) {
+            return EMPTY;
+        }
+
+        var cached = lastEven;
+
+        if (cached.shardCount == shardCount) {
+            return cached;
+        }
+
+        // (2^64 - 1) / shardCount, precision here is important to stay in sync with master scheme.
+        long step = Long.divideUnsigned(-1L, shardCount);
+
+        long[] upperBounds = new long[shardCount];
+
+        long previousBoundary = Long.MIN_VALUE;
+
+        for (int i = 0; i < shardCount - 1; i++) {
+            previousBoundary += step;
+
+            upperBounds[i] = previousBoundary;
+        }
+
+        upperBounds[shardCount - 1] = Long.MAX_VALUE;
+
+        var boundaries = new ShardBoundaries(upperBounds, null, shardCount == 1 ? 0 : step);
+
+        lastEven = boundaries;
+
+        return boundaries;
+    }
+
+    /**
+     * Builds scheme from master's shard to upper bound (inclusive) mapping, ranges may be of any width.
+     */
+    public static ShardBoundaries fromShardToHash(Map<Integer, Long> shardToHash) {
+        if (shardToHash == null || shardToHash.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<Map.Entry<Integer, Long>> sorted = shardToHash.entrySet().stream()
+            .sorted(Comparator.comparingLong(Map.Entry::getValue))
+            .toList();
+
+        long[] upperBounds = new long[sorted.size()];
+        int[] shardIds = new int[sorted.size()];
+
+        boolean positional = true;
+
+        for (int i = 0; i < sorted.size(); i++) {
+            upperBounds[i] = sorted.get(i).getValue();
+            shardIds[i] = sorted.get(i).getKey();
+
+            positional &= shardIds[i] == i;
+        }
+
+        // Schemes of equal ranges are resolved with arithmetic.
+        if (positional && Arrays.equals(upperBounds, even(upperBounds.length).upperBounds)) {
+            return even(upperBounds.length);
+        }
+
+        return new ShardBoundaries(upperBounds, positional ? null : shardIds, 0);
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public boolean isEmpty() {
+        return shardCount == 0;
+    }
+
+    public int shardIdForKey(String key) {
+        if (shardCount <= 1) {
+            // No need to hash anything in trivial cases.
+            return shardCount == 0 ? NO_SHARD : shardIdAt(0);
+        }
+
+        return shardIdForHash(HashingUtils.calculate64BitHash(key));
+    }
+
+    public int shardIdForHash(long hash) {
+        if (shardCount <= 1) {
+            return shardCount == 0 ? NO_SHARD : shardIdAt(0);
+        }
+
+        return shardIdAt(positionForHash(hash));
+    }
+
+    public int positionForHash(long hash) {
+        if (step != 0) {
+            // Offset of the hash from Long.MIN_VALUE, treated as unsigned.
+            long offset = hash - Long.MIN_VALUE;
+
+            if (offset == 0) {
+                return 0;
+            }
+
+            long position = Long.divideUnsigned(offset - 1, step);
+
+            // Due to truncation on division, last range is slightly wider than the others.
+            return position >= shardCount ? shardCount - 1 : (int)position;
+        }
+
+        int position = Arrays.binarySearch(upperBounds, hash);
+
+        if (position < 0) {
+            position = -position - 1;
+        }
+
+        return Math.min(position, shardCount - 1);
+    }
+
+    public int shardIdAt(int position) {
+        return shardIds == null ? position : shardIds[position];
+    }
+
+    /**
+     * @return position of the shard, {@code -1} if it is not part of the scheme
+     */
+    public int positionOf(int shardId) {
+        if (shardIds == null) {
+            return shardId >= 0 && shardId < shardCount ? shardId : -1;
+        }
+
+        for (int i = 0; i < shardCount; i++) {
+            if (shardIds[i] == shardId) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    public long upperBoundAt(int position) {
+        return upperBounds[position];
+    }
+
+    /**
+     * Returns lower bound (exclusive) of the shard at the given position.
+     */
+    public long lowerBoundAt(int position) {
+        return position == 0 ? Long.MIN_VALUE : upperBounds[position - 1];
+    }
+
+    public Map<Integer, Long> toShardToHash() {
+        Map<Integer, Long> shardToHash = new HashMap<>();
+
+        for (int i = 0; i < shardCount; i++) {
+            shardToHash.put(shardIdAt(i), upperBounds[i]);
+        }
+
+        return shardToHash;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardBoundaries{" +
+            "shardCount=" + shardCount +
+            ", even=" + (step != 0) +
+            '}';
+    }
+}
@@ -0,0 +1,66 @@
+package vk.itmo.teamgray.sharded.storage.common.utils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HashingUtilsTest {
+    private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+
+    @Test
+    void matchesGuavaForKnownKeys() {
+        List<String> keys = List.of(
+            "",
+            "a",
+            "key",
+            "key0",
+            "user:12345",
+            "The quick brown fox jumps over the lazy dog",
+            "ключ",
+            "значение-42",
+            "键值存储",
+            "emoji-😀",
+            "😀😁😂",
+            "￿耀\u0000\u007F\u0080"
+        );
+
+        for (String key : keys) {
+            checkMatchesGuava(key);
+        }
+    }
+
+    @Test
+    void matchesGuavaForEveryTailLength() {
+        // Chars are hashed as 2 bytes each, so 8 chars fill a 16 byte block, and lengths up to 3 blocks cover every tail.
+        String ascii = "abcdefghijklmnopqrstuvwxyz0123456789";
+        String multiByte = "абвгдеёжзийклмнопрстуфхцчшщъыьэюя";
+
+        for (int length = 0; length <= 24; length++) {
+            checkMatchesGuava(ascii.substring(0, length));
+            checkMatchesGuava(multiByte.substring(0, length));
+        }
+    }
+
+    @Test
+    void matchesGuavaForRandomChars() {
+        var random = new SplittableRandom(42);
+
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[random.nextInt(64)];
+
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char)random.nextInt(Character.MAX_VALUE + 1);
+            }
+
+            checkMatchesGuava(new String(chars));
+        }
+    }
+
+    private static void checkMatchesGuava(String key) {
+        assertEquals(MURMUR3.hashUnencodedChars(key).asLong(), HashingUtils.calculate64BitHash(key), "Key " + key);
+    }
+}
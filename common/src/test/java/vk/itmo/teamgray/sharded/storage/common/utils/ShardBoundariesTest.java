@@ -0,0 +1,139 @@
+package vk.itmo.teamgray.sharded.storage.common.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardBoundariesTest {
+    private static final int RANDOM_HASH_COUNT = 2000;
+
+    private static final int[] SHARD_COUNTS = IntStream.concat(
+        IntStream.rangeClosed(2, 70),
+        IntStream.of(97, 100, 127, 128, 1000, 1023, 1024, 4099, 65536, 100000)
+    ).toArray();
+
+    @Test
+    void evenLookupMatchesLegacyLoop() {
+        for (int shardCount : SHARD_COUNTS) {
+            checkLookupMatchesLegacyLoop(shardCount);
+        }
+    }
+
+    @Test
+    void minimalHashBelongsToFirstShard() {
+        for (int shardCount : SHARD_COUNTS) {
+            // Legacy loop let it fall through to the last shard, see the (lower, upper] range convention of ShardBoundaries.
+            assertEquals(shardCount - 1, legacyShardIdForHash(Long.MIN_VALUE, shardCount));
+
+            assertEquals(0, ShardBoundaries.even(shardCount).shardIdForHash(Long.MIN_VALUE), "Shard count " + shardCount);
+        }
+    }
+
+    @Test
+    void singleShardOwnsAllHashes() {
+        var boundaries = ShardBoundaries.even(1);
+
+        for (long hash : new long[] {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE}) {
+            assertEquals(0, boundaries.shardIdForHash(hash));
+        }
+    }
+
+    @Test
+    void emptySchemeHasNoShards() {
+        assertEquals(ShardBoundaries.NO_SHARD, ShardBoundaries.even(0).shardIdForHash(0));
+        assertEquals(ShardBoundaries.NO_SHARD, ShardBoundaries.even(0).shardIdForKey("key"));
+    }
+
+    private static void checkLookupMatchesLegacyLoop(int shardCount) {
+        var even = ShardBoundaries.even(shardCount);
+
+        // Same ranges with shifted shard ids, so that they are not resolved with arithmetic but with binary search.
+        Map<Integer, Long> shiftedShardToHash = new HashMap<>();
+
+        even.toShardToHash().forEach((shardId, upperBound) -> shiftedShardToHash.put(shardId + 1, upperBound));
+
+        var search = ShardBoundaries.fromShardToHash(shiftedShardToHash);
+
+        for (long hash : hashesToCheck(even)) {
+            int expected = legacyShardIdForHash(hash, shardCount);
+
+            assertEquals(expected, even.shardIdForHash(hash), "Shard count " + shardCount + ", hash " + hash);
+            assertEquals(expected + 1, search.shardIdForHash(hash), "Shard count " + shardCount + ", hash " + hash);
+        }
+    }
+
+    // Edges of every range, both ends of the hash space and random hashes in between.
+    private static List<Long> hashesToCheck(ShardBoundaries boundaries) {
+        List<Long> hashes = new ArrayList<>(List.of(
+            Long.MIN_VALUE + 1,
+            Long.MIN_VALUE + 2,
+            -1L,
+            0L,
+            1L,
+            Long.MAX_VALUE - 1,
+            Long.MAX_VALUE
+        ));
+
+        // Legacy loop is linear, so only a sample of ranges is checked for large schemes.
+        int stride = Math.max(1, boundaries.getShardCount() / 256);
+
+        for (int position = 0; position < boundaries.getShardCount(); position += stride) {
+            long upperBound = boundaries.upperBoundAt(position);
+
+            hashes.add(upperBound - 1);
+            hashes.add(upperBound);
+
+            if (upperBound != Long.MAX_VALUE) {
+                hashes.add(upperBound + 1);
+            }
+        }
+
+        var random = new SplittableRandom(boundaries.getShardCount());
+
+        for (int i = 0; i < RANDOM_HASH_COUNT; i++) {
+            hashes.add(random.nextLong());
+        }
+
+        return hashes;
+    }
+
+    // Copy of the previous ShardUtils.getShardIdForHash implementation, without logging.
+    private static int legacyShardIdForHash(long hash, int shardCount) {
+        if (shardCount == 1) {
+            return 0;
+        }
+
+        BigInteger range = BigInteger
+            .valueOf(Long.MAX_VALUE)
+            .subtract(BigInteger.valueOf(Long.MIN_VALUE));
+
+        long stepSize = range
+            .divide(BigInteger.valueOf(shardCount))
+            .longValue();
+
+        long previousBoundary = Long.MIN_VALUE;
+
+        for (int i = 1; i <= shardCount; i++) {
+            long hashBoundary = previousBoundary + stepSize;
+
+            if (i == shardCount) {
+                hashBoundary = Long.MAX_VALUE;
+            }
+
+            if (hashBoundary >= hash && previousBoundary < hash) {
+                return i - 1;
+            }
+
+            previousBoundary = hashBoundary;
+        }
+
+        return shardCount - 1;
+    }
+}
@@ -1,10 +1,15 @@
 package vk.itmo.teamgray.sharded.storage.load.tests;
 
 import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
+import vk.itmo.teamgray.sharded.storage.client.service.ClientService;
+import vk.itmo.teamgray.sharded.storage.client.service.RoutingStats;
 import vk.itmo.teamgray.sharded.storage.test.api.BaseIntegrationTest;
 
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
@@ -132,4 +137,203 @@ public class LoadTest extends BaseIntegrationTest {
         orchestrationApi.stopMaster();
         orchestrationApi.stopDiscovery();
     }
+
+    @Test
+    public void test_Add_Get_100000_Async() {
+        orchestrationApi.runDiscovery();
+        orchestrationApi.runMaster();
+
+        orchestrationApi.runNode(1);
+        orchestrationApi.runNode(2);
+        orchestrationApi.runNode(3);
+        orchestrationApi.runNode(4);
+        orchestrationApi.runNode(5);
+
+        clientService.changeShardCount(24);
+        clientService.addServer(1, false);
+        clientService.addServer(2, false);
+        clientService.addServer(3, false);
+        clientService.addServer(4, false);
+        clientService.addServer(5, false);
+
+        // All requests are in flight at once from a single thread.
+        long start = System.nanoTime();
+
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            String key = MessageFormat.format("key{0,number,#}", i);
+            String value = MessageFormat.format("value{0,number,#}", i);
+
+            writes.add(clientService.setValueAsync(key, value));
+        }
+
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+        System.out.println(MessageFormat.format("Set {0,number,#} keys in {1,number,#} ms", writes.size(), millisSince(start)));
+
+        start = System.nanoTime();
+
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            reads.add(clientService.getValueAsync(MessageFormat.format("key{0,number,#}", i)));
+        }
+
+        CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).join();
+
+        System.out.println(MessageFormat.format("Got {0,number,#} keys in {1,number,#} ms", reads.size(), millisSince(start)));
+
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(MessageFormat.format("value{0,number,#}", i), reads.get(i).join());
+        }
+
+        orchestrationApi.stopNode(5);
+        orchestrationApi.stopNode(4);
+        orchestrationApi.stopNode(3);
+        orchestrationApi.stopNode(2);
+        orchestrationApi.stopNode(1);
+
+        orchestrationApi.stopMaster();
+        orchestrationApi.stopDiscovery();
+    }
+
+    @Test
+    public void test_Add_100000_Write_Linger() {
+        orchestrationApi.runDiscovery();
+        orchestrationApi.runMaster();
+
+        orchestrationApi.runNode(1);
+        orchestrationApi.runNode(2);
+        orchestrationApi.runNode(3);
+
+        clientService.changeShardCount(24);
+        clientService.addServer(1, false);
+        clientService.addServer(2, false);
+        clientService.addServer(3, false);
+
+        // Throughput and latency of small writes for each linger time, zero is one call per write.
+        System.out.println("linger_us,ops_per_sec,p50_us,p99_us");
+
+        for (long lingerMicros : new long[] {0, 50, 200, 1000, 5000}) {
+            clientService.setWriteLinger(Duration.ofNanos(lingerMicros * 1000));
+
+            int count = 100_000;
+            long[] latencies = new long[count];
+
+            List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                long writeStart = System.nanoTime();
+
+                writes.add(
+                    clientService.setValueAsync(MessageFormat.format("key{0,number,#}", i), "v")
+                        .whenComplete((result, error) -> latencies[index] = System.nanoTime() - writeStart)
+                );
+            }
+
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+
+            System.out.println(MessageFormat.format(
+                "{0,number,#},{1,number,#},{2,number,#},{3,number,#}",
+                lingerMicros,
+                count * 1_000_000_000L / elapsed,
+                latencies[count / 2] / 1000,
+                latencies[count * 99 / 100] / 1000
+            ));
+        }
+
+        clientService.setWriteLinger(Duration.ZERO);
+
+        orchestrationApi.stopNode(3);
+        orchestrationApi.stopNode(2);
+        orchestrationApi.stopNode(1);
+
+        orchestrationApi.stopMaster();
+        orchestrationApi.stopDiscovery();
+    }
+
+    @Test
+    public void test_Get_10000_Stale_Routing() throws InterruptedException {
+        orchestrationApi.runDiscovery();
+        orchestrationApi.runMaster();
+
+        orchestrationApi.runNode(1);
+        orchestrationApi.runNode(2);
+        orchestrationApi.runNode(3);
+        orchestrationApi.runNode(4);
+
+        clientService.changeShardCount(24);
+        clientService.addServer(1, false);
+        clientService.addServer(2, false);
+        clientService.addServer(3, false);
+
+        int count = 10_000;
+
+        for (int i = 0; i < count; i++) {
+            clientService.setValue(MessageFormat.format("key{0,number,#}", i), MessageFormat.format("value{0,number,#}", i));
+        }
+
+        // Second client does not watch topology, so it keeps routing with the one it has read at start.
+        var staleClientService = new ClientService(
+            clientCachingFactory.getClient(discoveryClient.getMasterWithRetries(), MasterClient.class),
+            discoveryClient,
+            clientCachingFactory,
+            fileName -> {
+                throw new UnsupportedOperationException();
+            }
+        );
+
+        System.out.println("phase,misroutes,patched_routes,topology_reads,extra_rpcs,ms");
+
+        readAll(staleClientService, count, "before");
+
+        // Shards are moved to the new server, shard count stays the same.
+        clientService.addServer(4, false);
+
+        // Topology is pushed to nodes after it is published.
+        Thread.sleep(1000L);
+
+        readAll(staleClientService, count, "after");
+
+        orchestrationApi.stopNode(4);
+        orchestrationApi.stopNode(3);
+        orchestrationApi.stopNode(2);
+        orchestrationApi.stopNode(1);
+
+        orchestrationApi.stopMaster();
+        orchestrationApi.stopDiscovery();
+    }
+
+    private static void readAll(ClientService client, int count, String phase) {
+        RoutingStats before = client.getRoutingStats();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(MessageFormat.format("value{0,number,#}", i), client.getValue(MessageFormat.format("key{0,number,#}", i)));
+        }
+
+        RoutingStats stats = client.getRoutingStats().minus(before);
+
+        // Every misroute costs a retried get, topology reads are calls to master on top of it.
+        System.out.println(MessageFormat.format(
+            "{0},{1,number,#},{2,number,#},{3,number,#},{4,number,#},{5,number,#}",
+            phase,
+            stats.misroutes(),
+            stats.patchedRoutes(),
+            stats.topologyReads(),
+            stats.misroutes() + stats.topologyReads(),
+            millisSince(start)
+        ));
+    }
+
+    private static long millisSince(long nanoTime) {
+        return (System.nanoTime() - nanoTime) / 1_000_000;
+    }
 }
@@ -3,6 +3,7 @@ plugins {
     id("jacoco")
     alias(libs.plugins.qameta.allure)
     alias(libs.plugins.shadow)
+    alias(libs.plugins.champeau.jmh)
 }
 
 private val mainClassName = "vk.itmo.teamgray.sharded.storage.master.MasterApplication"
@@ -21,12 +22,20 @@ dependencies {
     testImplementation(libs.junit.jupiter.api)
     testImplementation(libs.junit.platform.launcher)
     testRuntimeOnly(libs.junit.jupiter.engine)
+
+    jmhImplementation(libs.mockito)
 }
 
 tasks.test {
     useJUnitPlatform()
 }
 
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+}
+
 tasks.jar {
     manifest {
         attributes["Main-Class"] = mainClassName
@@ -0,0 +1,130 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
+import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static vk.itmo.teamgray.sharded.storage.common.responsewriter.MapResponseWriter.Helper.toMap;
+import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.voidRw;
+
+/**
+ * Latency of topology reads, as served to clients refreshing their caches, while a shard count change is stuck in its process phase.
+ * With the former read-write lock every read waited for the whole change.
+ * <p>
+ * Run with {@code ./gradlew :master:jmh -Pjmh.includes=TopologyReadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@Threads(4)
+public class TopologyReadBenchmark {
+    private static final int SERVER_COUNT = 4;
+
+    @Param({"1024"})
+    private int shards;
+
+    private TopologyService topologyService;
+
+    private final CountDownLatch reshardReleased = new CountDownLatch(1);
+
+    private volatile boolean holdProcess;
+
+    private Thread reshard;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        DiscoveryClient discoveryClient = mock();
+        ClientCachingFactory clientCachingFactory = mock();
+        NodeManagementClient nodeManagementClient = mock();
+
+        when(discoveryClient.getNodeMapWithRetries(any())).thenReturn(
+            IntStream.range(0, SERVER_COUNT)
+                .boxed()
+                .collect(Collectors.toMap(
+                    Function.identity(),
+                    id -> new DiscoverableServiceDTO(id, DiscoverableServiceType.NODE, "test", "test")
+                ))
+        );
+
+        when(clientCachingFactory.getClient(any(DiscoverableServiceDTO.class), any())).thenReturn(nodeManagementClient);
+
+        CountDownLatch processing = new CountDownLatch(SERVER_COUNT);
+
+        when(nodeManagementClient.prepareMove(anyList(), anyList(), anyMap())).thenReturn(new StatusResponseDTO(true, ""));
+        when(nodeManagementClient.prepareRearrange(any(), any(), any(), anyMap())).thenReturn(new StatusResponseDTO(true, ""));
+        when(nodeManagementClient.applyAction(any())).thenReturn(new StatusResponseDTO(true, ""));
+        when(nodeManagementClient.processAction(any())).thenAnswer(invocation -> {
+            if (holdProcess && invocation.getArgument(0) == Action.REARRANGE_SHARDS) {
+                processing.countDown();
+
+                reshardReleased.await();
+            }
+
+            return new StatusResponseDTO(true, "");
+        });
+
+        topologyService = new TopologyService(discoveryClient, clientCachingFactory);
+
+        for (int serverId = 0; serverId < SERVER_COUNT; serverId++) {
+            topologyService.addServer(serverId, voidRw());
+        }
+
+        topologyService.changeShardCount(shards, voidRw());
+
+        holdProcess = true;
+
+        reshard = Thread.ofPlatform().start(() -> topologyService.changeShardCount(shards * 2, voidRw()));
+
+        processing.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        reshardReleased.countDown();
+
+        reshard.join();
+    }
+
+    @Benchmark
+    public Map<Integer, Long> shardToHash() {
+        return toMap(topologyService::fillShardToHashInSync);
+    }
+
+    @Benchmark
+    public Map<Integer, List<Integer>> serverToShards() {
+        return toMap(topologyService::fillServerToShardsInSync);
+    }
+}
@@ -11,9 +11,12 @@ import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
 import vk.itmo.teamgray.sharded.storage.master.proto.MasterClientGrpcService;
 import vk.itmo.teamgray.sharded.storage.master.proto.NodeManagementGrpcClient;
 import vk.itmo.teamgray.sharded.storage.master.service.MasterClientService;
+import vk.itmo.teamgray.sharded.storage.master.service.topology.ShardRebalancer;
+import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologyPusher;
 import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologyService;
 
 import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getDiscoverableService;
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getIntProperty;
 import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getServerHost;
 import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getServerPort;
 
@@ -39,8 +42,13 @@ public class MasterApplication {
 
         serverRunner.setPort(port);
 
-        serverRunner.registerService(
-            new MasterClientGrpcService(new MasterClientService(new TopologyService(discoveryClient, clientFactory))));
+        TopologyService topologyService = new TopologyService(discoveryClient, clientFactory);
+
+        topologyService.addListener(new TopologyPusher(clientFactory, topologyService.getSnapshot()));
+
+        new ShardRebalancer(topologyService, clientFactory).start(getIntProperty("master.rebalance.interval-ms", 60_000));
+
+        serverRunner.registerService(new MasterClientGrpcService(new MasterClientService(topologyService)));
         serverRunner.registerService(new HealthGrpcService(new HealthService()));
 
         serverRunner.start();
@@ -4,19 +4,25 @@ import java.util.List;
 import java.util.Map;
 import vk.itmo.teamgray.sharded.storage.common.client.Client;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 
 public interface NodeManagementClient extends Client {
-    StatusResponseDTO prepareMove(List<Integer> receiveShardIds, List<SendShardTaskDTO> sendShards, int fullShardCount);
+    StatusResponseDTO prepareMove(List<Integer> receiveShardIds, List<SendShardTaskDTO> sendShards, Map<Integer, Long> fullShardToHash);
 
     StatusResponseDTO prepareRearrange(Map<Integer, Long> shardToHash, List<FragmentDTO> fragments, Map<Integer, Integer> relevantNodes,
-        int fullShardCount);
+        Map<Integer, Long> fullShardToHash);
 
     StatusResponseDTO processAction(Action action);
 
     StatusResponseDTO applyAction(Action action);
 
     StatusResponseDTO rollbackAction(Action action);
+
+    StatusResponseDTO updateTopology(TopologyDTO topology);
+
+    NodeStatusResponseDTO getNodeStatus();
 }
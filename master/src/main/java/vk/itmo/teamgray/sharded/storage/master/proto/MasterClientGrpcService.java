@@ -1,6 +1,8 @@
 package vk.itmo.teamgray.sharded.storage.master.proto;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.util.concurrent.atomic.AtomicReference;
 import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
 import vk.itmo.teamgray.sharded.storage.master.client.AddServerRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.ChangeShardCountRequest;
@@ -11,8 +13,15 @@ import vk.itmo.teamgray.sharded.storage.master.client.GetServerToStateRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.GetServerToStateResponse;
 import vk.itmo.teamgray.sharded.storage.master.client.GetShardToHashRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.GetShardToHashResponse;
+import vk.itmo.teamgray.sharded.storage.master.client.GetTopologyRequest;
 import vk.itmo.teamgray.sharded.storage.master.client.IntList;
 import vk.itmo.teamgray.sharded.storage.master.client.MasterClientServiceGrpc;
+import vk.itmo.teamgray.sharded.storage.master.client.MergeShardsRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.SetReplicationFactorRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.SplitShardRequest;
+import vk.itmo.teamgray.sharded.storage.master.client.Topology;
+import vk.itmo.teamgray.sharded.storage.master.client.TopologyUpdate;
+import vk.itmo.teamgray.sharded.storage.master.client.WatchTopologyRequest;
 import vk.itmo.teamgray.sharded.storage.master.service.MasterClientService;
 
 import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.fromGrpcBuilder;
@@ -59,6 +68,28 @@ public class MasterClientGrpcService extends MasterClientServiceGrpc.MasterClien
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void getTopology(GetTopologyRequest request, StreamObserver<Topology> responseObserver) {
+        responseObserver.onNext(masterClientService.getTopology().toGrpc());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void watchTopology(WatchTopologyRequest request, StreamObserver<TopologyUpdate> responseObserver) {
+        var serverObserver = (ServerCallStreamObserver<TopologyUpdate>)responseObserver;
+
+        AtomicReference<Runnable> unsubscribe = new AtomicReference<>(() -> {});
+
+        // Set before the first update, so that updates to a cancelled call are dropped instead of failing.
+        serverObserver.setOnCancelHandler(() -> unsubscribe.get().run());
+
+        unsubscribe.set(masterClientService.watchTopology(request.getKnownEpoch(), update -> responseObserver.onNext(update.toGrpc())));
+
+        if (serverObserver.isCancelled()) {
+            unsubscribe.get().run();
+        }
+    }
+
     @Override
     public void addServer(AddServerRequest request, StreamObserver<StatusResponse> responseObserver) {
         var response = StatusResponse.newBuilder();
@@ -88,4 +119,34 @@ public class MasterClientGrpcService extends MasterClientServiceGrpc.MasterClien
         responseObserver.onNext(response.build());
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void splitShard(SplitShardRequest request, StreamObserver<StatusResponse> responseObserver) {
+        var response = StatusResponse.newBuilder();
+
+        masterClientService.splitShard(request.getShardId(), request.getAtHash(), fromGrpcBuilder(response));
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void mergeShards(MergeShardsRequest request, StreamObserver<StatusResponse> responseObserver) {
+        var response = StatusResponse.newBuilder();
+
+        masterClientService.mergeShards(request.getShardId(), request.getOtherShardId(), fromGrpcBuilder(response));
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void setReplicationFactor(SetReplicationFactorRequest request, StreamObserver<StatusResponse> responseObserver) {
+        var response = StatusResponse.newBuilder();
+
+        masterClientService.setReplicationFactor(request.getReplicationFactor(), fromGrpcBuilder(response));
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
 }
@@ -6,10 +6,13 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import vk.itmo.teamgray.sharded.storage.common.Empty;
 import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.common.proto.AbstractGrpcClient;
 import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
@@ -30,11 +33,16 @@ public class NodeManagementGrpcClient extends AbstractGrpcClient<NodeManagementS
     }
 
     @Override
-    public StatusResponseDTO prepareMove(List<Integer> receiveShardIds, List<SendShardTaskDTO> sendShards, int fullShardCount) {
+    public StatusResponseDTO prepareMove(
+        List<Integer> receiveShardIds,
+        List<SendShardTaskDTO> sendShards,
+        Map<Integer, Long> fullShardToHash
+    ) {
         PrepareMoveRequest request = PrepareMoveRequest.newBuilder()
             .addAllReceiveShardIds(receiveShardIds)
             .addAllSendShards(sendShards.stream().map(SendShardTaskDTO::toGrpc).collect(Collectors.toList()))
-            .setFullShardCount(fullShardCount)
+            .setFullShardCount(fullShardToHash.size())
+            .putAllFullShardToHash(fullShardToHash)
             .build();
 
         StatusResponse response = blockingStub.prepareMove(request);
@@ -47,13 +55,14 @@ public class NodeManagementGrpcClient extends AbstractGrpcClient<NodeManagementS
         Map<Integer, Long> shardToHash,
         List<FragmentDTO> fragments,
         Map<Integer, Integer> relevantNodes,
-        int fullShardCount
+        Map<Integer, Long> fullShardToHash
     ) {
         PrepareRearrangeRequest request = PrepareRearrangeRequest.newBuilder()
             .putAllShardToHash(shardToHash)
             .addAllFragments(fragments.stream().map(FragmentDTO::toGrpc).toList())
             .putAllServerByShardNumber(relevantNodes)
-            .setFullShardCount(fullShardCount)
+            .setFullShardCount(fullShardToHash.size())
+            .putAllFullShardToHash(fullShardToHash)
             .build();
 
         StatusResponse grpcResponse = blockingStub.withDeadlineAfter(10, TimeUnit.SECONDS)
@@ -97,4 +106,20 @@ public class NodeManagementGrpcClient extends AbstractGrpcClient<NodeManagementS
 
         return new StatusResponseDTO(grpcResponse);
     }
+
+    @Override
+    public StatusResponseDTO updateTopology(TopologyDTO topology) {
+        StatusResponse grpcResponse = blockingStub.withDeadlineAfter(10, TimeUnit.SECONDS)
+            .updateTopology(topology.toGrpc());
+
+        return new StatusResponseDTO(grpcResponse);
+    }
+
+    @Override
+    public NodeStatusResponseDTO getNodeStatus() {
+        return NodeStatusResponseDTO.fromGrpc(
+            blockingStub.withDeadlineAfter(10, TimeUnit.SECONDS)
+                .getNodeStatus(Empty.newBuilder().build())
+        );
+    }
 }
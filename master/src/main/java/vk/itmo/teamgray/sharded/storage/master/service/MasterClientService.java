@@ -1,12 +1,16 @@
 package vk.itmo.teamgray.sharded.storage.master.service;
 
 import java.util.List;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.MapResponseWriter;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter;
 import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologyService;
+import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologySnapshot;
 
 public class MasterClientService {
     private static final Logger log = LoggerFactory.getLogger(MasterClientService.class);
@@ -41,6 +45,39 @@ public class MasterClientService {
         log.info("Returning {} shards with hashes", size);
     }
 
+    public TopologyDTO getTopology() {
+        log.info("Received Topology request");
+
+        var topology = topologyService.getSnapshot().toDto();
+
+        log.info("Returning topology of epoch {}", topology.epoch());
+
+        return topology;
+    }
+
+    /**
+     * Sends the current topology as a full update if its epoch differs from {@code knownEpoch}, then a delta on every change. Updates
+     * are sent one at a time and with growing epochs.
+     *
+     * @return callback to stop watching
+     */
+    public Runnable watchTopology(long knownEpoch, Consumer<TopologyUpdateDTO> sink) {
+        log.info("Watching topology from epoch {}", knownEpoch);
+
+        var watch = new TopologyWatch(sink);
+
+        // Registered first, so that no change is missed between reading the snapshot and subscribing.
+        topologyService.addListener(watch);
+
+        watch.start(knownEpoch, topologyService.getSnapshot());
+
+        return () -> {
+            topologyService.removeListener(watch);
+
+            log.info("Stopped watching topology");
+        };
+    }
+
     public void addServer(int serverId, StatusResponseWriter responseWriter) {
         log.info("Adding server {}", serverId);
 
@@ -68,4 +105,57 @@ public class MasterClientService {
 
         log.info("Changed shard count successfully");
     }
+
+    public void splitShard(int shardId, long atHash, StatusResponseWriter responseWriter) {
+        log.info("Splitting shard {} at hash {}", shardId, atHash);
+
+        topologyService.splitShard(shardId, atHash, responseWriter);
+    }
+
+    public void mergeShards(int shardId, int otherShardId, StatusResponseWriter responseWriter) {
+        log.info("Merging shard {} into shard {}", otherShardId, shardId);
+
+        topologyService.mergeShards(shardId, otherShardId, responseWriter);
+    }
+
+    public void setReplicationFactor(int replicationFactor, StatusResponseWriter responseWriter) {
+        log.info("Setting replication factor to {}", replicationFactor);
+
+        topologyService.setReplicationFactor(replicationFactor, responseWriter);
+    }
+
+    private static class TopologyWatch implements Consumer<TopologySnapshot> {
+        private final Consumer<TopologyUpdateDTO> sink;
+
+        // Last topology sent or known to the watcher, null until started.
+        private TopologyDTO sent;
+
+        private TopologyWatch(Consumer<TopologyUpdateDTO> sink) {
+            this.sink = sink;
+        }
+
+        private synchronized void start(long knownEpoch, TopologySnapshot current) {
+            var topology = current.toDto();
+
+            if (topology.epoch() != knownEpoch) {
+                sink.accept(TopologyUpdateDTO.between(TopologyDTO.EMPTY, topology));
+            }
+
+            sent = topology;
+        }
+
+        @Override
+        public synchronized void accept(TopologySnapshot snapshot) {
+            // Not started yet or already sent, start reads a snapshot that is at least as new.
+            if (sent == null || snapshot.epoch() <= sent.epoch()) {
+                return;
+            }
+
+            var topology = snapshot.toDto();
+
+            sink.accept(TopologyUpdateDTO.between(sent, topology));
+
+            sent = topology;
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.node.ActionPhase;
+
+/**
+ * Dispatches a phase of a topology change to all participating nodes at once, each call on its own virtual thread, and waits for all
+ * of them or the timeout. Nodes that failed with an exception or did not respond in time get a failed response.
+ */
+class PhaseFanOut {
+    private static final Logger log = LoggerFactory.getLogger(PhaseFanOut.class);
+
+    private final Duration timeout;
+
+    // Action and phase to latencies of the whole phase.
+    private final Map<String, LongSummaryStatistics> phaseLatencies = new ConcurrentHashMap<>();
+
+    PhaseFanOut(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return responses by server id, in order of {@code serverIds}
+     */
+    PhaseResult run(
+        Action action,
+        ActionPhase phase,
+        Collection<Integer> serverIds,
+        Function<Integer, StatusResponseDTO> call
+    ) {
+        List<Integer> servers = List.copyOf(serverIds);
+
+        // Nothing to move, not counted in latencies.
+        if (servers.isEmpty()) {
+            return new PhaseResult(Map.of(), 0);
+        }
+
+        long start = System.nanoTime();
+
+        Map<Integer, StatusResponseDTO> responses = new LinkedHashMap<>();
+        Map<Integer, Long> nodeMillis = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        try {
+            List<Callable<StatusResponseDTO>> tasks = new ArrayList<>();
+
+            for (Integer serverId : servers) {
+                tasks.add(() -> {
+                    long nodeStart = System.nanoTime();
+
+                    try {
+                        return call.apply(serverId);
+                    } finally {
+                        nodeMillis.put(serverId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nodeStart));
+                    }
+                });
+            }
+
+            // Phase barrier, unfinished calls are cancelled on timeout.
+            List<Future<StatusResponseDTO>> futures = executor.invokeAll(tasks, timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+            for (int i = 0; i < servers.size(); i++) {
+                responses.put(servers.get(i), getResponse(futures.get(i)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            servers.forEach(serverId -> responses.putIfAbsent(serverId, new StatusResponseDTO(false, "Interrupted")));
+        } finally {
+            // Does not wait for calls that ignore interruption.
+            executor.shutdownNow();
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Statistics are replaced instead of updated, so that returned ones are never modified.
+        phaseLatencies.compute(action + " " + phase, (key, previous) -> {
+            var statistics = new LongSummaryStatistics();
+
+            if (previous != null) {
+                statistics.combine(previous);
+            }
+
+            statistics.accept(millis);
+
+            return statistics;
+        });
+
+        log.info("{} {} on {} nodes took {} ms, per node: {}", action, phase, servers.size(), millis, nodeMillis);
+
+        return new PhaseResult(responses, millis);
+    }
+
+    /**
+     * Latency statistics of every phase run so far, by action and phase.
+     */
+    Map<String, LongSummaryStatistics> getPhaseLatencies() {
+        return Map.copyOf(phaseLatencies);
+    }
+
+    private StatusResponseDTO getResponse(Future<StatusResponseDTO> future) throws InterruptedException {
+        try {
+            return Objects.requireNonNullElseGet(future.get(), () -> new StatusResponseDTO(false, "No response"));
+        } catch (CancellationException e) {
+            return new StatusResponseDTO(false, "Timed out after " + timeout.toMillis() + " ms");
+        } catch (ExecutionException e) {
+            log.error("Caught exception: ", e.getCause());
+
+            return new StatusResponseDTO(false, String.valueOf(e.getCause().getMessage()));
+        }
+    }
+
+    record PhaseResult(Map<Integer, StatusResponseDTO> responses, long millis) {
+        boolean isSuccess() {
+            return responses.values().stream().allMatch(StatusResponseDTO::isSuccess);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single rebalancing step, made for the topology of the given epoch.
+ *
+ * @param shardToHash new shard scheme, same as the current one for moves
+ * @param serverToShards new shards of every server
+ */
+public record RebalancePlan(
+    Kind kind,
+    long epoch,
+    String description,
+    Map<Integer, Long> shardToHash,
+    Map<Integer, List<Integer>> serverToShards
+) {
+    public enum Kind {
+        SPLIT, MERGE, MOVE
+    }
+}
@@ -0,0 +1,233 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import vk.itmo.teamgray.sharded.storage.common.dto.ShardStatsDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+
+/**
+ * Plans one rebalancing step from shard load reported by nodes, in order of priority:
+ * <ul>
+ *     <li>splits the hottest shard over split thresholds at the hash halving its recent operations, halves stay on the same server;</li>
+ *     <li>merges the coldest pair of adjacent shards under merge thresholds, while there are more shards than servers;</li>
+ *     <li>moves a shard from the most loaded server to the least loaded one, if the former is over the allowed imbalance.</li>
+ * </ul>
+ * Splits and merges are done with {@link ShardRanges}, so other shards keep their ids and only owners of changed shards take part.
+ */
+public class RebalancePlanner {
+    /**
+     * @param maxImbalance allowed excess of the most loaded server over the average ops per second, {@code 0.25} for 25%
+     */
+    public record Thresholds(
+        double splitOpsPerSecond,
+        long splitBytes,
+        double mergeOpsPerSecond,
+        long mergeBytes,
+        double maxImbalance,
+        int minShardCount,
+        int maxShardCount
+    ) {
+        // No-op.
+    }
+
+    private record Shard(int position, int shardId, int serverId, ShardStatsDTO stats) {
+        double ops() {
+            return stats.getOpsPerSecond();
+        }
+
+        // Engines not tracking bytes report -1, such shards are sized only by load.
+        long bytes() {
+            return Math.max(stats.getBytesUsed(), 0);
+        }
+    }
+
+    private final Thresholds thresholds;
+
+    public RebalancePlanner(Thresholds thresholds) {
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * @param serverToShardStats stats of shards reported by every server of the snapshot
+     * @return plan for the snapshot epoch, empty if shards are balanced or stats of some shard are missing
+     */
+    public Optional<RebalancePlan> plan(TopologySnapshot snapshot, Map<Integer, Map<Integer, ShardStatsDTO>> serverToShardStats) {
+        var boundaries = ShardBoundaries.fromShardToHash(snapshot.shardToHash());
+
+        if (boundaries.isEmpty() || snapshot.serverToShards().isEmpty()) {
+            return Optional.empty();
+        }
+
+        Map<Integer, Integer> shardToServer = new HashMap<>();
+
+        snapshot.serverToShards().forEach((serverId, shards) -> shards.forEach(shardId -> shardToServer.put(shardId, serverId)));
+
+        List<Shard> shards = new ArrayList<>();
+
+        for (int position = 0; position < boundaries.getShardCount(); position++) {
+            int shardId = boundaries.shardIdAt(position);
+            Integer serverId = shardToServer.get(shardId);
+
+            var stats = serverId == null ? null : serverToShardStats.getOrDefault(serverId, Map.of()).get(shardId);
+
+            if (stats == null) {
+                return Optional.empty();
+            }
+
+            shards.add(new Shard(position, shardId, serverId, stats));
+        }
+
+        return split(snapshot, boundaries, shards)
+            .or(() -> merge(snapshot, shards))
+            .or(() -> move(snapshot, shards));
+    }
+
+    private Optional<RebalancePlan> split(TopologySnapshot snapshot, ShardBoundaries boundaries, List<Shard> shards) {
+        if (shards.size() >= thresholds.maxShardCount()) {
+            return Optional.empty();
+        }
+
+        return shards.stream()
+            .filter(shard -> shard.ops() >= thresholds.splitOpsPerSecond() || shard.bytes() >= thresholds.splitBytes())
+            .filter(shard -> splitHash(boundaries, shard) != null)
+            .max(Comparator.comparingDouble(Shard::ops).thenComparingLong(Shard::bytes))
+            .map(shard -> {
+                long splitHash = splitHash(boundaries, shard);
+
+                return plan(
+                    RebalancePlan.Kind.SPLIT,
+                    snapshot,
+                    ShardRanges.split(snapshot, shard.shardId(), splitHash),
+                    "split shard " + shard.shardId() + " of server " + shard.serverId() + " (" + describe(shard) + ") at hash " + splitHash
+                );
+            });
+    }
+
+    // Median of recent operations if it is inside of the range, middle of the range otherwise, null if range can not be split.
+    private static Long splitHash(ShardBoundaries boundaries, Shard shard) {
+        long lower = boundaries.lowerBoundAt(shard.position());
+        long upper = boundaries.upperBoundAt(shard.position());
+
+        long reported = shard.stats().getSplitHash();
+
+        if (reported > lower && reported < upper) {
+            return reported;
+        }
+
+        long middle = lower + ((upper - lower) >>> 1);
+
+        return middle > lower && middle < upper ? middle : null;
+    }
+
+    private Optional<RebalancePlan> merge(TopologySnapshot snapshot, List<Shard> shards) {
+        if (shards.size() <= Math.max(thresholds.minShardCount(), snapshot.serverToShards().size())) {
+            return Optional.empty();
+        }
+
+        Shard coldest = null;
+
+        for (int position = 0; position + 1 < shards.size(); position++) {
+            var left = shards.get(position);
+            var right = shards.get(position + 1);
+
+            if (!isCold(left) || !isCold(right)) {
+                continue;
+            }
+
+            // Merged shard should not be split right away.
+            if (left.ops() + right.ops() >= thresholds.splitOpsPerSecond() || left.bytes() + right.bytes() >= thresholds.splitBytes()) {
+                continue;
+            }
+
+            if (coldest == null || left.ops() + right.ops() < coldest.ops() + shards.get(coldest.position() + 1).ops()) {
+                coldest = left;
+            }
+        }
+
+        if (coldest == null) {
+            return Optional.empty();
+        }
+
+        var left = coldest;
+        var right = shards.get(left.position() + 1);
+
+        // Merged shard stays with the owner of more entries, so that fewer of them are transferred.
+        var kept = left.stats().getSize() >= right.stats().getSize() ? left : right;
+        var merged = kept == left ? right : left;
+
+        return Optional.of(plan(
+            RebalancePlan.Kind.MERGE,
+            snapshot,
+            ShardRanges.merge(snapshot, kept.shardId(), merged.shardId()),
+            "merge shard " + merged.shardId() + " (" + describe(merged) + ") into shard " + kept.shardId() + " (" + describe(kept)
+                + ") on server " + kept.serverId()
+        ));
+    }
+
+    private boolean isCold(Shard shard) {
+        return shard.ops() <= thresholds.mergeOpsPerSecond() && shard.bytes() <= thresholds.mergeBytes();
+    }
+
+    private Optional<RebalancePlan> move(TopologySnapshot snapshot, List<Shard> shards) {
+        if (snapshot.serverToShards().size() < 2) {
+            return Optional.empty();
+        }
+
+        Map<Integer, Double> serverToOps = new HashMap<>();
+
+        snapshot.serverToShards().keySet().forEach(serverId -> serverToOps.put(serverId, 0.0));
+        shards.forEach(shard -> serverToOps.merge(shard.serverId(), shard.ops(), Double::sum));
+
+        Comparator<Map.Entry<Integer, Double>> byOps = Map.Entry.<Integer, Double>comparingByValue()
+            .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
+        var hottest = serverToOps.entrySet().stream().max(byOps).orElseThrow();
+        var coldest = serverToOps.entrySet().stream().min(byOps).orElseThrow();
+
+        double average = serverToOps.values().stream().mapToDouble(Double::doubleValue).sum() / serverToOps.size();
+
+        if (average <= 0 || hottest.getValue() <= average * (1 + thresholds.maxImbalance())) {
+            return Optional.empty();
+        }
+
+        // Moving more than half of the difference would make the target the most loaded server.
+        double maxOps = (hottest.getValue() - coldest.getValue()) / 2;
+
+        return shards.stream()
+            .filter(shard -> shard.serverId() == hottest.getKey())
+            .filter(shard -> shard.ops() > 0 && shard.ops() <= maxOps)
+            .max(Comparator.comparingDouble(Shard::ops))
+            .map(shard -> {
+                Map<Integer, List<Integer>> newServerToShards = new HashMap<>();
+
+                snapshot.serverToShards().forEach((serverId, serverShards) ->
+                    newServerToShards.put(serverId, new ArrayList<>(serverShards))
+                );
+
+                newServerToShards.get(hottest.getKey()).remove((Integer)shard.shardId());
+                newServerToShards.get(coldest.getKey()).add(shard.shardId());
+
+                return new RebalancePlan(
+                    RebalancePlan.Kind.MOVE,
+                    snapshot.epoch(),
+                    "move shard " + shard.shardId() + " (" + describe(shard) + ") from server " + hottest.getKey() + " ("
+                        + Math.round(hottest.getValue()) + " ops/s) to server " + coldest.getKey() + " ("
+                        + Math.round(coldest.getValue()) + " ops/s)",
+                    snapshot.shardToHash(),
+                    newServerToShards
+                );
+            });
+    }
+
+    private static RebalancePlan plan(RebalancePlan.Kind kind, TopologySnapshot snapshot, TopologySnapshot changed, String description) {
+        return new RebalancePlan(kind, snapshot.epoch(), description, changed.shardToHash(), changed.serverToShards());
+    }
+
+    private static String describe(Shard shard) {
+        return Math.round(shard.ops()) + " ops/s, " + shard.stats().getSize() + " keys";
+    }
+}
@@ -0,0 +1,115 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rendezvous (highest random weight) hashing with bounded loads. Every server scores every shard with a hash of both ids, and shards go
+ * to their best scoring servers that still have room. Servers get {@code shards / servers} shards, rounded up for the ones keeping the
+ * most of their current shards.
+ * <p>
+ * Servers keep their best scoring current shards up to their load, so only shards of removed servers and ones over the load of their
+ * servers move, about {@code 1 / servers} of all shards when a server joins or leaves. Without a current placement it is plain
+ * rendezvous hashing with bounded loads, independent of the order of servers.
+ */
+public class RendezvousPlacement implements ShardPlacement {
+    private record Candidate(int serverId, int shardId, long score) {
+        // No-op.
+    }
+
+    @Override
+    public Map<Integer, List<Integer>> place(List<Integer> serverList, List<Integer> shardList, Map<Integer, List<Integer>> current) {
+        Map<Integer, List<Integer>> newServerToShards = new HashMap<>();
+
+        if (serverList.isEmpty()) {
+            return newServerToShards;
+        }
+
+        Set<Integer> shards = new HashSet<>(shardList);
+        Map<Integer, List<Integer>> kept = new HashMap<>();
+
+        for (int serverId : serverList) {
+            newServerToShards.put(serverId, new ArrayList<>());
+
+            kept.put(
+                serverId,
+                current.getOrDefault(serverId, List.of()).stream()
+                    .filter(shards::contains)
+                    .sorted(Comparator.comparingLong((Integer shardId) -> score(serverId, shardId)).reversed())
+                    .toList()
+            );
+        }
+
+        Map<Integer, Integer> loads = loads(serverList, shardList.size(), kept);
+        Set<Integer> placed = new HashSet<>();
+
+        kept.forEach((serverId, keptShards) -> {
+            for (int shardId : keptShards) {
+                if (newServerToShards.get(serverId).size() < loads.get(serverId) && placed.add(shardId)) {
+                    newServerToShards.get(serverId).add(shardId);
+                }
+            }
+        });
+
+        List<Candidate> candidates = new ArrayList<>();
+
+        for (int serverId : serverList) {
+            if (newServerToShards.get(serverId).size() == loads.get(serverId)) {
+                continue;
+            }
+
+            for (int shardId : shardList) {
+                if (!placed.contains(shardId)) {
+                    candidates.add(new Candidate(serverId, shardId, score(serverId, shardId)));
+                }
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong(Candidate::score).reversed());
+
+        for (Candidate candidate : candidates) {
+            List<Integer> serverShards = newServerToShards.get(candidate.serverId());
+
+            if (serverShards.size() < loads.get(candidate.serverId()) && placed.add(candidate.shardId())) {
+                serverShards.add(candidate.shardId());
+            }
+        }
+
+        newServerToShards.values().forEach(serverShards -> serverShards.sort(Comparator.naturalOrder()));
+
+        return newServerToShards;
+    }
+
+    // Remainder goes to servers keeping the most shards, so that they do not have to give one away.
+    private static Map<Integer, Integer> loads(List<Integer> serverList, int shardCount, Map<Integer, List<Integer>> kept) {
+        int load = shardCount / serverList.size();
+        int remainder = shardCount % serverList.size();
+
+        List<Integer> servers = serverList.stream()
+            .sorted(Comparator.comparingInt((Integer serverId) -> kept.get(serverId).size()).reversed().thenComparing(serverId -> serverId))
+            .toList();
+
+        Map<Integer, Integer> loads = new HashMap<>();
+
+        for (int i = 0; i < servers.size(); i++) {
+            loads.put(servers.get(i), i < remainder ? load + 1 : load);
+        }
+
+        return loads;
+    }
+
+    // SplitMix64 finalizer, a bijection, so no two servers score a shard equally.
+    private static long score(int serverId, int shardId) {
+        long z = (((long)serverId << 32) | (shardId & 0xFFFFFFFFL)) + 0x9E3779B97F4A7C15L;
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,36 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deals shards to servers in list order regardless of the current placement. Perfectly even, but adding or removing a server shifts
+ * almost every shard to another owner.
+ */
+public class RoundRobinPlacement implements ShardPlacement {
+    @Override
+    public Map<Integer, List<Integer>> place(List<Integer> serverList, List<Integer> shardList, Map<Integer, List<Integer>> current) {
+        Map<Integer, List<Integer>> newServerToShards = new HashMap<>();
+
+        if (serverList.isEmpty()) {
+            return newServerToShards;
+        }
+
+        int serverCount = serverList.size();
+
+        serverList.forEach(server -> newServerToShards.put(server, new ArrayList<>()));
+
+        // Distribute shards in round-robin
+        int serverIndex = 0;
+
+        for (Integer shardId : shardList) {
+            int targetServer = serverList.get(serverIndex);
+            newServerToShards.get(targetServer).add(shardId);
+            serverIndex = (serverIndex + 1) % serverCount;
+        }
+
+        return newServerToShards;
+    }
+}
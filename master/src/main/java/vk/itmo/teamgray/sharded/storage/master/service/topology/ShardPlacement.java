@@ -0,0 +1,26 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns shards to servers. Shards whose owner differs from the current placement are moved by the topology change.
+ */
+public interface ShardPlacement {
+    /**
+     * @param current current shards of every server, empty if shards are not placed yet or their ids mean other ranges now
+     * @return shards of every server, servers without shards are mapped to empty lists
+     */
+    Map<Integer, List<Integer>> place(List<Integer> serverList, List<Integer> shardList, Map<Integer, List<Integer>> current);
+
+    /**
+     * @param name {@code round-robin} or {@code rendezvous}
+     */
+    static ShardPlacement of(String name) {
+        return switch (name) {
+            case "round-robin" -> new RoundRobinPlacement();
+            case "rendezvous" -> new RendezvousPlacement();
+            default -> throw new IllegalArgumentException("Unknown shard placement: " + name);
+        };
+    }
+}
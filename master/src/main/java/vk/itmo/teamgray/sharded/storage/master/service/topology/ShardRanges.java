@@ -0,0 +1,95 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+
+/**
+ * Single-shard changes of a shard scheme. Ids of other shards and their ranges are kept, so that only owners of the changed shards
+ * take part in the topology change. Changed schemes keep the epoch of the current one, as they are not published yet.
+ */
+final class ShardRanges {
+    private ShardRanges() {
+        // No-op.
+    }
+
+    /**
+     * Shard keeps hashes up to {@code atHash}, hashes above it go to a new shard with the next free id on the same server.
+     *
+     * @throws IllegalArgumentException if there is no such shard or the hash is not strictly inside of its range
+     */
+    static TopologySnapshot split(TopologySnapshot current, int shardId, long atHash) {
+        var boundaries = ShardBoundaries.fromShardToHash(current.shardToHash());
+        int position = boundaries.positionOf(shardId);
+
+        if (position < 0) {
+            throw new IllegalArgumentException("Shard " + shardId + " does not exist");
+        }
+
+        long lower = boundaries.lowerBoundAt(position);
+        long upper = boundaries.upperBoundAt(position);
+
+        if (atHash <= lower || atHash >= upper) {
+            throw new IllegalArgumentException(
+                "Hash " + atHash + " is not inside of shard " + shardId + " range (" + lower + ", " + upper + "]"
+            );
+        }
+
+        int newShardId = Collections.max(current.shardToHash().keySet()) + 1;
+
+        Map<Integer, Long> shardToHash = new HashMap<>(current.shardToHash());
+
+        shardToHash.put(shardId, atHash);
+        shardToHash.put(newShardId, upper);
+
+        var serverToShards = copy(current.serverToShards());
+
+        serverToShards.values().stream()
+            .filter(shards -> shards.contains(shardId))
+            .forEach(shards -> shards.add(newShardId));
+
+        return new TopologySnapshot(current.epoch(), serverToShards, shardToHash, current.servers(), current.replicationFactor());
+    }
+
+    /**
+     * Merged shard keeps id and owner of {@code shardId}, entries of the other shard are moved to it.
+     *
+     * @throws IllegalArgumentException if shards do not exist or are not adjacent
+     */
+    static TopologySnapshot merge(TopologySnapshot current, int shardId, int otherShardId) {
+        var boundaries = ShardBoundaries.fromShardToHash(current.shardToHash());
+
+        int position = boundaries.positionOf(shardId);
+        int otherPosition = boundaries.positionOf(otherShardId);
+
+        if (position < 0 || otherPosition < 0 || shardId == otherShardId) {
+            throw new IllegalArgumentException("Shards " + shardId + " and " + otherShardId + " should be two existing shards");
+        }
+
+        if (Math.abs(position - otherPosition) != 1) {
+            throw new IllegalArgumentException("Shards " + shardId + " and " + otherShardId + " are not adjacent");
+        }
+
+        Map<Integer, Long> shardToHash = new HashMap<>(current.shardToHash());
+
+        shardToHash.remove(otherShardId);
+        shardToHash.put(shardId, boundaries.upperBoundAt(Math.max(position, otherPosition)));
+
+        var serverToShards = copy(current.serverToShards());
+
+        serverToShards.values().forEach(shards -> shards.remove((Integer)otherShardId));
+
+        return new TopologySnapshot(current.epoch(), serverToShards, shardToHash, current.servers(), current.replicationFactor());
+    }
+
+    private static Map<Integer, List<Integer>> copy(Map<Integer, List<Integer>> serverToShards) {
+        Map<Integer, List<Integer>> copy = new HashMap<>();
+
+        serverToShards.forEach((serverId, shards) -> copy.put(serverId, new ArrayList<>(shards)));
+
+        return copy;
+    }
+}
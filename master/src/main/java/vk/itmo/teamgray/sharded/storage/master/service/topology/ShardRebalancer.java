@@ -0,0 +1,146 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.ShardStatsDTO;
+import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
+
+import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.toDto;
+
+/**
+ * Periodically collects shard load from all nodes and applies one step planned by {@link RebalancePlanner}. Rounds are skipped while
+ * some node is unreachable or busy with another topology change. In dry-run mode plans are only logged.
+ */
+public class ShardRebalancer {
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private final TopologyService topologyService;
+
+    private final ClientCachingFactory clientCachingFactory;
+
+    private final RebalancePlanner planner;
+
+    private final boolean dryRun;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        runnable -> Thread.ofPlatform().name("shard-rebalancer").daemon().unstarted(runnable)
+    );
+
+    public ShardRebalancer(TopologyService topologyService, ClientCachingFactory clientCachingFactory) {
+        this(
+            topologyService,
+            clientCachingFactory,
+            new RebalancePlanner(new RebalancePlanner.Thresholds(
+                PropertyUtils.getIntProperty("master.rebalance.split.ops-per-second", 5_000),
+                PropertyUtils.getMemSizeProperty("master.rebalance.split.bytes", 256L * 1024 * 1024),
+                PropertyUtils.getIntProperty("master.rebalance.merge.ops-per-second", 50),
+                PropertyUtils.getMemSizeProperty("master.rebalance.merge.bytes", 16L * 1024 * 1024),
+                PropertyUtils.getIntProperty("master.rebalance.max-imbalance-percent", 25) / 100.0,
+                PropertyUtils.getIntProperty("master.rebalance.min-shard-count", 1),
+                PropertyUtils.getIntProperty("master.rebalance.max-shard-count", 1024)
+            )),
+            Boolean.parseBoolean(PropertyUtils.getProperty("master.rebalance.dry-run", "true"))
+        );
+    }
+
+    public ShardRebalancer(
+        TopologyService topologyService,
+        ClientCachingFactory clientCachingFactory,
+        RebalancePlanner planner,
+        boolean dryRun
+    ) {
+        this.topologyService = topologyService;
+        this.clientCachingFactory = clientCachingFactory;
+        this.planner = planner;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * @param intervalMillis interval between rounds, {@code 0} disables rebalancing
+     */
+    public void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            log.info("Shard rebalancing is disabled");
+
+            return;
+        }
+
+        log.info("Rebalancing shards every {} ms{}", intervalMillis, dryRun ? " in dry-run mode" : "");
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebalance();
+            } catch (Exception e) {
+                log.error("Rebalancing round failed: ", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single round.
+     *
+     * @return plan of the round, empty if there was nothing to do or the round was skipped
+     */
+    public Optional<RebalancePlan> rebalance() {
+        var snapshot = topologyService.getSnapshot();
+
+        Map<Integer, Map<Integer, ShardStatsDTO>> serverToShardStats = new HashMap<>();
+
+        for (int serverId : snapshot.serverToShards().keySet()) {
+            var server = snapshot.servers().get(serverId);
+
+            if (server == null) {
+                log.debug("Skipping rebalancing, address of server {} is unknown", serverId);
+
+                return Optional.empty();
+            }
+
+            try {
+                var status = clientCachingFactory.getClient(server, NodeManagementClient.class).getNodeStatus();
+
+                if (status.getState() != NodeState.RUNNING) {
+                    log.debug("Skipping rebalancing, server {} is {}", serverId, status.getState());
+
+                    return Optional.empty();
+                }
+
+                serverToShardStats.put(serverId, status.getShardStats());
+            } catch (Exception e) {
+                log.warn("Skipping rebalancing, could not get status of server {}", serverId, e);
+
+                return Optional.empty();
+            }
+        }
+
+        var plan = planner.plan(snapshot, serverToShardStats);
+
+        if (plan.isEmpty()) {
+            return plan;
+        }
+
+        if (dryRun) {
+            log.info("Dry run, would {}", plan.get().description());
+
+            return plan;
+        }
+
+        var response = toDto(rw -> topologyService.applyRebalance(plan.get(), rw));
+
+        if (response.isSuccess()) {
+            log.info(response.getMessage());
+        } else {
+            log.warn("Could not {}: {}", plan.get().description(), response.getMessage());
+        }
+
+        return plan;
+    }
+}
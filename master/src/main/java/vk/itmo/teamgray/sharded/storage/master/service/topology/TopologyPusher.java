@@ -0,0 +1,54 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
+
+/**
+ * Pushes every published topology to nodes of the previous and the new one, so that nodes can point clients with stale routing to key
+ * owners. Best effort, each push is done on its own virtual thread without blocking the publisher, nodes ignore outdated pushes.
+ */
+public class TopologyPusher implements Consumer<TopologySnapshot> {
+    private static final Logger log = LoggerFactory.getLogger(TopologyPusher.class);
+
+    private final ClientCachingFactory clientCachingFactory;
+
+    // Servers of the last pushed topology, removed ones still get the next push.
+    private Map<Integer, DiscoverableServiceDTO> lastServers;
+
+    /**
+     * @param current topology at the time the pusher is registered
+     */
+    public TopologyPusher(ClientCachingFactory clientCachingFactory, TopologySnapshot current) {
+        this.clientCachingFactory = clientCachingFactory;
+        this.lastServers = current.servers();
+    }
+
+    @Override
+    public synchronized void accept(TopologySnapshot snapshot) {
+        var topology = snapshot.toDto();
+
+        Map<Integer, DiscoverableServiceDTO> targets = new HashMap<>(lastServers);
+
+        targets.putAll(snapshot.servers());
+
+        lastServers = snapshot.servers();
+
+        targets.values().forEach(server -> Thread.ofVirtual().name("topology-push-" + server.id()).start(() -> {
+            try {
+                var response = clientCachingFactory.getClient(server, NodeManagementClient.class).updateTopology(topology);
+
+                if (!response.isSuccess()) {
+                    log.warn("Could not push topology of epoch {} to {}: {}", topology.epoch(), server, response.getMessage());
+                }
+            } catch (Exception e) {
+                log.warn("Could not push topology of epoch {} to {}", topology.epoch(), server, e);
+            }
+        }));
+    }
+}
@@ -2,15 +2,22 @@ package vk.itmo.teamgray.sharded.storage.master.service.topology;
 
 import io.grpc.netty.shaded.io.netty.util.internal.StringUtil;
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -21,13 +28,13 @@ import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
-import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.common.node.ActionPhase;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.MapResponseWriter;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter;
-import vk.itmo.teamgray.sharded.storage.common.utils.ShardUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
 
 import static java.util.stream.Collectors.groupingBy;
@@ -42,52 +49,79 @@ public class TopologyService {
 
     private final ClientCachingFactory clientCachingFactory;
 
-    private Map<Integer, List<Integer>> serverToShards = new HashMap<>();
+    private final ShardPlacement placement;
 
-    private Map<Integer, NodeState> serverToState = new HashMap<>();
+    // Readers take the current snapshot and never block, changes publish a new one once applied on all nodes.
+    private final AtomicReference<TopologySnapshot> topology = new AtomicReference<>(
+        TopologySnapshot.empty(PropertyUtils.getIntProperty("master.topology.replication-factor", 1))
+    );
 
-    private Map<Integer, Long> shardToHash = new HashMap<>();
+    // Notified on every published snapshot, after it became current.
+    private final List<Consumer<TopologySnapshot>> listeners = new CopyOnWriteArrayList<>();
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, NodeState> serverToState = new ConcurrentHashMap<>();
+
+    // Serializes topology changes in arrival order, held for all phases of a change.
+    private final ReentrantLock changeLock = new ReentrantLock(true);
+
+    private final PhaseFanOut phaseFanOut = new PhaseFanOut(
+        Duration.ofMillis(PropertyUtils.getIntProperty("master.topology.phase.timeout-ms", 600_000))
+    );
 
     private record ShardFromTo(int sourceServer, int targetServer, int shardId) {
         // No-op.
     }
 
     private enum ServerAction {
-        ADD, REMOVE
+        ADD, REMOVE, REBALANCE
     }
 
     public TopologyService(DiscoveryClient discoveryClient, ClientCachingFactory clientCachingFactory) {
+        this(
+            discoveryClient,
+            clientCachingFactory,
+            ShardPlacement.of(PropertyUtils.getProperty("master.topology.placement", "rendezvous"))
+        );
+    }
+
+    public TopologyService(DiscoveryClient discoveryClient, ClientCachingFactory clientCachingFactory, ShardPlacement placement) {
         this.discoveryClient = discoveryClient;
         this.clientCachingFactory = clientCachingFactory;
+        this.placement = placement;
+    }
+
+    /**
+     * Current topology scheme, both maps are consistent with each other.
+     */
+    public TopologySnapshot getSnapshot() {
+        return topology.get();
+    }
+
+    public void addListener(Consumer<TopologySnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<TopologySnapshot> listener) {
+        listeners.remove(listener);
     }
 
     public int fillServerToShardsInSync(MapResponseWriter<Integer, List<Integer>> responseWriter) {
-        lock.readLock().lock();
+        var serverToShards = topology.get().serverToShards();
 
-        try {
-            serverToShards.forEach(responseWriter::writeMapEntry);
+        serverToShards.forEach(responseWriter::writeMapEntry);
 
-            return serverToShards.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return serverToShards.size();
     }
 
     public int fillShardToHashInSync(MapResponseWriter<Integer, Long> responseWriter) {
-        lock.readLock().lock();
+        var shardToHash = topology.get().shardToHash();
 
-        try {
-            shardToHash.forEach(responseWriter::writeMapEntry);
+        shardToHash.forEach(responseWriter::writeMapEntry);
 
-            return shardToHash.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return shardToHash.size();
     }
 
-    //No Sync to be transparent on states.
+    //Not a snapshot to be transparent on states, changes during a topology change are visible right away.
     public int fillServerToState(MapResponseWriter<Integer, NodeState> responseWriter) {
         serverToState.forEach(responseWriter::writeMapEntry);
 
@@ -95,8 +129,11 @@ public class TopologyService {
     }
 
     public boolean addServer(int serverId, StatusResponseWriter responseWriter) {
-        lock.writeLock().lock();
+        changeLock.lock();
         try {
+            var current = topology.get();
+            var serverToShards = current.serverToShards();
+
             setServerState(serverId, NodeState.INIT);
 
             if (serverToShards.containsKey(serverId)) {
@@ -109,28 +146,30 @@ public class TopologyService {
 
             updatedServers.add(serverId);
 
-            var oldServerToShards = new HashMap<>(serverToShards);
-            var newServerToShards = redistributeShardsEvenly(
+            var newServerToShards = placement.place(
                 updatedServers,
-                new ArrayList<>(shardToHash.keySet())
+                new ArrayList<>(current.shardToHash().keySet()),
+                serverToShards
             );
 
             return handleShardMovement(
                 ServerAction.ADD,
                 serverId,
-                oldServerToShards,
+                current,
                 newServerToShards,
-                shardToHash.size(),
                 responseWriter
             );
         } finally {
-            lock.writeLock().unlock();
+            changeLock.unlock();
         }
     }
 
     public boolean deleteServer(int serverId, StatusResponseWriter responseWriter) {
-        lock.writeLock().lock();
+        changeLock.lock();
         try {
+            var current = topology.get();
+            var serverToShards = current.serverToShards();
+
             if (!serverToShards.containsKey(serverId)) {
                 responseWriter.writeResponse(false, "Could not remove server " + serverId + " because it is not registered.");
 
@@ -141,36 +180,37 @@ public class TopologyService {
                 .filter(it -> it != serverId)
                 .toList();
 
-            var oldServerToShards = new HashMap<>(serverToShards);
-            var newServerToShards = redistributeShardsEvenly(
+            var newServerToShards = placement.place(
                 updatedServers,
-                new ArrayList<>(shardToHash.keySet())
+                new ArrayList<>(current.shardToHash().keySet()),
+                serverToShards
             );
 
             // move shards to the new server
             return handleShardMovement(
                 ServerAction.REMOVE,
                 serverId,
-                oldServerToShards,
+                current,
                 newServerToShards,
-                shardToHash.size(),
                 responseWriter
             );
         } finally {
-            lock.writeLock().unlock();
+            changeLock.unlock();
         }
     }
 
     private boolean handleShardMovement(
         ServerAction serverAction,
         int actionServerId,
-        Map<Integer, List<Integer>> oldMapping,
+        TopologySnapshot current,
         Map<Integer, List<Integer>> newMapping,
-        int fullShardCount,
         StatusResponseWriter responseWriter
     ) {
         var action = Action.MOVE_SHARDS;
 
+        Map<Integer, List<Integer>> oldMapping = current.serverToShards();
+        Map<Integer, Long> fullShardToHash = current.shardToHash();
+
         Map<Integer, DiscoverableServiceDTO> nodes = discoveryClient.getNodeMapWithRetries(oldMapping.keySet());
 
         List<String> errorMessages = new ArrayList<>();
@@ -216,10 +256,14 @@ public class TopologyService {
             .distinct()
             .toList();
 
+        allServers.forEach(serverId -> usedNodes.put(serverId, nodes.get(serverId)));
+
         // Phase 1: Prepare
         log.info("Starting prepare phase for {}", action);
 
-        for (Integer serverId : allServers) {
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.MOVE_SHARDS_PREPARING));
+
+        var prepareResult = phaseFanOut.run(action, ActionPhase.PREPARE, allServers, serverId -> {
             var receiveShardMoves = shardMovesByReceivers.getOrDefault(serverId, List.of()).stream()
                 .map(ShardFromTo::shardId)
                 .toList();
@@ -228,90 +272,46 @@ public class TopologyService {
                 .map(it -> new SendShardTaskDTO(it.shardId(), it.targetServer()))
                 .toList();
 
-            var server = nodes.get(serverId);
+            return getManagementClient(nodes.get(serverId)).prepareMove(receiveShardMoves, sendShardMoves, fullShardToHash);
+        });
 
-            // Cached, perf ok
-            NodeManagementClient managementClient = clientCachingFactory
-                .getClient(server, NodeManagementClient.class);
-
-            usedNodes.put(serverId, server);
-
-            setServerState(serverId, NodeState.MOVE_SHARDS_PREPARING);
-
-            var response = managementClient.prepareMove(
-                receiveShardMoves,
-                sendShardMoves,
-                fullShardCount
-            );
+        if (!collectPhaseResult(prepareResult, usedNodes, NodeState.MOVE_SHARDS_PREPARED, "Failed to Prepare Move on ", errorMessages)) {
+            rollbackAndReturnError(usedNodes, errorMessages, action, responseWriter);
 
-            if (response.isSuccess()) {
-                setServerState(serverId, NodeState.MOVE_SHARDS_PREPARED);
-            } else {
-                String message = "Failed to Prepare Move on "
-                    + server + ":"
-                    + System.lineSeparator()
-                    + server.getIdForLogging() + ": "
-                    + response.getMessage();
-
-                log.error(message);
-
-                errorMessages.add(message);
-
-                rollbackAndReturnError(usedNodes, errorMessages, action, responseWriter);
-
-                return false;
-            }
+            return false;
         }
 
         // Phase 2: Process
         log.info("Starting process phase for {}", action);
 
-        for (Integer serverId : allServers) {
-
-            var server = nodes.get(serverId);
-
-            // Cached, perf ok
-            NodeManagementClient managementClient = clientCachingFactory
-                .getClient(server, NodeManagementClient.class);
-
-            usedNodes.put(serverId, server);
-
-            setServerState(serverId, NodeState.MOVE_SHARDS_PROCESSING);
-
-            var response = managementClient.processAction(action);
-
-            if (response.isSuccess()) {
-                setServerState(serverId, NodeState.MOVE_SHARDS_PROCESSED);
-            } else {
-                String message = "Failed to Process Move on "
-                    + server + ":"
-                    + System.lineSeparator()
-                    + server.getIdForLogging() + ": "
-                    + response.getMessage();
-
-                log.error(message);
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.MOVE_SHARDS_PROCESSING));
 
-                errorMessages.add(message);
+        var processResult = phaseFanOut.run(
+            action,
+            ActionPhase.PROCESS,
+            allServers,
+            serverId -> getManagementClient(nodes.get(serverId)).processAction(action)
+        );
 
-                rollbackAndReturnError(usedNodes, errorMessages, action, responseWriter);
+        if (!collectPhaseResult(processResult, usedNodes, NodeState.MOVE_SHARDS_PROCESSED, "Failed to Process Move on ", errorMessages)) {
+            rollbackAndReturnError(usedNodes, errorMessages, action, responseWriter);
 
-                return false;
-            }
+            return false;
         }
 
         // Phase 3: Apply
         log.info("Starting apply phase for {}", action);
 
-        for (Integer serverIdToApply : allServers) {
-            var server = nodes.get(serverIdToApply);
-
-            // Cached, perf ok
-            NodeManagementClient managementClient = clientCachingFactory.getClient(server, NodeManagementClient.class);
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.MOVE_SHARDS_APPLYING));
 
-            setServerState(serverIdToApply, NodeState.MOVE_SHARDS_APPLYING);
-
-            var response = managementClient.applyAction(action);
+        var applyResult = phaseFanOut.run(
+            action,
+            ActionPhase.APPLY,
+            allServers,
+            serverId -> getManagementClient(nodes.get(serverId)).applyAction(action)
+        );
 
+        applyResult.responses().forEach((serverIdToApply, response) -> {
             if (response.isSuccess()) {
                 // For removed server state needs to be removed, instead of set RUNNING again.
                 if (serverAction == ServerAction.REMOVE && serverIdToApply == actionServerId) {
@@ -319,20 +319,26 @@ public class TopologyService {
                 } else {
                     setServerState(serverIdToApply, NodeState.RUNNING);
                 }
-            } else {
-                applyActionFailed(
-                    responseWriter,
-                    response.getMessage(),
-                    server,
-                    errorMessages,
-                    "Could not " + serverAction + " server " + actionServerId + ": "
-                );
-
-                return false;
             }
+        });
+
+        if (!applyResult.isSuccess()) {
+            applyActionFailed(
+                responseWriter,
+                applyResult,
+                usedNodes,
+                errorMessages,
+                serverAction == ServerAction.REBALANCE
+                    ? "Could not rebalance shards: "
+                    : "Could not " + serverAction + " server " + actionServerId + ": "
+            );
+
+            return false;
         }
 
-        replaceServerToShards(newMapping);
+        logLatencies(action, prepareResult, processResult, applyResult);
+
+        publish(current.withServerToShards(newMapping, nodes));
 
         String message = "Moved shards successfully";
 
@@ -342,6 +348,40 @@ public class TopologyService {
         return true;
     }
 
+    /**
+     * Sets number of copies of every shard. Replicas are placed on distinct servers, and copied by shard owners in background once the
+     * topology is published, so no topology change phases are run.
+     */
+    public boolean setReplicationFactor(int replicationFactor, StatusResponseWriter responseWriter) {
+        if (replicationFactor < 1) {
+            responseWriter.writeResponse(false, "Replication factor should be at least 1, got " + replicationFactor);
+
+            return false;
+        }
+
+        changeLock.lock();
+        try {
+            var current = topology.get();
+
+            if (current.replicationFactor() != replicationFactor) {
+                publish(current.withReplicationFactor(replicationFactor));
+            }
+
+            int serverCount = current.serverToShards().size();
+
+            String message = replicationFactor > serverCount
+                ? "Set replication factor to " + replicationFactor + ", limited by " + serverCount + " servers"
+                : "Set replication factor to " + replicationFactor;
+
+            responseWriter.writeResponse(true, message);
+            log.info(message);
+
+            return true;
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
     private Integer findServerForShard(
         Map<Integer, List<Integer>> mapping,
         Integer shardId
@@ -355,167 +395,353 @@ public class TopologyService {
     }
 
     public boolean changeShardCount(int shardCount, StatusResponseWriter responseWriter) {
-        lock.writeLock().lock();
+        changeLock.lock();
         try {
-            var action = Action.REARRANGE_SHARDS;
+            var current = topology.get();
 
             Map<Integer, Long> newShardToHash = redistributeHashesEvenly(shardCount);
-            Map<Integer, List<Integer>> newServerToShards = redistributeShardsEvenly(
-                new ArrayList<>(serverToShards.keySet()),
-                new ArrayList<>(newShardToHash.keySet())
+            Map<Integer, List<Integer>> newServerToShards = placement.place(
+                new ArrayList<>(current.serverToShards().keySet()),
+                new ArrayList<>(newShardToHash.keySet()),
+                // Shard ids of the new scheme mean other ranges, entries are moved by fragments anyway.
+                Map.of()
             );
 
-            List<Bound> allBounds = Stream.concat(
-                    shardToHash.entrySet().stream().map(it -> new Bound(false, it.getKey(), it.getValue())),
-                    newShardToHash.entrySet().stream().map(it -> new Bound(true, it.getKey(), it.getValue()))
-                )
-                .sorted(Comparator.comparingLong(Bound::upperBound))
-                .toList();
-
-            List<FragmentDTO> fragments = findFragmentsToMove(shardCount, newShardToHash, allBounds);
+            if (!rearrange(current, newShardToHash, newServerToShards, responseWriter)) {
+                return false;
+            }
 
-            Map<Integer, List<FragmentDTO>> fragmentsByOldShardIds = fragments.stream()
-                .collect(groupingBy(
-                    FragmentDTO::oldShardId,
-                    mapping(Function.identity(), toList())
-                ));
+            responseWriter.writeResponse(true, "Changed shard count successfully");
 
-            Map<Integer, List<FragmentDTO>> fragmentsByOldServerIds = serverToShards.entrySet().stream()
-                .collect(toMap(
-                    Map.Entry::getKey,
-                    e -> e.getValue().stream()
-                        .map(fragmentsByOldShardIds::get)
-                        .filter(Objects::nonNull)
-                        .flatMap(Collection::stream)
-                        .toList()
-                ));
+            return true;
+        } finally {
+            changeLock.unlock();
+        }
+    }
 
-            Map<Integer, Integer> newShardsToServer = newServerToShards.entrySet().stream()
-                .flatMap(kv -> kv.getValue().stream().map(shard -> Map.entry(kv.getKey(), shard)))
-                .collect(toMap(
-                    Map.Entry::getValue,
-                    Map.Entry::getKey
-                ));
+    /**
+     * Splits shard in two on its server, see {@link ShardRanges#split}. Only the owner of the shard takes part in the change.
+     */
+    public boolean splitShard(int shardId, long atHash, StatusResponseWriter responseWriter) {
+        changeLock.lock();
+        try {
+            var current = topology.get();
 
-            Map<Integer, DiscoverableServiceDTO> nodes = discoveryClient.getNodeMapWithRetries(newServerToShards.keySet());
+            TopologySnapshot split;
 
-            List<String> errorMessages = new ArrayList<>();
+            try {
+                split = ShardRanges.split(current, shardId, atHash);
+            } catch (IllegalArgumentException e) {
+                responseWriter.writeResponse(false, "Could not split shard: " + e.getMessage());
 
-            // Phase 1: Prepare
-            log.info("Starting prepare phase for {}", action);
-            for (var entry : newServerToShards.entrySet()) {
-                Integer serverId = entry.getKey();
-                List<Integer> shards = entry.getValue();
+                return false;
+            }
 
-                Map<Integer, Long> relevantSchemeSlice = shards.stream()
-                    .collect(
-                        Collectors.toMap(
-                            Function.identity(),
-                            newShardToHash::get
-                        )
-                    );
+            if (!rearrange(current, split.shardToHash(), split.serverToShards(), responseWriter)) {
+                return false;
+            }
 
-                List<FragmentDTO> relevantFragments = fragmentsByOldServerIds.get(serverId);
+            responseWriter.writeResponse(true, "Split shard " + shardId + " at hash " + atHash);
 
-                Map<Integer, Integer> relevantNodes = relevantFragments.stream()
-                    .map(FragmentDTO::newShardId)
-                    .distinct()
-                    .collect(toMap(
-                        Function.identity(),
-                        newShardsToServer::get
-                    ));
+            return true;
+        } finally {
+            changeLock.unlock();
+        }
+    }
 
-                DiscoverableServiceDTO server = nodes.get(serverId);
-                NodeManagementClient client = clientCachingFactory.getClient(server, NodeManagementClient.class);
+    /**
+     * Merges two adjacent shards into the first one, see {@link ShardRanges#merge}. Only owners of both shards take part in the change.
+     */
+    public boolean mergeShards(int shardId, int otherShardId, StatusResponseWriter responseWriter) {
+        changeLock.lock();
+        try {
+            var current = topology.get();
 
-                setServerState(serverId, NodeState.REARRANGE_SHARDS_PREPARING);
-                StatusResponseDTO response =
-                    client.prepareRearrange(relevantSchemeSlice, relevantFragments, relevantNodes, newShardToHash.size());
+            TopologySnapshot merged;
 
-                if (response.isSuccess()) {
-                    setServerState(serverId, NodeState.REARRANGE_SHARDS_PREPARED);
-                } else {
-                    String message = server.getIdForLogging() + ": " + response.getMessage();
-                    log.error("Preparation stage failed on node: {}. Error message: {}", server, response.getMessage());
-                    errorMessages.add(message);
+            try {
+                merged = ShardRanges.merge(current, shardId, otherShardId);
+            } catch (IllegalArgumentException e) {
+                responseWriter.writeResponse(false, "Could not merge shards: " + e.getMessage());
 
-                    rollbackAndReturnError(nodes, errorMessages, action, responseWriter);
+                return false;
+            }
 
-                    return false;
-                }
+            if (!rearrange(current, merged.shardToHash(), merged.serverToShards(), responseWriter)) {
+                return false;
             }
 
-            // Phase 2: Process
-            log.info("Starting process phase for {}", action);
-            for (var serverId : newServerToShards.keySet()) {
-                DiscoverableServiceDTO server = nodes.get(serverId);
-                NodeManagementClient client = clientCachingFactory.getClient(server, NodeManagementClient.class);
-                setServerState(serverId, NodeState.REARRANGE_SHARDS_PROCESSING);
+            responseWriter.writeResponse(true, "Merged shard " + otherShardId + " into shard " + shardId);
 
-                StatusResponseDTO response = client.processAction(action);
+            return true;
+        } finally {
+            changeLock.unlock();
+        }
+    }
 
-                if (response.isSuccess()) {
-                    setServerState(serverId, NodeState.REARRANGE_SHARDS_PROCESSED);
-                } else {
-                    String message = server.getIdForLogging() + ": " + response.getMessage();
-                    log.error("Process stage failed on node: {}. Error message: {}", server, response.getMessage());
-                    errorMessages.add(message);
+    /**
+     * Applies plan made by {@link RebalancePlanner} if topology did not change since it was made. Split and merge change hash ranges of
+     * shards with {@link Action#REARRANGE_SHARDS}, move changes shard owners with {@link Action#MOVE_SHARDS}.
+     */
+    public boolean applyRebalance(RebalancePlan plan, StatusResponseWriter responseWriter) {
+        changeLock.lock();
+        try {
+            var current = topology.get();
 
-                    rollbackAndReturnError(nodes, errorMessages, action, responseWriter);
+            if (current.epoch() != plan.epoch()) {
+                responseWriter.writeResponse(
+                    false,
+                    "Rebalance plan for epoch " + plan.epoch() + " is outdated, current epoch is " + current.epoch()
+                );
 
-                    return false;
-                }
+                return false;
             }
 
-            // Phase 3: Apply
-            log.info("Starting apply phase for {}", action);
-            for (var entry : newServerToShards.entrySet()) {
-                var serverId = entry.getKey();
-                DiscoverableServiceDTO server = nodes.get(serverId);
-                NodeManagementClient client = clientCachingFactory.getClient(server, NodeManagementClient.class);
+            log.info("Applying rebalance plan: {}", plan.description());
 
-                setServerState(serverId, NodeState.REARRANGE_SHARDS_APPLYING);
-                StatusResponseDTO response = client.applyAction(action);
+            if (plan.kind() == RebalancePlan.Kind.MOVE) {
+                return handleShardMovement(ServerAction.REBALANCE, -1, current, plan.serverToShards(), responseWriter);
+            }
 
-                if (response.isSuccess()) {
-                    setServerState(serverId, NodeState.RUNNING);
-                } else {
-                    applyActionFailed(
-                        responseWriter,
-                        response.getMessage(),
-                        server,
-                        errorMessages,
-                        "Could not process rearrange on server " + serverId + ": "
-                    );
-
-                    return false;
-                }
+            if (!rearrange(current, plan.shardToHash(), plan.serverToShards(), responseWriter)) {
+                return false;
             }
 
-            replaceBothMaps(newShardToHash, newServerToShards);
-            responseWriter.writeResponse(true, "Changed shard count successfully");
+            responseWriter.writeResponse(true, "Rebalanced shards successfully: " + plan.description());
 
             return true;
         } finally {
-            lock.writeLock().unlock();
+            changeLock.unlock();
+        }
+    }
+
+    // Should be called under change lock, writes a response only on failure.
+    private boolean rearrange(
+        TopologySnapshot current,
+        Map<Integer, Long> newShardToHash,
+        Map<Integer, List<Integer>> newServerToShards,
+        StatusResponseWriter responseWriter
+    ) {
+        var action = Action.REARRANGE_SHARDS;
+
+        var serverToShards = current.serverToShards();
+        var shardToHash = current.shardToHash();
+
+        List<Bound> allBounds = Stream.concat(
+                shardToHash.entrySet().stream().map(it -> new Bound(false, it.getKey(), it.getValue())),
+                newShardToHash.entrySet().stream().map(it -> new Bound(true, it.getKey(), it.getValue()))
+            )
+            .sorted(Comparator.comparingLong(Bound::upperBound))
+            .toList();
+
+        Set<Integer> unchangedShards = findUnchangedShards(current, newShardToHash, newServerToShards);
+
+        // Unchanged shards are kept by their owners as they are, only ranges of changed ones are transferred.
+        List<FragmentDTO> fragments = findFragmentsToMove(shardToHash, newShardToHash, allBounds).stream()
+            .filter(fragment -> !unchangedShards.contains(fragment.oldShardId()))
+            .toList();
+
+        Map<Integer, List<FragmentDTO>> fragmentsByOldShardIds = fragments.stream()
+            .collect(groupingBy(
+                FragmentDTO::oldShardId,
+                mapping(Function.identity(), toList())
+            ));
+
+        Map<Integer, List<FragmentDTO>> fragmentsByOldServerIds = serverToShards.entrySet().stream()
+            .collect(toMap(
+                Map.Entry::getKey,
+                e -> e.getValue().stream()
+                    .map(fragmentsByOldShardIds::get)
+                    .filter(Objects::nonNull)
+                    .flatMap(Collection::stream)
+                    .toList()
+            ));
+
+        Map<Integer, Integer> newShardsToServer = newServerToShards.entrySet().stream()
+            .flatMap(kv -> kv.getValue().stream().map(shard -> Map.entry(kv.getKey(), shard)))
+            .collect(toMap(
+                Map.Entry::getValue,
+                Map.Entry::getKey
+            ));
+
+        // Servers without changed shards keep serving, they neither send nor receive anything.
+        Set<Integer> allServers = new HashSet<>();
+
+        Stream.of(serverToShards, newServerToShards).forEach(mapping -> mapping.forEach((serverId, shards) -> {
+            if (!unchangedShards.containsAll(shards)) {
+                allServers.add(serverId);
+            }
+        }));
+
+        Map<Integer, DiscoverableServiceDTO> nodes = discoveryClient.getNodeMapWithRetries(allServers);
+
+        List<String> errorMessages = new ArrayList<>();
+
+        // Phase 1: Prepare
+        log.info("Starting prepare phase for {} on servers {}", action, allServers);
+
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.REARRANGE_SHARDS_PREPARING));
+
+        var prepareResult = phaseFanOut.run(action, ActionPhase.PREPARE, allServers, serverId -> {
+            List<Integer> shards = newServerToShards.getOrDefault(serverId, List.of());
+
+            Map<Integer, Long> relevantSchemeSlice = shards.stream()
+                .filter(shardId -> !unchangedShards.contains(shardId))
+                .collect(
+                    Collectors.toMap(
+                        Function.identity(),
+                        newShardToHash::get
+                    )
+                );
+
+            List<FragmentDTO> relevantFragments = fragmentsByOldServerIds.getOrDefault(serverId, List.of());
+
+            Map<Integer, Integer> relevantNodes = relevantFragments.stream()
+                .map(FragmentDTO::newShardId)
+                .distinct()
+                .collect(toMap(
+                    Function.identity(),
+                    newShardsToServer::get
+                ));
+
+            return getManagementClient(nodes.get(serverId))
+                .prepareRearrange(relevantSchemeSlice, relevantFragments, relevantNodes, newShardToHash);
+        });
+
+        boolean prepared = collectPhaseResult(
+            prepareResult,
+            nodes,
+            NodeState.REARRANGE_SHARDS_PREPARED,
+            "Preparation stage failed on ",
+            errorMessages
+        );
+
+        if (!prepared) {
+            rollbackAndReturnError(nodes, errorMessages, action, responseWriter);
+
+            return false;
         }
+
+        // Phase 2: Process
+        log.info("Starting process phase for {}", action);
+
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.REARRANGE_SHARDS_PROCESSING));
+
+        var processResult = phaseFanOut.run(
+            action,
+            ActionPhase.PROCESS,
+            allServers,
+            serverId -> getManagementClient(nodes.get(serverId)).processAction(action)
+        );
+
+        boolean processed = collectPhaseResult(
+            processResult,
+            nodes,
+            NodeState.REARRANGE_SHARDS_PROCESSED,
+            "Process stage failed on ",
+            errorMessages
+        );
+
+        if (!processed) {
+            rollbackAndReturnError(nodes, errorMessages, action, responseWriter);
+
+            return false;
+        }
+
+        // Phase 3: Apply
+        log.info("Starting apply phase for {}", action);
+
+        allServers.forEach(serverId -> setServerState(serverId, NodeState.REARRANGE_SHARDS_APPLYING));
+
+        var applyResult = phaseFanOut.run(
+            action,
+            ActionPhase.APPLY,
+            allServers,
+            serverId -> getManagementClient(nodes.get(serverId)).applyAction(action)
+        );
+
+        applyResult.responses().forEach((serverId, response) -> {
+            if (response.isSuccess()) {
+                setServerState(serverId, NodeState.RUNNING);
+            }
+        });
+
+        if (!applyResult.isSuccess()) {
+            applyActionFailed(
+                responseWriter,
+                applyResult,
+                nodes,
+                errorMessages,
+                "Could not process rearrange: "
+            );
+
+            return false;
+        }
+
+        logLatencies(action, prepareResult, processResult, applyResult);
+
+        publish(current.withSchemes(newShardToHash, newServerToShards, nodes));
+
+        return true;
+    }
+
+    /**
+     * Moves successful nodes to the next state and collects errors of failed ones.
+     *
+     * @return whether all nodes succeeded
+     */
+    private boolean collectPhaseResult(
+        PhaseFanOut.PhaseResult result,
+        Map<Integer, DiscoverableServiceDTO> nodes,
+        NodeState successState,
+        String failurePrefix,
+        List<String> errorMessages
+    ) {
+        result.responses().forEach((serverId, response) -> {
+            var server = nodes.get(serverId);
+
+            if (response.isSuccess()) {
+                setServerState(serverId, successState);
+            } else {
+                String message = failurePrefix
+                    + server + ":"
+                    + System.lineSeparator()
+                    + server.getIdForLogging() + ": "
+                    + response.getMessage();
+
+                log.error(message);
+
+                errorMessages.add(message);
+            }
+        });
+
+        return result.isSuccess();
     }
 
     private void applyActionFailed(
         StatusResponseWriter responseWriter,
-        String message,
-        DiscoverableServiceDTO server,
+        PhaseFanOut.PhaseResult applyResult,
+        Map<Integer, DiscoverableServiceDTO> nodes,
         List<String> errorMessages,
         String actionPrefix
     ) {
-        String serverMessage = server.getIdForLogging() + ": " + message;
-        log.error("Apply failed on node, Marking it as {}: {}. Error message: {}", NodeState.DEAD, server, serverMessage);
-        errorMessages.add(message);
-
-        // No compensation or recovery actions on involved nodes
-        // End up change shards process and return error response
-        // Marking Node as DEAD
-        setServerState(server.id(), NodeState.DEAD);
+        applyResult.responses().forEach((serverId, response) -> {
+            if (response.isSuccess()) {
+                return;
+            }
+
+            var server = nodes.get(serverId);
+
+            String serverMessage = server.getIdForLogging() + ": " + response.getMessage();
+            log.error("Apply failed on node, Marking it as {}: {}. Error message: {}", NodeState.DEAD, server, serverMessage);
+            errorMessages.add(serverMessage);
+
+            // No compensation or recovery actions on involved nodes
+            // End up change shards process and return error response
+            // Marking Node as DEAD
+            setServerState(serverId, NodeState.DEAD);
+        });
+
         responseWriter.writeResponse(
             false,
             actionPrefix + StringUtil.join(System.lineSeparator(), errorMessages).toString()
@@ -532,24 +758,30 @@ public class TopologyService {
         log.warn(rollbackMessage);
         errorMessages.add(rollbackMessage);
 
-        for (var node : nodes.values()) {
-            NodeManagementClient client = clientCachingFactory.getClient(node, NodeManagementClient.class);
+        nodes.keySet().forEach(serverId -> setServerState(serverId, NodeState.resolve(action, ActionPhase.ROLLBACK)));
+
+        var rollbackResult = phaseFanOut.run(
+            action,
+            ActionPhase.ROLLBACK,
+            nodes.keySet(),
+            serverId -> getManagementClient(nodes.get(serverId)).rollbackAction(action)
+        );
 
-            setServerState(node.id(), NodeState.resolve(action, ActionPhase.ROLLBACK));
+        rollbackResult.responses().forEach((serverId, response) -> {
+            var node = nodes.get(serverId);
 
-            StatusResponseDTO response = client.rollbackAction(action);
             if (response.isSuccess()) {
-                setServerState(node.id(), NodeState.RUNNING);
+                setServerState(serverId, NodeState.RUNNING);
             } else {
-                // Just logging error, no compensation moves - continuing rollback of other nodes
+                // Just logging error, no compensation moves - rollback of other nodes is not affected
                 String message = node.getIdForLogging() + ": " + response.getMessage();
                 log.error("Rollback {} failed for node: {}. Error message: {}", action, node, response.getMessage());
                 errorMessages.add(message);
 
                 // Marking node as DEAD
-                setServerState(node.id(), NodeState.DEAD);
+                setServerState(serverId, NodeState.DEAD);
             }
-        }
+        });
 
         // No need to swap maps, old ones are still intact, we just do not apply old ones.
         log.info("{} Failed", action);
@@ -557,8 +789,70 @@ public class TopologyService {
         responseWriter.writeResponse(false, StringUtil.join(System.lineSeparator(), errorMessages).toString());
     }
 
+    private void logLatencies(
+        Action action,
+        PhaseFanOut.PhaseResult prepareResult,
+        PhaseFanOut.PhaseResult processResult,
+        PhaseFanOut.PhaseResult applyResult
+    ) {
+        log.info(
+            "{} took {} ms: prepare {} ms, process {} ms, apply {} ms",
+            action,
+            prepareResult.millis() + processResult.millis() + applyResult.millis(),
+            prepareResult.millis(),
+            processResult.millis(),
+            applyResult.millis()
+        );
+    }
+
+    /**
+     * Latency statistics of topology change phases since start, by action and phase.
+     */
+    public Map<String, LongSummaryStatistics> getPhaseLatencies() {
+        return phaseFanOut.getPhaseLatencies();
+    }
+
+    private NodeManagementClient getManagementClient(DiscoverableServiceDTO server) {
+        // Cached, perf ok
+        return clientCachingFactory.getClient(server, NodeManagementClient.class);
+    }
+
+    /**
+     * @return shards with the same range and owner in both schemes
+     */
+    private static Set<Integer> findUnchangedShards(
+        TopologySnapshot current,
+        Map<Integer, Long> newShardToHash,
+        Map<Integer, List<Integer>> newServerToShards
+    ) {
+        var oldBoundaries = ShardBoundaries.fromShardToHash(current.shardToHash());
+        var newBoundaries = ShardBoundaries.fromShardToHash(newShardToHash);
+
+        Set<Integer> unchangedShards = new HashSet<>();
+
+        current.serverToShards().forEach((serverId, shards) -> {
+            List<Integer> newShards = newServerToShards.getOrDefault(serverId, List.of());
+
+            for (int shardId : shards) {
+                int oldPosition = oldBoundaries.positionOf(shardId);
+                int newPosition = newBoundaries.positionOf(shardId);
+
+                if (oldPosition < 0 || newPosition < 0 || !newShards.contains(shardId)) {
+                    continue;
+                }
+
+                if (oldBoundaries.lowerBoundAt(oldPosition) == newBoundaries.lowerBoundAt(newPosition)
+                    && oldBoundaries.upperBoundAt(oldPosition) == newBoundaries.upperBoundAt(newPosition)) {
+                    unchangedShards.add(shardId);
+                }
+            }
+        });
+
+        return unchangedShards;
+    }
+
     private List<FragmentDTO> findFragmentsToMove(
-        int shardCount,
+        Map<Integer, Long> shardToHash,
         Map<Integer, Long> newShardToHash,
         List<Bound> allBounds
     ) {
@@ -569,17 +863,18 @@ public class TopologyService {
             int currentOldShard = -1;
             int currentNewShard = -1;
 
-            int oldShardCount = shardToHash.size();
+            var oldBoundaries = ShardBoundaries.fromShardToHash(shardToHash);
+            var newBoundaries = ShardBoundaries.fromShardToHash(newShardToHash);
 
             for (Bound bound : allBounds) {
                 long newBound = bound.upperBound();
                 int oldShardForRange = bound.isNew() ?
-                    Objects.requireNonNull(ShardUtils.getShardIdForHash(newBound, oldShardCount)) :
+                    oldBoundaries.shardIdForHash(newBound) :
                     bound.shardId();
 
                 int newShardForRange = bound.isNew() ?
                     bound.shardId() :
-                    Objects.requireNonNull(ShardUtils.getShardIdForHash(newBound, shardCount));
+                    newBoundaries.shardIdForHash(newBound);
 
                 if (currentOldShard != oldShardForRange || currentNewShard != newShardForRange) {
                     fragments.add(new FragmentDTO(
@@ -599,73 +894,24 @@ public class TopologyService {
         return fragments;
     }
 
-    private void replaceServerToShards(Map<Integer, List<Integer>> newServerToShards) {
-        lock.writeLock().lock();
-
-        log.info("Replacing server to shard scheme {}", newServerToShards);
-
-        try {
-            log.info("Replacing server to shard scheme {}", newServerToShards);
-            var oldServerToShards = serverToShards;
-
-            serverToShards = newServerToShards;
-
-            oldServerToShards.clear();
-
-            log.info("Replaced server to shard scheme");
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-    private void replaceBothMaps(
-        Map<Integer, Long> newShardToHash,
-        Map<Integer, List<Integer>> newServerToShards
-    ) {
-        lock.writeLock().lock();
-
-        log.info("Replacing server to shard and shard to hash schemes [sts={}, sth={}]", newServerToShards, newShardToHash);
-
-        try {
-            var oldShardToHash = shardToHash;
-            var oldServerToShards = serverToShards;
-
-            shardToHash = newShardToHash;
-            serverToShards = newServerToShards;
-
-            oldShardToHash.clear();
-            oldServerToShards.clear();
-
-            log.info("Replaced server to shard and shard to hash schemes");
-        } finally {
-            lock.writeLock().unlock();
-        }
-    }
-
-    private Map<Integer, List<Integer>> redistributeShardsEvenly(
-        List<Integer> serverList,
-        List<Integer> shardList
-    ) {
-        Map<Integer, List<Integer>> newServerToShards = new HashMap<>();
-
-        if (serverList.isEmpty()) {
-            return newServerToShards;
-        }
-
-        int serverCount = serverList.size();
-
-        serverList.forEach(server -> newServerToShards.put(server, new ArrayList<>()));
+    private void publish(TopologySnapshot snapshot) {
+        log.info(
+            "Publishing topology epoch {} [sts={}, sth={}, rf={}]",
+            snapshot.epoch(),
+            snapshot.serverToShards(),
+            snapshot.shardToHash(),
+            snapshot.replicationFactor()
+        );
 
-        // Distribute shards in round-robin
-        int serverIndex = 0;
+        topology.set(snapshot);
 
-        for (Integer shardId : shardList) {
-            int targetServer = serverList.get(serverIndex);
-            newServerToShards.get(targetServer).add(shardId);
-            serverIndex = (serverIndex + 1) % serverCount;
+        for (Consumer<TopologySnapshot> listener : listeners) {
+            try {
+                listener.accept(snapshot);
+            } catch (Exception e) {
+                log.error("Topology listener failed: ", e);
+            }
         }
-
-        return newServerToShards;
     }
 
     private Map<Integer, Long> redistributeHashesEvenly(int shardCount) {
@@ -0,0 +1,142 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+
+/**
+ * Immutable topology scheme, replaced as a whole on every change. Epoch grows by one with every published scheme.
+ *
+ * @param servers known addresses of servers in {@code serverToShards}
+ * @param replicationFactor number of copies of every shard, owner included
+ */
+public record TopologySnapshot(
+    long epoch,
+    Map<Integer, List<Integer>> serverToShards,
+    Map<Integer, Long> shardToHash,
+    Map<Integer, DiscoverableServiceDTO> servers,
+    int replicationFactor
+) {
+    public static final TopologySnapshot EMPTY = empty(1);
+
+    public TopologySnapshot {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor should be at least 1, got " + replicationFactor);
+        }
+
+        // Hash maps keep iteration order of integer keys stable, unlike Map.copyOf, shard distribution relies on it.
+        Map<Integer, List<Integer>> serverToShardsCopy = new HashMap<>();
+
+        serverToShards.forEach((serverId, shards) -> serverToShardsCopy.put(serverId, List.copyOf(shards)));
+
+        Map<Integer, DiscoverableServiceDTO> serversCopy = new HashMap<>();
+
+        servers.forEach((serverId, server) -> {
+            if (server != null && serverToShardsCopy.containsKey(serverId)) {
+                serversCopy.put(serverId, server);
+            }
+        });
+
+        serverToShards = Collections.unmodifiableMap(serverToShardsCopy);
+        shardToHash = Collections.unmodifiableMap(new HashMap<>(shardToHash));
+        servers = Collections.unmodifiableMap(serversCopy);
+    }
+
+    public TopologySnapshot(
+        long epoch,
+        Map<Integer, List<Integer>> serverToShards,
+        Map<Integer, Long> shardToHash,
+        Map<Integer, DiscoverableServiceDTO> servers
+    ) {
+        this(epoch, serverToShards, shardToHash, servers, 1);
+    }
+
+    public static TopologySnapshot empty(int replicationFactor) {
+        return new TopologySnapshot(0, Map.of(), Map.of(), Map.of(), replicationFactor);
+    }
+
+    /**
+     * @param nodes addresses of servers, ones not in the new scheme are skipped
+     */
+    public TopologySnapshot withServerToShards(Map<Integer, List<Integer>> newServerToShards, Map<Integer, DiscoverableServiceDTO> nodes) {
+        return new TopologySnapshot(epoch + 1, newServerToShards, shardToHash, withNodes(nodes), replicationFactor);
+    }
+
+    /**
+     * @param nodes addresses of servers, ones not in the new scheme are skipped
+     */
+    public TopologySnapshot withSchemes(
+        Map<Integer, Long> newShardToHash,
+        Map<Integer, List<Integer>> newServerToShards,
+        Map<Integer, DiscoverableServiceDTO> nodes
+    ) {
+        return new TopologySnapshot(epoch + 1, newServerToShards, newShardToHash, withNodes(nodes), replicationFactor);
+    }
+
+    public TopologySnapshot withReplicationFactor(int newReplicationFactor) {
+        return new TopologySnapshot(epoch + 1, serverToShards, shardToHash, servers, newReplicationFactor);
+    }
+
+    /**
+     * Replicas of a shard are placed on servers following its owner in server id order, every next shard of the same owner starts one
+     * server further, so that replicas of one server are spread over all others. Shard never has more replicas than there are other
+     * servers.
+     *
+     * @return servers keeping replicas of a shard, owner excluded, shards without replicas are absent
+     */
+    public Map<Integer, List<Integer>> shardToReplicas() {
+        Map<Integer, List<Integer>> shardToReplicas = new HashMap<>();
+
+        List<Integer> ring = serverToShards.keySet().stream().sorted().toList();
+
+        int replicaCount = Math.min(replicationFactor, ring.size()) - 1;
+
+        if (replicaCount <= 0) {
+            return shardToReplicas;
+        }
+
+        for (int position = 0; position < ring.size(); position++) {
+            List<Integer> shards = serverToShards.get(ring.get(position)).stream().sorted().toList();
+
+            for (int i = 0; i < shards.size(); i++) {
+                List<Integer> replicas = new ArrayList<>(replicaCount);
+
+                for (int replica = 0; replica < replicaCount; replica++) {
+                    // Offsets are distinct and never point to the owner itself.
+                    int offset = 1 + (i + replica) % (ring.size() - 1);
+
+                    replicas.add(ring.get((position + offset) % ring.size()));
+                }
+
+                shardToReplicas.put(shards.get(i), replicas);
+            }
+        }
+
+        return shardToReplicas;
+    }
+
+    public TopologyDTO toDto() {
+        Map<Integer, Integer> shardToServer = new HashMap<>();
+
+        serverToShards.forEach((serverId, shards) -> shards.forEach(shardId -> shardToServer.put(shardId, serverId)));
+
+        return new TopologyDTO(epoch, shardToHash, shardToServer, servers, shardToReplicas());
+    }
+
+    // Known addresses are kept if discovery did not return some of the servers.
+    private Map<Integer, DiscoverableServiceDTO> withNodes(Map<Integer, DiscoverableServiceDTO> nodes) {
+        Map<Integer, DiscoverableServiceDTO> merged = new HashMap<>(servers);
+
+        nodes.forEach((serverId, server) -> {
+            if (server != null) {
+                merged.put(serverId, server);
+            }
+        });
+
+        return merged;
+    }
+}
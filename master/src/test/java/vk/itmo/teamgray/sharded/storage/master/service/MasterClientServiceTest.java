@@ -1,14 +1,28 @@
 package vk.itmo.teamgray.sharded.storage.master.service;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyUpdateDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.MapResponseWriter;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter;
 import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologyService;
+import vk.itmo.teamgray.sharded.storage.master.service.topology.TopologySnapshot;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class MasterClientServiceTest {
     private final TopologyService topologyService = mock(TopologyService.class);
@@ -68,4 +82,62 @@ class MasterClientServiceTest {
 
         verify(topologyService).changeShardCount(5, writer);
     }
+
+    @Test
+    void watchTopologySendsFullTopologyThenDeltas() {
+        var node1 = new DiscoverableServiceDTO(1, DiscoverableServiceType.NODE, "host1", null);
+        var node2 = new DiscoverableServiceDTO(2, DiscoverableServiceType.NODE, "host2", null);
+
+        var initial = new TopologySnapshot(3, Map.of(1, List.of(0, 1)), Map.of(0, 0L, 1, Long.MAX_VALUE), Map.of(1, node1));
+
+        when(topologyService.getSnapshot()).thenReturn(initial);
+
+        List<TopologyUpdateDTO> updates = new ArrayList<>();
+
+        Runnable unsubscribe = service.watchTopology(0, updates::add);
+
+        ArgumentCaptor<Consumer<TopologySnapshot>> listener = ArgumentCaptor.captor();
+
+        verify(topologyService).addListener(listener.capture());
+
+        assertEquals(1, updates.size());
+        assertTrue(updates.getFirst().isFull());
+        assertEquals(initial.toDto(), updates.getFirst().applyTo(TopologyDTO.EMPTY));
+
+        var moved = initial.withServerToShards(Map.of(1, List.of(0), 2, List.of(1)), Map.of(2, node2));
+
+        listener.getValue().accept(moved);
+
+        // Stale notification is skipped.
+        listener.getValue().accept(initial);
+
+        assertEquals(2, updates.size());
+
+        var delta = updates.get(1);
+
+        assertEquals(3, delta.fromEpoch());
+        assertEquals(4, delta.epoch());
+        assertFalse(delta.shardToHashChanged());
+        assertEquals(Map.of(1, 2), delta.shardToServer());
+        assertEquals(Map.of(2, node2), delta.servers());
+        assertEquals(Set.of(), delta.removedShards());
+        assertEquals(moved.toDto(), delta.applyTo(initial.toDto()));
+
+        unsubscribe.run();
+
+        verify(topologyService).removeListener(listener.getValue());
+    }
+
+    @Test
+    void watchTopologySkipsKnownEpoch() {
+        var current = new TopologySnapshot(5, Map.of(1, List.of(0)), Map.of(0, Long.MAX_VALUE), Map.of());
+
+        when(topologyService.getSnapshot()).thenReturn(current);
+
+        List<TopologyUpdateDTO> updates = new ArrayList<>();
+
+        service.watchTopology(5, updates::add);
+
+        assertTrue(updates.isEmpty());
+    }
 }
@@ -0,0 +1,149 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.common.dto.ShardStatsDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RebalancePlannerTest {
+    private static final long MB = 1024 * 1024;
+
+    private final RebalancePlanner planner = new RebalancePlanner(
+        new RebalancePlanner.Thresholds(1000, 256 * MB, 10, 16 * MB, 0.25, 1, 64)
+    );
+
+    // Shards 0, 1 on server 1 and shards 2, 3 on server 2.
+    private final TopologySnapshot snapshot = new TopologySnapshot(
+        7,
+        Map.of(1, List.of(0, 1), 2, List.of(2, 3)),
+        ShardBoundaries.even(4).toShardToHash(),
+        Map.of()
+    );
+
+    @Test
+    void balancedShardsNeedNoPlan() {
+        assertTrue(planner.plan(snapshot, stats(100, 100, 100, 100)).isEmpty());
+    }
+
+    @Test
+    void missingStatsNeedNoPlan() {
+        var serverToShardStats = stats(5000, 100, 100, 100);
+
+        serverToShardStats.get(2).remove(3);
+
+        assertTrue(planner.plan(snapshot, serverToShardStats).isEmpty());
+    }
+
+    @Test
+    void hotShardIsSplitAtReportedHash() {
+        var boundaries = ShardBoundaries.even(4);
+        long splitHash = boundaries.lowerBoundAt(1) + 1000;
+
+        var serverToShardStats = stats(100, 5000, 100, 2000);
+
+        serverToShardStats.get(1).get(1).setSplitHash(splitHash);
+
+        var plan = planner.plan(snapshot, serverToShardStats).orElseThrow();
+
+        assertEquals(RebalancePlan.Kind.SPLIT, plan.kind());
+        assertEquals(7, plan.epoch());
+
+        // Both halves stay on server 1, upper one gets the next free id, other shards are kept.
+        assertEquals(
+            Map.of(
+                0, boundaries.upperBoundAt(0),
+                1, splitHash,
+                2, boundaries.upperBoundAt(2),
+                3, boundaries.upperBoundAt(3),
+                4, boundaries.upperBoundAt(1)
+            ),
+            plan.shardToHash()
+        );
+        assertEquals(Map.of(1, List.of(0, 1, 4), 2, List.of(2, 3)), plan.serverToShards());
+    }
+
+    @Test
+    void hotShardIsSplitInTheMiddleIfReportedHashIsOutOfRange() {
+        var boundaries = ShardBoundaries.even(4);
+
+        var serverToShardStats = stats(100, 100, 5000, 100);
+
+        serverToShardStats.get(2).get(2).setSplitHash(boundaries.upperBoundAt(2));
+
+        var plan = planner.plan(snapshot, serverToShardStats).orElseThrow();
+
+        long lower = boundaries.lowerBoundAt(2);
+        long upper = boundaries.upperBoundAt(2);
+
+        assertEquals(RebalancePlan.Kind.SPLIT, plan.kind());
+        assertEquals(lower + ((upper - lower) >>> 1), plan.shardToHash().get(2));
+        assertEquals(upper, plan.shardToHash().get(4));
+    }
+
+    @Test
+    void coldAdjacentShardsAreMerged() {
+        var serverToShardStats = stats(100, 1, 2, 100);
+
+        // Server 2 keeps more entries of the merged shards.
+        serverToShardStats.get(2).get(2).setSize(100);
+
+        var plan = planner.plan(snapshot, serverToShardStats).orElseThrow();
+
+        var boundaries = ShardBoundaries.even(4);
+
+        assertEquals(RebalancePlan.Kind.MERGE, plan.kind());
+        assertEquals(
+            Map.of(0, boundaries.upperBoundAt(0), 2, boundaries.upperBoundAt(2), 3, boundaries.upperBoundAt(3)),
+            plan.shardToHash()
+        );
+        assertEquals(Map.of(1, List.of(0), 2, List.of(2, 3)), plan.serverToShards());
+    }
+
+    @Test
+    void shardsAreNotMergedBelowServerCount() {
+        var twoShards = new TopologySnapshot(7, Map.of(1, List.of(0), 2, List.of(1)), ShardBoundaries.even(2).toShardToHash(), Map.of());
+
+        Map<Integer, Map<Integer, ShardStatsDTO>> serverToShardStats = Map.of(
+            1, Map.of(0, shardStats(0)),
+            2, Map.of(1, shardStats(0))
+        );
+
+        assertTrue(planner.plan(twoShards, serverToShardStats).isEmpty());
+    }
+
+    @Test
+    void shardIsMovedFromLoadedServer() {
+        var plan = planner.plan(snapshot, stats(900, 600, 200, 100)).orElseThrow();
+
+        // Moving the 900 ops/s shard would overload server 2, so the 600 ops/s one goes.
+        assertEquals(RebalancePlan.Kind.MOVE, plan.kind());
+        assertEquals(snapshot.shardToHash(), plan.shardToHash());
+        assertEquals(Map.of(1, List.of(0), 2, List.of(2, 3, 1)), plan.serverToShards());
+    }
+
+    private static Map<Integer, Map<Integer, ShardStatsDTO>> stats(double... opsPerShard) {
+        Map<Integer, Map<Integer, ShardStatsDTO>> serverToShardStats = new HashMap<>();
+
+        for (int shardId = 0; shardId < opsPerShard.length; shardId++) {
+            serverToShardStats.computeIfAbsent(shardId < 2 ? 1 : 2, serverId -> new HashMap<>())
+                .put(shardId, shardStats(opsPerShard[shardId]));
+        }
+
+        return serverToShardStats;
+    }
+
+    private static ShardStatsDTO shardStats(double opsPerSecond) {
+        var stats = new ShardStatsDTO();
+
+        stats.setOpsPerSecond(opsPerSecond);
+        stats.setBytesUsed(-1);
+        stats.setSize(10);
+
+        return stats;
+    }
+}
@@ -0,0 +1,151 @@
+package vk.itmo.teamgray.sharded.storage.master.service.topology;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardPlacementTest {
+    private static final Logger log = LoggerFactory.getLogger(ShardPlacementTest.class);
+
+    private static final int SHARD_COUNT = 1024;
+
+    // Shards are equally sized, so bytes moved are shards moved times this.
+    private static final long SHARD_BYTES = 64L * 1024 * 1024;
+
+    private static final List<Integer> SERVER_COUNTS = List.of(3, 4, 5, 8, 10, 16, 20, 32, 50, 64, 100);
+
+    @Test
+    void rendezvousPlacementIsEvenAndComplete() {
+        for (int serverCount : SERVER_COUNTS) {
+            var serverToShards = new RendezvousPlacement().place(servers(serverCount), shards(), Map.of());
+
+            assertEquals(serverCount, serverToShards.size());
+            assertEquals(
+                SHARD_COUNT,
+                serverToShards.values().stream().flatMap(List::stream).distinct().count()
+            );
+
+            var sizes = serverToShards.values().stream().mapToInt(List::size).summaryStatistics();
+
+            assertTrue(sizes.getMax() - sizes.getMin() <= 1, "Uneven placement on " + serverCount + " servers: " + sizes);
+        }
+    }
+
+    @Test
+    void rendezvousPlacementStaysEvenAfterChanges() {
+        var placement = new RendezvousPlacement();
+        var serverToShards = placement.place(servers(3), shards(), Map.of());
+
+        // Servers join and leave one by one.
+        for (var servers : List.of(servers(4), servers(10), List.of(1, 3, 5, 7, 9), servers(2), List.of(0, 1, 20))) {
+            serverToShards = placement.place(servers, shards(), serverToShards);
+
+            assertEquals(Set.copyOf(servers), serverToShards.keySet());
+            assertEquals(SHARD_COUNT, serverToShards.values().stream().flatMap(List::stream).distinct().count());
+
+            var sizes = serverToShards.values().stream().mapToInt(List::size).summaryStatistics();
+
+            assertTrue(sizes.getMax() - sizes.getMin() <= 1, "Uneven placement on " + servers + ": " + sizes);
+        }
+    }
+
+    @Test
+    void rendezvousPlacementDoesNotDependOnServerOrder() {
+        var servers = new ArrayList<>(servers(10));
+        var placement = new RendezvousPlacement().place(servers, shards(), Map.of());
+
+        Collections.reverse(servers);
+
+        assertEquals(placement, new RendezvousPlacement().place(servers, shards(), Map.of()));
+    }
+
+    @Test
+    void emptyServerListPlacesNothing() {
+        assertEquals(Map.of(), new RendezvousPlacement().place(List.of(), shards(), Map.of()));
+        assertEquals(Map.of(), new RoundRobinPlacement().place(List.of(), shards(), Map.of()));
+    }
+
+    /**
+     * Simulates a server joining and the last server leaving for every server count, and logs data moved by both placements as CSV.
+     */
+    @Test
+    void rendezvousPlacementMovesLessThanRoundRobin() {
+        log.info("servers,change,ideal_pct,round_robin_pct,round_robin_mb,rendezvous_pct,rendezvous_mb");
+
+        for (int serverCount : SERVER_COUNTS) {
+            var before = servers(serverCount);
+            var joined = servers(serverCount + 1);
+            var left = servers(serverCount - 1);
+
+            // Every shard of the new or removed server has to move, nothing else needs to.
+            double joinIdeal = 1.0 / (serverCount + 1);
+            double leaveIdeal = 1.0 / serverCount;
+
+            int roundRobinJoin = moved(new RoundRobinPlacement(), before, joined);
+            int roundRobinLeave = moved(new RoundRobinPlacement(), before, left);
+            int rendezvousJoin = moved(new RendezvousPlacement(), before, joined);
+            int rendezvousLeave = moved(new RendezvousPlacement(), before, left);
+
+            report(serverCount, "join", joinIdeal, roundRobinJoin, rendezvousJoin);
+            report(serverCount, "leave", leaveIdeal, roundRobinLeave, rendezvousLeave);
+
+            assertTrue(rendezvousJoin < roundRobinJoin);
+            assertTrue(rendezvousLeave <= roundRobinLeave);
+
+            // Rounding of loads may move one more shard.
+            assertTrue(rendezvousJoin <= Math.ceil(joinIdeal * SHARD_COUNT), "Moved " + rendezvousJoin + " joining " + serverCount);
+            assertTrue(rendezvousLeave <= Math.ceil(leaveIdeal * SHARD_COUNT), "Moved " + rendezvousLeave + " leaving " + serverCount);
+        }
+    }
+
+    private static void report(int serverCount, String change, double ideal, int roundRobin, int rendezvous) {
+        log.info(MessageFormat.format(
+            "{0},{1},{2,number,#.#},{3,number,#.#},{4,number,#},{5,number,#.#},{6,number,#}",
+            serverCount,
+            change,
+            ideal * 100,
+            100.0 * roundRobin / SHARD_COUNT,
+            roundRobin * SHARD_BYTES / (1024 * 1024),
+            100.0 * rendezvous / SHARD_COUNT,
+            rendezvous * SHARD_BYTES / (1024 * 1024)
+        ));
+    }
+
+    private static int moved(ShardPlacement placement, List<Integer> oldServers, List<Integer> newServers) {
+        var oldPlacement = placement.place(oldServers, shards(), Map.of());
+
+        var oldOwners = owners(oldPlacement);
+        var newOwners = owners(placement.place(newServers, shards(), oldPlacement));
+
+        return (int)shards().stream()
+            .filter(shardId -> !oldOwners.get(shardId).equals(newOwners.get(shardId)))
+            .count();
+    }
+
+    private static Map<Integer, Integer> owners(Map<Integer, List<Integer>> serverToShards) {
+        Map<Integer, Integer> shardToServer = new HashMap<>();
+
+        serverToShards.forEach((serverId, shards) -> shards.forEach(shardId -> shardToServer.put(shardId, serverId)));
+
+        return shardToServer;
+    }
+
+    private static List<Integer> servers(int count) {
+        return IntStream.range(0, count).boxed().toList();
+    }
+
+    private static List<Integer> shards() {
+        return IntStream.range(0, SHARD_COUNT).boxed().toList();
+    }
+}
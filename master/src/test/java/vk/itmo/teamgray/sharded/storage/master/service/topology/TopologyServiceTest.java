@@ -1,8 +1,15 @@
 package vk.itmo.teamgray.sharded.storage.master.service.topology;
 
 import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,17 +19,23 @@ import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.node.ActionPhase;
+import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.master.client.NodeManagementClient;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyList;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -54,9 +67,9 @@ class TopologyServiceTest {
         ))
             .thenReturn(nodeManagementClient);
 
-        when(nodeManagementClient.prepareRearrange(any(), any(), any(), anyInt())).thenReturn(new StatusResponseDTO(true, ""));
+        when(nodeManagementClient.prepareRearrange(any(), any(), any(), anyMap())).thenReturn(new StatusResponseDTO(true, ""));
         when(nodeManagementClient.processAction(any())).thenReturn(new StatusResponseDTO(true, ""));
-        when(nodeManagementClient.prepareMove(anyList(), anyList(), anyInt())).thenReturn(new StatusResponseDTO(true, ""));
+        when(nodeManagementClient.prepareMove(anyList(), anyList(), anyMap())).thenReturn(new StatusResponseDTO(true, ""));
         when(nodeManagementClient.applyAction(any())).thenReturn(new StatusResponseDTO(true, ""));
 
         topologyService = new TopologyService(discoveryClient, clientCachingFactory);
@@ -92,11 +105,66 @@ class TopologyServiceTest {
         assertFalse(serverToShards.containsKey(1));
     }
 
+    @Test
+    void deletedServerGetsTopologyWithoutIt() {
+        when(nodeManagementClient.updateTopology(any())).thenReturn(new StatusResponseDTO(true, ""));
+
+        topologyService.addServer(1, voidRw());
+        topologyService.addServer(2, voidRw());
+
+        topologyService.addListener(new TopologyPusher(clientCachingFactory, topologyService.getSnapshot()));
+
+        assertTrue(toDto(rw -> topologyService.deleteServer(1, rw)).isSuccess());
+
+        long epoch = topologyService.getSnapshot().epoch();
+
+        // Pushed to both servers, deleted one has to point clients to the new owner.
+        verify(nodeManagementClient, timeout(1000).times(2))
+            .updateTopology(argThat(topology -> topology.epoch() == epoch && !topology.servers().containsKey(1)));
+    }
+
     @Test
     void deleteServerFailsIfServerDoesNotExist() {
         assertFalse(toDto(rw -> topologyService.deleteServer(1, rw)).isSuccess());
     }
 
+    @Test
+    void replicasArePlacedOnDistinctOtherServers() {
+        IntStream.range(0, 3).forEach(i -> topologyService.addServer(i, voidRw()));
+
+        topologyService.changeShardCount(9, voidRw());
+
+        long epoch = topologyService.getSnapshot().epoch();
+
+        assertTrue(toDto(rw -> topologyService.setReplicationFactor(2, rw)).isSuccess());
+        assertEquals(epoch + 1, topologyService.getSnapshot().epoch());
+
+        // Same factor changes nothing.
+        topologyService.setReplicationFactor(2, voidRw());
+        assertEquals(epoch + 1, topologyService.getSnapshot().epoch());
+
+        // Limited by server count.
+        topologyService.setReplicationFactor(5, voidRw());
+
+        var topology = topologyService.getSnapshot().toDto();
+
+        assertEquals(9, topology.shardToReplicas().size());
+
+        Map<Integer, Integer> replicaCount = new HashMap<>();
+
+        topology.shardToReplicas().forEach((shardId, replicas) -> {
+            assertEquals(2, replicas.size());
+            assertEquals(2, new HashSet<>(replicas).size());
+            assertFalse(replicas.contains(topology.shardToServer().get(shardId)));
+
+            replicas.forEach(serverId -> replicaCount.merge(serverId, 1, Integer::sum));
+        });
+
+        assertEquals(Map.of(0, 6, 1, 6, 2, 6), replicaCount);
+
+        assertFalse(toDto(rw -> topologyService.setReplicationFactor(0, rw)).isSuccess());
+    }
+
     @Test
     void testChangeShardActions() {
         var serverCount = 2;
@@ -111,7 +179,7 @@ class TopologyServiceTest {
         assertEquals(serverCount, serverToShards.size());
         assertEquals(shardCount, serverToShards.values().stream().mapToInt(List::size).sum());
 
-        verify(nodeManagementClient, times(serverCount)).prepareRearrange(any(), any(), any(), anyInt());
+        verify(nodeManagementClient, times(serverCount)).prepareRearrange(any(), any(), any(), anyMap());
         verify(nodeManagementClient, times(serverCount)).processAction(any());
         verify(nodeManagementClient, times(serverCount)).applyAction(any());
 
@@ -122,7 +190,7 @@ class TopologyServiceTest {
         assertEquals(serverCount, newServerToShards.size());
         assertEquals(newShardCount, newServerToShards.values().stream().mapToInt(List::size).sum());
 
-        verify(nodeManagementClient, times(serverCount * 2)).prepareRearrange(any(), any(), any(), anyInt());
+        verify(nodeManagementClient, times(serverCount * 2)).prepareRearrange(any(), any(), any(), anyMap());
         verify(nodeManagementClient, times(serverCount * 2)).processAction(any());
         verify(nodeManagementClient, times(serverCount * 2)).applyAction(any());
     }
@@ -212,7 +280,7 @@ class TopologyServiceTest {
         topologyService.addServer(1, voidRw());
         topologyService.changeShardCount(37, voidRw());
 
-        verify(nodeManagementClient).prepareRearrange(any(), any(), any(), anyInt());
+        verify(nodeManagementClient).prepareRearrange(any(), any(), any(), anyMap());
         verify(nodeManagementClient).processAction(any());
 
         Map<Integer, List<Integer>> map = toMap(rw -> topologyService.fillServerToShardsInSync(rw));
@@ -221,7 +289,7 @@ class TopologyServiceTest {
 
         topologyService.addServer(2, voidRw());
 
-        verify(nodeManagementClient, times(2)).prepareMove(any(), any(), anyInt());
+        verify(nodeManagementClient, times(2)).prepareMove(any(), any(), anyMap());
         verify(nodeManagementClient, times(2)).processAction(eq(Action.MOVE_SHARDS));
 
         map = toMap(rw -> topologyService.fillServerToShardsInSync(rw));
@@ -230,7 +298,7 @@ class TopologyServiceTest {
 
         topologyService.changeShardCount(13, voidRw());
 
-        verify(nodeManagementClient, times(3)).prepareRearrange(any(), any(), any(), anyInt());
+        verify(nodeManagementClient, times(3)).prepareRearrange(any(), any(), any(), anyMap());
         verify(nodeManagementClient, times(3)).processAction(eq(Action.REARRANGE_SHARDS));
 
         map = toMap(rw -> topologyService.fillServerToShardsInSync(rw));
@@ -239,7 +307,7 @@ class TopologyServiceTest {
 
         topologyService.addServer(3, voidRw());
 
-        verify(nodeManagementClient, times(5)).prepareMove(any(), any(), anyInt());
+        verify(nodeManagementClient, times(5)).prepareMove(any(), any(), anyMap());
         verify(nodeManagementClient, times(5)).processAction(eq(Action.MOVE_SHARDS));
 
         map = toMap(rw -> topologyService.fillServerToShardsInSync(rw));
@@ -248,12 +316,185 @@ class TopologyServiceTest {
 
         topologyService.deleteServer(1, voidRw());
 
-        verify(nodeManagementClient, times(8)).prepareMove(any(), any(), anyInt());
+        verify(nodeManagementClient, times(8)).prepareMove(any(), any(), anyMap());
         verify(nodeManagementClient, times(8)).processAction(eq(Action.MOVE_SHARDS));
 
         map = toMap(rw -> topologyService.fillServerToShardsInSync(rw));
         assertEquals(2, map.size());
         assertEquals(13, map.values().stream().mapToLong(List::size).sum());
     }
-}
 
+    @Test
+    void moveDispatchesEachPhaseToAllNodesConcurrently() {
+        topologyService.addServer(1, voidRw());
+        topologyService.changeShardCount(10, voidRw());
+
+        CyclicBarrier bothNodes = new CyclicBarrier(2);
+
+        // Each call waits for the other node, so serial calls would fail on timeout.
+        when(nodeManagementClient.prepareMove(anyList(), anyList(), anyMap())).thenAnswer(invocation -> {
+            bothNodes.await(5, TimeUnit.SECONDS);
+
+            return new StatusResponseDTO(true, "");
+        });
+        when(nodeManagementClient.processAction(Action.MOVE_SHARDS)).thenAnswer(invocation -> {
+            bothNodes.await(5, TimeUnit.SECONDS);
+
+            return new StatusResponseDTO(true, "");
+        });
+
+        var response = toDto(rw -> topologyService.addServer(2, rw));
+
+        assertTrue(response.isSuccess(), response.getMessage());
+        verify(nodeManagementClient, times(2)).prepareMove(any(), any(), anyMap());
+        verify(nodeManagementClient, times(2)).processAction(eq(Action.MOVE_SHARDS));
+
+        var latencies = topologyService.getPhaseLatencies();
+
+        assertEquals(1, latencies.get(Action.MOVE_SHARDS + " " + ActionPhase.PREPARE).getCount());
+        assertEquals(1, latencies.get(Action.MOVE_SHARDS + " " + ActionPhase.APPLY).getCount());
+    }
+
+    @Test
+    void failedPrepareRollsBackAllNodes() {
+        topologyService.addServer(1, voidRw());
+        topologyService.changeShardCount(10, voidRw());
+
+        // Receiving node fails.
+        when(nodeManagementClient.prepareMove(argThat(it -> !it.isEmpty()), anyList(), anyMap()))
+            .thenReturn(new StatusResponseDTO(false, "Prepare failed"));
+        when(nodeManagementClient.rollbackAction(Action.MOVE_SHARDS)).thenReturn(new StatusResponseDTO(true, ""));
+
+        var response = toDto(rw -> topologyService.addServer(2, rw));
+
+        assertFalse(response.isSuccess());
+        assertTrue(response.getMessage().contains("Prepare failed"));
+        verify(nodeManagementClient, times(2)).rollbackAction(Action.MOVE_SHARDS);
+        verify(nodeManagementClient, never()).processAction(Action.MOVE_SHARDS);
+
+        Map<Integer, NodeState> states = toMap(topologyService::fillServerToState);
+
+        assertEquals(NodeState.RUNNING, states.get(1));
+        assertEquals(NodeState.RUNNING, states.get(2));
+    }
+
+    @Test
+    void readsDoNotWaitForTopologyChange() throws Exception {
+        topologyService.addServer(1, voidRw());
+        topologyService.changeShardCount(10, voidRw());
+
+        var before = topologyService.getSnapshot();
+
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+
+        when(nodeManagementClient.processAction(Action.REARRANGE_SHARDS)).thenAnswer(invocation -> {
+            processing.countDown();
+
+            released.await(5, TimeUnit.SECONDS);
+
+            return new StatusResponseDTO(true, "");
+        });
+
+        var change = CompletableFuture.supplyAsync(() -> toDto(rw -> topologyService.changeShardCount(20, rw)));
+
+        assertTrue(processing.await(5, TimeUnit.SECONDS));
+
+        // Old scheme is served while the change is in progress.
+        assertEquals(10, toMap(topologyService::fillShardToHashInSync).size());
+        assertEquals(before, topologyService.getSnapshot());
+
+        released.countDown();
+
+        assertTrue(change.get(5, TimeUnit.SECONDS).isSuccess());
+
+        assertEquals(20, toMap(topologyService::fillShardToHashInSync).size());
+        assertEquals(before.epoch() + 1, topologyService.getSnapshot().epoch());
+    }
+
+    @Test
+    void splitShardInvolvesOnlyItsOwner() {
+        IntStream.range(0, 3).forEach(i -> topologyService.addServer(i, voidRw()));
+        topologyService.changeShardCount(6, voidRw());
+
+        var before = topologyService.getSnapshot();
+        var boundaries = ShardBoundaries.fromShardToHash(before.shardToHash());
+        long atHash = boundaries.lowerBoundAt(2) + 1000;
+
+        clearInvocations(nodeManagementClient);
+
+        var response = toDto(rw -> topologyService.splitShard(2, atHash, rw));
+
+        assertTrue(response.isSuccess(), response.getMessage());
+
+        // Owner rebuilds the split shard and the new one, nothing else.
+        verify(nodeManagementClient).prepareRearrange(argThat(slice -> slice.keySet().equals(Set.of(2, 6))), any(), any(), anyMap());
+        verify(nodeManagementClient).processAction(Action.REARRANGE_SHARDS);
+        verify(nodeManagementClient).applyAction(Action.REARRANGE_SHARDS);
+
+        var after = topologyService.getSnapshot();
+
+        Map<Integer, Long> expectedShardToHash = new HashMap<>(before.shardToHash());
+
+        expectedShardToHash.put(2, atHash);
+        expectedShardToHash.put(6, boundaries.upperBoundAt(2));
+
+        assertEquals(expectedShardToHash, after.shardToHash());
+
+        int owner = ownerOf(before, 2);
+
+        assertTrue(after.serverToShards().get(owner).containsAll(List.of(2, 6)));
+        before.serverToShards().forEach((serverId, shards) -> assertTrue(after.serverToShards().get(serverId).containsAll(shards)));
+    }
+
+    @Test
+    void mergeShardsInvolvesOnlyTheirOwners() {
+        IntStream.range(0, 3).forEach(i -> topologyService.addServer(i, voidRw()));
+        topologyService.changeShardCount(6, voidRw());
+
+        var before = topologyService.getSnapshot();
+
+        clearInvocations(nodeManagementClient);
+
+        var response = toDto(rw -> topologyService.mergeShards(3, 4, rw));
+
+        assertTrue(response.isSuccess(), response.getMessage());
+
+        int owners = ownerOf(before, 3) == ownerOf(before, 4) ? 1 : 2;
+
+        verify(nodeManagementClient, times(owners)).prepareRearrange(any(), any(), any(), anyMap());
+        verify(nodeManagementClient, times(owners)).applyAction(Action.REARRANGE_SHARDS);
+
+        var after = topologyService.getSnapshot();
+
+        assertEquals(Set.of(0, 1, 2, 3, 5), after.shardToHash().keySet());
+        assertEquals(before.shardToHash().get(4), after.shardToHash().get(3));
+        assertEquals(ownerOf(before, 3), ownerOf(after, 3));
+    }
+
+    @Test
+    void invalidSplitAndMergeAreRejected() {
+        topologyService.addServer(1, voidRw());
+        topologyService.changeShardCount(4, voidRw());
+
+        clearInvocations(nodeManagementClient);
+
+        long upper = topologyService.getSnapshot().shardToHash().get(1);
+
+        assertFalse(toDto(rw -> topologyService.splitShard(7, 0, rw)).isSuccess());
+        assertFalse(toDto(rw -> topologyService.splitShard(1, upper, rw)).isSuccess());
+        assertFalse(toDto(rw -> topologyService.mergeShards(0, 2, rw)).isSuccess());
+        assertFalse(toDto(rw -> topologyService.mergeShards(1, 1, rw)).isSuccess());
+
+        verify(nodeManagementClient, never()).prepareRearrange(any(), any(), any(), anyMap());
+        assertEquals(4, topologyService.getSnapshot().shardToHash().size());
+    }
+
+    private static int ownerOf(TopologySnapshot snapshot, int shardId) {
+        return snapshot.serverToShards().entrySet().stream()
+            .filter(entry -> entry.getValue().contains(shardId))
+            .map(Map.Entry::getKey)
+            .findFirst()
+            .orElseThrow();
+    }
+}
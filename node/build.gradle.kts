@@ -3,6 +3,7 @@ plugins {
     id("jacoco")
     alias(libs.plugins.qameta.allure)
     alias(libs.plugins.shadow)
+    alias(libs.plugins.champeau.jmh)
 }
 
 private val mainClassName = "vk.itmo.teamgray.sharded.storage.node.NodeApplication"
@@ -26,6 +27,12 @@ tasks.test {
     useJUnitPlatform()
 }
 
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+}
+
 tasks.jar {
     manifest {
         attributes["Main-Class"] = mainClassName
@@ -0,0 +1,207 @@
+package vk.itmo.teamgray.sharded.storage.node.proto;
+
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.health.proto.HealthGrpcService;
+import vk.itmo.teamgray.sharded.storage.common.health.service.HealthService;
+import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+import vk.itmo.teamgray.sharded.storage.node.client.ShardEntriesStream;
+import vk.itmo.teamgray.sharded.storage.node.service.NodeNodeService;
+import vk.itmo.teamgray.sharded.storage.node.service.NodeStorageService;
+import vk.itmo.teamgray.sharded.storage.node.service.ShardAutoFlushSink;
+import vk.itmo.teamgray.sharded.storage.node.service.ReplicationService;
+import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStore;
+
+/**
+ * Moving a shard to another node over loopback: unary batches of 90% of the message size versus the chunk stream.
+ * <p>
+ * Entries are generated while sending and dropped by the receiver after the staged shard checks, so that a 5 GB shard fits in memory
+ * and only scanning, transfer and applying are measured. MB/s of every invocation is printed.
+ * Run with {@code ./gradlew :node:jmh -Pjmh.includes=ShardTransferBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Xms2g"})
+public class ShardTransferBenchmark {
+    private static final int VALUE_SIZE = 1024;
+
+    private static final String VALUE = "v".repeat(VALUE_SIZE);
+
+    @Param({"5120"})
+    private int shardMegabytes;
+
+    private Server server;
+
+    private NodeNodeGrpcClient client;
+
+    private NodeStorageService receiverStorage;
+
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private long entries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        receiverStorage = new NodeStorageService();
+
+        var replicationService = new ReplicationService(0, receiverStorage, ClientCachingFactory.getInstance());
+
+        server = NettyServerBuilder.forPort(0)
+            .maxInboundMessageSize(PropertyUtils.getMessageMaxSize())
+            .addService(new NodeNodeGrpcService(new NodeNodeService(receiverStorage, replicationService)))
+            .addService(new HealthGrpcService(new HealthService()))
+            .build()
+            .start();
+
+        client = new NodeNodeGrpcClient("localhost", server.getPort());
+
+        entries = (long)shardMegabytes * MemoryUtils.MEBIBYTE / (VALUE_SIZE + 16);
+    }
+
+    @Setup(Level.Invocation)
+    public void stage() {
+        receiverStorage.stageShards(new ConcurrentHashMap<>(Map.of(0, new ShardData(new DiscardingShardStore(receivedBytes)))), 1);
+
+        receivedBytes.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public long unary() {
+        long start = System.nanoTime();
+
+        var sink = new ShardAutoFlushSink(
+            (long)(PropertyUtils.getMessageMaxSize() * 0.90),
+            batch -> check(client.sendShardEntries(batch, Action.MOVE_SHARDS))
+        );
+
+        produce(sink);
+        sink.finalFlush();
+
+        return report("unary", start);
+    }
+
+    @Benchmark
+    public long stream() {
+        long start = System.nanoTime();
+
+        ShardEntriesStream stream = client.openShardEntriesStream(Action.MOVE_SHARDS);
+
+        var sink = new ShardAutoFlushSink(MemoryUtils.MEBIBYTE, stream::send);
+
+        produce(sink);
+        sink.finalFlush();
+
+        check(stream.complete());
+
+        return report("stream", start);
+    }
+
+    private void produce(ShardAutoFlushSink sink) {
+        for (long i = 0; i < entries; i++) {
+            sink.addEntry(0, "key-" + i, VALUE);
+        }
+    }
+
+    private long report(String mode, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%n%s: %.1f MB/s%n", mode, receivedBytes.get() / (double)MemoryUtils.MEBIBYTE / seconds);
+
+        return receivedBytes.get();
+    }
+
+    private static void check(StatusResponseDTO response) {
+        if (!response.isSuccess()) {
+            throw new IllegalStateException(response.getMessage());
+        }
+    }
+
+    private static class DiscardingShardStore implements ShardStore {
+        private final AtomicLong bytes;
+
+        private DiscardingShardStore(AtomicLong bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String get(String key) {
+            return null;
+        }
+
+        @Override
+        public void put(String key, String value) {
+            bytes.addAndGet(key.length() + value.length());
+        }
+
+        @Override
+        public void remove(String key) {
+            // No-op.
+        }
+
+        @Override
+        public void clear() {
+            // No-op.
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public long getBytesUsed() {
+            return -1;
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            // No-op.
+        }
+
+        @Override
+        public String getName() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // No-op.
+        }
+
+        @Override
+        public void destroy() {
+            // No-op.
+        }
+    }
+}
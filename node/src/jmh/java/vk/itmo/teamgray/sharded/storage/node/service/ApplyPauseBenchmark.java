@@ -0,0 +1,155 @@
+package vk.itmo.teamgray.sharded.storage.node.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.InMemoryShardStore;
+
+import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.toDto;
+
+/**
+ * Pause of a node applying a resharding from 16 to 32 shards, after 1M writes were made while shards were copied: applying the change
+ * now, with writes already in staged shards, versus the former replay of a write queue sorted by timestamp.
+ * <p>
+ * Run with {@code ./gradlew :node:jmh -Pjmh.includes=ApplyPauseBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Xms4g"})
+public class ApplyPauseBenchmark {
+    private static final int OLD_SHARD_COUNT = 16;
+
+    private static final int NEW_SHARD_COUNT = 32;
+
+    @State(Scope.Benchmark)
+    public static class StagedWrites {
+        @Param({"1000000"})
+        private int writes;
+
+        private NodeManagementService managementService;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            var nodeStorageService = new NodeStorageService();
+
+            nodeStorageService.stageShards(shards(OLD_SHARD_COUNT), ShardBoundaries.even(OLD_SHARD_COUNT));
+            nodeStorageService.swapWithStaged();
+
+            managementService = new NodeManagementService(nodeStorageService, null, null, new NodeTopology());
+
+            nodeStorageService.changeState(NodeState.RUNNING, NodeState.REARRANGE_SHARDS_PREPARING);
+            nodeStorageService.prepareDataForResharding(
+                fragments(),
+                Map.of(),
+                shards(NEW_SHARD_COUNT),
+                ShardBoundaries.even(NEW_SHARD_COUNT)
+            );
+            nodeStorageService.changeState(NodeState.REARRANGE_SHARDS_PREPARING, NodeState.REARRANGE_SHARDS_PREPARED);
+            nodeStorageService.changeState(NodeState.REARRANGE_SHARDS_PREPARED, NodeState.REARRANGE_SHARDS_PROCESSING);
+
+            for (int i = 0; i < writes; i++) {
+                nodeStorageService.set("key-" + i, "value-" + i, Instant.now());
+            }
+
+            nodeStorageService.changeState(NodeState.REARRANGE_SHARDS_PROCESSING, NodeState.REARRANGE_SHARDS_PROCESSED);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueuedWrites {
+        @Param({"1000000"})
+        private int writes;
+
+        private List<QueueEntry> queue;
+
+        private ShardsContainer shards;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            queue = new ArrayList<>(writes);
+
+            for (int i = 0; i < writes; i++) {
+                String key = "key-" + i;
+
+                queue.add(new QueueEntry(Instant.now(), key, HashingUtils.calculate64BitHash(key), "value-" + i));
+            }
+
+            shards = new ShardsContainer(shards(NEW_SHARD_COUNT), ShardBoundaries.even(NEW_SHARD_COUNT));
+        }
+    }
+
+    @Benchmark
+    public StatusResponseDTO apply(StagedWrites state) {
+        return toDto(responseWriter -> state.managementService.applyAction(Action.REARRANGE_SHARDS, responseWriter));
+    }
+
+    @Benchmark
+    public void formerQueueReplay(QueuedWrites state) {
+        state.queue.stream()
+            .sorted(Comparator.comparing(QueueEntry::timestamp))
+            .forEach(entry -> state.shards.set(entry.key(), entry.hash(), entry.value()));
+    }
+
+    private static ConcurrentHashMap<Integer, ShardData> shards(int shardCount) {
+        ConcurrentHashMap<Integer, ShardData> shards = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < shardCount; i++) {
+            shards.put(i, new ShardData(new InMemoryShardStore()));
+        }
+
+        return shards;
+    }
+
+    private static List<FragmentDTO> fragments() {
+        var oldBoundaries = ShardBoundaries.even(OLD_SHARD_COUNT);
+        var newBoundaries = ShardBoundaries.even(NEW_SHARD_COUNT);
+
+        List<FragmentDTO> fragments = new ArrayList<>();
+
+        long previous = Long.MIN_VALUE;
+
+        for (int i = 0; i < NEW_SHARD_COUNT; i++) {
+            long bound = newBoundaries.upperBoundAt(i);
+
+            fragments.add(new FragmentDTO(oldBoundaries.shardIdForHash(bound), i, previous, bound));
+
+            previous = bound;
+        }
+
+        return fragments;
+    }
+
+    private record QueueEntry(
+        Instant timestamp,
+        String key,
+        long hash,
+        String value
+    ) {
+        // No-op.
+    }
+}
@@ -0,0 +1,110 @@
+package vk.itmo.teamgray.sharded.storage.node.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.InMemoryShardStore;
+
+/**
+ * Extracting fragments when resharding 10M keys from 24 to 48 shards: hash range lookup versus the former full scan of the old shard
+ * for every fragment.
+ * <p>
+ * Run with {@code ./gradlew :node:jmh -Pjmh.includes=RearrangeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Xms6g"})
+public class RearrangeBenchmark {
+    private static final int OLD_SHARD_COUNT = 24;
+
+    private static final int NEW_SHARD_COUNT = 48;
+
+    @Param({"10000000"})
+    private int keys;
+
+    private List<ShardData> oldShards;
+
+    private List<FragmentDTO> fragments;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var oldBoundaries = ShardBoundaries.even(OLD_SHARD_COUNT);
+        var newBoundaries = ShardBoundaries.even(NEW_SHARD_COUNT);
+
+        oldShards = new ArrayList<>();
+
+        for (int i = 0; i < OLD_SHARD_COUNT; i++) {
+            oldShards.add(new ShardData(new InMemoryShardStore()));
+        }
+
+        for (int i = 0; i < keys; i++) {
+            String key = "key-" + i;
+            long hash = HashingUtils.calculate64BitHash(key);
+
+            oldShards.get(oldBoundaries.shardIdForHash(hash)).addToStorage(key, hash, "value-" + i);
+        }
+
+        TreeSet<Long> bounds = new TreeSet<>();
+
+        for (int i = 0; i < OLD_SHARD_COUNT; i++) {
+            bounds.add(oldBoundaries.upperBoundAt(i));
+        }
+
+        for (int i = 0; i < NEW_SHARD_COUNT; i++) {
+            bounds.add(newBoundaries.upperBoundAt(i));
+        }
+
+        fragments = new ArrayList<>();
+
+        long previous = Long.MIN_VALUE;
+
+        for (long bound : bounds) {
+            fragments.add(new FragmentDTO(oldBoundaries.shardIdForHash(bound), newBoundaries.shardIdForHash(bound), previous, bound));
+
+            previous = bound;
+        }
+    }
+
+    @Benchmark
+    public void hashRange(Blackhole blackhole) {
+        for (FragmentDTO fragment : fragments) {
+            oldShards.get(fragment.oldShardId())
+                .forEachInHashRange(fragment.rangeFrom(), fragment.rangeTo(), (key, value) -> blackhole.consume(value));
+        }
+    }
+
+    @Benchmark
+    public void fullScan(Blackhole blackhole) {
+        for (FragmentDTO fragment : fragments) {
+            oldShards.get(fragment.oldShardId())
+                .forEach((key, value) -> {
+                    long hash = HashingUtils.calculate64BitHash(key);
+
+                    if (hash >= fragment.rangeFrom() && hash < fragment.rangeTo()) {
+                        blackhole.consume(value);
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.lsm.LsmShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
+
+/**
+ * Random reads and writes against an LSM shard holding ten times more data than the heap of the benchmark JVM.
+ * <p>
+ * Run with {@code ./gradlew :node:jmh -Pjmh.includes=LsmLargeDatasetBenchmark}. Loading takes a few minutes and needs about 3 GB of disk.
+ * GC count and time of the measurement phase are printed on teardown, they stay bounded as only memtables and table indexes live on heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx256m", "-Xms256m"})
+@Threads(4)
+public class LsmLargeDatasetBenchmark {
+    private static final int VALUE_SIZE = 1024;
+
+    private static final String VALUE = "v".repeat(VALUE_SIZE);
+
+    private Path dir;
+
+    private ScheduledExecutorService scheduler;
+
+    private LsmShardStore store;
+
+    private int keyCount;
+
+    private long gcCount;
+
+    private long gcTimeMillis;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("lsm-benchmark");
+        scheduler = Executors.newScheduledThreadPool(2);
+
+        var config = new StorageConfig(
+            StorageEngine.LSM,
+            dir,
+            FsyncPolicy.BATCH,
+            10,
+            64L * MemoryUtils.MEBIBYTE,
+            128L * MemoryUtils.MEBIBYTE,
+            16L * MemoryUtils.MEBIBYTE,
+            4 * MemoryUtils.KIBIBYTE,
+            4,
+            16 * MemoryUtils.MEBIBYTE
+        );
+
+        store = new LsmShardStore("benchmark", dir, config, scheduler);
+
+        keyCount = (int)(10 * Runtime.getRuntime().maxMemory() / VALUE_SIZE);
+
+        for (int i = 0; i < keyCount; i++) {
+            store.put(key(i), VALUE);
+        }
+
+        store.flush();
+        store.compact();
+
+        System.out.printf("%nLoaded %d keys, %d MB in %d tables%n", keyCount, (long)keyCount * VALUE_SIZE >> 20, store.getTableCount());
+
+        gcCount = totalGcCount();
+        gcTimeMillis = totalGcTimeMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf(
+            "%nGC during measurement: %d collections, %d ms; heap used: %d MB%n",
+            totalGcCount() - gcCount,
+            totalGcTimeMillis() - gcTimeMillis,
+            (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20
+        );
+
+        store.destroy();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public String get() {
+        return store.get(key(ThreadLocalRandom.current().nextInt(keyCount)));
+    }
+
+    @Benchmark
+    public void put() {
+        store.put(key(ThreadLocalRandom.current().nextInt(keyCount)), VALUE);
+    }
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    private static long totalGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+            .sum();
+    }
+
+    private static long totalGcTimeMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+            .sum();
+    }
+}
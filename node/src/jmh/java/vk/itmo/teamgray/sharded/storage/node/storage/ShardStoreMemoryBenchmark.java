@@ -0,0 +1,158 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.offheap.OffHeapShardStore;
+
+/**
+ * Memory footprint and GC pauses of a shard with many small entries, heap map versus off-heap slabs.
+ * <p>
+ * Bytes per entry (heap and direct memory) are printed after loading, p99 GC pause of the read-write churn on teardown.
+ * Run with {@code ./gradlew :node:jmh -Pjmh.includes=ShardStoreMemoryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Xms3g", "-XX:MaxDirectMemorySize=3g"})
+@Threads(4)
+public class ShardStoreMemoryBenchmark {
+    @Param({"MEMORY", "OFFHEAP"})
+    private StorageEngine engine;
+
+    @Param({"5000000"})
+    private int entries;
+
+    private ShardStore store;
+
+    private final List<Long> pausesMillis = Collections.synchronizedList(new ArrayList<>());
+
+    private NotificationListener gcListener;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = switch (engine) {
+            case MEMORY -> new InMemoryShardStore();
+            case OFFHEAP -> new OffHeapShardStore(16 * MemoryUtils.MEBIBYTE);
+            default -> throw new IllegalArgumentException("Not an in-memory engine: " + engine);
+        };
+
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        for (int i = 0; i < entries; i++) {
+            store.put(key(i), value(i));
+        }
+
+        long heapBytes = usedHeap() - heapBefore;
+        long directBytes = usedDirect() - directBefore;
+
+        System.out.printf(
+            "%n%s: %.1f heap bytes/entry, %.1f direct bytes/entry%n",
+            engine,
+            (double)heapBytes / entries,
+            (double)directBytes / entries
+        );
+
+        gcListener = this::onGc;
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter)gc).addNotificationListener(gcListener, null, null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter)gc).removeNotificationListener(gcListener);
+        }
+
+        List<Long> pauses = new ArrayList<>(pausesMillis);
+
+        Collections.sort(pauses);
+
+        System.out.printf(
+            "%n%s: %d GC pauses, p99 %d ms, max %d ms%n",
+            engine,
+            pauses.size(),
+            pauses.isEmpty() ? 0 : pauses.get((int)(pauses.size() * 0.99)),
+            pauses.isEmpty() ? 0 : pauses.getLast()
+        );
+
+        store.destroy();
+    }
+
+    @Benchmark
+    public String churn() {
+        var random = ThreadLocalRandom.current();
+
+        int i = random.nextInt(entries);
+
+        if (random.nextInt(10) == 0) {
+            store.put(key(i), value(random.nextInt()));
+
+            return null;
+        }
+
+        return store.get(key(i));
+    }
+
+    private void onGc(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+
+        var info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+
+        // Concurrent cycles do not stop application threads.
+        if (!info.getGcName().contains("Concurrent")) {
+            pausesMillis.add(info.getGcInfo().getDuration());
+        }
+    }
+
+    private static String key(int i) {
+        return "user:" + i;
+    }
+
+    private static String value(int i) {
+        return "value-" + Integer.toHexString(i);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+
+        var runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+            .filter(it -> it.getName().equals("direct"))
+            .mapToLong(BufferPoolMXBean::getMemoryUsed)
+            .sum();
+    }
+}
@@ -0,0 +1,96 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WalShardStore;
+
+/**
+ * Write throughput of a single WAL-backed shard for each fsync policy, with 8 concurrent writers to show group commit effect.
+ * <p>
+ * Run with {@code ./gradlew :node:jmh}. Results for {@code ALWAYS} heavily depend on the disk, run it on the target hardware.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ShardStoreWriteBenchmark {
+    private static final String VALUE = "v".repeat(100);
+
+    @Param({"ALWAYS", "BATCH", "NONE"})
+    private FsyncPolicy fsyncPolicy;
+
+    private Path dir;
+
+    private ScheduledExecutorService scheduler;
+
+    private WalShardStore store;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private String prefix;
+
+        private int counter;
+
+        @Setup
+        public void setUp(ShardStoreWriteBenchmark benchmark) {
+            prefix = "thread-" + benchmark.threadIds.incrementAndGet() + "-key-";
+        }
+
+        String nextKey() {
+            // Bounded key space, so that memory does not grow with the iteration length.
+            return prefix + (counter++ & 0xFFFF);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("shard-store-benchmark");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        var config = new StorageConfig(
+            StorageEngine.WAL,
+            dir,
+            fsyncPolicy,
+            10,
+            64L * MemoryUtils.MEBIBYTE,
+            128L * MemoryUtils.MEBIBYTE,
+            16L * MemoryUtils.MEBIBYTE,
+            4 * MemoryUtils.KIBIBYTE,
+            4,
+            16 * MemoryUtils.MEBIBYTE
+        );
+
+        store = new WalShardStore("benchmark", dir, config, scheduler);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.destroy();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void put(Writer writer) {
+        store.put(writer.nextKey(), VALUE);
+    }
+}
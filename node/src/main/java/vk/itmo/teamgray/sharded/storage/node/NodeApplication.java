@@ -17,6 +17,10 @@ import vk.itmo.teamgray.sharded.storage.node.service.NodeClientService;
 import vk.itmo.teamgray.sharded.storage.node.service.NodeManagementService;
 import vk.itmo.teamgray.sharded.storage.node.service.NodeNodeService;
 import vk.itmo.teamgray.sharded.storage.node.service.NodeStorageService;
+import vk.itmo.teamgray.sharded.storage.node.service.NodeTopology;
+import vk.itmo.teamgray.sharded.storage.node.service.ReplicationService;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStoreFactory;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
 
 import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getDiscoverableService;
 import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getServerHost;
@@ -26,8 +30,14 @@ public class NodeApplication {
     public static void main(String[] args) throws IOException, InterruptedException {
         int port = getServerPort("node");
 
+        ShardStoreFactory storeFactory = ShardStoreFactory.configure(StorageConfig.fromProperties());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(storeFactory::close, "shard-store-shutdown"));
+
         NodeStorageService nodeStorageService = new NodeStorageService();
 
+        nodeStorageService.recover();
+
         ClientCachingFactory clientFactory = ClientCachingFactory.getInstance();
 
         clientFactory.registerClientCreator(DiscoveryClient.class, DiscoveryGrpcClient::new);
@@ -48,10 +58,17 @@ public class NodeApplication {
 
         serverRunner.setPort(port);
 
-        serverRunner.registerService(new NodeClientGrpcService(new NodeClientService(nodeStorageService)));
+        NodeTopology nodeTopology = new NodeTopology();
+
+        ReplicationService replicationService = new ReplicationService(service.id(), nodeStorageService, clientFactory);
+
+        nodeStorageService.setWriteListener(replicationService);
+        nodeTopology.addListener(replicationService::onTopology);
+
+        serverRunner.registerService(new NodeClientGrpcService(new NodeClientService(nodeStorageService, nodeTopology, replicationService)));
         serverRunner.registerService(
-            new NodeManagementGrpcService(new NodeManagementService(nodeStorageService, discoveryClient, clientFactory)));
-        serverRunner.registerService(new NodeNodeGrpcService(new NodeNodeService(nodeStorageService)));
+            new NodeManagementGrpcService(new NodeManagementService(nodeStorageService, discoveryClient, clientFactory, nodeTopology)));
+        serverRunner.registerService(new NodeNodeGrpcService(new NodeNodeService(nodeStorageService, replicationService)));
         serverRunner.registerService(new HealthGrpcService(new HealthService()));
 
         serverRunner.start();
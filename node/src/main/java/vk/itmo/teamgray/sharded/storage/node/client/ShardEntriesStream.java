@@ -0,0 +1,22 @@
+package vk.itmo.teamgray.sharded.storage.node.client;
+
+import java.util.List;
+import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+
+/**
+ * Open transfer of shard entries to another node. Not thread safe, chunks are sent from a single thread.
+ */
+public interface ShardEntriesStream {
+    /**
+     * Blocks while the receiver can not accept more data, so that scanning stays at most one chunk ahead of the network.
+     */
+    void send(List<SendShardDTO> shards);
+
+    /**
+     * Ends the stream and waits for the receiver to apply all chunks.
+     */
+    StatusResponseDTO complete();
+
+    void cancel(String message);
+}
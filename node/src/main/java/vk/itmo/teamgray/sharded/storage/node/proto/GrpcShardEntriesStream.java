@@ -0,0 +1,128 @@
+package vk.itmo.teamgray.sharded.storage.node.proto;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
+import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.node.client.ShardEntriesStream;
+import vk.itmo.teamgray.sharded.storage.node.node.SendShardsRequest;
+
+/**
+ * Client side of {@code StreamShardEntries}. Sender waits for transport readiness before every chunk instead of buffering them, so
+ * memory is bounded by a chunk and transport buffers, while the previous chunk is on the wire during the scan of the next one.
+ */
+class GrpcShardEntriesStream implements ShardEntriesStream, ClientResponseObserver<SendShardsRequest, StatusResponse> {
+    private final String action;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition ready = lock.newCondition();
+
+    private final CompletableFuture<StatusResponse> response = new CompletableFuture<>();
+
+    private ClientCallStreamObserver<SendShardsRequest> requestStream;
+
+    GrpcShardEntriesStream(Action action) {
+        this.action = action.name();
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<SendShardsRequest> requestStream) {
+        this.requestStream = requestStream;
+
+        requestStream.setOnReadyHandler(this::signalReady);
+    }
+
+    @Override
+    public void send(List<SendShardDTO> shards) {
+        SendShardsRequest request = SendShardsRequest.newBuilder()
+            .addAllShards(shards.stream().map(SendShardDTO::toGrpc).toList())
+            .setAction(action)
+            .build();
+
+        awaitReady();
+
+        requestStream.onNext(request);
+    }
+
+    @Override
+    public StatusResponseDTO complete() {
+        requestStream.onCompleted();
+
+        try {
+            return new StatusResponseDTO(response.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            requestStream.cancel("Interrupted", e);
+
+            throw new IllegalStateException("Interrupted while waiting for shard entries to be applied", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shard entries stream failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public void cancel(String message) {
+        requestStream.cancel(message, null);
+    }
+
+    @Override
+    public void onNext(StatusResponse value) {
+        response.complete(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        response.completeExceptionally(t);
+
+        signalReady();
+    }
+
+    @Override
+    public void onCompleted() {
+        signalReady();
+    }
+
+    private void awaitReady() {
+        lock.lock();
+
+        try {
+            // Receiver may finish early only on failure, there is no point to keep sending then.
+            while (!requestStream.isReady() && !response.isDone()) {
+                ready.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            requestStream.cancel("Interrupted", e);
+
+            throw new IllegalStateException("Interrupted while sending shard entries", e);
+        } finally {
+            lock.unlock();
+        }
+
+        if (response.isDone()) {
+            throw new IllegalStateException("Shard entries stream closed by receiver: " + response.handle(
+                (value, error) -> error != null ? error.getMessage() : value.getMessage()
+            ).join());
+        }
+    }
+
+    private void signalReady() {
+        lock.lock();
+
+        try {
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -6,8 +6,15 @@ import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.common.Empty;
+import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.node.client.GetKeyRequest;
 import vk.itmo.teamgray.sharded.storage.node.client.GetKeyResponse;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiGetRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiGetResponse;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiSetRequest;
+import vk.itmo.teamgray.sharded.storage.node.client.MultiSetResponse;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeClientServiceGrpc;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeStatusResponse;
 import vk.itmo.teamgray.sharded.storage.node.client.SetKeyRequest;
@@ -28,16 +35,39 @@ public class NodeClientGrpcService extends NodeClientServiceGrpc.NodeClientServi
         var dto = nodeClientService.setKey(
             request.getKey(),
             request.getValue(),
-            Instant.ofEpochMilli(request.getTimestamp())
+            Instant.ofEpochMilli(request.getTimestamp()),
+            request.getEpoch()
         );
 
-        var response = SetKeyResponse.newBuilder()
-            .setStatus(dto.status().name())
-            .setMessage(dto.message())
-            .setNewNodeId(dto.newNodeId())
-            .build();
+        responseObserver.onNext(toGrpc(dto));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void multiSet(MultiSetRequest request, StreamObserver<MultiSetResponse> responseObserver) {
+        var results = nodeClientService.multiSet(
+            request.getEntriesMap(),
+            Instant.ofEpochMilli(request.getTimestamp()),
+            request.getEpoch()
+        );
+
+        var response = MultiSetResponse.newBuilder();
+
+        results.forEach((key, dto) -> response.putResults(key, toGrpc(dto)));
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void multiGet(MultiGetRequest request, StreamObserver<MultiGetResponse> responseObserver) {
+        var results = nodeClientService.multiGet(request.getKeysList(), request.getEpoch(), ReadBoundsDTO.fromGrpc(request.getBounds()));
+
+        var response = MultiGetResponse.newBuilder();
 
-        responseObserver.onNext(response);
+        results.forEach((key, dto) -> response.putResults(key, toGrpc(dto)));
+
+        responseObserver.onNext(response.build());
         responseObserver.onCompleted();
     }
 
@@ -47,10 +77,16 @@ public class NodeClientGrpcService extends NodeClientServiceGrpc.NodeClientServi
 
         nodeClientService.getKey(
             request.getKey(),
-            (status, value) -> {
+            request.getEpoch(),
+            ReadBoundsDTO.fromGrpc(request.getBounds()),
+            (status, value, ownerHint) -> {
                 response.setStatus(status.name());
                 // gRPC does not handle nulls well
                 response.setValue(Objects.requireNonNullElse(value, ""));
+
+                if (ownerHint != null) {
+                    response.setOwnerHint(ownerHint.toGrpc());
+                }
             }
         );
 
@@ -70,4 +106,31 @@ public class NodeClientGrpcService extends NodeClientServiceGrpc.NodeClientServi
 
         responseObserver.onCompleted();
     }
+
+    private static SetKeyResponse toGrpc(SetResponseDTO dto) {
+        var response = SetKeyResponse.newBuilder()
+            .setStatus(dto.status().name())
+            .setMessage(dto.message())
+            .setNewNodeId(dto.newNodeId())
+            .setPosition(dto.position());
+
+        if (dto.ownerHint() != null) {
+            response.setOwnerHint(dto.ownerHint().toGrpc());
+        }
+
+        return response.build();
+    }
+
+    private static GetKeyResponse toGrpc(GetResponseDTO dto) {
+        var response = GetKeyResponse.newBuilder()
+            .setStatus(dto.status().name())
+            // gRPC does not handle nulls well
+            .setValue(Objects.requireNonNullElse(dto.value(), ""));
+
+        if (dto.ownerHint() != null) {
+            response.setOwnerHint(dto.ownerHint().toGrpc());
+        }
+
+        return response.build();
+    }
 }
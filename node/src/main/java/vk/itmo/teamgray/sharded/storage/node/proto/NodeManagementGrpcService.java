@@ -1,11 +1,18 @@
 package vk.itmo.teamgray.sharded.storage.node.proto;
 
 import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import vk.itmo.teamgray.sharded.storage.common.Empty;
 import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.master.client.Topology;
+import vk.itmo.teamgray.sharded.storage.node.client.NodeStatusResponse;
 import vk.itmo.teamgray.sharded.storage.node.management.ActionRequest;
+import vk.itmo.teamgray.sharded.storage.node.management.IngestShardFileRequest;
 import vk.itmo.teamgray.sharded.storage.node.management.NodeManagementServiceGrpc;
 import vk.itmo.teamgray.sharded.storage.node.management.PrepareMoveRequest;
 import vk.itmo.teamgray.sharded.storage.node.management.PrepareRearrangeRequest;
@@ -28,7 +35,7 @@ public class NodeManagementGrpcService extends NodeManagementServiceGrpc.NodeMan
             request.getFragmentsList().stream().map(FragmentDTO::fromGrpc).toList(),
             request.getServerByShardNumberMap(),
             request.getShardToHashMap(),
-            request.getFullShardCount(),
+            boundaries(request.getFullShardToHashMap(), request.getFullShardCount()),
             fromGrpcBuilder(builder)
         );
 
@@ -79,11 +86,46 @@ public class NodeManagementGrpcService extends NodeManagementServiceGrpc.NodeMan
         nodeManagementService.prepareMove(
             request.getReceiveShardIdsList(),
             request.getSendShardsList().stream().map(SendShardTaskDTO::fromGrpc).toList(),
-            request.getFullShardCount(),
+            boundaries(request.getFullShardToHashMap(), request.getFullShardCount()),
             fromGrpcBuilder(builder)
         );
 
         responseObserver.onNext(builder.build());
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void ingestShardFile(IngestShardFileRequest request, StreamObserver<StatusResponse> responseObserver) {
+        var builder = StatusResponse.newBuilder();
+
+        nodeManagementService.ingestShardFile(request.getShardId(), request.getPath(), fromGrpcBuilder(builder));
+
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void updateTopology(Topology request, StreamObserver<StatusResponse> responseObserver) {
+        var builder = StatusResponse.newBuilder();
+
+        nodeManagementService.updateTopology(TopologyDTO.fromGrpc(request), fromGrpcBuilder(builder));
+
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getNodeStatus(Empty request, StreamObserver<NodeStatusResponse> responseObserver) {
+        try {
+            responseObserver.onNext(nodeManagementService.getNodeStatus().toGrpc());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    // Masters before schemes of any width only send the shard count.
+    private static ShardBoundaries boundaries(Map<Integer, Long> fullShardToHash, int fullShardCount) {
+        return fullShardToHash.isEmpty() ? ShardBoundaries.even(fullShardCount) : ShardBoundaries.fromShardToHash(fullShardToHash);
+    }
 }
@@ -2,19 +2,26 @@ package vk.itmo.teamgray.sharded.storage.node.proto;
 
 import io.grpc.ManagedChannel;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReplicateEntriesDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.common.proto.AbstractGrpcClient;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeNodeClient;
+import vk.itmo.teamgray.sharded.storage.node.client.ShardEntriesStream;
 import vk.itmo.teamgray.sharded.storage.node.node.NodeNodeServiceGrpc;
 import vk.itmo.teamgray.sharded.storage.node.node.SendShardsRequest;
 
 public class NodeNodeGrpcClient extends AbstractGrpcClient<NodeNodeServiceGrpc.NodeNodeServiceBlockingStub> implements NodeNodeClient {
+    private final NodeNodeServiceGrpc.NodeNodeServiceStub asyncStub;
+
     public NodeNodeGrpcClient(String host, int port) {
         super(host, port);
+
+        this.asyncStub = NodeNodeServiceGrpc.newStub(blockingStub.getChannel());
     }
 
     @Override
@@ -33,4 +40,19 @@ public class NodeNodeGrpcClient extends AbstractGrpcClient<NodeNodeServiceGrpc.N
 
         return new StatusResponseDTO(grpcResponse);
     }
+
+    @Override
+    public ShardEntriesStream openShardEntriesStream(Action action) {
+        var stream = new GrpcShardEntriesStream(action);
+
+        asyncStub.streamShardEntries(stream);
+
+        return stream;
+    }
+
+    @Override
+    public StatusResponseDTO replicateEntries(ReplicateEntriesDTO entries) {
+        // Shipping to a replica that hangs is retried later instead of blocking its queue for good.
+        return new StatusResponseDTO(blockingStub.withDeadlineAfter(30, TimeUnit.SECONDS).replicateEntries(entries.toGrpc()));
+    }
 }
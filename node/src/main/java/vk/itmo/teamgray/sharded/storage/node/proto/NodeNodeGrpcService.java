@@ -1,16 +1,22 @@
 package vk.itmo.teamgray.sharded.storage.node.proto;
 
 import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.common.StatusResponse;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReplicateEntriesDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.node.node.NodeNodeServiceGrpc;
+import vk.itmo.teamgray.sharded.storage.node.node.ReplicateEntriesRequest;
 import vk.itmo.teamgray.sharded.storage.node.node.SendShardsRequest;
 import vk.itmo.teamgray.sharded.storage.node.service.NodeNodeService;
 
 import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.fromGrpcBuilder;
 
 public class NodeNodeGrpcService extends NodeNodeServiceGrpc.NodeNodeServiceImplBase {
+    private static final Logger log = LoggerFactory.getLogger(NodeNodeGrpcService.class);
+
     private final NodeNodeService nodeNodeService;
 
     public NodeNodeGrpcService(NodeNodeService nodeNodeService) {
@@ -33,4 +39,45 @@ public class NodeNodeGrpcService extends NodeNodeServiceGrpc.NodeNodeServiceImpl
         responseObserver.onNext(builder.build());
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void replicateEntries(ReplicateEntriesRequest request, StreamObserver<StatusResponse> responseObserver) {
+        var builder = StatusResponse.newBuilder();
+
+        nodeNodeService.replicateEntries(ReplicateEntriesDTO.fromGrpc(request), fromGrpcBuilder(builder));
+
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    // Next chunk is requested once onNext returns, so a slow receiver throttles the sender.
+    @Override
+    public StreamObserver<SendShardsRequest> streamShardEntries(StreamObserver<StatusResponse> responseObserver) {
+        var receiver = nodeNodeService.receiveShardEntries();
+
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(SendShardsRequest request) {
+                receiver.accept(
+                    Action.valueOf(request.getAction()),
+                    request.getShardsList().stream().map(SendShardDTO::fromGrpc).toList()
+                );
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.warn("Shard entries stream aborted by sender: {}", t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                var builder = StatusResponse.newBuilder();
+
+                receiver.complete(fromGrpcBuilder(builder));
+
+                responseObserver.onNext(builder.build());
+                responseObserver.onCompleted();
+            }
+        };
+    }
 }
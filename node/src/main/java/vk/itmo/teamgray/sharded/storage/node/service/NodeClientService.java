@@ -2,12 +2,17 @@ package vk.itmo.teamgray.sharded.storage.node.service;
 
 import java.text.MessageFormat;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.enums.GetStatus;
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
@@ -19,13 +24,28 @@ public class NodeClientService {
 
     private final NodeStorageService nodeStorageService;
 
-    public NodeClientService(NodeStorageService nodeStorageService) {
+    private final NodeTopology nodeTopology;
+
+    private final ReplicationService replicationService;
+
+    public NodeClientService(NodeStorageService nodeStorageService, NodeTopology nodeTopology, ReplicationService replicationService) {
         this.nodeStorageService = nodeStorageService;
+        this.nodeTopology = nodeTopology;
+        this.replicationService = replicationService;
     }
 
-    public SetResponseDTO setKey(String key, String value, Instant timestamp) {
+    /**
+     * @param epoch topology epoch the request was routed with, wrong node response has the owner of the key if the node knows a newer one
+     */
+    public SetResponseDTO setKey(String key, String value, Instant timestamp, long epoch) {
         try {
-            return nodeStorageService.set(key, value, timestamp);
+            return withPosition(key, nodeStorageService.set(key, value, timestamp));
+        } catch (ShardNotExistsException e) {
+            String errMessage = MessageFormat.format("Error while setting key=[{0}] value=[{1}]", key, value);
+
+            log.warn(errMessage, e);
+
+            return new SetResponseDTO(SetStatus.WRONG_NODE, errMessage, 0, nodeTopology.ownerHint(key, epoch));
         } catch (NodeException e) {
             String errMessage = MessageFormat.format("Error while setting key=[{0}] value=[{1}]", key, value);
 
@@ -35,24 +55,88 @@ public class NodeClientService {
         }
     }
 
-    public void getKey(String key, GetResponseWriter responseWriter) {
+    /**
+     * Keys of shards this node keeps a replica of are served from the replica, if it is within {@code bounds}.
+     *
+     * @param epoch topology epoch the request was routed with, wrong node response has the owner of the key if the node knows a newer one
+     */
+    public void getKey(String key, long epoch, ReadBoundsDTO bounds, GetResponseWriter responseWriter) {
         try {
-            String value = nodeStorageService.get(key);
+            String value = getOwnOrReplicated(key, bounds);
 
-            responseWriter.writeResponse(GetStatus.SUCCESS, value);
+            responseWriter.writeResponse(GetStatus.SUCCESS, value, null);
         } catch (ShardNotExistsException e) {
             String errMessage = MessageFormat.format("Error while getting by key=[{0}]", key);
 
             log.warn(errMessage, e);
 
-            responseWriter.writeResponse(GetStatus.WRONG_NODE, errMessage);
+            responseWriter.writeResponse(GetStatus.WRONG_NODE, errMessage, nodeTopology.ownerHint(key, epoch));
         } catch (NodeException e) {
             String errMessage = MessageFormat.format("Error while getting by key=[{0}]", key);
 
             log.warn(errMessage, e);
 
-            responseWriter.writeResponse(GetStatus.ERROR, errMessage);
+            responseWriter.writeResponse(GetStatus.ERROR, errMessage, null);
+        }
+    }
+
+    /**
+     * Sets every entry as {@link #setKey} would, a failed entry does not affect the others. Entries are applied in one pass when the
+     * node is not changing topology.
+     *
+     * @return results by key, in order of {@code entries}
+     */
+    public Map<String, SetResponseDTO> multiSet(Map<String, String> entries, Instant timestamp, long epoch) {
+        Map<String, SetResponseDTO> results = new LinkedHashMap<>();
+
+        try {
+            if (nodeStorageService.trySetAll(entries)) {
+                entries.keySet().forEach(
+                    key -> results.put(key, withPosition(key, new SetResponseDTO(SetStatus.SUCCESS, "Added entry to storage.")))
+                );
+
+                return results;
+            }
+        } catch (NodeException e) {
+            // Failed entries are reported one by one.
+            log.debug("Could not set {} keys at once, setting one by one", entries.size(), e);
+        }
+
+        entries.forEach((key, value) -> results.put(key, setKey(key, value, timestamp, epoch)));
+
+        return results;
+    }
+
+    /**
+     * Gets every key as {@link #getKey} would, a failed key does not affect the others.
+     *
+     * @return results by key, in order of {@code keys}
+     */
+    public Map<String, GetResponseDTO> multiGet(Collection<String> keys, long epoch, ReadBoundsDTO bounds) {
+        Map<String, GetResponseDTO> results = new LinkedHashMap<>();
+
+        for (String key : keys) {
+            getKey(key, epoch, bounds, (status, value, ownerHint) -> results.put(key, new GetResponseDTO(status, value, ownerHint)));
         }
+
+        return results;
+    }
+
+    private String getOwnOrReplicated(String key, ReadBoundsDTO bounds) {
+        try {
+            return nodeStorageService.get(key);
+        } catch (ShardNotExistsException e) {
+            return replicationService.getReplicated(key, bounds);
+        }
+    }
+
+    // Position is at or after the write, replicas that applied it have the write too.
+    private SetResponseDTO withPosition(String key, SetResponseDTO response) {
+        if (response.status() != SetStatus.SUCCESS) {
+            return response;
+        }
+
+        return response.withPosition(replicationService.getPosition(key));
     }
 
     public NodeStatusResponseDTO getNodeStatus() {
@@ -61,13 +145,13 @@ public class NodeClientService {
 
     @FunctionalInterface
     public interface GetResponseWriter {
-        void writeResponse(GetStatus status, String value);
+        void writeResponse(GetStatus status, String value, OwnerHintDTO ownerHint);
 
         static GetResponseDTO toDto(Consumer<GetResponseWriter> rwConsumer) {
             var ref = new AtomicReference<GetResponseDTO>();
 
             rwConsumer.accept(
-                (status, message) -> ref.set(new GetResponseDTO(status, message))
+                (status, message, ownerHint) -> ref.set(new GetResponseDTO(status, message, ownerHint))
             );
 
             return ref.get();
@@ -1,14 +1,23 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -18,16 +27,22 @@ import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
-import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.common.node.ActionPhase;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter;
+import vk.itmo.teamgray.sharded.storage.common.shardfile.ShardFile;
 import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
 import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeNodeClient;
+import vk.itmo.teamgray.sharded.storage.node.client.ShardEntriesStream;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
 
 import static vk.itmo.teamgray.sharded.storage.common.node.NodeState.MOVE_SHARDS_PREPARING;
@@ -41,22 +56,35 @@ public class NodeManagementService {
     //90% of the size to account for overhead.
     private static final int MEMORY_THRESHOLD = Double.valueOf(PropertyUtils.getMessageMaxSize() * 0.90).intValue();
 
+    // Transfers are streamed, smaller chunks let scanning and sending overlap.
+    private static final int CHUNK_SIZE = (int)Math.min(
+        PropertyUtils.getMemSizeProperty("node.transfer.chunk.size", MemoryUtils.MEBIBYTE),
+        MEMORY_THRESHOLD
+    );
+
+    // Max number of target servers sent to at the same time, local fragment copy counts as one.
+    private static final int TRANSFER_PARALLELISM = PropertyUtils.getIntProperty("node.transfer.parallelism", 4);
+
     private final NodeStorageService nodeStorageService;
 
     private final DiscoveryClient discoveryClient;
 
     private final ClientCachingFactory clientCachingFactory;
 
+    private final NodeTopology nodeTopology;
+
     private CountDownLatch rollbackLatch;
 
     public NodeManagementService(
         NodeStorageService nodeStorageService,
         DiscoveryClient discoveryClient,
-        ClientCachingFactory clientCachingFactory
+        ClientCachingFactory clientCachingFactory,
+        NodeTopology nodeTopology
     ) {
         this.nodeStorageService = nodeStorageService;
         this.discoveryClient = discoveryClient;
         this.clientCachingFactory = clientCachingFactory;
+        this.nodeTopology = nodeTopology;
 
         nodeStorageService.changeState(NodeState.INIT, NodeState.RUNNING);
     }
@@ -67,14 +95,27 @@ public class NodeManagementService {
         Map<Integer, Long> shardToHash,
         int fullShardCount,
         StatusResponseWriter responseWriter
+    ) {
+        prepareRearrange(fragments, serverByShardNumber, shardToHash, ShardBoundaries.even(fullShardCount), responseWriter);
+    }
+
+    /**
+     * @param boundaries whole new scheme
+     */
+    public void prepareRearrange(
+        List<FragmentDTO> fragments,
+        Map<Integer, Integer> serverByShardNumber,
+        Map<Integer, Long> shardToHash,
+        ShardBoundaries boundaries,
+        StatusResponseWriter responseWriter
     ) {
         try {
             log.info(
-                "Preparing rearrange shards. [fragments={}, serverByShardNumber={}, request={}, fullShardCount={}]",
+                "Preparing rearrange shards. [fragments={}, serverByShardNumber={}, request={}, boundaries={}]",
                 fragments,
                 serverByShardNumber,
                 shardToHash,
-                fullShardCount
+                boundaries
             );
 
             nodeStorageService.changeState(NodeState.RUNNING, REARRANGE_SHARDS_PREPARING);
@@ -87,7 +128,18 @@ public class NodeManagementService {
                     stagedShards.put(shard.getKey(), new ShardData())
                 );
 
-            nodeStorageService.prepareDataForResharding(fragments, serverByShardNumber, stagedShards, fullShardCount);
+            Set<Integer> sourceShardIds = fragments.stream()
+                .map(FragmentDTO::oldShardId)
+                .collect(Collectors.toSet());
+
+            // Shards outside of the change are neither rebuilt nor sent anywhere, they are reused as they are.
+            nodeStorageService.getShards().getShardMap().forEach((shardId, shard) -> {
+                if (boundaries.positionOf(shardId) >= 0 && !shardToHash.containsKey(shardId) && !sourceShardIds.contains(shardId)) {
+                    stagedShards.put(shardId, shard);
+                }
+            });
+
+            nodeStorageService.prepareDataForResharding(fragments, serverByShardNumber, stagedShards, boundaries);
 
             if (failActionOnRollback()) {
                 responseWriter.writeResponse(false, "Rolled back.");
@@ -117,21 +169,26 @@ public class NodeManagementService {
 
             List<FragmentDTO> fragments = nodeStorageService.getPreparedFragments();
 
-            // Local fragments
-            fragments.stream()
+            // Local copy and every target server are transferred concurrently.
+            Map<String, Runnable> transfers = new LinkedHashMap<>();
+
+            List<FragmentDTO> localFragments = fragments.stream()
                 .filter(fragment -> stagedShards.containsKey(fragment.newShardId()) && existingShards.containsKey(fragment.oldShardId()))
-                .forEach(fragment ->
-                    existingShards.get(fragment.oldShardId())
-                        .getStorage().entrySet().stream()
-                        //TODO At some point for perf reasons it will be nice to be able to do this with hash ranges instead of one-by-one
-                        .filter(entry -> {
-                            long hash = HashingUtils.calculate64BitHash(entry.getKey());
-                            return hash >= fragment.rangeFrom() && hash < fragment.rangeTo();
-                        })
-                        .forEach(entry ->
-                            stagedShards.get(fragment.newShardId()).addToStorage(entry.getKey(), entry.getValue())
-                        )
+                .toList();
+
+            if (!localFragments.isEmpty()) {
+                transfers.put(
+                    "local fragments",
+                    () -> localFragments.forEach(fragment -> {
+                        checkNotCancelled();
+
+                        ShardData targetShard = stagedShards.get(fragment.newShardId());
+
+                        existingShards.get(fragment.oldShardId())
+                            .forEachInHashRange(fragment.rangeFrom(), fragment.rangeTo(), targetShard::addCopied);
+                    })
                 );
+            }
 
             List<FragmentDTO> externalFragments = fragments.stream()
                 .filter(fragment -> !stagedShards.containsKey(fragment.newShardId()))
@@ -158,49 +215,36 @@ public class NodeManagementService {
                 (serverId, fragmentsForServer) -> {
                     DiscoverableServiceDTO node = nodes.get(serverId);
 
-                    ShardAutoFlushSink shardSink = new ShardAutoFlushSink(
-                        MEMORY_THRESHOLD,
-                        batch -> {
-                            StatusResponseDTO moveResponse = sendShardEntries(rearrangeShards, batch, node);
-
-                            if (!moveResponse.isSuccess()) {
-                                throw new IllegalStateException(
-                                    "Failed to move shard fragment: "
-                                        + System.lineSeparator()
-                                        + node.getIdForLogging() + ": "
-                                        + moveResponse.getMessage()
+                    transfers.put(node.getIdForLogging(), () -> streamShardEntries(
+                        rearrangeShards,
+                        node,
+                        "Failed to move shard fragment: ",
+                        shardSink -> fragmentsForServer
+                            .forEach(fragment -> {
+                                int oldShardId = fragment.oldShardId();
+
+                                ShardData fragmentStorage = existingShards.get(oldShardId);
+
+                                log.debug(
+                                    "Moving fragment [{}]-[{}] from shard {} to shard {}",
+                                    fragment.rangeFrom(),
+                                    fragment.rangeTo(),
+                                    oldShardId,
+                                    fragment.newShardId()
                                 );
-                            }
-                        }
-                    );
-
-                    fragmentsForServer
-                        .forEach(fragment -> {
-                            int oldShardId = fragment.oldShardId();
-
-                            Map<String, String> fragmentStorage = existingShards.get(oldShardId).getStorage();
-
-                            log.debug(
-                                "Moving fragment [{}]-[{}] from shard {} to shard {}",
-                                fragment.rangeFrom(),
-                                fragment.rangeTo(),
-                                oldShardId,
-                                fragment.newShardId()
-                            );
-
-                            fragmentStorage.entrySet().stream()
-                                .filter(entry -> {
-                                    long hash = HashingUtils.calculate64BitHash(entry.getKey());
-
-                                    return hash >= fragment.rangeFrom() && hash < fragment.rangeTo();
-                                })
-                                .forEachOrdered(entry -> shardSink.addEntry(fragment.newShardId(), entry));
-                        });
-
-                    shardSink.finalFlush();
+
+                                fragmentStorage.forEachInHashRange(
+                                    fragment.rangeFrom(),
+                                    fragment.rangeTo(),
+                                    (key, value) -> shardSink.addEntry(fragment.newShardId(), key, value)
+                                );
+                            })
+                    ));
                 }
             );
 
+            runTransfers(transfers);
+
             if (failActionOnRollback()) {
                 responseWriter.writeResponse(false, "Rolled back.");
 
@@ -223,13 +267,25 @@ public class NodeManagementService {
         List<SendShardTaskDTO> sendShards,
         int fullShardCount,
         StatusResponseWriter responseWriter
+    ) {
+        prepareMove(receiveShardIds, sendShards, ShardBoundaries.even(fullShardCount), responseWriter);
+    }
+
+    /**
+     * @param boundaries whole current scheme, nodes joining the cluster do not know it yet
+     */
+    public void prepareMove(
+        List<Integer> receiveShardIds,
+        List<SendShardTaskDTO> sendShards,
+        ShardBoundaries boundaries,
+        StatusResponseWriter responseWriter
     ) {
         try {
             log.info(
-                "Preparing move shards. [receiveShardIds={}, sendShards={}, fullShardCount={}]",
+                "Preparing move shards. [receiveShardIds={}, sendShards={}, boundaries={}]",
                 receiveShardIds,
                 sendShards,
-                fullShardCount
+                boundaries
             );
 
             nodeStorageService.changeState(NodeState.RUNNING, MOVE_SHARDS_PREPARING);
@@ -238,6 +294,9 @@ public class NodeManagementService {
 
             Set<Integer> removeShardIdsSet = new HashSet<>(receiveShardIds);
 
+            // Sent shards are not staged, so that writes to them during the move are transferred to their new owners.
+            sendShards.forEach(it -> removeShardIdsSet.add(it.shardId()));
+
             // Reuse same shards that are not sent.
             nodeStorageService.getShards()
                 .getShardMap().entrySet().stream()
@@ -247,7 +306,7 @@ public class NodeManagementService {
             // Add missing shards to get data
             receiveShardIds.forEach(newShardId -> stagedShards.put(newShardId, new ShardData()));
 
-            nodeStorageService.prepareDataForMoving(sendShards, stagedShards, fullShardCount);
+            nodeStorageService.prepareDataForMoving(sendShards, stagedShards, boundaries);
 
             if (failActionOnRollback()) {
                 responseWriter.writeResponse(false, "Rolled back.");
@@ -287,25 +346,12 @@ public class NodeManagementService {
 
             Map<Integer, ShardData> shardMap = existingShards.getShardMap();
 
+            // Targets are validated before any data is sent, transfers then run concurrently.
+            Map<String, Runnable> transfers = new LinkedHashMap<>();
+
             shardsByTargetServers.forEach((targetServerId, shardIds) -> {
                 DiscoverableServiceDTO targetServer = discoveryClient.getNode(targetServerId);
 
-                ShardAutoFlushSink shardSink = new ShardAutoFlushSink(
-                    MEMORY_THRESHOLD,
-                    batch -> {
-                        StatusResponseDTO sendResponse = sendShardEntries(moveShards, batch, targetServer);
-
-                        if (!sendResponse.isSuccess()) {
-                            throw new IllegalStateException(
-                                "Failed to move shard: "
-                                    + System.lineSeparator()
-                                    + targetServer.getIdForLogging() + ": "
-                                    + sendResponse.getMessage()
-                            );
-                        }
-                    }
-                );
-
                 if (targetServer == null) {
                     throw new IllegalStateException("No server with id " + targetServerId + " found");
                 }
@@ -316,26 +362,26 @@ public class NodeManagementService {
                     .filter(it -> !existingShards.containsShard(it))
                     .toList();
 
+                // Fails the whole phase with a single response, before any transfer starts.
                 if (!absentShards.isEmpty()) {
-                    var errorMessage = "Shards " + absentShards + " not found in this node";
-
-                    log.error(errorMessage);
-
-                    responseWriter.writeResponse(false, errorMessage);
-
-                    return;
+                    throw new NodeException("Shards " + absentShards + " not found in this node");
                 }
 
-                shardIds
-                    .forEach(shardId -> shardMap.get(shardId).getStorage().entrySet()
-                        .forEach(entry ->
-                            shardSink.addEntry(shardId, entry)
+                transfers.put(targetServer.getIdForLogging(), () -> streamShardEntries(
+                    moveShards,
+                    targetServer,
+                    "Failed to move shard: ",
+                    shardSink -> shardIds
+                        .forEach(shardId -> shardMap.get(shardId)
+                            .forEach((key, value) ->
+                                shardSink.addEntry(shardId, key, value)
+                            )
                         )
-                    );
-
-                shardSink.finalFlush();
+                ));
             });
 
+            runTransfers(transfers);
+
             if (failActionOnRollback()) {
                 responseWriter.writeResponse(false, "Rolled back.");
 
@@ -374,7 +420,6 @@ public class NodeManagementService {
 
             nodeStorageService.swapWithStaged();
 
-            nodeStorageService.processQueue(ActionPhase.APPLY);
             nodeStorageService.clear();
 
             responseWriter.writeResponse(true, "");
@@ -407,7 +452,6 @@ public class NodeManagementService {
 
             awaitRollback();
 
-            nodeStorageService.processQueue(ActionPhase.ROLLBACK);
             nodeStorageService.clear();
 
             responseWriter.writeResponse(true, "");
@@ -421,6 +465,83 @@ public class NodeManagementService {
         }
     }
 
+    /**
+     * Installs topology published by master, only used to point clients to key owners, does not change shards of the node.
+     */
+    public void updateTopology(TopologyDTO topology, StatusResponseWriter responseWriter) {
+        if (nodeTopology.update(topology)) {
+            responseWriter.writeResponse(true, "Installed topology of epoch " + topology.epoch());
+        } else {
+            responseWriter.writeResponse(true, "Topology of epoch " + nodeTopology.getEpoch() + " is already installed");
+        }
+    }
+
+    public NodeStatusResponseDTO getNodeStatus() {
+        return nodeStorageService.getNodeStatus();
+    }
+
+    /**
+     * Loads shard file built offline, see {@link ShardFile}, into a new store and swaps it with the current shard. Entries of the file
+     * replace entries already in the shard, apart from the ones written by clients during the load.
+     *
+     * @param path path to the file on this node
+     */
+    public void ingestShardFile(int shardId, String path, StatusResponseWriter responseWriter) {
+        ShardData ingested = null;
+
+        try {
+            log.info("Ingesting shard {} from {}", shardId, path);
+
+            if (nodeStorageService.getState() != NodeState.RUNNING) {
+                throw new NodeException("Could not ingest shard file, node state is " + nodeStorageService.getState());
+            }
+
+            ShardsContainer shards = nodeStorageService.getShards();
+
+            if (!shards.containsShard(shardId)) {
+                throw new NodeException(
+                    "Shard " + shardId + " is not found on this node. Existing shards: " + shards.getShardMap().keySet()
+                );
+            }
+
+            ShardBoundaries boundaries = shards.getBoundaries();
+            ShardData target = new ShardData();
+
+            long[] entries = new long[1];
+
+            ingested = target;
+
+            nodeStorageService.swapShard(shardId, target, () -> entries[0] = readShardFile(Path.of(path), shardId, boundaries, target));
+
+            responseWriter.writeResponse(true, "Ingested " + entries[0] + " entries.");
+
+            log.info("Ingested {} entries into shard {}", entries[0], shardId);
+        } catch (Exception e) {
+            log.error("Caught exception: ", e);
+
+            if (ingested != null && nodeStorageService.getShards().getShardMap().get(shardId) != ingested) {
+                ingested.destroy();
+            }
+
+            responseWriter.writeResponse(false, e.getMessage());
+        }
+    }
+
+    private long readShardFile(Path path, int shardId, ShardBoundaries boundaries, ShardData target) {
+        try {
+            return ShardFile.read(path, shardId, (hash, key, value) -> {
+                // File could be built for a different scheme or with a different hash function.
+                if (hash != HashingUtils.calculate64BitHash(key) || boundaries.shardIdForHash(hash) != shardId) {
+                    throw new NodeException("Key " + key + " does not belong to shard " + shardId);
+                }
+
+                target.addCopied(key, hash, value);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
     private void awaitRollback() throws InterruptedException {
         rollbackLatch = new CountDownLatch(1);
 
@@ -446,15 +567,115 @@ public class NodeManagementService {
         return false;
     }
 
-    private StatusResponseDTO sendShardEntries(Action action, List<SendShardDTO> sendShardEntries, DiscoverableServiceDTO targetServer) {
+    /**
+     * Runs transfers on at most {@link #TRANSFER_PARALLELISM} threads. First failure cancels the remaining transfers and is rethrown.
+     */
+    private void runTransfers(Map<String, Runnable> transfers) throws InterruptedException {
+        if (transfers.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(TRANSFER_PARALLELISM, transfers.size());
+
+        log.info("Running {} transfers on {} threads: {}", transfers.size(), threads, transfers.keySet());
+
+        try (var executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("shard-transfer-", 0).factory())) {
+            var completionService = new ExecutorCompletionService<String>(executor);
+
+            List<Future<String>> futures = transfers.entrySet().stream()
+                .map(transfer -> completionService.submit(() -> {
+                    long start = System.nanoTime();
+
+                    transfer.getValue().run();
+
+                    log.info("Transfer to {} done in {} ms", transfer.getKey(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                    return transfer.getKey();
+                }))
+                .toList();
+
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    completionService.take().get();
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(it -> it.cancel(true));
+
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                futures.forEach(it -> it.cancel(true));
+
+                throw e;
+            }
+        }
+    }
+
+    private static void checkNotCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("Transfer cancelled");
+        }
+    }
+
+    /**
+     * Streams entries produced into the sink to the target server, chunks are sent while the next ones are being collected.
+     */
+    private void streamShardEntries(
+        Action action,
+        DiscoverableServiceDTO targetServer,
+        String errorMessage,
+        Consumer<ShardAutoFlushSink> producer
+    ) {
         var nodeNodeClient = clientCachingFactory
             .getClient(
                 targetServer,
                 NodeNodeClient.class
             );
 
-        log.debug("Sending {} shard entries for action {} to node {}", sendShardEntries.size(), action, targetServer);
+        log.debug("Streaming shard entries for action {} to node {}", action, targetServer);
+
+        ShardEntriesStream stream = nodeNodeClient.openShardEntriesStream(action);
+
+        ShardAutoFlushSink shardSink = new ShardAutoFlushSink(
+            CHUNK_SIZE,
+            targetServer.getIdForLogging(),
+            batch -> {
+                // Other transfer failed.
+                checkNotCancelled();
+
+                stream.send(batch);
+            }
+        );
+
+        try {
+            producer.accept(shardSink);
+
+            shardSink.finalFlush();
+        } catch (RuntimeException e) {
+            stream.cancel(e.getMessage());
+
+            throw e;
+        }
+
+        StatusResponseDTO sendResponse = stream.complete();
+
+        if (!sendResponse.isSuccess()) {
+            throw new IllegalStateException(
+                errorMessage
+                    + System.lineSeparator()
+                    + targetServer.getIdForLogging() + ": "
+                    + sendResponse.getMessage()
+            );
+        }
 
-        return nodeNodeClient.sendShardEntries(sendShardEntries, action);
+        log.info(
+            "Sent {} entries ({} bytes) to {}",
+            shardSink.getFlushedEntries(),
+            shardSink.getFlushedByteSize(),
+            targetServer.getIdForLogging()
+        );
     }
 }
@@ -1,11 +1,13 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
 import io.grpc.netty.shaded.io.netty.util.internal.StringUtil;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReplicateEntriesDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
 import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
@@ -18,8 +20,11 @@ public class NodeNodeService {
 
     private final NodeStorageService nodeStorageService;
 
-    public NodeNodeService(NodeStorageService nodeStorageService) {
+    private final ReplicationService replicationService;
+
+    public NodeNodeService(NodeStorageService nodeStorageService, ReplicationService replicationService) {
         this.nodeStorageService = nodeStorageService;
+        this.replicationService = replicationService;
     }
 
     public void sendShardEntries(
@@ -27,9 +32,33 @@ public class NodeNodeService {
         List<SendShardDTO> sendShardEntries,
         StatusResponseWriter responseWriter
     ) {
-        log.debug("Received shard entries for action {}: {}. Processing", action, sendShardEntries);
+        writeResponse(applyShardEntries(action, sendShardEntries), responseWriter);
+    }
+
+    /**
+     * Receiving side of a streamed transfer, chunks are applied to staged shards as they arrive.
+     */
+    public ShardEntriesReceiver receiveShardEntries() {
+        return new ShardEntriesReceiver();
+    }
+
+    public void replicateEntries(ReplicateEntriesDTO entries, StatusResponseWriter responseWriter) {
+        try {
+            replicationService.applyReplicated(entries);
+
+            responseWriter.writeResponse(true, SUCCESS_MESSAGE);
+        } catch (NodeException e) {
+            log.debug("Rejected replicated entries of shard {}: {}", entries.shardId(), e.getMessage());
+
+            responseWriter.writeResponse(false, "ERROR: " + e.getMessage());
+        }
+    }
+
+    private List<String> applyShardEntries(Action action, List<SendShardDTO> sendShardEntries) {
+        // Entries themselves are not logged, chunks are up to message size.
+        log.debug("Received entries of {} shards for action {}. Processing", sendShardEntries.size(), action);
 
-        List<String> errorMessages = sendShardEntries.stream()
+        return sendShardEntries.stream()
             .map(sendShard -> {
                 int shardId = sendShard.shardId();
                 Map<String, String> shard = sendShard.entries();
@@ -44,7 +73,7 @@ public class NodeNodeService {
                     shard
                         .forEach((key, value) -> {
                             stagedShards.checkKeyForShard(shardId, key);
-                            stagedShards.set(key, value);
+                            stagedShards.setCopied(key, value);
                         });
 
                     return null;
@@ -56,7 +85,9 @@ public class NodeNodeService {
             })
             .filter(Objects::nonNull)
             .toList();
+    }
 
+    private static void writeResponse(List<String> errorMessages, StatusResponseWriter responseWriter) {
         responseWriter.writeResponse(
             errorMessages.isEmpty(),
             errorMessages.isEmpty()
@@ -64,4 +95,26 @@ public class NodeNodeService {
                 : StringUtil.join(System.lineSeparator(), errorMessages).toString()
         );
     }
+
+    public class ShardEntriesReceiver {
+        private final List<String> errorMessages = new ArrayList<>();
+
+        private int chunkCount;
+
+        private ShardEntriesReceiver() {
+            // No-op.
+        }
+
+        public void accept(Action action, List<SendShardDTO> chunk) {
+            chunkCount++;
+
+            errorMessages.addAll(applyShardEntries(action, chunk));
+        }
+
+        public void complete(StatusResponseWriter responseWriter) {
+            log.debug("Shard entries stream completed after {} chunks.", chunkCount);
+
+            writeResponse(errorMessages, responseWriter);
+        }
+    }
 }
@@ -3,11 +3,11 @@ package vk.itmo.teamgray.sharded.storage.node.service;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.common.concurrency.AtomicEnum;
@@ -21,8 +21,10 @@ import vk.itmo.teamgray.sharded.storage.common.node.Action;
 import vk.itmo.teamgray.sharded.storage.common.node.ActionPhase;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
 import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
-import vk.itmo.teamgray.sharded.storage.common.utils.ShardUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.exception.ShardNotExistsException;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStoreFactory;
 
 import static java.util.stream.Collectors.toMap;
 
@@ -35,10 +37,25 @@ public class NodeStorageService {
 
     private ShardsContainer stagedShards;
 
-    private Queues queues;
-
     private PreparedData preparedData;
 
+    private volatile WriteListener writeListener = (key, value, write) -> write.run();
+
+    /**
+     * Notified of every entry written to current shards, on the writing thread.
+     */
+    @FunctionalInterface
+    public interface WriteListener {
+        /**
+         * Must run {@code write} exactly once, writes of the same key are applied in the order the listener observes them.
+         */
+        void onWrite(String key, String value, Runnable write);
+    }
+
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
     public ShardsContainer getShards() {
         return shards;
     }
@@ -48,14 +65,20 @@ public class NodeStorageService {
     }
 
     public SetResponseDTO set(String key, String value, Instant timestamp) {
+        // Calculated once and reused for all shard lookups of this key.
+        long hash = HashingUtils.calculate64BitHash(key);
+
         var startState = state.get();
 
         //This means that we either resharding or moving shards
         if (startState.getAction() != null) {
 
+            // Shards that are only received by this node are not part of its current scheme, their keys go to staged shards right away.
+            boolean received = stagedShards != null && shards.getShardForHash(hash) == null;
+
             // Optimistic write, if state will move forward after preparation, we return transfer.
-            if (startState.getActionPhase() == ActionPhase.PREPARE) {
-                shards.set(key, value);
+            if (startState.getActionPhase() == ActionPhase.PREPARE && !received) {
+                writeListener.onWrite(key, value, () -> shards.set(key, hash, value));
 
                 var newState = state.get();
                 if (newState.getActionPhase() == ActionPhase.PREPARE) {
@@ -63,34 +86,37 @@ public class NodeStorageService {
                 }
             }
 
-            if (queues == null) {
-                throw new IllegalStateException("Queues are not prepared");
-            }
+            var currentShards = shards;
+            var nextShards = stagedShards;
 
-            if (stagedShards == null) {
+            if (nextShards == null) {
                 throw new IllegalStateException("Staged shards are not prepared");
             }
 
-            // If target is this node, we queue it for later.
-            if (stagedShards.hasShardForKey(key)) {
-                var entry = new QueueEntry(timestamp, key, value);
+            ShardData currentShard = currentShards.getShardForHash(hash);
+            ShardData stagedShard = nextShards.getShardForHash(hash);
 
-                queues.add(ActionPhase.APPLY, entry);
-                queues.add(ActionPhase.ROLLBACK, entry);
+            // Current shard is kept on rollback, so entries written during the change are not lost.
+            if (currentShard != null) {
+                writeListener.onWrite(key, value, () -> currentShards.set(key, hash, value));
+            }
 
-                return new SetResponseDTO(SetStatus.QUEUED, "Entry queued and will be applied later.");
-            } else {
-                // Add to rollback queue and apply in case of a rollback, so that data won't be lost.
-                queues.add(ActionPhase.ROLLBACK, new QueueEntry(timestamp, key, value));
+            if (stagedShard != null) {
+                // Shards outside of the change are staged as they are, others get entries copied over, which do not overwrite this one.
+                if (stagedShard != currentShard) {
+                    stagedShard.addWritten(key, hash, value, timestamp);
+                }
 
-                Integer newNodeId = findPreparedServerIdByKey(key);
+                return new SetResponseDTO(SetStatus.SUCCESS, "Added entry to storage.");
+            }
 
-                if (newNodeId == null) {
-                    throw new NodeException("Could not find a new node for moved key: " + key);
-                }
+            Integer newNodeId = findPreparedServerIdByHash(hash);
 
-                return new SetResponseDTO(SetStatus.TRANSFER, "Entry should be applied to another node.", newNodeId);
+            if (newNodeId == null) {
+                throw new NodeException("Could not find a new node for moved key: " + key);
             }
+
+            return new SetResponseDTO(SetStatus.TRANSFER, "Entry should be applied to another node.", newNodeId);
         }
 
         if (state.get() != NodeState.RUNNING) {
@@ -99,11 +125,37 @@ public class NodeStorageService {
 
         log.debug("Setting key {} to {}", key, value);
 
-        shards.set(key, value);
+        writeListener.onWrite(key, value, () -> shards.set(key, hash, value));
 
         return new SetResponseDTO(SetStatus.SUCCESS, "Added entry to storage.");
     }
 
+    /**
+     * Applies all entries in one pass, if no topology change has staged its shards yet. Otherwise entries may need to be written to
+     * staged shards or transferred, and nothing is written.
+     *
+     * @return true if all entries were applied, false if they should be set one by one with {@link #set}
+     */
+    public boolean trySetAll(Map<String, String> entries) {
+        var startState = state.get();
+
+        // Keys of shards received by this node may have to go to staged shards, see set.
+        if (!isDirectlyWritable(startState) || (startState != NodeState.RUNNING && stagedShards != null)) {
+            return false;
+        }
+
+        log.debug("Setting {} keys", entries.size());
+
+        shards.setAll(entries, writeListener);
+
+        // Same as optimistic write of a single key, state could move forward during the write.
+        return isDirectlyWritable(state.get());
+    }
+
+    private static boolean isDirectlyWritable(NodeState nodeState) {
+        return nodeState == NodeState.RUNNING || (nodeState.getAction() != null && nodeState.getActionPhase() == ActionPhase.PREPARE);
+    }
+
     public String get(String key) {
         log.debug("Getting value for key {}", key);
 
@@ -111,34 +163,86 @@ public class NodeStorageService {
     }
 
     public void stageShards(Map<Integer, ShardData> stagedShards, int stagedFullShardCount) {
-        this.stagedShards = new ShardsContainer(stagedShards, stagedFullShardCount);
+        stageShards(stagedShards, ShardBoundaries.even(stagedFullShardCount));
+    }
+
+    public void stageShards(Map<Integer, ShardData> stagedShards, ShardBoundaries stagedBoundaries) {
+        this.stagedShards = new ShardsContainer(stagedShards, stagedBoundaries);
     }
 
     public void swapWithStaged() {
         log.info("Replacing shard scheme {}", stagedShards);
 
+        var oldShards = shards;
+
+        // Layout is persisted first, so that on crash we recover either old or new scheme, but never a mix.
+        saveLayout(stagedShards);
+
         shards = stagedShards;
 
+        shards.getShardMap().values().forEach(ShardData::completeCopy);
+
+        destroyUnused(oldShards, shards);
+
         log.info("Replaced shard scheme.");
     }
 
-    public void processQueue(ActionPhase phase) {
-        if (queues == null) {
+    /**
+     * Replaces a shard of the current scheme with the given one. Meant for bulk loads: current shard entries are copied into the
+     * replacement and {@code load} adds entries over them, see {@link ShardData#replaceWith(ShardData, Runnable, Runnable)}. Writes
+     * to the shard go to both meanwhile and only wait for the swap itself.
+     */
+    public synchronized void swapShard(int shardId, ShardData replacement, Runnable load) {
+        ShardData current = shards.getShardMap().get(shardId);
+
+        if (current == null) {
+            throw new ShardNotExistsException("Shard " + shardId + " is not found on this node.");
+        }
+
+        current.replaceWith(replacement, load, () -> {
+            // Topology change could start during the load, its staged shards may already reference the current one.
+            if (state.get() != NodeState.RUNNING) {
+                throw new NodeException("Could not swap shard " + shardId + ", node state is " + state.get());
+            }
+
+            shards.getShardMap().put(shardId, replacement);
+
+            saveLayout(shards);
+        });
+
+        current.destroy();
+
+        log.info("Replaced shard {}", shardId);
+    }
+
+    /**
+     * Restores shards of the last applied scheme from persistent storage, if there are any.
+     */
+    public void recover() {
+        var recovered = ShardStoreFactory.getInstance().recover();
+
+        if (recovered == null) {
+            log.info("No shards to recover.");
+
             return;
         }
 
-        var applyQueue = queues.getQueue(phase);
+        Map<Integer, ShardData> recoveredShards = new ConcurrentHashMap<>();
 
-        log.info("Processing {} queue. Size: {}", phase, applyQueue.size());
+        recovered.stores().forEach((shardId, store) -> recoveredShards.put(shardId, new ShardData(store)));
 
-        processQueue(applyQueue);
+        shards = new ShardsContainer(recoveredShards, recovered.boundaries());
 
-        log.info("Processed {} queue.", phase);
+        log.info("Recovered shard scheme {}", shards);
     }
 
     public void clear() {
+        if (stagedShards != null) {
+            // On rollback staged shards are dropped, apart from the ones reused from the current scheme.
+            destroyUnused(stagedShards, shards);
+        }
+
         preparedData = null;
-        queues = null;
         stagedShards = null;
     }
 
@@ -167,7 +271,7 @@ public class NodeStorageService {
         List<FragmentDTO> fragments,
         Map<Integer, Integer> serverByShardNumber,
         ConcurrentHashMap<Integer, ShardData> stagedShards,
-        int fullShardCount
+        ShardBoundaries boundaries
     ) {
         if (preparedData == null) {
             this.preparedData = new PreparedData(Action.REARRANGE_SHARDS);
@@ -182,13 +286,13 @@ public class NodeStorageService {
 
         preparedData.setPreparedServerByShardNumber(serverByShardNumber);
 
-        stageShards(stagedShards, fullShardCount);
+        stageShards(stagedShards, boundaries);
     }
 
     public void prepareDataForMoving(
         List<SendShardTaskDTO> sendShards,
         ConcurrentHashMap<Integer, ShardData> stagedShards,
-        int fullShardCount
+        ShardBoundaries boundaries
     ) {
         this.preparedData = new PreparedData(Action.MOVE_SHARDS);
 
@@ -200,7 +304,7 @@ public class NodeStorageService {
                 ))
         );
 
-        stageShards(stagedShards, fullShardCount);
+        stageShards(stagedShards, boundaries);
     }
 
     public void changeState(NodeState expectedState, NodeState newState) {
@@ -238,7 +342,6 @@ public class NodeStorageService {
         if (newState.getActionPhase() == ActionPhase.PREPARE) {
             if (!newState.getPhaseFinalized()) {
                 //Empty defaults to be later updated
-                this.queues = new Queues();
                 this.preparedData = new PreparedData(newState.getAction());
             }
         }
@@ -249,57 +352,49 @@ public class NodeStorageService {
 
         dto.setState(state.get());
 
+        var currentShards = shards;
+        var currentStagedShards = stagedShards;
+
         dto.setShardStats(
-            shards.getShardMap().entrySet().stream()
+            currentShards.getShardMap().entrySet().stream()
                 .collect(
                     toMap(
                         Map.Entry::getKey,
-                        kv -> kv.getValue().getShardStats()
+                        kv -> kv.getValue().getShardStats(currentShards.getUpperBound(kv.getKey()))
                     )
                 )
         );
 
         dto.setStagedShardStats(
-            stagedShards == null
+            currentStagedShards == null
                 ? Collections.emptyMap()
-                : stagedShards.getShardMap().entrySet().stream()
+                : currentStagedShards.getShardMap().entrySet().stream()
                     .collect(
                         toMap(
                             Map.Entry::getKey,
-                            kv -> kv.getValue().getShardStats()
+                            kv -> kv.getValue().getShardStats(currentStagedShards.getUpperBound(kv.getKey()))
                         )
                     )
         );
 
-        dto.setApplyQueueSize(
-            queues == null
-                ? 0
-                : queues.getQueue(ActionPhase.APPLY).size()
-        );
-        dto.setRollbackQueueSize(
-            queues == null
-                ? 0
-                : queues.getQueue(ActionPhase.ROLLBACK).size()
-        );
-
         return dto;
     }
 
-    private Integer findPreparedServerIdByKey(String key) {
+    private Integer findPreparedServerIdByHash(long hash) {
         Integer preparedShard = null;
 
         Action action = preparedData.getAction();
 
         if (action == Action.REARRANGE_SHARDS) {
-            var hash = HashingUtils.calculate64BitHash(key);
-
             for (FragmentDTO fragment : preparedData.getPreparedFragments()) {
                 if (fragment.rangeTo() >= hash && fragment.rangeFrom() < hash) {
                     preparedShard = fragment.newShardId();
                 }
             }
         } else if (action == Action.MOVE_SHARDS) {
-            preparedShard = ShardUtils.getShardIdForKey(key, shards.getFullShardCount());
+            var shardId = shards.getBoundaries().shardIdForHash(hash);
+
+            preparedShard = shardId == ShardBoundaries.NO_SHARD ? null : shardId;
         }
 
         if (preparedShard == null) {
@@ -311,39 +406,29 @@ public class NodeStorageService {
         }
     }
 
-    private void processQueue(Queue<QueueEntry> queueToProcess) {
-        queueToProcess.stream()
-            .sorted(Comparator.comparing(QueueEntry::timestamp))
-            .forEach(queueEntry -> shards.set(queueEntry.key(), queueEntry.value()));
-    }
-
-    private record QueueEntry(
-        Instant timestamp,
-        String key,
-        String value
-    ) {
-        // No-op.
+    private void saveLayout(ShardsContainer container) {
+        ShardStoreFactory.getInstance().saveManifest(
+            container.getBoundaries(),
+            container.getShardMap().entrySet().stream()
+                .collect(toMap(
+                    Map.Entry::getKey,
+                    kv -> kv.getValue().getStore()
+                ))
+        );
     }
 
-    private static class Queues {
-        // Queues of inserted entries, that are not processed, due to Resharding or moving shards. Order is not that relevant, given that we have to sort by timestamps in the end.
-        private Queue<QueueEntry> applyQueue = new ConcurrentLinkedQueue<>();
+    private static void destroyUnused(ShardsContainer released, ShardsContainer kept) {
+        if (released == kept) {
+            return;
+        }
 
-        private Queue<QueueEntry> rollbackQueue = new ConcurrentLinkedQueue<>();
+        Set<ShardData> keptShards = Collections.newSetFromMap(new IdentityHashMap<>());
 
-        public void add(ActionPhase phase, QueueEntry entry) {
-            getQueue(phase).add(entry);
-        }
+        keptShards.addAll(kept.getShardMap().values());
 
-        public Queue<QueueEntry> getQueue(ActionPhase phase) {
-            if (phase == ActionPhase.APPLY) {
-                return applyQueue;
-            } else if (phase == ActionPhase.ROLLBACK) {
-                return rollbackQueue;
-            } else {
-                throw new IllegalStateException("Unexpected phase: " + phase);
-            }
-        }
+        released.getShardMap().values().stream()
+            .filter(shard -> !keptShards.contains(shard))
+            .forEach(ShardData::destroy);
     }
 
     private static class PreparedData {
@@ -0,0 +1,96 @@
+package vk.itmo.teamgray.sharded.storage.node.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+
+/**
+ * Latest topology pushed by master. Not used to serve requests from own shards, only to tell clients routing with an older topology
+ * where a key is, and to place replicas.
+ */
+public class NodeTopology {
+    private static final Logger log = LoggerFactory.getLogger(NodeTopology.class);
+
+    private final AtomicReference<Routing> routing = new AtomicReference<>(new Routing(TopologyDTO.EMPTY));
+
+    // Notified of every installed topology.
+    private final List<Consumer<TopologyDTO>> listeners = new CopyOnWriteArrayList<>();
+
+    private record Routing(TopologyDTO topology, ShardBoundaries boundaries) {
+        private Routing(TopologyDTO topology) {
+            this(topology, ShardBoundaries.fromShardToHash(topology.shardToHash()));
+        }
+    }
+
+    /**
+     * Pushes may arrive out of order, older topologies are ignored.
+     *
+     * @return whether the topology was installed
+     */
+    public boolean update(TopologyDTO topology) {
+        var updated = new Routing(topology);
+
+        var previous = routing.getAndUpdate(current -> current.topology().epoch() < topology.epoch() ? updated : current);
+
+        if (previous.topology().epoch() >= topology.epoch()) {
+            log.debug("Ignoring topology of epoch {}, already at {}", topology.epoch(), previous.topology().epoch());
+
+            return false;
+        }
+
+        log.info("Installed topology of epoch {}", topology.epoch());
+
+        for (Consumer<TopologyDTO> listener : listeners) {
+            try {
+                listener.accept(topology);
+            } catch (Exception e) {
+                log.error("Topology listener failed: ", e);
+            }
+        }
+
+        return true;
+    }
+
+    public void addListener(Consumer<TopologyDTO> listener) {
+        listeners.add(listener);
+    }
+
+    public TopologyDTO getTopology() {
+        return routing.get().topology();
+    }
+
+    public long getEpoch() {
+        return routing.get().topology().epoch();
+    }
+
+    /**
+     * @param requestEpoch epoch the request was routed with
+     *
+     * @return owner of the key if the request was routed with an older topology and the owner is known, null otherwise
+     */
+    public OwnerHintDTO ownerHint(String key, long requestEpoch) {
+        var current = routing.get();
+        var topology = current.topology();
+
+        if (requestEpoch >= topology.epoch() || current.boundaries().isEmpty()) {
+            return null;
+        }
+
+        int shardId = current.boundaries().shardIdForKey(key);
+
+        Integer serverId = topology.shardToServer().get(shardId);
+        var server = serverId == null ? null : topology.servers().get(serverId);
+
+        if (server == null) {
+            return null;
+        }
+
+        return new OwnerHintDTO(topology.epoch(), shardId, current.boundaries().getShardCount(), server);
+    }
+}
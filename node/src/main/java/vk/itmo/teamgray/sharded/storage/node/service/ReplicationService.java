@@ -0,0 +1,535 @@
+package vk.itmo.teamgray.sharded.storage.node.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReplicateEntriesDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.client.NodeNodeClient;
+import vk.itmo.teamgray.sharded.storage.node.exception.ShardNotExistsException;
+import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+
+/**
+ * Replication of shards to servers the topology places their replicas on.
+ * <p>
+ * Owner of a shard ships its writes to every replica in the order they were applied, through a queue and a virtual thread per replica.
+ * Writes to a replicated shard are applied one at a time, together with taking their position in its log.
+ * Shipping starts with a full copy of the shard, followed by writes queued since the copy started, so writes made during the copy are
+ * not lost. Replication is asynchronous: writes are acknowledged once applied by the owner, and replica reads may be stale.
+ * <p>
+ * Every write to a replicated shard gets the next position in the log of the shard, replicas track the position they applied. Idle
+ * replicas get heartbeats every {@code node.replication.heartbeat-ms}, so they know how long ago they were caught up. Reads are served
+ * by replicas only within bounds requested by the client.
+ * <p>
+ * Replica copies are kept in stores of the configured engine, but are not part of the persisted shard layout, and serve reads once their
+ * full copy is done. They are copied from scratch after restarts, shard scheme or placement changes, failed shipments, or when a replica
+ * falls behind by more than {@code node.replication.max-lag} writes. Copies only serve reads, they do not take over writes of a failed
+ * owner.
+ */
+public class ReplicationService implements NodeStorageService.WriteListener {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationService.class);
+
+    private static final int BATCH_SIZE = PropertyUtils.getIntProperty("node.replication.batch.size", 1000);
+
+    private static final int MAX_LAG = PropertyUtils.getIntProperty("node.replication.max-lag", 100_000);
+
+    private static final Duration RETRY_DELAY = Duration.ofMillis(PropertyUtils.getIntProperty("node.replication.retry-ms", 1000));
+
+    private static final Duration HEARTBEAT_INTERVAL =
+        Duration.ofMillis(PropertyUtils.getIntProperty("node.replication.heartbeat-ms", 100));
+
+    private final int serverId;
+
+    private final NodeStorageService nodeStorageService;
+
+    private final ClientCachingFactory clientCachingFactory;
+
+    // Replaced as a whole on topology changes, writes read it without locking.
+    private volatile Shipping shipping = new Shipping(TopologyDTO.EMPTY, Map.of());
+
+    // Copies of shards this node is a replica of, by shard id.
+    private final Map<Integer, ReplicaCopy> replicas = new ConcurrentHashMap<>();
+
+    private record Shipping(TopologyDTO topology, ShardBoundaries boundaries, Map<Integer, ShardLog> logs) {
+        private Shipping(TopologyDTO topology, Map<Integer, ShardLog> logs) {
+            this(topology, ShardBoundaries.fromShardToHash(topology.shardToHash()), logs);
+        }
+    }
+
+    private record LoggedWrite(String key, String value, long position) {
+        // No-op.
+    }
+
+    public ReplicationService(int serverId, NodeStorageService nodeStorageService, ClientCachingFactory clientCachingFactory) {
+        this.serverId = serverId;
+        this.nodeStorageService = nodeStorageService;
+        this.clientCachingFactory = clientCachingFactory;
+    }
+
+    /**
+     * Starts shipping shards this node owns to their new replicas, stops shipping to removed ones, and drops copies of shards this node
+     * is no longer a replica of. Shipping of shards with unchanged replicas goes on, unless the shard scheme changed.
+     */
+    public synchronized void onTopology(TopologyDTO topology) {
+        var previous = shipping;
+
+        // Listeners of concurrent pushes may be called out of order.
+        if (topology.epoch() <= previous.topology().epoch()) {
+            return;
+        }
+
+        boolean schemeChanged = !previous.topology().shardToHash().equals(topology.shardToHash());
+
+        var boundaries = ShardBoundaries.fromShardToHash(topology.shardToHash());
+
+        Map<Integer, ShardLog> logs = new HashMap<>();
+
+        List<ShardLog> started = new ArrayList<>();
+
+        topology.shardToServer().forEach((shardId, ownerId) -> {
+            if (ownerId != serverId) {
+                return;
+            }
+
+            List<DiscoverableServiceDTO> servers = new ArrayList<>();
+
+            for (Integer replicaId : topology.getReplicas(shardId)) {
+                var server = topology.servers().get(replicaId);
+
+                if (server == null) {
+                    log.warn("Address of replica {} of shard {} is unknown, not replicating to it", replicaId, shardId);
+                } else {
+                    servers.add(server);
+                }
+            }
+
+            if (servers.isEmpty()) {
+                return;
+            }
+
+            var shardLog = schemeChanged ? null : previous.logs().get(shardId);
+
+            if (shardLog == null || !shardLog.servers().equals(servers)) {
+                shardLog = new ShardLog(shardId, boundaries, servers);
+
+                started.add(shardLog);
+            }
+
+            logs.put(shardId, shardLog);
+        });
+
+        shipping = new Shipping(topology, boundaries, logs);
+
+        previous.logs().values().stream()
+            .filter(shardLog -> logs.get(shardLog.shardId) != shardLog)
+            .forEach(ShardLog::close);
+
+        started.forEach(ShardLog::start);
+
+        replicas.entrySet().removeIf(entry -> {
+            boolean dropped = schemeChanged || !topology.getReplicas(entry.getKey()).contains(serverId);
+
+            if (dropped) {
+                entry.getValue().shard.destroy();
+            }
+
+            return dropped;
+        });
+
+        if (!logs.isEmpty() || !started.isEmpty()) {
+            log.info("Replicating {} shards of epoch {}, {} with new replicas", logs.size(), topology.epoch(), started.size());
+        }
+    }
+
+    @Override
+    public void onWrite(String key, String value, Runnable write) {
+        var current = shipping;
+
+        // Nothing to hash if nothing is replicated.
+        if (current.logs().isEmpty()) {
+            write.run();
+
+            return;
+        }
+
+        var shardLog = current.logs().get(current.boundaries().shardIdForKey(key));
+
+        if (shardLog == null) {
+            write.run();
+        } else {
+            shardLog.append(key, value, write);
+        }
+    }
+
+    /**
+     * @return current position in the log of the key's shard, at or after every write to it applied so far, 0 if the shard is not
+     *     replicated by this node
+     */
+    public long getPosition(String key) {
+        var current = shipping;
+
+        if (current.logs().isEmpty()) {
+            return 0;
+        }
+
+        var shardLog = current.logs().get(current.boundaries().shardIdForKey(key));
+
+        return shardLog == null ? 0 : shardLog.getPosition();
+    }
+
+    /**
+     * Applies entries shipped by the owner of a shard to its copy.
+     *
+     * @throws NodeException if entries do not continue the copy this node has, owner copies the shard from scratch then
+     */
+    public void applyReplicated(ReplicateEntriesDTO entries) {
+        int shardId = entries.shardId();
+
+        ReplicaCopy copy;
+
+        if (entries.reset()) {
+            copy = new ReplicaCopy(entries.rangeFrom(), entries.rangeTo());
+
+            var previous = replicas.put(shardId, copy);
+
+            if (previous != null) {
+                previous.shard.destroy();
+            }
+        } else {
+            copy = replicas.get(shardId);
+
+            if (copy == null || copy.rangeFrom != entries.rangeFrom() || copy.rangeTo != entries.rangeTo()) {
+                throw new NodeException("No copy of shard " + shardId + " to apply entries to");
+            }
+        }
+
+        entries.entries().forEach(copy.shard::addToStorage);
+
+        // Only the shipping thread of the owner writes to the copy.
+        copy.position = Math.max(copy.position, entries.position());
+
+        if (entries.caughtUp()) {
+            copy.caughtUpAt = System.nanoTime();
+            copy.caughtUp = true;
+        }
+
+        if (entries.synced()) {
+            copy.synced = true;
+
+            log.info("Synced replica of shard {} with {} entries", shardId, copy.shard.size());
+        }
+    }
+
+    /**
+     * @throws ShardNotExistsException if this node has no synced copy of the key's shard in its current scheme, or the copy is not
+     *     within {@code bounds}
+     */
+    public String getReplicated(String key, ReadBoundsDTO bounds) {
+        var boundaries = shipping.boundaries();
+
+        if (!boundaries.isEmpty()) {
+            long hash = HashingUtils.calculate64BitHash(key);
+            int position = boundaries.positionForHash(hash);
+            int shardId = boundaries.shardIdAt(position);
+
+            var copy = replicas.get(shardId);
+
+            // Copy of a shard with the same id, but from another scheme, has a different range.
+            if (copy != null
+                && copy.synced
+                && copy.rangeFrom == boundaries.lowerBoundAt(position)
+                && copy.rangeTo == boundaries.upperBoundAt(position)
+                && copy.isWithin(bounds, shardId)) {
+                return copy.shard.getValue(key, hash);
+            }
+        }
+
+        throw new ShardNotExistsException("No replica of shard for key " + key + " within " + bounds + " on this node.");
+    }
+
+    private static class ReplicaCopy {
+        private final long rangeFrom;
+
+        private final long rangeTo;
+
+        private final ShardData shard = new ShardData();
+
+        private volatile boolean synced;
+
+        private volatile long position;
+
+        private volatile boolean caughtUp;
+
+        // System.nanoTime() of the last message sent when owner had no more writes to ship.
+        private volatile long caughtUpAt;
+
+        private ReplicaCopy(long rangeFrom, long rangeTo) {
+            this.rangeFrom = rangeFrom;
+            this.rangeTo = rangeTo;
+        }
+
+        private boolean isWithin(ReadBoundsDTO bounds, int shardId) {
+            if (position < bounds.minPosition(shardId)) {
+                return false;
+            }
+
+            return bounds.maxStalenessMs() <= 0
+                || (caughtUp && System.nanoTime() - caughtUpAt <= TimeUnit.MILLISECONDS.toNanos(bounds.maxStalenessMs()));
+        }
+    }
+
+    /**
+     * Log of writes to one shard, shipped to all its replicas.
+     */
+    private class ShardLog {
+        private final int shardId;
+
+        private final long rangeFrom;
+
+        private final long rangeTo;
+
+        private final List<DiscoverableServiceDTO> servers;
+
+        private final List<ReplicaLink> links;
+
+        // Starts from current time, so that positions keep growing after restarts and owner changes. Guarded by this, so that a write
+        // gets to all replicas with its position.
+        private long position = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+        private ShardLog(int shardId, ShardBoundaries boundaries, List<DiscoverableServiceDTO> servers) {
+            this.shardId = shardId;
+            this.servers = List.copyOf(servers);
+
+            int index = 0;
+
+            while (boundaries.shardIdAt(index) != shardId) {
+                index++;
+            }
+
+            this.rangeFrom = boundaries.lowerBoundAt(index);
+            this.rangeTo = boundaries.upperBoundAt(index);
+
+            this.links = this.servers.stream()
+                .map(server -> new ReplicaLink(this, server))
+                .toList();
+        }
+
+        private List<DiscoverableServiceDTO> servers() {
+            return servers;
+        }
+
+        // Write is applied under the lock, so that positions follow the order writes are applied in.
+        private synchronized void append(String key, String value, Runnable write) {
+            write.run();
+
+            position++;
+
+            for (ReplicaLink link : links) {
+                link.append(new LoggedWrite(key, value, position));
+            }
+        }
+
+        private synchronized long getPosition() {
+            return position;
+        }
+
+        private void start() {
+            links.forEach(ReplicaLink::start);
+        }
+
+        private void close() {
+            links.forEach(ReplicaLink::close);
+        }
+    }
+
+    private class ReplicaLink implements Runnable {
+        private final ShardLog shardLog;
+
+        private final DiscoverableServiceDTO server;
+
+        // Writes not shipped yet, in the order they were applied.
+        private final BlockingQueue<LoggedWrite> pending = new LinkedBlockingQueue<>();
+
+        private volatile boolean needsSync = true;
+
+        private volatile boolean closed;
+
+        private Thread thread;
+
+        private ReplicaLink(ShardLog shardLog, DiscoverableServiceDTO server) {
+            this.shardLog = shardLog;
+            this.server = server;
+        }
+
+        private void start() {
+            thread = Thread.ofVirtual().name("replication-" + shardLog.shardId + "-" + server.id()).start(this);
+        }
+
+        private void close() {
+            closed = true;
+
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        // Called with shard log locked.
+        private void append(LoggedWrite write) {
+            if (needsSync) {
+                // Write is already in the shard and will be a part of the copy.
+                return;
+            }
+
+            if (pending.size() >= MAX_LAG) {
+                log.warn("Replica {} of shard {} is behind by {} writes, copying it from scratch", server, shardLog.shardId, MAX_LAG);
+
+                needsSync = true;
+
+                return;
+            }
+
+            pending.add(write);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    if (needsSync) {
+                        sync();
+                    }
+
+                    var first = pending.poll(HEARTBEAT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+
+                    if (first == null) {
+                        heartbeat();
+
+                        continue;
+                    }
+
+                    List<LoggedWrite> drained = new ArrayList<>(BATCH_SIZE);
+
+                    drained.add(first);
+
+                    pending.drainTo(drained, BATCH_SIZE - 1);
+
+                    // Later write of the same key wins.
+                    Map<String, String> batch = new LinkedHashMap<>();
+
+                    drained.forEach(write -> batch.put(write.key(), write.value()));
+
+                    send(batch, false, false, drained.getLast().position(), pending.isEmpty());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    if (closed) {
+                        return;
+                    }
+
+                    log.warn("Could not ship shard {} to {}, copying it again: {}", shardLog.shardId, server, e.getMessage());
+
+                    needsSync = true;
+
+                    try {
+                        Thread.sleep(RETRY_DELAY);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        // Writes queued from now on are shipped after the copy, so every write made during the copy ends up on the replica.
+        private void sync() {
+            long position;
+
+            synchronized (shardLog) {
+                needsSync = false;
+
+                pending.clear();
+
+                position = shardLog.position;
+            }
+
+            ShardData shard = nodeStorageService.getShards().getShardMap().get(shardLog.shardId);
+
+            if (shard == null) {
+                throw new NodeException("Shard " + shardLog.shardId + " is not on this node yet");
+            }
+
+            Map<String, String> batch = new LinkedHashMap<>();
+
+            boolean[] first = {true};
+
+            shard.forEach((key, value) -> {
+                batch.put(key, value);
+
+                if (batch.size() >= BATCH_SIZE) {
+                    send(batch, first[0], false, position, false);
+
+                    first[0] = false;
+
+                    batch.clear();
+                }
+            });
+
+            send(batch, first[0], true, position, false);
+
+            log.info("Copied shard {} to replica {}", shardLog.shardId, server);
+        }
+
+        // Tells an idle replica it is still caught up.
+        private void heartbeat() {
+            long position;
+
+            synchronized (shardLog) {
+                if (needsSync || !pending.isEmpty()) {
+                    return;
+                }
+
+                position = shardLog.position;
+            }
+
+            send(Map.of(), false, false, position, true);
+        }
+
+        private void send(Map<String, String> entries, boolean reset, boolean synced, long position, boolean caughtUp) {
+            if (closed) {
+                throw new NodeException("Shipping of shard " + shardLog.shardId + " to " + server + " is stopped");
+            }
+
+            var dto = new ReplicateEntriesDTO(
+                shardLog.shardId,
+                shardLog.rangeFrom,
+                shardLog.rangeTo,
+                reset,
+                synced,
+                Map.copyOf(entries),
+                position,
+                caughtUp
+            );
+
+            var response = clientCachingFactory.getClient(server, NodeNodeClient.class).replicateEntries(dto);
+
+            if (!response.isSuccess()) {
+                throw new NodeException(response.getMessage());
+            }
+        }
+    }
+}
@@ -13,32 +13,50 @@ import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
 public class ShardAutoFlushSink {
     private static final Logger log = LoggerFactory.getLogger(ShardAutoFlushSink.class);
 
+    // Progress of long transfers is reported every this many bytes.
+    private static final long PROGRESS_REPORT_BYTES = 256L * MemoryUtils.MEBIBYTE;
+
     private final long maxByteSize;
 
+    private final String target;
+
     private final Consumer<List<SendShardDTO>> flushHandler;
 
     private final Map<Integer, Map<String, String>> currentBatch = new HashMap<>();
 
     private long currentBatchByteSize = 0;
 
+    private long flushedEntries = 0;
+
+    private long flushedByteSize = 0;
+
+    public ShardAutoFlushSink(
+        long maxByteSize,
+        Consumer<List<SendShardDTO>> flushHandler
+    ) {
+        this(maxByteSize, null, flushHandler);
+    }
+
     public ShardAutoFlushSink(
         long maxByteSize,
+        String target,
         Consumer<List<SendShardDTO>> flushHandler
     ) {
         this.maxByteSize = maxByteSize;
+        this.target = target;
         this.flushHandler = flushHandler;
     }
 
-    public void addEntry(int shardId, Map.Entry<String, String> entry) {
+    public void addEntry(int shardId, String key, String value) {
         currentBatch.computeIfAbsent(shardId, k -> new HashMap<>())
-            .put(entry.getKey(), entry.getValue());
+            .put(key, value);
 
-        var entrySize = getEntryByteSize(entry);
+        var entrySize = getEntryByteSize(key, value);
 
         currentBatchByteSize += entrySize;
 
         if (currentBatchByteSize >= maxByteSize) {
-            log.info("Shard Elements Batch Is Bigger Than {}. Flushing.", maxByteSize);
+            log.debug("Shard Elements Batch Is Bigger Than {}. Flushing.", maxByteSize);
 
             flush();
         }
@@ -52,9 +70,17 @@ public class ShardAutoFlushSink {
         }
     }
 
-    private long getEntryByteSize(Map.Entry<String, String> entry) {
-        var keySize = MemoryUtils.utf8Size(entry.getKey());
-        var valueSize = MemoryUtils.utf8Size(entry.getValue());
+    public long getFlushedEntries() {
+        return flushedEntries;
+    }
+
+    public long getFlushedByteSize() {
+        return flushedByteSize;
+    }
+
+    private long getEntryByteSize(String key, String value) {
+        var keySize = MemoryUtils.utf8Size(key);
+        var valueSize = MemoryUtils.utf8Size(value);
 
         return keySize + valueSize;
     }
@@ -72,6 +98,15 @@ public class ShardAutoFlushSink {
             flushHandler.accept(batch);
         }
 
+        long previousByteSize = flushedByteSize;
+
+        flushedEntries += batch.stream().mapToLong(it -> it.entries().size()).sum();
+        flushedByteSize += currentBatchByteSize;
+
+        if (target != null && previousByteSize / PROGRESS_REPORT_BYTES != flushedByteSize / PROGRESS_REPORT_BYTES) {
+            log.info("Sent {} entries ({} MB) to {}", flushedEntries, flushedByteSize / MemoryUtils.MEBIBYTE, target);
+        }
+
         currentBatch.clear();
         currentBatchByteSize = 0;
     }
@@ -1,11 +1,13 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
-import vk.itmo.teamgray.sharded.storage.common.utils.ShardUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.node.exception.ShardNotExistsException;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
 
@@ -14,16 +16,19 @@ public class ShardsContainer {
 
     private final Map<Integer, ShardData> shardMap;
 
-    private int fullShardCount;
+    private ShardBoundaries boundaries;
 
     public ShardsContainer(int fullShardCount) {
-        this.shardMap = new ConcurrentHashMap<>();
-        this.fullShardCount = fullShardCount;
+        this(new ConcurrentHashMap<>(), fullShardCount);
     }
 
     public ShardsContainer(Map<Integer, ShardData> shardMap, int fullShardCount) {
+        this(shardMap, ShardBoundaries.even(fullShardCount));
+    }
+
+    public ShardsContainer(Map<Integer, ShardData> shardMap, ShardBoundaries boundaries) {
         this.shardMap = shardMap;
-        this.fullShardCount = fullShardCount;
+        this.boundaries = boundaries;
     }
 
     public Map<Integer, ShardData> getShardMap() {
@@ -31,62 +36,138 @@ public class ShardsContainer {
     }
 
     public int getFullShardCount() {
-        return fullShardCount;
+        return boundaries.getShardCount();
     }
 
     //TODO Make final later
     public void setFullShardCount(int fullShardCount) {
-        this.fullShardCount = fullShardCount;
+        this.boundaries = ShardBoundaries.even(fullShardCount);
+    }
+
+    public ShardBoundaries getBoundaries() {
+        return boundaries;
     }
 
     public void set(String key, String value) {
-        var shardId = getAndValidateShardId(key, false);
+        set(key, HashingUtils.calculate64BitHash(key), value);
+    }
+
+    /**
+     * Same as {@link #set(String, String)}, but reuses already calculated key hash.
+     */
+    public void set(String key, long hash, String value) {
+        int shardId = validateShardId(boundaries.shardIdForHash(hash), key, false);
+
+        while (true) {
+            var shardData = shardMap.computeIfAbsent(shardId, k -> new ShardData());
+
+            // Shard replaced during the write is looked up again.
+            if (shardData.tryAddWritten(key, hash, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #set(String, String)} for every entry, written through the listener, but looks up every shard once per batch.
+     */
+    public void setAll(Map<String, String> entries, NodeStorageService.WriteListener writeListener) {
+        Map<Integer, ShardData> batchShards = new HashMap<>();
+
+        entries.forEach((key, value) -> {
+            long hash = HashingUtils.calculate64BitHash(key);
 
-        shardMap
-            .computeIfAbsent(shardId, k -> new ShardData())
-            .addToStorage(key, value);
+            int shardId = validateShardId(boundaries.shardIdForHash(hash), key, false);
+
+            var shardData = batchShards.computeIfAbsent(shardId, id -> shardMap.computeIfAbsent(id, k -> new ShardData()));
+
+            writeListener.onWrite(key, value, () -> {
+                if (!shardData.tryAddWritten(key, hash, value)) {
+                    batchShards.remove(shardId);
+
+                    set(key, hash, value);
+                }
+            });
+        });
+    }
+
+    /**
+     * Same as {@link #set(String, String)} for entries copied from other shards, see {@link ShardData#addCopied(String, long, String)}.
+     */
+    public void setCopied(String key, String value) {
+        long hash = HashingUtils.calculate64BitHash(key);
+
+        int shardId = validateShardId(boundaries.shardIdForHash(hash), key, true);
+
+        shardMap.get(shardId).addCopied(key, hash, value);
+    }
+
+    /**
+     * @return shard of the hash in this scheme, {@code null} if it is not on this node
+     */
+    public ShardData getShardForHash(long hash) {
+        int shardId = boundaries.shardIdForHash(hash);
+
+        return shardId == ShardBoundaries.NO_SHARD ? null : shardMap.get(shardId);
     }
 
     public String get(String key) {
-        var shardId = getAndValidateShardId(key, true);
+        long hash = HashingUtils.calculate64BitHash(key);
+
+        var shardId = validateShardId(boundaries.shardIdForHash(hash), key, true);
 
         ShardData shardData = shardMap.get(shardId);
 
         String returnValue = null;
 
         if (shardData != null) {
-            returnValue = shardData.getValue(key);
+            returnValue = shardData.getValue(key, hash);
+
+            shardData.getLoad().record(hash);
         }
 
         return returnValue;
     }
 
+    /**
+     * @return upper bound of the shard range in this scheme, {@link Long#MAX_VALUE} if the shard is not part of it
+     */
+    public long getUpperBound(int shardId) {
+        int position = boundaries.positionOf(shardId);
+
+        return position < 0 ? Long.MAX_VALUE : boundaries.upperBoundAt(position);
+    }
+
     public boolean containsShard(int shardId) {
         return shardMap.containsKey(shardId);
     }
 
     public void checkKeyForShard(int shardId, String key) {
-        Integer shardIdForKey = ShardUtils.getShardIdForKey(key, fullShardCount);
+        int shardIdForKey = boundaries.shardIdForKey(key);
 
-        if (shardIdForKey == null || shardIdForKey.compareTo(shardId) != 0) {
+        if (shardIdForKey == ShardBoundaries.NO_SHARD || shardIdForKey != shardId) {
             throw new NodeException("Incorrect shard for key: " + key);
         }
     }
 
     public boolean hasShardForKey(String key) {
-        var shardId = ShardUtils.getShardIdForKey(key, fullShardCount);
+        return hasShard(boundaries.shardIdForKey(key), key);
+    }
 
-        if (shardId == null) {
+    public boolean hasShardForKey(String key, long hash) {
+        return hasShard(boundaries.shardIdForHash(hash), key);
+    }
+
+    private boolean hasShard(int shardId, String key) {
+        if (shardId == ShardBoundaries.NO_SHARD) {
             throw new NodeException("No shard found for key: " + key);
         }
 
         return shardMap.containsKey(shardId);
     }
 
-    private Integer getAndValidateShardId(String key, boolean checkShardExists) {
-        var shardId = ShardUtils.getShardIdForKey(key, fullShardCount);
-
-        if (shardId == null) {
+    private int validateShardId(int shardId, String key, boolean checkShardExists) {
+        if (shardId == ShardBoundaries.NO_SHARD) {
             throw new NodeException("No shard found for key: " + key);
         }
 
@@ -1,58 +1,278 @@
 package vk.itmo.teamgray.sharded.storage.node.service.shards;
 
+import java.time.Instant;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import vk.itmo.teamgray.sharded.storage.common.dto.ShardStatsDTO;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStoreFactory;
 
 public class ShardData {
-    private ConcurrentHashMap<String, String> storage;
+    private static final int COPY_LOCK_STRIPES = 64;
 
-    public ShardData(ConcurrentHashMap<String, String> storage) {
-        Objects.requireNonNull(storage);
-        this.storage = storage;
+    private final ShardStore store;
+
+    private final ShardLoad load = new ShardLoad();
+
+    // Only taken by client writes and copies while entries are copied into the shard, see addCopied.
+    private final Object[] copyLocks = new Object[COPY_LOCK_STRIPES];
+
+    // Client timestamps of keys written while entries are copied into the shard, values are only kept in the store. Forgotten once the
+    // shard is swapped in.
+    private final Map<String, Instant> writtenDuringCopy = new ConcurrentHashMap<>();
+
+    // Shared by client writes to the shard of the current scheme, exclusive while a replacement is set or swapped in, see replaceWith.
+    private final ReadWriteLock replaceLock = new ReentrantReadWriteLock();
+
+    // Guarded by replace lock.
+    private boolean replaced;
+
+    // Shard being filled to replace this one, client writes go to both. Guarded by replace lock.
+    private ShardData replacement;
+
+    public ShardData(ShardStore store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+
+        for (int i = 0; i < copyLocks.length; i++) {
+            copyLocks[i] = new Object();
+        }
     }
 
     public ShardData() {
-        storage = new ConcurrentHashMap<>();
+        this(ShardStoreFactory.getInstance().create());
     }
 
-    public Map<String, String> getStorage() {
-        return storage;
+    public ShardStore getStore() {
+        return store;
+    }
+
+    /**
+     * Client reads and writes of the shard, copies between shards are not counted.
+     */
+    public ShardLoad getLoad() {
+        return load;
     }
 
     public void addToStorage(String key, String value) {
         Objects.requireNonNull(key);
         Objects.requireNonNull(value);
-        storage.put(key, value);
+        store.put(key, value);
+    }
+
+    public void addToStorage(String key, long hash, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        store.put(key, hash, value);
+    }
+
+    /**
+     * Adds entry written by a client to the shard of the current scheme.
+     *
+     * @return false if the shard was replaced, the entry should be written to the shard that replaced it
+     */
+    public boolean tryAddWritten(String key, long hash, String value) {
+        replaceLock.readLock().lock();
+
+        try {
+            if (replaced) {
+                return false;
+            }
+
+            if (replacement == null) {
+                addToStorage(key, hash, value);
+            } else {
+                replacement.addWrittenWith(key, hash, value, () -> addToStorage(key, hash, value));
+            }
+        } finally {
+            replaceLock.readLock().unlock();
+        }
+
+        load.record(hash);
+
+        return true;
+    }
+
+    /**
+     * Replaces this shard: copies its entries into the replacement, runs {@code load} to add entries over them with
+     * {@link #addCopied(String, long, String)} and runs the swap. Client writes made meanwhile go to both shards and are kept over
+     * copied and loaded entries, they only wait for the swap itself. Once the swap completes, writes to this shard fail, see
+     * {@link #tryAddWritten(String, long, String)}.
+     */
+    public void replaceWith(ShardData replacement, Runnable load, Runnable swap) {
+        replaceLock.writeLock().lock();
+
+        try {
+            this.replacement = replacement;
+        } finally {
+            replaceLock.writeLock().unlock();
+        }
+
+        boolean swapped = false;
+
+        try {
+            store.forEach((key, value) -> replacement.addCopied(key, HashingUtils.calculate64BitHash(key), value));
+
+            load.run();
+
+            replaceLock.writeLock().lock();
+
+            try {
+                swap.run();
+
+                replaced = true;
+                swapped = true;
+            } finally {
+                replaceLock.writeLock().unlock();
+            }
+        } finally {
+            if (!swapped) {
+                replaceLock.writeLock().lock();
+
+                try {
+                    this.replacement = null;
+                } finally {
+                    replaceLock.writeLock().unlock();
+                }
+            }
+        }
+
+        replacement.completeCopy();
+    }
+
+    /**
+     * Adds entry copied from another shard during a topology change. Entries written to this shard by clients meanwhile are newer, so
+     * the copy of a written key is skipped. The store is not read.
+     */
+    public void addCopied(String key, long hash, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+
+        if (writtenDuringCopy.containsKey(key)) {
+            return;
+        }
+
+        // Client write of the key is recorded and stored under the same lock, so it is either seen here or stored after the copy.
+        synchronized (copyLockFor(hash)) {
+            if (!writtenDuringCopy.containsKey(key)) {
+                store.put(key, hash, value);
+            }
+        }
+    }
+
+    /**
+     * Adds entry written by a client while entries are copied into this shard, see {@link #addCopied(String, long, String)}. Writes
+     * redirected from other nodes may arrive out of order, so an entry written earlier by client timestamp is ignored.
+     */
+    public void addWritten(String key, long hash, String value, Instant timestamp) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+
+        synchronized (copyLockFor(hash)) {
+            var previous = writtenDuringCopy.get(key);
+
+            if (previous != null && previous.isAfter(timestamp)) {
+                return;
+            }
+
+            writtenDuringCopy.put(key, timestamp);
+
+            store.put(key, hash, value);
+        }
+
+        load.record(hash);
+    }
+
+    // Client write to the shard this one replaces, applied to both under one lock, so that they get writes of a key in the same order.
+    private void addWrittenWith(String key, long hash, String value, Runnable write) {
+        synchronized (copyLockFor(hash)) {
+            writtenDuringCopy.put(key, Instant.now());
+
+            store.put(key, hash, value);
+
+            write.run();
+        }
+    }
+
+    /**
+     * Called once the shard is swapped in, nothing is copied into it afterwards.
+     */
+    public void completeCopy() {
+        writtenDuringCopy.clear();
     }
 
     public void removeFromStorage(String key) {
         Objects.requireNonNull(key);
-        storage.remove(key);
+        store.remove(key);
     }
 
     public void clearStorage() {
-        storage.clear();
+        store.clear();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public void forEach(BiConsumer<String, String> action) {
+        store.forEach(action);
+    }
+
+    /**
+     * Visits entries with key hash in {@code [fromInclusive, toExclusive)}, the range of a {@code FragmentDTO}.
+     */
+    public void forEachInHashRange(long fromInclusive, long toExclusive, BiConsumer<String, String> action) {
+        store.forEachInHashRange(fromInclusive, toExclusive, action);
+    }
+
+    public void forEachInHashRange(long fromInclusive, long toExclusive, ShardStore.HashedEntryConsumer action) {
+        store.forEachInHashRange(fromInclusive, toExclusive, action);
     }
 
-    public ShardStatsDTO getShardStats() {
+    /**
+     * @param upperBound upper bound of the shard range, reported as split hash until operations are sampled
+     */
+    public ShardStatsDTO getShardStats(long upperBound) {
         var stats = new ShardStatsDTO();
 
-        stats.setSize(storage.size());
+        stats.setSize(store.size());
+        stats.setBytesUsed(store.getBytesUsed());
+        stats.setOpsPerSecond(load.getOpsPerSecond());
+        stats.setSplitHash(load.getSplitHash().orElse(upperBound));
 
         return stats;
     }
 
     public String getValue(String key) {
         Objects.requireNonNull(key);
-        return storage.get(key);
+        return store.get(key);
+    }
+
+    public String getValue(String key, long hash) {
+        Objects.requireNonNull(key);
+        return store.get(key, hash);
+    }
+
+    /**
+     * Removes shard data from persistent storage, called when shard is no longer part of any scheme on this node.
+     */
+    public void destroy() {
+        store.destroy();
+    }
+
+    private Object copyLockFor(long hash) {
+        return copyLocks[(int)(hash & (COPY_LOCK_STRIPES - 1))];
     }
 
     @Override
     public String toString() {
         return "ShardData{" +
-            "storage=" + storage +
+            "store=" + store +
             '}';
     }
 }
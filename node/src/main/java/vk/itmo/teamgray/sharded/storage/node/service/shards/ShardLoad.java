@@ -0,0 +1,84 @@
+package vk.itmo.teamgray.sharded.storage.node.service.shards;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils;
+
+/**
+ * Reads and writes served by a shard. Counting is a single adder increment, key hashes of some operations are sampled to find where
+ * the load of the shard is split in halves.
+ */
+public class ShardLoad {
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(PropertyUtils.getIntProperty("node.load.window-ms", 10_000));
+
+    private static final int SAMPLES = 256;
+
+    // One of this many operations is sampled.
+    private static final int SAMPLE_RATE = 8;
+
+    private final LongAdder ops = new LongAdder();
+
+    // Random slots are overwritten once full, so older samples fade out. Lossy on races, which is fine for an estimate.
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+
+    private final AtomicInteger sampled = new AtomicInteger();
+
+    private long windowStart = System.nanoTime();
+
+    private double opsPerSecond;
+
+    public void record(long hash) {
+        ops.increment();
+
+        var random = ThreadLocalRandom.current();
+
+        if (random.nextInt(SAMPLE_RATE) != 0) {
+            return;
+        }
+
+        int index = sampled.get() < SAMPLES ? sampled.getAndIncrement() : SAMPLES;
+
+        samples.set(index < SAMPLES ? index : random.nextInt(SAMPLES), hash);
+    }
+
+    /**
+     * @return rate over the last complete window, {@code 0} until the first window ends
+     */
+    public synchronized double getOpsPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+
+        if (elapsed >= WINDOW_NANOS) {
+            opsPerSecond = ops.sumThenReset() * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+            windowStart = now;
+        }
+
+        return opsPerSecond;
+    }
+
+    /**
+     * @return median of sampled key hashes, empty if nothing was sampled yet
+     */
+    public OptionalLong getSplitHash() {
+        int count = Math.min(sampled.get(), SAMPLES);
+
+        if (count == 0) {
+            return OptionalLong.empty();
+        }
+
+        long[] hashes = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            hashes[i] = samples.get(i);
+        }
+
+        Arrays.sort(hashes);
+
+        return OptionalLong.of(hashes[(count - 1) / 2]);
+    }
+}
@@ -0,0 +1,92 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Concurrent map of string entries ordered by 64-bit key hash, so that entries of a hash range can be visited in O(log n + k)
+ * instead of hashing every key of the map. Callers pass {@link vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils} hash of the key
+ * with every call, equal keys with different hashes are not supported.
+ */
+public class HashOrderedMap {
+    private final ConcurrentSkipListMap<HashedKey, String> entries = new ConcurrentSkipListMap<>();
+
+    // Skip list size is a full traversal.
+    private final AtomicInteger size = new AtomicInteger();
+
+    public String get(String key, long hash) {
+        return entries.get(new HashedKey(hash, key));
+    }
+
+    public String put(String key, long hash, String value) {
+        String previous = entries.put(new HashedKey(hash, key), value);
+
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+
+        return previous;
+    }
+
+    public String remove(String key, long hash) {
+        String previous = entries.remove(new HashedKey(hash, key));
+
+        if (previous != null) {
+            size.decrementAndGet();
+        }
+
+        return previous;
+    }
+
+    public void clear() {
+        // Removing one by one keeps size exact with concurrent writers.
+        for (HashedKey key : entries.keySet()) {
+            if (entries.remove(key) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public void forEach(BiConsumer<String, String> action) {
+        entries.forEach((key, value) -> action.accept(key.key(), value));
+    }
+
+    /**
+     * Visits entries with {@code fromInclusive <= hash < toExclusive} in hash order.
+     */
+    public void forEachInHashRange(long fromInclusive, long toExclusive, ShardStore.HashedEntryConsumer action) {
+        if (fromInclusive >= toExclusive) {
+            return;
+        }
+
+        // Empty string is the smallest key, so these bounds cover all keys with the boundary hashes.
+        entries
+            .subMap(new HashedKey(fromInclusive, ""), true, new HashedKey(toExclusive, ""), false)
+            .forEach((key, value) -> action.accept(key.key(), key.hash(), value));
+    }
+
+    public void forEachInHashRange(long fromInclusive, long toExclusive, BiConsumer<String, String> action) {
+        forEachInHashRange(fromInclusive, toExclusive, (key, hash, value) -> action.accept(key, value));
+    }
+
+    private record HashedKey(long hash, String key) implements Comparable<HashedKey> {
+        @Override
+        public int compareTo(HashedKey other) {
+            int result = Long.compare(hash, other.hash);
+
+            return result != 0 ? result : key.compareTo(other.key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HashOrderedMap{" +
+            "size=" + size +
+            '}';
+    }
+}
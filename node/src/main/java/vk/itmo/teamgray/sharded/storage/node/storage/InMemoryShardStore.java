@@ -0,0 +1,80 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.util.function.BiConsumer;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+
+public class InMemoryShardStore implements ShardStore {
+    private final HashOrderedMap storage = new HashOrderedMap();
+
+    @Override
+    public String get(String key) {
+        return storage.get(key, HashingUtils.calculate64BitHash(key));
+    }
+
+    @Override
+    public String get(String key, long hash) {
+        return storage.get(key, hash);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        storage.put(key, HashingUtils.calculate64BitHash(key), value);
+    }
+
+    @Override
+    public void put(String key, long hash, String value) {
+        storage.put(key, hash, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        storage.remove(key, HashingUtils.calculate64BitHash(key));
+    }
+
+    @Override
+    public void clear() {
+        storage.clear();
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public long getBytesUsed() {
+        return -1;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        storage.forEach(action);
+    }
+
+    @Override
+    public void forEachInHashRange(long fromInclusive, long toExclusive, HashedEntryConsumer action) {
+        storage.forEachInHashRange(fromInclusive, toExclusive, action);
+    }
+
+    @Override
+    public String getName() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        // No-op.
+    }
+
+    @Override
+    public void destroy() {
+        // No-op, data is collected with the store.
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryShardStore{" +
+            "size=" + storage.size() +
+            '}';
+    }
+}
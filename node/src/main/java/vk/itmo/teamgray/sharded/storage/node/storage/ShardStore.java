@@ -0,0 +1,84 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.util.function.BiConsumer;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+
+/**
+ * Storage engine of a single shard. Implementations must be thread-safe.
+ */
+public interface ShardStore {
+    String get(String key);
+
+    /**
+     * Same as {@link #get(String)}, for callers that already know {@link HashingUtils#calculate64BitHash(String)} of the key.
+     */
+    default String get(String key, long hash) {
+        return get(key);
+    }
+
+    void put(String key, String value);
+
+    /**
+     * Same as {@link #put(String, String)}, for callers that already know {@link HashingUtils#calculate64BitHash(String)} of the key.
+     */
+    default void put(String key, long hash, String value) {
+        put(key, value);
+    }
+
+    void remove(String key);
+
+    void clear();
+
+    int size();
+
+    /**
+     * Bytes occupied by the store data, {@code -1} if the engine does not track it.
+     */
+    long getBytesUsed();
+
+    /**
+     * Iterates over all entries. Iteration is weakly consistent, concurrent modifications may or may not be visible.
+     */
+    void forEach(BiConsumer<String, String> action);
+
+    /**
+     * Iterates over entries with {@code fromInclusive <= hash < toExclusive}, where hash is {@link HashingUtils#calculate64BitHash(String)}
+     * of the key. Engines that keep entries ordered by hash visit only the range, others scan all entries.
+     */
+    default void forEachInHashRange(long fromInclusive, long toExclusive, HashedEntryConsumer action) {
+        forEach((key, value) -> {
+            long hash = HashingUtils.calculate64BitHash(key);
+
+            if (hash >= fromInclusive && hash < toExclusive) {
+                action.accept(key, hash, value);
+            }
+        });
+    }
+
+    default void forEachInHashRange(long fromInclusive, long toExclusive, BiConsumer<String, String> action) {
+        forEachInHashRange(fromInclusive, toExclusive, (key, hash, value) -> action.accept(key, value));
+    }
+
+    /**
+     * Name of the store inside of the storage directory, {@code null} for non-persistent stores.
+     */
+    String getName();
+
+    /**
+     * Releases resources, data stays on disk.
+     */
+    void close();
+
+    /**
+     * Releases resources and removes all data of the store.
+     */
+    void destroy();
+
+    /**
+     * Entry visitor that also gets the key hash, which engines already know, so that callers do not calculate it again.
+     */
+    @FunctionalInterface
+    interface HashedEntryConsumer {
+        void accept(String key, long hash, String value);
+    }
+}
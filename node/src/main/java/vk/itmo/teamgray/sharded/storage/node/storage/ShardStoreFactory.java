@@ -0,0 +1,295 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.storage.lsm.LsmShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.offheap.OffHeapShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WalShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WriteAheadLog;
+
+/**
+ * Creates shard stores of the configured engine and keeps track of the persisted shard layout.
+ * <p>
+ * Every store lives in its own directory under {@code <dir>/stores}. {@code <dir>/MANIFEST} maps shard ids of the applied scheme to store
+ * directories, directories not referenced by it (for example staged shards of an interrupted action) are removed on recovery.
+ */
+public class ShardStoreFactory {
+    private static final Logger log = LoggerFactory.getLogger(ShardStoreFactory.class);
+
+    private static final String MANIFEST = "MANIFEST";
+
+    private static final String STORES_DIR = "stores";
+
+    private static final String STORE_PREFIX = "store-";
+
+    private static final String FULL_SHARD_COUNT_PROPERTY = "fullShardCount";
+
+    private static final String SHARD_PROPERTY_PREFIX = "shard.";
+
+    private static final String UPPER_BOUND_PROPERTY_PREFIX = "upperBound.";
+
+    private static volatile ShardStoreFactory instance;
+
+    private final StorageConfig config;
+
+    private final Set<ShardStore> openStores = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong storeCounter = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    private ShardStoreFactory(StorageConfig config) {
+        this.config = config;
+
+        if (config.engine().isPersistent()) {
+            try {
+                Files.createDirectories(storesDir());
+
+                try (Stream<Path> stores = Files.list(storesDir())) {
+                    storeCounter.set(
+                        stores
+                            .map(it -> it.getFileName().toString())
+                            .filter(it -> it.startsWith(STORE_PREFIX))
+                            .mapToLong(it -> Long.parseLong(it.substring(STORE_PREFIX.length())))
+                            .max()
+                            .orElse(0)
+                    );
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not initialize storage directory " + config.dir(), e);
+            }
+
+            this.scheduler = Executors.newScheduledThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                runnable -> {
+                    var thread = new Thread(runnable, "shard-store-maintenance");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            );
+        }
+    }
+
+    public static ShardStoreFactory getInstance() {
+        if (instance == null) {
+            synchronized (ShardStoreFactory.class) {
+                if (instance == null) {
+                    instance = new ShardStoreFactory(StorageConfig.fromProperties());
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Replaces default instance, created from properties. Stores created by the previous instance are closed.
+     */
+    public static synchronized ShardStoreFactory configure(StorageConfig config) {
+        if (instance != null) {
+            instance.close();
+        }
+
+        instance = new ShardStoreFactory(config);
+
+        log.info("Configured shard storage: {}", config);
+
+        return instance;
+    }
+
+    public StorageConfig getConfig() {
+        return config;
+    }
+
+    public ShardStore create() {
+        return switch (config.engine()) {
+            case MEMORY -> new InMemoryShardStore();
+            case OFFHEAP -> new OffHeapShardStore(config.slabSize());
+            case WAL, LSM -> open(STORE_PREFIX + storeCounter.incrementAndGet());
+        };
+    }
+
+    /**
+     * Atomically persists layout of the applied shard scheme.
+     */
+    public void saveManifest(ShardBoundaries boundaries, Map<Integer, ShardStore> storesByShard) {
+        if (!config.engine().isPersistent()) {
+            return;
+        }
+
+        var manifest = new Properties();
+
+        manifest.setProperty(FULL_SHARD_COUNT_PROPERTY, String.valueOf(boundaries.getShardCount()));
+
+        boundaries.toShardToHash().forEach((shardId, upperBound) ->
+            manifest.setProperty(UPPER_BOUND_PROPERTY_PREFIX + shardId, String.valueOf(upperBound))
+        );
+
+        storesByShard.forEach((shardId, store) -> {
+            if (store.getName() != null) {
+                manifest.setProperty(SHARD_PROPERTY_PREFIX + shardId, store.getName());
+            }
+        });
+
+        Path manifestPath = config.dir().resolve(MANIFEST);
+        Path tmpPath = config.dir().resolve(MANIFEST + ".tmp");
+
+        try (var output = new FileOutputStream(tmpPath.toFile())) {
+            manifest.store(output, null);
+
+            output.getChannel().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write storage manifest", e);
+        }
+
+        try {
+            Files.move(tmpPath, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write storage manifest", e);
+        }
+
+        WriteAheadLog.syncDirectory(config.dir());
+
+        log.info("Saved storage manifest: {}", manifest);
+    }
+
+    /**
+     * Opens stores of the last applied shard scheme and removes stores that are not part of it.
+     *
+     * @return recovered layout, or {@code null} if there is nothing to recover
+     */
+    public RecoveredShards recover() {
+        if (!config.engine().isPersistent()) {
+            return null;
+        }
+
+        Path manifestPath = config.dir().resolve(MANIFEST);
+
+        var manifest = new Properties();
+
+        if (Files.exists(manifestPath)) {
+            try (InputStream input = Files.newInputStream(manifestPath)) {
+                manifest.load(input);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read storage manifest", e);
+            }
+        }
+
+        Map<Integer, String> storeNamesByShard = manifest.stringPropertyNames().stream()
+            .filter(it -> it.startsWith(SHARD_PROPERTY_PREFIX))
+            .collect(Collectors.toMap(
+                it -> Integer.parseInt(it.substring(SHARD_PROPERTY_PREFIX.length())),
+                manifest::getProperty
+            ));
+
+        deleteOrphanStores(Set.copyOf(storeNamesByShard.values()));
+
+        if (storeNamesByShard.isEmpty()) {
+            return null;
+        }
+
+        Map<Integer, ShardStore> stores = new HashMap<>();
+
+        storeNamesByShard.forEach((shardId, name) -> stores.put(shardId, open(name)));
+
+        Map<Integer, Long> shardToHash = manifest.stringPropertyNames().stream()
+            .filter(it -> it.startsWith(UPPER_BOUND_PROPERTY_PREFIX))
+            .collect(Collectors.toMap(
+                it -> Integer.parseInt(it.substring(UPPER_BOUND_PROPERTY_PREFIX.length())),
+                it -> Long.parseLong(manifest.getProperty(it))
+            ));
+
+        // Manifests written before schemes could have ranges of any width only have the shard count.
+        ShardBoundaries boundaries = shardToHash.isEmpty()
+            ? ShardBoundaries.even(Integer.parseInt(manifest.getProperty(FULL_SHARD_COUNT_PROPERTY)))
+            : ShardBoundaries.fromShardToHash(shardToHash);
+
+        log.info("Recovered {} shards of {} from {}", stores.size(), boundaries.getShardCount(), config.dir());
+
+        return new RecoveredShards(boundaries, stores);
+    }
+
+    /**
+     * Closes all open stores, flushing pending writes.
+     */
+    public void close() {
+        openStores.forEach(ShardStore::close);
+        openStores.clear();
+
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private ShardStore open(String name) {
+        Path dir = storesDir().resolve(name);
+
+        ShardStore store = switch (config.engine()) {
+            case WAL -> new WalShardStore(name, dir, config, scheduler) {
+                @Override
+                public void close() {
+                    openStores.remove(this);
+
+                    super.close();
+                }
+            };
+            case LSM -> new LsmShardStore(name, dir, config, scheduler) {
+                @Override
+                public void close() {
+                    openStores.remove(this);
+
+                    super.close();
+                }
+            };
+            case MEMORY, OFFHEAP -> throw new IllegalStateException("Engine " + config.engine() + " is not persistent");
+        };
+
+        openStores.add(store);
+
+        return store;
+    }
+
+    private void deleteOrphanStores(Set<String> referencedStores) {
+        try (Stream<Path> stores = Files.list(storesDir())) {
+            for (Path store : stores.filter(it -> !referencedStores.contains(it.getFileName().toString())).toList()) {
+                log.info("Deleting orphan shard store {}", store);
+
+                try (Stream<Path> files = Files.walk(store)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not clean up storage directory " + config.dir(), e);
+        }
+    }
+
+    private Path storesDir() {
+        return config.dir().resolve(STORES_DIR);
+    }
+
+    public record RecoveredShards(ShardBoundaries boundaries, Map<Integer, ShardStore> stores) {
+        // No-op.
+    }
+}
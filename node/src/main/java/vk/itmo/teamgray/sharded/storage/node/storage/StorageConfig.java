@@ -0,0 +1,83 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
+
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getIntProperty;
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getMemSizeProperty;
+import static vk.itmo.teamgray.sharded.storage.common.utils.PropertyUtils.getProperty;
+
+public record StorageConfig(
+    StorageEngine engine,
+    Path dir,
+    FsyncPolicy fsyncPolicy,
+    long fsyncIntervalMillis,
+    long walSegmentSize,
+    long snapshotWalSize,
+    long memtableSize,
+    int blockSize,
+    int compactionThreshold,
+    int slabSize
+) {
+    public static StorageConfig fromProperties() {
+        return new StorageConfig(
+            StorageEngine.valueOf(getProperty("node.storage.engine", "memory").toUpperCase(Locale.ROOT)),
+            Path.of(getProperty("node.storage.dir", "data")),
+            FsyncPolicy.valueOf(getProperty("node.storage.wal.fsync", "batch").toUpperCase(Locale.ROOT)),
+            getIntProperty("node.storage.wal.fsync.interval-ms", 10),
+            getMemSizeProperty("node.storage.wal.segment.size", 64L * MemoryUtils.MEBIBYTE),
+            getMemSizeProperty("node.storage.snapshot.wal.size", 128L * MemoryUtils.MEBIBYTE),
+            getMemSizeProperty("node.storage.lsm.memtable.size", 16L * MemoryUtils.MEBIBYTE),
+            (int)getMemSizeProperty("node.storage.lsm.block.size", 4L * MemoryUtils.KIBIBYTE),
+            getIntProperty("node.storage.lsm.compaction.threshold", 4),
+            (int)getMemSizeProperty("node.storage.offheap.slab.size", 16L * MemoryUtils.MEBIBYTE)
+        );
+    }
+
+    public StorageConfig withEngine(StorageEngine engine) {
+        return new StorageConfig(
+            engine,
+            dir,
+            fsyncPolicy,
+            fsyncIntervalMillis,
+            walSegmentSize,
+            snapshotWalSize,
+            memtableSize,
+            blockSize,
+            compactionThreshold,
+            slabSize
+        );
+    }
+
+    public StorageConfig withDir(Path dir) {
+        return new StorageConfig(
+            engine,
+            dir,
+            fsyncPolicy,
+            fsyncIntervalMillis,
+            walSegmentSize,
+            snapshotWalSize,
+            memtableSize,
+            blockSize,
+            compactionThreshold,
+            slabSize
+        );
+    }
+
+    public StorageConfig withFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        return new StorageConfig(
+            engine,
+            dir,
+            fsyncPolicy,
+            fsyncIntervalMillis,
+            walSegmentSize,
+            snapshotWalSize,
+            memtableSize,
+            blockSize,
+            compactionThreshold,
+            slabSize
+        );
+    }
+}
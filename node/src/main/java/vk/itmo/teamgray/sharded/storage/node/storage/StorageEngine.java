@@ -0,0 +1,18 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+public enum StorageEngine {
+    MEMORY(false),
+    OFFHEAP(false),
+    WAL(true),
+    LSM(true);
+
+    private final boolean persistent;
+
+    StorageEngine(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+}
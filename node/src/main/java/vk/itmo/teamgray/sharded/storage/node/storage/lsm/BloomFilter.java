@@ -0,0 +1,95 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over 64-bit key hashes, probes are derived from two halves of the hash.
+ */
+public class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+
+    // ln(2) * bits per key, rounded.
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final long[] bits;
+
+    private final int hashFunctions;
+
+    private BloomFilter(long[] bits, int hashFunctions) {
+        this.bits = bits;
+        this.hashFunctions = hashFunctions;
+    }
+
+    public static BloomFilter create(long expectedKeys) {
+        long bitCount = Math.max(64, expectedKeys * BITS_PER_KEY);
+
+        return new BloomFilter(new long[(int)Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64)], HASH_FUNCTIONS);
+    }
+
+    public void add(long hash) {
+        long bitCount = (long)bits.length * Long.SIZE;
+
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+
+        for (int i = 1; i <= hashFunctions; i++) {
+            int combined = hash1 + i * hash2;
+
+            if (combined < 0) {
+                combined = ~combined;
+            }
+
+            long bit = combined % bitCount;
+
+            bits[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long bitCount = (long)bits.length * Long.SIZE;
+
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+
+        for (int i = 1; i <= hashFunctions; i++) {
+            int combined = hash1 + i * hash2;
+
+            if (combined < 0) {
+                combined = ~combined;
+            }
+
+            long bit = combined % bitCount;
+
+            if ((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int serializedSize() {
+        return Integer.BYTES * 2 + bits.length * Long.BYTES;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(hashFunctions);
+        buffer.putInt(bits.length);
+
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(ByteBuffer buffer) {
+        int hashFunctions = buffer.getInt();
+
+        long[] bits = new long[buffer.getInt()];
+
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+
+        return new BloomFilter(bits, hashFunctions);
+    }
+}
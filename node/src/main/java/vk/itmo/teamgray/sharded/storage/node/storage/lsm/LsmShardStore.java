@@ -0,0 +1,811 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WalFormat;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WriteAheadLog;
+
+/**
+ * Log-structured shard store for shards that do not fit in memory.
+ * <p>
+ * Writes go to the write-ahead log and a sorted memtable. Full memtable is switched together with a WAL segment, written to an immutable
+ * {@link SSTable} in background, after which the WAL segments it covered are removed. Tables are merged by size-tiered compaction: a run
+ * of adjacent tables with the smallest total size is replaced by a single table once there are enough of them.
+ * <p>
+ * {@code TABLES} file lists live tables from the newest to the oldest and the WAL segment to replay from, it is replaced atomically on
+ * every change, so files not listed in it are leftovers of an interrupted flush or compaction.
+ */
+public class LsmShardStore implements ShardStore {
+    private static final Logger log = LoggerFactory.getLogger(LsmShardStore.class);
+
+    private static final String TABLES_MANIFEST = "TABLES";
+
+    private static final String TABLES_PROPERTY = "tables";
+
+    private static final String WAL_SEGMENT_PROPERTY = "walSegment";
+
+    private static final String TABLE_PREFIX = "table-";
+
+    private static final String TABLE_SUFFIX = ".sst";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Writers are throttled when flushing can not keep up and this many memtables are waiting for it.
+    private static final int MAX_IMMUTABLE_MEMTABLES = 2;
+
+    private final String name;
+
+    private final Path dir;
+
+    private final long memtableSize;
+
+    private final int blockSize;
+
+    private final int compactionThreshold;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final WriteAheadLog wal;
+
+    private final List<ScheduledFuture<?>> tasks;
+
+    // Acquired after WAL append lock, never before.
+    private final ReentrantLock structureLock = new ReentrantLock();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private final AtomicLong nextTableId = new AtomicLong();
+
+    // Count of keys with a value, updated under WAL append lock.
+    private final AtomicLong liveCount = new AtomicLong();
+
+    private volatile State state;
+
+    // Guarded by structure lock.
+    private long clearEpoch;
+
+    // Guarded by structure lock.
+    private long walSegment;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Recovery only.
+    private Memtable recoveredMemtable;
+
+    // Recovery only.
+    private List<SSTable> recoveredTables;
+
+    // Recovery only, tables dropped by replayed CLEAR records.
+    private List<SSTable> recoveredCleared;
+
+    public LsmShardStore(String name, Path dir, StorageConfig config, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.dir = dir;
+        this.memtableSize = config.memtableSize();
+        this.blockSize = config.blockSize();
+        this.compactionThreshold = Math.max(2, config.compactionThreshold());
+        this.scheduler = scheduler;
+
+        try {
+            Files.createDirectories(dir);
+
+            recoveredMemtable = new Memtable();
+            recoveredTables = new ArrayList<>(loadTables());
+            recoveredCleared = new ArrayList<>();
+
+            this.wal = WriteAheadLog.open(dir, config.fsyncPolicy(), config.walSegmentSize(), walSegment, this::applyRecord);
+
+            this.state = new State(recoveredMemtable, List.of(), List.copyOf(recoveredTables));
+
+            forEach((key, value) -> liveCount.incrementAndGet());
+
+            if (!recoveredCleared.isEmpty()) {
+                structureLock.lock();
+
+                try {
+                    saveTables(state.tables());
+                } finally {
+                    structureLock.unlock();
+                }
+
+                recoveredCleared.forEach(it -> it.retire(true));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open shard store " + dir, e);
+        } finally {
+            recoveredMemtable = null;
+            recoveredTables = null;
+            recoveredCleared = null;
+        }
+
+        if (config.fsyncPolicy() == FsyncPolicy.BATCH) {
+            this.tasks = List.of(
+                scheduler.scheduleWithFixedDelay(
+                    this::flushWalQuietly,
+                    config.fsyncIntervalMillis(),
+                    config.fsyncIntervalMillis(),
+                    TimeUnit.MILLISECONDS
+                )
+            );
+        } else {
+            this.tasks = List.of();
+        }
+
+        maybeScheduleFlush();
+        maybeScheduleCompaction();
+
+        log.info("Opened shard store {} with {} tables", dir, state.tables().size());
+    }
+
+    @Override
+    public String get(String key) {
+        State current = state;
+
+        String value = current.memtable().get(key);
+
+        if (value != null) {
+            return unwrap(value);
+        }
+
+        for (Memtable immutable : current.immutables()) {
+            value = immutable.get(key);
+
+            if (value != null) {
+                return unwrap(value);
+            }
+        }
+
+        long hash = HashingUtils.calculate64BitHash(key);
+
+        for (SSTable table : current.tables()) {
+            if (!table.retain()) {
+                // Table was compacted away after state was read, retrying with the new state.
+                return get(key);
+            }
+
+            try {
+                value = table.get(key, hash);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + table + " of shard store " + dir, e);
+            } finally {
+                table.release();
+            }
+
+            if (value != null) {
+                return unwrap(value);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        Objects.requireNonNull(value);
+
+        write(WalFormat.PUT, key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        write(WalFormat.DELETE, key, SSTable.TOMBSTONE);
+    }
+
+    @Override
+    public void clear() {
+        List<SSTable> cleared = new ArrayList<>();
+
+        wal.append(WalFormat.CLEAR, null, null, () -> cleared.addAll(clearState()));
+
+        // Tables can only be removed from the manifest once CLEAR record is durable, recovery drops them otherwise.
+        wal.flush();
+
+        structureLock.lock();
+
+        try {
+            saveTables(state.tables());
+        } finally {
+            structureLock.unlock();
+        }
+
+        cleared.forEach(it -> it.retire(true));
+    }
+
+    @Override
+    public int size() {
+        return (int)Math.min(Integer.MAX_VALUE, liveCount.get());
+    }
+
+    /**
+     * Memtables in heap and tables on disk.
+     */
+    @Override
+    public long getBytesUsed() {
+        State current = state;
+
+        long bytes = current.memtable().getSizeBytes();
+
+        for (Memtable immutable : current.immutables()) {
+            bytes += immutable.getSizeBytes();
+        }
+
+        for (SSTable table : current.tables()) {
+            bytes += table.getFileSize();
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        State current = state;
+
+        List<SSTable> retained = new ArrayList<>();
+
+        try {
+            for (SSTable table : current.tables()) {
+                if (!table.retain()) {
+                    retained.forEach(SSTable::release);
+                    retained.clear();
+
+                    forEach(action);
+
+                    return;
+                }
+
+                retained.add(table);
+            }
+
+            List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+
+            sources.add(current.memtable().iterator());
+            current.immutables().forEach(it -> sources.add(it.iterator()));
+            retained.forEach(it -> sources.add(it.iterator()));
+
+            var iterator = new MergingIterator(sources);
+
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+
+                if (entry.getValue() != SSTable.TOMBSTONE) {
+                    action.accept(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            retained.forEach(SSTable::release);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Writes all memtables to tables.
+     */
+    public void flush() {
+        flushLock.lock();
+
+        try {
+            if (closed.get()) {
+                return;
+            }
+
+            if (!state.memtable().isEmpty()) {
+                switchMemtable();
+            }
+
+            while (!state.immutables().isEmpty()) {
+                flushOldest();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Merges tables until there are less than compaction threshold of them.
+     */
+    public void compact() {
+        compactionLock.lock();
+
+        try {
+            while (!closed.get() && state.tables().size() >= compactionThreshold) {
+                if (!compactOnce()) {
+                    return;
+                }
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    public int getTableCount() {
+        return state.tables().size();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        tasks.forEach(it -> it.cancel(false));
+
+        // Waiting for running flush and compaction to complete.
+        flushLock.lock();
+        compactionLock.lock();
+
+        try {
+            wal.close();
+
+            state.tables().forEach(it -> it.retire(false));
+        } finally {
+            compactionLock.unlock();
+            flushLock.unlock();
+        }
+
+        log.info("Closed shard store {}", dir);
+    }
+
+    @Override
+    public void destroy() {
+        close();
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files
+                .sorted(Comparator.reverseOrder())
+                .forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete shard store " + dir, e);
+        }
+
+        log.info("Deleted shard store {}", dir);
+    }
+
+    private void write(byte type, String key, String value) {
+        awaitFlushCapacity();
+
+        wal.commit(wal.append(type, key, value, () -> {
+            // Key can be overwritten or deleted in any of the tables, so its previous value is looked up to keep the count exact.
+            boolean wasLive = get(key) != null;
+            boolean isLive = value != SSTable.TOMBSTONE;
+
+            state.memtable().put(key, value);
+
+            if (wasLive != isLive) {
+                liveCount.addAndGet(isLive ? 1 : -1);
+            }
+        }));
+
+        maybeScheduleFlush();
+    }
+
+    private void awaitFlushCapacity() {
+        while (state.immutables().size() >= MAX_IMMUTABLE_MEMTABLES && !closed.get()) {
+            maybeScheduleFlush();
+
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void maybeScheduleFlush() {
+        State current = state;
+
+        boolean needed = current.memtable().getSizeBytes() >= memtableSize || !current.immutables().isEmpty();
+
+        if (needed && !closed.get() && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    log.error("Could not flush shard store {}", dir, e);
+                } finally {
+                    flushScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (state.tables().size() >= compactionThreshold && !closed.get() && compactionScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    log.error("Could not compact shard store {}", dir, e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private void flushWalQuietly() {
+        try {
+            wal.flush();
+        } catch (Exception e) {
+            log.error("Could not flush WAL of shard store {}", dir, e);
+        }
+    }
+
+    private void switchMemtable() {
+        var switched = new Memtable[1];
+
+        long segment = wal.rotate(() -> {
+            structureLock.lock();
+
+            try {
+                State current = state;
+
+                switched[0] = current.memtable();
+
+                state = new State(new Memtable(), prepend(current.immutables(), current.memtable()), current.tables());
+            } finally {
+                structureLock.unlock();
+            }
+        });
+
+        switched[0].setWalSegment(segment);
+    }
+
+    private void flushOldest() {
+        Memtable oldest = state.immutables().getLast();
+
+        long epoch;
+        boolean dropTombstones;
+
+        structureLock.lock();
+
+        try {
+            epoch = clearEpoch;
+            dropTombstones = state.tables().isEmpty();
+        } finally {
+            structureLock.unlock();
+        }
+
+        SSTable table;
+
+        try {
+            table = SSTable.write(
+                tablePath(nextTableId.getAndIncrement()),
+                oldest.iterator(),
+                oldest.getEntryCount(),
+                blockSize,
+                dropTombstones
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not flush memtable of shard store " + dir, e);
+        }
+
+        // Segments starting from this one contain records of newer memtables.
+        long segment = oldest.getWalSegment();
+
+        structureLock.lock();
+
+        try {
+            State current = state;
+
+            if (clearEpoch != epoch || !current.immutables().contains(oldest)) {
+                // Store was cleared while the table was written.
+                table.retire(true);
+
+                return;
+            }
+
+            List<Memtable> immutables = current.immutables().subList(0, current.immutables().size() - 1);
+            List<SSTable> tables = prepend(current.tables(), table);
+
+            walSegment = Math.max(walSegment, segment);
+
+            saveTables(tables);
+
+            state = new State(current.memtable(), List.copyOf(immutables), tables);
+        } finally {
+            structureLock.unlock();
+        }
+
+        wal.deleteSegmentsBefore(segment);
+
+        log.debug("Flushed memtable of shard store {} to {}", name, table);
+    }
+
+    /**
+     * @return whether compaction made progress
+     */
+    private boolean compactOnce() {
+        List<SSTable> tables = state.tables();
+
+        int runStart = 0;
+        long runSize = Long.MAX_VALUE;
+
+        for (int start = 0; start + compactionThreshold <= tables.size(); start++) {
+            long size = 0;
+
+            for (int i = start; i < start + compactionThreshold; i++) {
+                size += tables.get(i).getFileSize();
+            }
+
+            if (size < runSize) {
+                runStart = start;
+                runSize = size;
+            }
+        }
+
+        List<SSTable> run = tables.subList(runStart, runStart + compactionThreshold);
+
+        // Tables are only prepended by flushes, so the oldest table stays the oldest.
+        boolean includesOldest = runStart + compactionThreshold == tables.size();
+
+        List<SSTable> retained = new ArrayList<>();
+
+        try {
+            for (SSTable table : run) {
+                if (!table.retain()) {
+                    // Store was cleared.
+                    return false;
+                }
+
+                retained.add(table);
+            }
+
+            long epoch;
+
+            structureLock.lock();
+
+            try {
+                epoch = clearEpoch;
+            } finally {
+                structureLock.unlock();
+            }
+
+            SSTable merged = SSTable.write(
+                tablePath(nextTableId.getAndIncrement()),
+                new MergingIterator(run.stream().map(SSTable::iterator).toList()),
+                run.stream().mapToLong(SSTable::getEntryCount).sum(),
+                blockSize,
+                includesOldest
+            );
+
+            structureLock.lock();
+
+            try {
+                State current = state;
+
+                int position = indexOfIdentity(current.tables(), run.getFirst());
+
+                if (clearEpoch != epoch || position < 0) {
+                    merged.retire(true);
+
+                    return false;
+                }
+
+                List<SSTable> updated = new ArrayList<>(current.tables().subList(0, position));
+                updated.add(merged);
+                updated.addAll(current.tables().subList(position + run.size(), current.tables().size()));
+
+                saveTables(updated);
+
+                state = new State(current.memtable(), current.immutables(), List.copyOf(updated));
+            } finally {
+                structureLock.unlock();
+            }
+
+            run.forEach(it -> it.retire(true));
+
+            log.debug("Compacted {} tables of shard store {} into {}", run.size(), name, merged);
+
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact shard store " + dir, e);
+        } finally {
+            retained.forEach(SSTable::release);
+        }
+    }
+
+    /**
+     * Runs under WAL append lock.
+     *
+     * @return tables to remove once clear is durable
+     */
+    private List<SSTable> clearState() {
+        structureLock.lock();
+
+        try {
+            List<SSTable> cleared = state.tables();
+
+            clearEpoch++;
+
+            state = new State(new Memtable(), List.of(), List.of());
+
+            liveCount.set(0);
+
+            return cleared;
+        } finally {
+            structureLock.unlock();
+        }
+    }
+
+    private void applyRecord(byte type, String key, String value) {
+        switch (type) {
+            case WalFormat.PUT -> recoveredMemtable.put(key, value);
+            case WalFormat.DELETE -> recoveredMemtable.put(key, SSTable.TOMBSTONE);
+            case WalFormat.CLEAR -> {
+                recoveredMemtable = new Memtable();
+
+                recoveredCleared.addAll(recoveredTables);
+                recoveredTables.clear();
+            }
+            default -> throw new IllegalStateException("Unknown WAL record type: " + type);
+        }
+    }
+
+    /**
+     * Opens tables listed in the manifest and removes files of interrupted flushes and compactions.
+     */
+    private List<SSTable> loadTables() throws IOException {
+        Path manifestPath = dir.resolve(TABLES_MANIFEST);
+
+        var manifest = new Properties();
+
+        if (Files.exists(manifestPath)) {
+            try (InputStream input = Files.newInputStream(manifestPath)) {
+                manifest.load(input);
+            }
+        }
+
+        walSegment = Long.parseLong(manifest.getProperty(WAL_SEGMENT_PROPERTY, "0"));
+
+        String tableNames = manifest.getProperty(TABLES_PROPERTY, "");
+
+        List<String> listed = tableNames.isEmpty() ? List.of() : Arrays.asList(tableNames.split(","));
+        Set<String> listedSet = new HashSet<>(listed);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+
+                if (fileName.startsWith(TABLE_PREFIX)) {
+                    long id = Long.parseLong(fileName.substring(TABLE_PREFIX.length(), fileName.indexOf('.')));
+
+                    nextTableId.accumulateAndGet(id + 1, Math::max);
+                }
+
+                boolean orphanTable = fileName.startsWith(TABLE_PREFIX) && !listedSet.contains(fileName);
+
+                if (orphanTable || fileName.endsWith(TMP_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        List<SSTable> tables = new ArrayList<>();
+
+        try {
+            for (String tableName : listed) {
+                tables.add(SSTable.open(dir.resolve(tableName)));
+            }
+        } catch (IOException | RuntimeException e) {
+            tables.forEach(it -> it.retire(false));
+
+            throw e;
+        }
+
+        return tables;
+    }
+
+    /**
+     * Must be called under structure lock.
+     */
+    private void saveTables(List<SSTable> tables) {
+        var manifest = new Properties();
+
+        manifest.setProperty(WAL_SEGMENT_PROPERTY, String.valueOf(walSegment));
+        manifest.setProperty(TABLES_PROPERTY, tables.stream().map(SSTable::getName).collect(Collectors.joining(",")));
+
+        Path manifestPath = dir.resolve(TABLES_MANIFEST);
+        Path tmpPath = dir.resolve(TABLES_MANIFEST + TMP_SUFFIX);
+
+        try {
+            try (var output = new FileOutputStream(tmpPath.toFile())) {
+                manifest.store(output, null);
+
+                output.getChannel().force(true);
+            }
+
+            Files.move(tmpPath, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write table manifest of " + dir, e);
+        }
+
+        WriteAheadLog.syncDirectory(dir);
+    }
+
+    private Path tablePath(long id) {
+        return dir.resolve(TABLE_PREFIX + String.format("%020d", id) + TABLE_SUFFIX);
+    }
+
+    private static String unwrap(String value) {
+        return value == SSTable.TOMBSTONE ? null : value;
+    }
+
+    private static <T> List<T> prepend(List<T> list, T element) {
+        List<T> result = new ArrayList<>(list.size() + 1);
+
+        result.add(element);
+        result.addAll(list);
+
+        return List.copyOf(result);
+    }
+
+    private static <T> int indexOfIdentity(List<T> list, T element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Immutable view of the store structure, every list is ordered from the newest to the oldest.
+     */
+    private record State(Memtable memtable, List<Memtable> immutables, List<SSTable> tables) {
+        // No-op.
+    }
+
+    @Override
+    public String toString() {
+        return "LsmShardStore{" +
+            "name='" + name + '\'' +
+            ", tables=" + state.tables().size() +
+            '}';
+    }
+}
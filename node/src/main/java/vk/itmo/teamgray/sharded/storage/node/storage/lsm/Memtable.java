@@ -0,0 +1,59 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorted in-memory buffer of the latest writes, deletes are stored as {@link SSTable#TOMBSTONE}.
+ */
+class Memtable {
+    // Rough per-entry overhead of skip list node, entry and string headers.
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentSkipListMap<String, String> entries = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    // First WAL segment without records of this memtable, known once it is switched.
+    private volatile long walSegment;
+
+    public String get(String key) {
+        return entries.get(key);
+    }
+
+    public void put(String key, String value) {
+        String previous = entries.put(key, value);
+
+        if (previous == null) {
+            sizeBytes.addAndGet(ENTRY_OVERHEAD + 2L * key.length() + 2L * value.length());
+        } else {
+            sizeBytes.addAndGet(2L * value.length() - 2L * previous.length());
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getWalSegment() {
+        return walSegment;
+    }
+
+    public void setWalSegment(long walSegment) {
+        this.walSegment = walSegment;
+    }
+
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return entries.entrySet().iterator();
+    }
+}
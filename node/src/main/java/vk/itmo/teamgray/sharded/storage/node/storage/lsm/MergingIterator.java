@@ -0,0 +1,63 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted sources into a single sorted stream. Sources are ordered from the newest to the oldest, for duplicate keys only the
+ * entry of the newest source is returned. Tombstones are returned as is.
+ */
+class MergingIterator implements Iterator<Map.Entry<String, String>> {
+    private final List<Iterator<Map.Entry<String, String>>> sources;
+
+    private final PriorityQueue<Head> heads = new PriorityQueue<>(
+        Comparator.<Head, String>comparing(it -> it.entry.getKey()).thenComparingInt(it -> it.source)
+    );
+
+    public MergingIterator(List<Iterator<Map.Entry<String, String>>> sources) {
+        this.sources = sources;
+
+        for (int i = 0; i < sources.size(); i++) {
+            advance(i);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Head head = heads.poll();
+
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+
+        advance(head.source);
+
+        // Skipping older versions of the same key.
+        while (!heads.isEmpty() && heads.peek().entry.getKey().equals(head.entry.getKey())) {
+            advance(heads.poll().source);
+        }
+
+        return head.entry;
+    }
+
+    private void advance(int source) {
+        var iterator = sources.get(source);
+
+        if (iterator.hasNext()) {
+            heads.add(new Head(iterator.next(), source));
+        }
+    }
+
+    private record Head(Map.Entry<String, String> entry, int source) {
+        // No-op.
+    }
+}
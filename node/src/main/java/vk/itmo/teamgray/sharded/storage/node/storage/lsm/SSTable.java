@@ -0,0 +1,470 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.WriteAheadLog;
+
+/**
+ * Immutable sorted table file.
+ * <p>
+ * Layout: data blocks of {@code [int keyLength][key][int valueLength][value]} entries (value length is -1 for tombstones), index with
+ * first key, offset, length and CRC32C of every block, bloom filter of all keys, and a fixed size footer. Index and bloom filter are kept
+ * on heap, blocks are read from disk on demand.
+ * <p>
+ * Lifetime is reference counted: the owning store holds one reference, readers retain the table for the duration of a read.
+ */
+public class SSTable {
+    /**
+     * Marker of a deleted key, compared by identity.
+     */
+    @SuppressWarnings("StringOperationCanBeSimplified")
+    public static final String TOMBSTONE = new String("");
+
+    private static final int MAGIC = 0x5353544C;
+
+    private static final int FOOTER_SIZE = Long.BYTES * 3 + Integer.BYTES * 3;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final String[] firstKeys;
+
+    private final long[] blockOffsets;
+
+    private final int[] blockLengths;
+
+    private final int[] blockCrcs;
+
+    private final BloomFilter bloomFilter;
+
+    private final long entryCount;
+
+    private final long fileSize;
+
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private volatile boolean deleteOnClose;
+
+    private SSTable(
+        Path path,
+        FileChannel channel,
+        String[] firstKeys,
+        long[] blockOffsets,
+        int[] blockLengths,
+        int[] blockCrcs,
+        BloomFilter bloomFilter,
+        long entryCount,
+        long fileSize
+    ) {
+        this.path = path;
+        this.channel = channel;
+        this.firstKeys = firstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.blockCrcs = blockCrcs;
+        this.bloomFilter = bloomFilter;
+        this.entryCount = entryCount;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Writes entries, which must be sorted by key, to a new table file and opens it.
+     *
+     * @param dropTombstones whether deleted keys can be omitted, only allowed when there is no older data for this store
+     */
+    public static SSTable write(
+        Path path,
+        Iterator<Map.Entry<String, String>> entries,
+        long expectedKeys,
+        int blockSize,
+        boolean dropTombstones
+    ) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        var bloomFilter = BloomFilter.create(expectedKeys);
+
+        List<String> firstKeys = new ArrayList<>();
+        List<long[]> blocks = new ArrayList<>();
+
+        long entryCount = 0;
+        long offset = 0;
+
+        var crc = new CRC32C();
+        var block = new ByteArrayOutputStream(blockSize * 2);
+        var blockOutput = new DataOutputStream(block);
+
+        try (var file = new FileOutputStream(tmpPath.toFile());
+             var output = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+
+            String blockFirstKey = null;
+
+            while (entries.hasNext()) {
+                var entry = entries.next();
+
+                String key = entry.getKey();
+                String value = entry.getValue();
+
+                boolean tombstone = value == TOMBSTONE;
+
+                if (tombstone && dropTombstones) {
+                    continue;
+                }
+
+                if (blockFirstKey == null) {
+                    blockFirstKey = key;
+                }
+
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+                blockOutput.writeInt(keyBytes.length);
+                blockOutput.write(keyBytes);
+
+                if (tombstone) {
+                    blockOutput.writeInt(-1);
+                } else {
+                    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+
+                    blockOutput.writeInt(valueBytes.length);
+                    blockOutput.write(valueBytes);
+
+                    entryCount++;
+                }
+
+                bloomFilter.add(HashingUtils.calculate64BitHash(key));
+
+                if (block.size() >= blockSize) {
+                    offset = writeBlock(output, block, crc, offset, blockFirstKey, firstKeys, blocks);
+                    blockFirstKey = null;
+                }
+            }
+
+            if (block.size() > 0) {
+                offset = writeBlock(output, block, crc, offset, blockFirstKey, firstKeys, blocks);
+            }
+
+            var index = new ByteArrayOutputStream();
+            var indexOutput = new DataOutputStream(index);
+
+            for (int i = 0; i < firstKeys.size(); i++) {
+                byte[] keyBytes = firstKeys.get(i).getBytes(StandardCharsets.UTF_8);
+
+                indexOutput.writeInt(keyBytes.length);
+                indexOutput.write(keyBytes);
+                indexOutput.writeLong(blocks.get(i)[0]);
+                indexOutput.writeInt((int)blocks.get(i)[1]);
+                indexOutput.writeInt((int)blocks.get(i)[2]);
+            }
+
+            long indexOffset = offset;
+
+            index.writeTo(output);
+
+            long bloomOffset = indexOffset + index.size();
+
+            var bloom = ByteBuffer.allocate(bloomFilter.serializedSize());
+            bloomFilter.writeTo(bloom);
+
+            output.write(bloom.array());
+
+            output.writeLong(indexOffset);
+            output.writeInt(index.size());
+            output.writeLong(bloomOffset);
+            output.writeInt(bloom.capacity());
+            output.writeLong(entryCount);
+            output.writeInt(MAGIC);
+
+            output.flush();
+            file.getChannel().force(true);
+        }
+
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(path.getParent());
+
+        return open(path);
+    }
+
+    public static SSTable open(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            long fileSize = channel.size();
+
+            if (fileSize < FOOTER_SIZE) {
+                throw new IOException("Table " + path + " is too small: " + fileSize);
+            }
+
+            var footer = readFully(channel, fileSize - FOOTER_SIZE, FOOTER_SIZE);
+
+            long indexOffset = footer.getLong();
+            int indexLength = footer.getInt();
+            long bloomOffset = footer.getLong();
+            int bloomLength = footer.getInt();
+            long entryCount = footer.getLong();
+
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Table " + path + " has invalid footer");
+            }
+
+            var index = readFully(channel, indexOffset, indexLength);
+
+            List<String> firstKeys = new ArrayList<>();
+            List<long[]> blocks = new ArrayList<>();
+
+            while (index.hasRemaining()) {
+                byte[] keyBytes = new byte[index.getInt()];
+                index.get(keyBytes);
+
+                firstKeys.add(new String(keyBytes, StandardCharsets.UTF_8));
+                blocks.add(new long[] {index.getLong(), index.getInt(), index.getInt()});
+            }
+
+            var bloomFilter = BloomFilter.readFrom(readFully(channel, bloomOffset, bloomLength));
+
+            return new SSTable(
+                path,
+                channel,
+                firstKeys.toArray(String[]::new),
+                blocks.stream().mapToLong(it -> it[0]).toArray(),
+                blocks.stream().mapToInt(it -> (int)it[1]).toArray(),
+                blocks.stream().mapToInt(it -> (int)it[2]).toArray(),
+                bloomFilter,
+                entryCount,
+                fileSize
+            );
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return value, {@link #TOMBSTONE} if key was deleted, or {@code null} if this table knows nothing about the key
+     */
+    public String get(String key, long hash) throws IOException {
+        if (!bloomFilter.mightContain(hash)) {
+            return null;
+        }
+
+        int position = Arrays.binarySearch(firstKeys, key);
+
+        if (position < 0) {
+            // Block, that may contain the key, is the one before insertion point.
+            position = -position - 2;
+        }
+
+        if (position < 0) {
+            return null;
+        }
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        var block = readBlock(position);
+
+        while (block.hasRemaining()) {
+            int keyLength = block.getInt();
+            int keyStart = block.position();
+
+            block.position(keyStart + keyLength);
+
+            int valueLength = block.getInt();
+            int valueStart = block.position();
+
+            if (valueLength > 0) {
+                block.position(valueStart + valueLength);
+            }
+
+            if (Arrays.equals(block.array(), keyStart, keyStart + keyLength, keyBytes, 0, keyBytes.length)) {
+                return valueLength < 0
+                    ? TOMBSTONE
+                    : new String(block.array(), valueStart, valueLength, StandardCharsets.UTF_8);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Iterates over all entries including tombstones in key order. Table must be retained while iterating.
+     */
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private int nextBlock = 0;
+
+            private ByteBuffer block;
+
+            @Override
+            public boolean hasNext() {
+                while (block == null || !block.hasRemaining()) {
+                    if (nextBlock >= firstKeys.length) {
+                        return false;
+                    }
+
+                    try {
+                        block = readBlock(nextBlock++);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return true;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                byte[] keyBytes = new byte[block.getInt()];
+                block.get(keyBytes);
+
+                int valueLength = block.getInt();
+
+                String value;
+
+                if (valueLength < 0) {
+                    value = TOMBSTONE;
+                } else {
+                    value = new String(block.array(), block.position(), valueLength, StandardCharsets.UTF_8);
+                    block.position(block.position() + valueLength);
+                }
+
+                return Map.entry(new String(keyBytes, StandardCharsets.UTF_8), value);
+            }
+        };
+    }
+
+    public boolean retain() {
+        while (true) {
+            int current = refs.get();
+
+            if (current <= 0) {
+                return false;
+            }
+
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            try {
+                channel.close();
+
+                if (deleteOnClose) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close table " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Drops owner reference, file is closed once all readers release it.
+     */
+    public void retire(boolean delete) {
+        deleteOnClose = delete;
+
+        release();
+    }
+
+    public String getName() {
+        return path.getFileName().toString();
+    }
+
+    /**
+     * Count of live (not deleted) entries in this table, keys may be overwritten in newer tables.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    private ByteBuffer readBlock(int index) throws IOException {
+        var block = readFully(channel, blockOffsets[index], blockLengths[index]);
+
+        var crc = new CRC32C();
+        crc.update(block.array(), 0, blockLengths[index]);
+
+        if ((int)crc.getValue() != blockCrcs[index]) {
+            throw new IOException("Block " + index + " of table " + path + " is corrupted");
+        }
+
+        return block;
+    }
+
+    private static long writeBlock(
+        DataOutputStream output,
+        ByteArrayOutputStream block,
+        CRC32C crc,
+        long offset,
+        String firstKey,
+        List<String> firstKeys,
+        List<long[]> blocks
+    ) throws IOException {
+        byte[] bytes = block.toByteArray();
+
+        crc.reset();
+        crc.update(bytes);
+
+        output.write(bytes);
+
+        firstKeys.add(firstKey);
+        blocks.add(new long[] {offset, bytes.length, (int)crc.getValue()});
+
+        block.reset();
+
+        return offset + bytes.length;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    @Override
+    public String toString() {
+        return "SSTable{" +
+            "name='" + getName() + '\'' +
+            ", entries=" + entryCount +
+            ", size=" + fileSize +
+            '}';
+    }
+}
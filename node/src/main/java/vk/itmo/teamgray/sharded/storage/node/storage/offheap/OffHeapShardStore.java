@@ -0,0 +1,510 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.LongPredicate;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStore;
+
+/**
+ * Non-persistent shard store, that keeps UTF-8 encoded entries outside of the heap.
+ * <p>
+ * Entries {@code [int keyLength][int valueLength][key][value]} are appended to direct buffer slabs. The index is an open addressing
+ * table of two {@code long[]} arrays: key hash and entry address ({@code slab << 32 | offset}), so heap usage does not depend on the
+ * number of entries beyond 16 bytes per slot and GC never scans the entries themselves. Overwritten and removed entries leave garbage
+ * in slabs, which is reclaimed by copying live entries to fresh slabs once garbage exceeds live data.
+ */
+public class OffHeapShardStore implements ShardStore {
+    private static final long EMPTY = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private static final int ENTRY_HEADER_SIZE = Integer.BYTES * 2;
+
+    // Entries decoded per read lock acquisition while scanning.
+    private static final int SCAN_CHUNK_SIZE = 1024;
+
+    private final int slabSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private List<ByteBuffer> slabs = new ArrayList<>();
+
+    private ByteBuffer currentSlab;
+
+    private long[] hashes;
+
+    private long[] addresses;
+
+    private int size;
+
+    private long liveBytes;
+
+    private long garbageBytes;
+
+    private long allocatedBytes;
+
+    public OffHeapShardStore(int slabSize) {
+        this.slabSize = slabSize;
+
+        initIndex(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public String get(String key) {
+        return get(key, HashingUtils.calculate64BitHash(key));
+    }
+
+    @Override
+    public String get(String key, long hash) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        lock.readLock().lock();
+
+        try {
+            int slot = findSlot(hash, keyBytes);
+
+            if (addresses[slot] == EMPTY) {
+                return null;
+            }
+
+            long address = addresses[slot];
+
+            ByteBuffer slab = slabs.get(slab(address));
+            int offset = offset(address);
+
+            byte[] value = new byte[slab.getInt(offset + Integer.BYTES)];
+            slab.get(offset + ENTRY_HEADER_SIZE + keyBytes.length, value);
+
+            return new String(value, StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        put(key, HashingUtils.calculate64BitHash(key), value);
+    }
+
+    @Override
+    public void put(String key, long hash, String value) {
+        Objects.requireNonNull(value);
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+
+        lock.writeLock().lock();
+
+        try {
+            int slot = findSlot(hash, keyBytes);
+
+            if (addresses[slot] != EMPTY) {
+                long address = addresses[slot];
+
+                ByteBuffer slab = slabs.get(slab(address));
+                int offset = offset(address);
+
+                int oldValueLength = slab.getInt(offset + Integer.BYTES);
+
+                if (oldValueLength == valueBytes.length) {
+                    // Same size, overwriting in place.
+                    slab.put(offset + ENTRY_HEADER_SIZE + keyBytes.length, valueBytes);
+
+                    return;
+                }
+
+                release(entrySize(keyBytes.length, oldValueLength));
+
+                addresses[slot] = append(keyBytes, valueBytes);
+
+                maybeCompact();
+
+                return;
+            }
+
+            hashes[slot] = hash;
+            addresses[slot] = append(keyBytes, valueBytes);
+
+            size++;
+
+            if (size > addresses.length * LOAD_FACTOR) {
+                rehash(addresses.length * 2);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = HashingUtils.calculate64BitHash(key);
+
+        lock.writeLock().lock();
+
+        try {
+            int slot = findSlot(hash, keyBytes);
+
+            if (addresses[slot] == EMPTY) {
+                return;
+            }
+
+            long address = addresses[slot];
+
+            release(entrySize(keyBytes.length, slabs.get(slab(address)).getInt(offset(address) + Integer.BYTES)));
+
+            deleteSlot(slot);
+
+            size--;
+
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+
+        try {
+            slabs = new ArrayList<>();
+            currentSlab = null;
+
+            size = 0;
+            liveBytes = 0;
+            garbageBytes = 0;
+            allocatedBytes = 0;
+
+            initIndex(INITIAL_CAPACITY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        scan(hash -> true, (key, hash, value) -> action.accept(key, value));
+    }
+
+    /**
+     * Compares stored hashes instead of hashing keys, and decodes only matching entries.
+     */
+    @Override
+    public void forEachInHashRange(long fromInclusive, long toExclusive, HashedEntryConsumer action) {
+        scan(hash -> hash >= fromInclusive && hash < toExclusive, action);
+    }
+
+    /**
+     * Off-heap slabs and on-heap index.
+     */
+    @Override
+    public long getBytesUsed() {
+        lock.readLock().lock();
+
+        try {
+            return allocatedBytes + (long)addresses.length * Long.BYTES * 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        // No-op.
+    }
+
+    @Override
+    public void destroy() {
+        // Slabs are freed once collected.
+        clear();
+    }
+
+    /**
+     * Copies addresses of matching entries under read lock, then decodes them by chunks, so that writers are only blocked for a chunk
+     * at a time and never while the action runs. Slabs are append-only apart from same-size overwrites, which chunks are read under
+     * the lock for, so copied addresses stay readable after compaction or clear. Entries added after the copy are not visited.
+     */
+    private void scan(LongPredicate hashFilter, HashedEntryConsumer action) {
+        long[] scannedHashes;
+        long[] scannedAddresses;
+        List<ByteBuffer> scannedSlabs;
+
+        int count = 0;
+
+        lock.readLock().lock();
+
+        try {
+            scannedHashes = new long[size];
+            scannedAddresses = new long[size];
+
+            for (int slot = 0; slot < addresses.length; slot++) {
+                if (addresses[slot] != EMPTY && hashFilter.test(hashes[slot])) {
+                    scannedHashes[count] = hashes[slot];
+                    scannedAddresses[count] = addresses[slot];
+
+                    count++;
+                }
+            }
+
+            scannedSlabs = List.copyOf(slabs);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        String[] keys = new String[Math.min(count, SCAN_CHUNK_SIZE)];
+        String[] values = new String[keys.length];
+
+        for (int start = 0; start < count; start += SCAN_CHUNK_SIZE) {
+            int chunkSize = Math.min(count - start, SCAN_CHUNK_SIZE);
+
+            lock.readLock().lock();
+
+            try {
+                for (int i = 0; i < chunkSize; i++) {
+                    int index = i;
+
+                    visit(scannedSlabs, scannedAddresses[start + i], (key, value) -> {
+                        keys[index] = key;
+                        values[index] = value;
+                    });
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (int i = 0; i < chunkSize; i++) {
+                action.accept(keys[i], scannedHashes[start + i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return slot holding the key, or empty slot where it should be inserted
+     */
+    private int findSlot(long hash, byte[] keyBytes) {
+        int mask = addresses.length - 1;
+        int slot = spread(hash) & mask;
+
+        while (addresses[slot] != EMPTY) {
+            if (hashes[slot] == hash && keyEquals(addresses[slot], keyBytes)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe sequences intact without tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int mask = addresses.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+
+        while (addresses[next] != EMPTY) {
+            int home = spread(hashes[next]) & mask;
+
+            // Entry can be moved to the hole if its home slot is not between the hole and its current position.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                hashes[hole] = hashes[next];
+                addresses[hole] = addresses[next];
+
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        addresses[hole] = EMPTY;
+    }
+
+    private static void visit(List<ByteBuffer> slabs, long address, BiConsumer<String, String> action) {
+        ByteBuffer slab = slabs.get(slab(address));
+        int offset = offset(address);
+
+        int keyLength = slab.getInt(offset);
+
+        byte[] key = new byte[keyLength];
+        byte[] value = new byte[slab.getInt(offset + Integer.BYTES)];
+
+        slab.get(offset + ENTRY_HEADER_SIZE, key);
+        slab.get(offset + ENTRY_HEADER_SIZE + keyLength, value);
+
+        action.accept(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+    }
+
+    private boolean keyEquals(long address, byte[] keyBytes) {
+        ByteBuffer slab = slabs.get(slab(address));
+        int offset = offset(address);
+
+        if (slab.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+
+        int keyOffset = offset + ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (slab.get(keyOffset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long append(byte[] keyBytes, byte[] valueBytes) {
+        int entrySize = entrySize(keyBytes.length, valueBytes.length);
+
+        if (currentSlab == null || currentSlab.remaining() < entrySize) {
+            // Entries larger than a slab get a dedicated one.
+            currentSlab = ByteBuffer.allocateDirect(Math.max(slabSize, entrySize));
+
+            slabs.add(currentSlab);
+
+            allocatedBytes += currentSlab.capacity();
+        }
+
+        int offset = currentSlab.position();
+
+        currentSlab.putInt(keyBytes.length);
+        currentSlab.putInt(valueBytes.length);
+        currentSlab.put(keyBytes);
+        currentSlab.put(valueBytes);
+
+        liveBytes += entrySize;
+
+        return address(slabs.size() - 1, offset);
+    }
+
+    private void release(int entrySize) {
+        liveBytes -= entrySize;
+        garbageBytes += entrySize;
+    }
+
+    private void maybeCompact() {
+        if (garbageBytes > liveBytes && garbageBytes > slabSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Copies live entries to new slabs in index order, old slabs are freed once collected.
+     */
+    private void compact() {
+        List<ByteBuffer> oldSlabs = slabs;
+
+        slabs = new ArrayList<>();
+        currentSlab = null;
+
+        liveBytes = 0;
+        garbageBytes = 0;
+        allocatedBytes = 0;
+
+        for (int slot = 0; slot < addresses.length; slot++) {
+            long address = addresses[slot];
+
+            if (address == EMPTY) {
+                continue;
+            }
+
+            ByteBuffer slab = oldSlabs.get(slab(address));
+            int offset = offset(address);
+
+            byte[] key = new byte[slab.getInt(offset)];
+            byte[] value = new byte[slab.getInt(offset + Integer.BYTES)];
+
+            slab.get(offset + ENTRY_HEADER_SIZE, key);
+            slab.get(offset + ENTRY_HEADER_SIZE + key.length, value);
+
+            addresses[slot] = append(key, value);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+
+        initIndex(capacity);
+
+        int mask = capacity - 1;
+
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] == EMPTY) {
+                continue;
+            }
+
+            int slot = spread(oldHashes[i]) & mask;
+
+            while (addresses[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+
+            hashes[slot] = oldHashes[i];
+            addresses[slot] = oldAddresses[i];
+        }
+    }
+
+    private void initIndex(int capacity) {
+        hashes = new long[capacity];
+        addresses = new long[capacity];
+
+        Arrays.fill(addresses, EMPTY);
+    }
+
+    private static int spread(long hash) {
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    private static int entrySize(int keyLength, int valueLength) {
+        return ENTRY_HEADER_SIZE + keyLength + valueLength;
+    }
+
+    private static long address(int slab, int offset) {
+        return ((long)slab << 32) | offset;
+    }
+
+    private static int slab(long address) {
+        return (int)(address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int)address;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapShardStore{" +
+            "size=" + size +
+            ", allocatedBytes=" + allocatedBytes +
+            '}';
+    }
+}
@@ -0,0 +1,18 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.wal;
+
+public enum FsyncPolicy {
+    /**
+     * Write returns after its record is forced to disk. Concurrent writers share one fsync.
+     */
+    ALWAYS,
+
+    /**
+     * Records are written and forced in background every fsync interval. Up to one interval of writes can be lost on crash.
+     */
+    BATCH,
+
+    /**
+     * Records are written to OS page cache right away and never forced. Survives process crash, but not OS crash.
+     */
+    NONE
+}
@@ -0,0 +1,224 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.wal;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary layout of WAL and snapshot records.
+ * <p>
+ * Record: {@code [int bodyLength][int crc32c(body)][body]}, body: {@code [byte type][int keyLength][key][int valueLength][value]}.
+ * Strings are UTF-8, {@code valueLength} is -1 for records without value.
+ */
+public final class WalFormat {
+    public static final byte PUT = 1;
+
+    public static final byte DELETE = 2;
+
+    public static final byte CLEAR = 3;
+
+    public static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    // Protects from allocating huge arrays on garbage length.
+    private static final int MAX_BODY_SIZE = 1 << 30;
+
+    private WalFormat() {
+        // No-op.
+    }
+
+    public interface RecordHandler {
+        void onRecord(byte type, String key, String value);
+    }
+
+    /**
+     * Growable buffer of encoded records. Not thread-safe.
+     */
+    public static final class RecordBuffer {
+        private final CRC32C crc = new CRC32C();
+
+        private byte[] bytes;
+
+        private int size;
+
+        public RecordBuffer(int initialCapacity) {
+            this.bytes = new byte[initialCapacity];
+        }
+
+        public void add(byte type, String key, String value) {
+            byte[] keyBytes = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+
+            int bodyLength = 1 + lengthWithPrefix(keyBytes) + lengthWithPrefix(valueBytes);
+
+            ensureCapacity(HEADER_SIZE + bodyLength);
+
+            int recordStart = size;
+            int bodyStart = recordStart + HEADER_SIZE;
+
+            size = bodyStart;
+
+            bytes[size++] = type;
+            putBytes(keyBytes);
+            putBytes(valueBytes);
+
+            crc.reset();
+            crc.update(bytes, bodyStart, bodyLength);
+
+            putInt(recordStart, bodyLength);
+            putInt(recordStart + Integer.BYTES, (int)crc.getValue());
+        }
+
+        public byte[] array() {
+            return bytes;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void reset() {
+            size = 0;
+        }
+
+        private static int lengthWithPrefix(byte[] data) {
+            return Integer.BYTES + (data == null ? 0 : data.length);
+        }
+
+        private void putBytes(byte[] data) {
+            if (data == null) {
+                putInt(size, -1);
+                size += Integer.BYTES;
+
+                return;
+            }
+
+            putInt(size, data.length);
+            size += Integer.BYTES;
+
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        private void putInt(int position, int value) {
+            bytes[position] = (byte)(value >>> 24);
+            bytes[position + 1] = (byte)(value >>> 16);
+            bytes[position + 2] = (byte)(value >>> 8);
+            bytes[position + 3] = (byte)value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                int newCapacity = Math.max(bytes.length * 2, size + additional);
+
+                byte[] newBytes = new byte[newCapacity];
+
+                System.arraycopy(bytes, 0, newBytes, 0, size);
+
+                bytes = newBytes;
+            }
+        }
+    }
+
+    /**
+     * Result of reading a stream of records.
+     *
+     * @param validBytes length of the valid prefix of the stream
+     * @param records count of valid records
+     * @param clean {@code false} if stream ended with a torn body or a corrupted record
+     */
+    public record ReadResult(long validBytes, long records, boolean clean) {
+        // No-op.
+    }
+
+    /**
+     * Reads records until the end of stream or the first torn/corrupted record.
+     */
+    public static ReadResult read(InputStream input, RecordHandler handler) throws IOException {
+        var in = new DataInputStream(input);
+        var crc = new CRC32C();
+
+        long validBytes = 0;
+        long records = 0;
+
+        byte[] body = new byte[256];
+
+        while (true) {
+            int bodyLength;
+
+            try {
+                bodyLength = in.readInt();
+            } catch (EOFException e) {
+                // Torn header is not detected here, callers compare valid bytes with the stream size.
+                return new ReadResult(validBytes, records, true);
+            }
+
+            int expectedCrc;
+
+            try {
+                expectedCrc = in.readInt();
+
+                if (bodyLength <= 0 || bodyLength > MAX_BODY_SIZE) {
+                    return new ReadResult(validBytes, records, false);
+                }
+
+                if (body.length < bodyLength) {
+                    body = new byte[Math.max(bodyLength, body.length * 2)];
+                }
+
+                in.readFully(body, 0, bodyLength);
+            } catch (EOFException e) {
+                return new ReadResult(validBytes, records, false);
+            }
+
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+
+            if ((int)crc.getValue() != expectedCrc) {
+                return new ReadResult(validBytes, records, false);
+            }
+
+            decode(body, bodyLength, handler);
+
+            validBytes += HEADER_SIZE + bodyLength;
+            records++;
+        }
+    }
+
+    private static void decode(byte[] body, int bodyLength, RecordHandler handler) {
+        byte type = body[0];
+
+        int position = 1;
+
+        int keyLength = getInt(body, position);
+        position += Integer.BYTES;
+
+        String key = keyLength < 0 ? null : new String(body, position, keyLength, StandardCharsets.UTF_8);
+        position += Math.max(keyLength, 0);
+
+        int valueLength = getInt(body, position);
+        position += Integer.BYTES;
+
+        String value = valueLength < 0 ? null : new String(body, position, valueLength, StandardCharsets.UTF_8);
+        position += Math.max(valueLength, 0);
+
+        if (position != bodyLength) {
+            throw new IllegalStateException("Malformed record with valid checksum, type " + type);
+        }
+
+        handler.onRecord(type, key, value);
+    }
+
+    private static int getInt(byte[] data, int position) {
+        return ((data[position] & 0xFF) << 24)
+            | ((data[position + 1] & 0xFF) << 16)
+            | ((data[position + 2] & 0xFF) << 8)
+            | (data[position + 3] & 0xFF);
+    }
+}
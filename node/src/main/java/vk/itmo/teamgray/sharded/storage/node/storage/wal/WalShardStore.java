@@ -0,0 +1,340 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.wal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.HashOrderedMap;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+
+/**
+ * Shard store, that keeps all entries in memory and makes them durable with a write-ahead log and periodic snapshots.
+ * <p>
+ * Snapshot {@code snapshot-N.snap} contains state as of the moment WAL was rotated to segment {@code N}, recovery loads the latest
+ * snapshot and replays segments starting from {@code N}. Snapshot iteration is not blocking writers, as replaying segments on top of
+ * a weakly consistent copy gives the same final state.
+ */
+public class WalShardStore implements ShardStore {
+    private static final Logger log = LoggerFactory.getLogger(WalShardStore.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final long SNAPSHOT_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final String name;
+
+    private final Path dir;
+
+    private final long snapshotWalSize;
+
+    private final HashOrderedMap storage = new HashOrderedMap();
+
+    private final WriteAheadLog wal;
+
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    private final List<ScheduledFuture<?>> tasks;
+
+    public WalShardStore(String name, Path dir, StorageConfig config, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.dir = dir;
+        this.snapshotWalSize = config.snapshotWalSize();
+
+        try {
+            Files.createDirectories(dir);
+
+            long replayFrom = loadSnapshot();
+
+            this.wal = WriteAheadLog.open(dir, config.fsyncPolicy(), config.walSegmentSize(), replayFrom, this::applyRecord);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open shard store " + dir, e);
+        }
+
+        var snapshotTask = scheduler.scheduleWithFixedDelay(
+            this::snapshotIfNeeded,
+            SNAPSHOT_CHECK_INTERVAL_MILLIS,
+            SNAPSHOT_CHECK_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+
+        if (config.fsyncPolicy() == FsyncPolicy.BATCH) {
+            var flushTask = scheduler.scheduleWithFixedDelay(
+                this::flushQuietly,
+                config.fsyncIntervalMillis(),
+                config.fsyncIntervalMillis(),
+                TimeUnit.MILLISECONDS
+            );
+
+            this.tasks = List.of(snapshotTask, flushTask);
+        } else {
+            this.tasks = List.of(snapshotTask);
+        }
+
+        log.info("Opened shard store {} with {} entries", dir, storage.size());
+    }
+
+    @Override
+    public String get(String key) {
+        return storage.get(key, HashingUtils.calculate64BitHash(key));
+    }
+
+    @Override
+    public String get(String key, long hash) {
+        return storage.get(key, hash);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        put(key, HashingUtils.calculate64BitHash(key), value);
+    }
+
+    @Override
+    public void put(String key, long hash, String value) {
+        Objects.requireNonNull(value);
+
+        wal.commit(wal.append(WalFormat.PUT, key, value, () -> storage.put(key, hash, value)));
+    }
+
+    @Override
+    public void remove(String key) {
+        long hash = HashingUtils.calculate64BitHash(key);
+
+        wal.commit(wal.append(WalFormat.DELETE, key, null, () -> storage.remove(key, hash)));
+    }
+
+    @Override
+    public void clear() {
+        wal.commit(wal.append(WalFormat.CLEAR, null, null, storage::clear));
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        storage.forEach(action);
+    }
+
+    @Override
+    public void forEachInHashRange(long fromInclusive, long toExclusive, HashedEntryConsumer action) {
+        storage.forEachInHashRange(fromInclusive, toExclusive, action);
+    }
+
+    @Override
+    public long getBytesUsed() {
+        return -1;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void flush() {
+        wal.flush();
+    }
+
+    /**
+     * Writes snapshot of the current state and removes WAL segments it covers.
+     */
+    public void snapshot() {
+        snapshotLock.lock();
+
+        try {
+            long fromSegment = wal.rotate();
+
+            Path snapshotPath = snapshotPath(fromSegment);
+            Path tmpPath = dir.resolve(snapshotPath.getFileName() + TMP_SUFFIX);
+
+            var buffer = new WalFormat.RecordBuffer(64 * 1024);
+
+            try (var file = new FileOutputStream(tmpPath.toFile());
+                 var output = new BufferedOutputStream(file, 64 * 1024)) {
+
+                storage.forEach((key, value) -> {
+                    buffer.add(WalFormat.PUT, key, value);
+
+                    if (buffer.size() >= 32 * 1024) {
+                        writeBuffer(buffer, output);
+                    }
+                });
+
+                writeBuffer(buffer, output);
+
+                output.flush();
+                file.getChannel().force(true);
+            }
+
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+            WriteAheadLog.syncDirectory(dir);
+
+            for (long older : listSnapshots()) {
+                if (older < fromSegment) {
+                    Files.deleteIfExists(snapshotPath(older));
+                }
+            }
+
+            wal.deleteSegmentsBefore(fromSegment);
+
+            log.debug("Written snapshot {} of store {}", snapshotPath, name);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write snapshot of " + dir, e);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        tasks.forEach(it -> it.cancel(false));
+
+        // Waiting for a running snapshot to complete.
+        snapshotLock.lock();
+
+        try {
+            wal.close();
+        } finally {
+            snapshotLock.unlock();
+        }
+
+        log.info("Closed shard store {}", dir);
+    }
+
+    @Override
+    public void destroy() {
+        close();
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files
+                .sorted(Comparator.reverseOrder())
+                .forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete shard store " + dir, e);
+        }
+
+        log.info("Deleted shard store {}", dir);
+    }
+
+    private void snapshotIfNeeded() {
+        try {
+            if (wal.getBytesSinceRotation() >= snapshotWalSize) {
+                snapshot();
+            }
+        } catch (Exception e) {
+            log.error("Could not snapshot shard store {}", dir, e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            wal.flush();
+        } catch (Exception e) {
+            log.error("Could not flush WAL of shard store {}", dir, e);
+        }
+    }
+
+    /**
+     * @return segment to replay WAL from
+     */
+    private long loadSnapshot() throws IOException {
+        // Leftovers of a snapshot interrupted by crash.
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path tmp : files.filter(it -> it.getFileName().toString().endsWith(TMP_SUFFIX)).toList()) {
+                Files.delete(tmp);
+            }
+        }
+
+        List<Long> snapshots = listSnapshots();
+
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+
+        long latest = snapshots.getLast();
+        Path path = snapshotPath(latest);
+
+        WalFormat.ReadResult result;
+
+        try (var input = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            result = WalFormat.read(input, this::applyRecord);
+        }
+
+        // Snapshots are published atomically, so any damage here is not a torn write.
+        if (result.validBytes() != Files.size(path)) {
+            throw new IllegalStateException("Snapshot " + path + " is corrupted after " + result.records() + " records");
+        }
+
+        return latest;
+    }
+
+    private void applyRecord(byte type, String key, String value) {
+        switch (type) {
+            case WalFormat.PUT -> storage.put(key, HashingUtils.calculate64BitHash(key), value);
+            case WalFormat.DELETE -> storage.remove(key, HashingUtils.calculate64BitHash(key));
+            case WalFormat.CLEAR -> storage.clear();
+            default -> throw new IllegalStateException("Unknown WAL record type: " + type);
+        }
+    }
+
+    private Path snapshotPath(long segment) {
+        return dir.resolve(SNAPSHOT_PREFIX + String.format("%020d", segment) + SNAPSHOT_SUFFIX);
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .map(it -> it.getFileName().toString())
+                .filter(it -> it.startsWith(SNAPSHOT_PREFIX) && it.endsWith(SNAPSHOT_SUFFIX))
+                .map(it -> Long.parseLong(it.substring(SNAPSHOT_PREFIX.length(), it.length() - SNAPSHOT_SUFFIX.length())))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static void writeBuffer(WalFormat.RecordBuffer buffer, BufferedOutputStream output) {
+        try {
+            output.write(buffer.array(), 0, buffer.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        buffer.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "WalShardStore{" +
+            "name='" + name + '\'' +
+            ", size=" + storage.size() +
+            '}';
+    }
+}
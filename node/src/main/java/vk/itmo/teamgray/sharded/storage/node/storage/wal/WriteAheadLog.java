@@ -0,0 +1,389 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.wal;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only segmented log with group commit.
+ * <p>
+ * Writers encode records into a shared in-memory buffer under a short lock. Whoever syncs first becomes the leader: it writes the whole
+ * buffer and forces it with a single fsync, covering records of all writers that appended before it. Segments are rolled over by size and
+ * never appended to after reopening.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    // With batched fsync writers write out the buffer themselves past this size, so that it stays bounded when background flush lags.
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final Path dir;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long segmentSize;
+
+    // Guards pending buffer and appended sequence.
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // Guards channel, spare buffer and segment counters. Acquired before append lock, never after.
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private WalFormat.RecordBuffer pending = new WalFormat.RecordBuffer(INITIAL_BUFFER_SIZE);
+
+    private WalFormat.RecordBuffer spare = new WalFormat.RecordBuffer(INITIAL_BUFFER_SIZE);
+
+    private long appendedSeq;
+
+    private volatile int pendingBytes;
+
+    private volatile long writtenSeq;
+
+    private volatile long durableSeq;
+
+    private FileChannel channel;
+
+    private long segmentId;
+
+    private long segmentBytes;
+
+    private volatile long bytesSinceRotation;
+
+    private volatile boolean closed;
+
+    private WriteAheadLog(Path dir, FsyncPolicy fsyncPolicy, long segmentSize) {
+        this.dir = dir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays existing segments starting from {@code fromSegment} and opens a new segment for appends.
+     * A torn or corrupted record ends the replay, the log is truncated right before it.
+     */
+    public static WriteAheadLog open(
+        Path dir,
+        FsyncPolicy fsyncPolicy,
+        long segmentSize,
+        long fromSegment,
+        WalFormat.RecordHandler handler
+    ) throws IOException {
+        Files.createDirectories(dir);
+
+        var wal = new WriteAheadLog(dir, fsyncPolicy, segmentSize);
+
+        List<Long> segments = listSegments(dir);
+
+        long lastSegment = fromSegment - 1;
+        boolean corrupted = false;
+
+        for (long segment : segments) {
+            lastSegment = Math.max(lastSegment, segment);
+
+            Path path = segmentPath(dir, segment);
+
+            if (segment < fromSegment || corrupted) {
+                // Covered by snapshot or written after a corrupted record.
+                Files.delete(path);
+
+                continue;
+            }
+
+            long size = Files.size(path);
+
+            WalFormat.ReadResult result;
+
+            try (var input = new BufferedInputStream(Files.newInputStream(path), INITIAL_BUFFER_SIZE)) {
+                result = WalFormat.read(input, handler);
+            }
+
+            if (result.validBytes() < size) {
+                log.warn(
+                    "WAL segment {} has a torn tail, truncating from {} to {} bytes after {} records",
+                    path,
+                    size,
+                    result.validBytes(),
+                    result.records()
+                );
+
+                try (var truncated = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    truncated.truncate(result.validBytes());
+                    truncated.force(true);
+                }
+
+                corrupted = true;
+            }
+        }
+
+        wal.openSegment(lastSegment + 1);
+
+        return wal;
+    }
+
+    /**
+     * Appends record to the log and runs {@code apply} while holding the append lock, so that log order matches apply order.
+     *
+     * @return sequence number of the record to pass to {@link #commit(long)}
+     */
+    public long append(byte type, String key, String value, Runnable apply) {
+        appendLock.lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("WAL is closed: " + dir);
+            }
+
+            pending.add(type, key, value);
+
+            apply.run();
+
+            pendingBytes = pending.size();
+
+            return ++appendedSeq;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Makes record durable according to the fsync policy.
+     */
+    public void commit(long seq) {
+        switch (fsyncPolicy) {
+            case ALWAYS -> sync(seq, true);
+            case NONE -> sync(seq, false);
+            case BATCH -> {
+                // Background flush makes it durable.
+                if (pendingBytes >= MAX_PENDING_BYTES) {
+                    sync(seq, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far.
+     */
+    public void flush() {
+        sync(Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Flushes current segment and starts a new one.
+     *
+     * @return id of the new segment, all records appended after this call go to it or later segments
+     */
+    public long rotate() {
+        return rotate(null);
+    }
+
+    /**
+     * Same as {@link #rotate()}, runs {@code onSwitch} under the append lock exactly at the point, where records stop going to the
+     * current segment. Lets in-memory structures be switched consistently with the log.
+     */
+    public long rotate(Runnable onSwitch) {
+        syncLock.lock();
+
+        try {
+            flushLocked(true, onSwitch);
+
+            closeSegment();
+            openSegment(segmentId + 1);
+
+            bytesSinceRotation = 0;
+
+            return segmentId;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    public void deleteSegmentsBefore(long segment) {
+        try {
+            for (long existing : listSegments(dir)) {
+                if (existing < segment) {
+                    Files.deleteIfExists(segmentPath(dir, existing));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Bytes written since the last rotation, used to decide when to take a snapshot.
+     */
+    public long getBytesSinceRotation() {
+        return bytesSinceRotation;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    @Override
+    public void close() {
+        syncLock.lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+
+            flushLocked(true, null);
+
+            appendLock.lock();
+
+            try {
+                closed = true;
+            } finally {
+                appendLock.unlock();
+            }
+
+            closeSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void sync(long seq, boolean force) {
+        // Fast path, another leader already covered this record.
+        if ((force ? durableSeq : writtenSeq) >= seq) {
+            return;
+        }
+
+        syncLock.lock();
+
+        try {
+            if ((force ? durableSeq : writtenSeq) >= seq || closed) {
+                return;
+            }
+
+            flushLocked(force, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void flushLocked(boolean force, Runnable onSwap) throws IOException {
+        WalFormat.RecordBuffer toWrite;
+        long upTo;
+
+        appendLock.lock();
+
+        try {
+            if (onSwap != null) {
+                onSwap.run();
+            }
+
+            toWrite = pending;
+            pending = spare;
+            spare = toWrite;
+
+            upTo = appendedSeq;
+
+            pendingBytes = 0;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (!toWrite.isEmpty()) {
+            var buffer = ByteBuffer.wrap(toWrite.array(), 0, toWrite.size());
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            segmentBytes += toWrite.size();
+            bytesSinceRotation += toWrite.size();
+
+            toWrite.reset();
+        }
+
+        writtenSeq = upTo;
+
+        if (force && durableSeq < upTo) {
+            channel.force(false);
+
+            durableSeq = upTo;
+        }
+
+        if (segmentBytes >= segmentSize) {
+            if (!force) {
+                channel.force(false);
+            }
+
+            closeSegment();
+            openSegment(segmentId + 1);
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        segmentId = id;
+        segmentBytes = 0;
+
+        channel = FileChannel.open(
+            segmentPath(dir, id),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE
+        );
+
+        syncDirectory(dir);
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static Path segmentPath(Path dir, long id) {
+        return dir.resolve(SEGMENT_PREFIX + String.format("%020d", id) + SEGMENT_SUFFIX);
+    }
+
+    private static List<Long> listSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .map(it -> it.getFileName().toString())
+                .filter(it -> it.startsWith(SEGMENT_PREFIX) && it.endsWith(SEGMENT_SUFFIX))
+                .map(it -> Long.parseLong(it.substring(SEGMENT_PREFIX.length(), it.length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .toList();
+        }
+    }
+
+    /**
+     * Makes file creation, rename and deletion in the directory durable. Not supported on some platforms, which is ignored.
+     */
+    public static void syncDirectory(Path dir) {
+        try (var directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync directory {}: {}", dir, e.getMessage());
+        }
+    }
+}
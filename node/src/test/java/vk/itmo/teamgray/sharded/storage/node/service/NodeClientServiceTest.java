@@ -1,23 +1,38 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.GetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.OwnerHintDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
 import vk.itmo.teamgray.sharded.storage.common.enums.GetStatus;
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
 import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
 import vk.itmo.teamgray.sharded.storage.node.exception.ShardNotExistsException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static vk.itmo.teamgray.sharded.storage.node.service.NodeClientService.GetResponseWriter.toDto;
 
 class NodeClientServiceTest {
     private NodeStorageService nodeStorageService = mock();
 
-    private NodeClientService nodeClientService = new NodeClientService(nodeStorageService);
+    private NodeTopology nodeTopology = new NodeTopology();
+
+    private NodeClientService nodeClientService =
+        new NodeClientService(nodeStorageService, nodeTopology, new ReplicationService(0, nodeStorageService, mock()));
 
     private final String testKey = "testKey";
 
@@ -30,7 +45,7 @@ class NodeClientServiceTest {
         SetResponseDTO expected = new SetResponseDTO(SetStatus.SUCCESS, "OK", 1);
         when(nodeStorageService.set(testKey, testValue, testTimestamp)).thenReturn(expected);
 
-        SetResponseDTO result = nodeClientService.setKey(testKey, testValue, testTimestamp);
+        SetResponseDTO result = nodeClientService.setKey(testKey, testValue, testTimestamp, 0);
 
         assertThat(result).isEqualTo(expected);
     }
@@ -40,16 +55,78 @@ class NodeClientServiceTest {
         when(nodeStorageService.set(testKey, testValue, testTimestamp))
             .thenThrow(new NodeException("error"));
 
-        SetResponseDTO result = nodeClientService.setKey(testKey, testValue, testTimestamp);
+        SetResponseDTO result = nodeClientService.setKey(testKey, testValue, testTimestamp, 0);
 
         assertThat(result.status()).isEqualTo(SetStatus.ERROR);
     }
 
+    @Test
+    void setOnWrongNode() throws NodeException {
+        when(nodeStorageService.set(testKey, testValue, testTimestamp))
+            .thenThrow(new ShardNotExistsException("error"));
+
+        SetResponseDTO result = nodeClientService.setKey(testKey, testValue, testTimestamp, 0);
+
+        assertThat(result.status()).isEqualTo(SetStatus.WRONG_NODE);
+    }
+
+    @Test
+    void multiSetReturnsResultPerKey() throws NodeException {
+        when(nodeStorageService.set("key1", "value1", testTimestamp))
+            .thenReturn(new SetResponseDTO(SetStatus.SUCCESS, "OK"));
+        when(nodeStorageService.set("key2", "value2", testTimestamp))
+            .thenReturn(new SetResponseDTO(SetStatus.TRANSFER, "Transfer", 2));
+        when(nodeStorageService.set("key3", "value3", testTimestamp))
+            .thenThrow(new ShardNotExistsException("error"));
+
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("key1", "value1");
+        entries.put("key2", "value2");
+        entries.put("key3", "value3");
+
+        Map<String, SetResponseDTO> results = nodeClientService.multiSet(entries, testTimestamp, 0);
+
+        assertThat(results.keySet()).containsExactly("key1", "key2", "key3");
+        assertThat(results.get("key1").status()).isEqualTo(SetStatus.SUCCESS);
+        assertThat(results.get("key2").status()).isEqualTo(SetStatus.TRANSFER);
+        assertThat(results.get("key2").newNodeId()).isEqualTo(2);
+        assertThat(results.get("key3").status()).isEqualTo(SetStatus.WRONG_NODE);
+    }
+
+    @Test
+    void multiSetAppliesAllEntriesAtOnce() throws NodeException {
+        var entries = Map.of("key1", "value1", "key2", "value2");
+
+        when(nodeStorageService.trySetAll(entries)).thenReturn(true);
+
+        Map<String, SetResponseDTO> results = nodeClientService.multiSet(entries, testTimestamp, 0);
+
+        assertThat(results.keySet()).containsExactlyInAnyOrder("key1", "key2");
+        assertThat(results.values()).allMatch(result -> result.status() == SetStatus.SUCCESS);
+
+        verify(nodeStorageService, never()).set(any(), any(), any());
+    }
+
+    @Test
+    void multiGetReturnsResultPerKey() throws NodeException {
+        when(nodeStorageService.get("key1")).thenReturn("value1");
+        when(nodeStorageService.get("key2")).thenThrow(new ShardNotExistsException("error"));
+        when(nodeStorageService.get("key3")).thenReturn(null);
+
+        Map<String, GetResponseDTO> results = nodeClientService.multiGet(List.of("key1", "key2", "key3"), 0, ReadBoundsDTO.NONE);
+
+        assertThat(results).containsExactly(
+            entry("key1", new GetResponseDTO(GetStatus.SUCCESS, "value1")),
+            entry("key2", new GetResponseDTO(GetStatus.WRONG_NODE, "Error while getting by key=[key2]")),
+            entry("key3", new GetResponseDTO(GetStatus.SUCCESS, null))
+        );
+    }
+
     @Test
     void successfulGet() throws NodeException {
         when(nodeStorageService.get(testKey)).thenReturn(testValue);
 
-        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, rw));
+        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, 0, ReadBoundsDTO.NONE, rw));
 
         assertThat(dto.status()).isEqualTo(GetStatus.SUCCESS);
         assertThat(dto.value()).isEqualTo(testValue);
@@ -60,7 +137,7 @@ class NodeClientServiceTest {
         when(nodeStorageService.get(testKey))
             .thenThrow(new ShardNotExistsException("error"));
 
-        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, rw));
+        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, 0, ReadBoundsDTO.NONE, rw));
 
         assertThat(dto.status()).isEqualTo(GetStatus.WRONG_NODE);
     }
@@ -70,8 +147,32 @@ class NodeClientServiceTest {
         when(nodeStorageService.get(testKey))
             .thenThrow(new NodeException("error"));
 
-        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, rw));
+        GetResponseDTO dto = toDto(rw -> nodeClientService.getKey(testKey, 0, ReadBoundsDTO.NONE, rw));
 
         assertThat(dto.status()).isEqualTo(GetStatus.ERROR);
     }
+
+    @Test
+    void wrongNodeAnswersOwnerFromNewerTopology() throws NodeException {
+        var owner = new DiscoverableServiceDTO(2, DiscoverableServiceType.NODE, "host2", null);
+
+        nodeTopology.update(new TopologyDTO(3, Map.of(0, Long.MAX_VALUE), Map.of(0, 2), Map.of(2, owner)));
+
+        // Older topology is ignored.
+        assertThat(nodeTopology.update(new TopologyDTO(2, Map.of(), Map.of(), Map.of()))).isFalse();
+
+        when(nodeStorageService.set(testKey, testValue, testTimestamp))
+            .thenThrow(new ShardNotExistsException("error"));
+        when(nodeStorageService.get(testKey))
+            .thenThrow(new ShardNotExistsException("error"));
+
+        assertThat(nodeClientService.setKey(testKey, testValue, testTimestamp, 2).ownerHint())
+            .isEqualTo(new OwnerHintDTO(3, 0, 1, owner));
+        assertThat(toDto(rw -> nodeClientService.getKey(testKey, 1, ReadBoundsDTO.NONE, rw)).ownerHint())
+            .isEqualTo(new OwnerHintDTO(3, 0, 1, owner));
+
+        // Client already routes with the same topology, nothing newer to tell.
+        assertThat(nodeClientService.setKey(testKey, testValue, testTimestamp, 3).ownerHint()).isNull();
+        assertThat(toDto(rw -> nodeClientService.getKey(testKey, 3, ReadBoundsDTO.NONE, rw)).ownerHint()).isNull();
+    }
 }
@@ -1,15 +1,25 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
@@ -17,21 +27,30 @@ import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableService
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SendShardTaskDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
 import vk.itmo.teamgray.sharded.storage.common.node.Action;
+import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.shardfile.ShardFile;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.node.client.NodeNodeClient;
+import vk.itmo.teamgray.sharded.storage.node.client.ShardEntriesStream;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -49,7 +68,7 @@ public class NodeManagementServiceTest {
     @BeforeEach
     public void setUp() {
         nodeStorageService = new NodeStorageService();
-        service = new NodeManagementService(nodeStorageService, discoveryClient, clientCachingFactory);
+        service = new NodeManagementService(nodeStorageService, discoveryClient, clientCachingFactory, new NodeTopology());
     }
 
     @Test
@@ -95,6 +114,45 @@ public class NodeManagementServiceTest {
         assertEquals(shardToHash.size(), nodeStorageService.getStagedShards().getFullShardCount());
     }
 
+    @Test
+    public void testPrepareRearrangeReusesShardsOutsideOfChange() {
+        var boundaries = ShardBoundaries.even(2);
+
+        ShardData keptShard = new ShardData();
+        ShardData splitShard = new ShardData();
+
+        nodeStorageService.stageShards(new ConcurrentHashMap<>(Map.of(0, keptShard, 1, splitShard)), boundaries);
+        nodeStorageService.swapWithStaged();
+
+        // Shard 1 keeps the lower half of its range, shard 2 gets the upper one.
+        long atHash = boundaries.upperBoundAt(0) + 1000;
+
+        Map<Integer, Long> slice = Map.of(1, atHash, 2, Long.MAX_VALUE);
+
+        StatusResponseDTO response = new StatusResponseDTO();
+
+        service.prepareRearrange(
+            List.of(
+                new FragmentDTO(1, 1, boundaries.upperBoundAt(0), atHash),
+                new FragmentDTO(1, 2, atHash, Long.MAX_VALUE)
+            ),
+            Map.of(1, 1, 2, 1),
+            slice,
+            ShardBoundaries.fromShardToHash(Map.of(0, boundaries.upperBoundAt(0), 1, atHash, 2, Long.MAX_VALUE)),
+            (success, message) -> {
+                response.setSuccess(success);
+                response.setMessage(message);
+            });
+
+        assertTrue(response.isSuccess(), response.getMessage());
+
+        var stagedShards = nodeStorageService.getStagedShards().getShardMap();
+
+        assertEquals(Set.of(0, 1, 2), stagedShards.keySet());
+        assertSame(keptShard, stagedShards.get(0));
+        assertNotSame(splitShard, stagedShards.get(1));
+    }
+
     @Test
     public void testProcessRearrangeWithLocalFragments() {
         Map<Integer, Long> shardToHash = Map.of(1, 1000L);
@@ -121,7 +179,7 @@ public class NodeManagementServiceTest {
             });
 
         assertTrue(response.isSuccess());
-        assertEquals(2, nodeStorageService.getStagedShards().getShardMap().get(1).getStorage().size());
+        assertEquals(2, nodeStorageService.getStagedShards().getShardMap().get(1).size());
     }
 
     @Test
@@ -157,7 +215,7 @@ public class NodeManagementServiceTest {
         assertTrue(response.isSuccess());
         assertEquals(1, nodeStorageService.getShards().getShardMap().size());
         assertTrue(nodeStorageService.getShards().getShardMap().containsKey(1));
-        assertEquals(2, nodeStorageService.getShards().getShardMap().get(1).getStorage().size());
+        assertEquals(2, nodeStorageService.getShards().getShardMap().get(1).size());
         assertNull(nodeStorageService.getStagedShards());
     }
 
@@ -379,7 +437,7 @@ public class NodeManagementServiceTest {
     }
 
     @Test
-    public void testProcessMoveDoNothingIfShardDoesNotExist() {
+    public void testProcessMoveFailsIfShardDoesNotExist() {
         // some target node exists
         when(discoveryClient.getNode(anyInt())).thenReturn(mock());
 
@@ -406,7 +464,8 @@ public class NodeManagementServiceTest {
 
         // no interactions with clientCachingFactory for sending shards
         verifyNoInteractions(clientCachingFactory);
-        assertTrue(processResponse.isSuccess());
+        assertFalse(processResponse.isSuccess());
+        assertEquals(NodeState.MOVE_SHARDS_PROCESSING, nodeStorageService.getState());
     }
 
     @Test
@@ -428,7 +487,9 @@ public class NodeManagementServiceTest {
         NodeNodeClient nodeClient = mock();
         when(clientCachingFactory.getClient(argThat(it -> it.id() == externalNodeId), eq(NodeNodeClient.class)))
             .thenReturn(nodeClient);
-        when(nodeClient.sendShardEntries(anyList(), any())).thenReturn(new StatusResponseDTO(true, ""));
+        ShardEntriesStream stream = mock();
+        when(nodeClient.openShardEntriesStream(Action.REARRANGE_SHARDS)).thenReturn(stream);
+        when(stream.complete()).thenReturn(new StatusResponseDTO(true, ""));
 
         StatusResponseDTO prepareResponse = new StatusResponseDTO();
         service.prepareRearrange(
@@ -455,13 +516,255 @@ public class NodeManagementServiceTest {
             });
 
         assertTrue(processResponse.isSuccess());
-        verify(nodeClient).sendShardEntries(
+        verify(stream).send(
             argThat(list -> {
                 SendShardDTO first = list.getFirst();
 
                 return first.shardId() == 2 && first.entries().size() == 2;
-            }),
-            eq(Action.REARRANGE_SHARDS)
+            })
+        );
+        verify(stream).complete();
+    }
+
+    @Test
+    void processMoveSendsToTargetServersConcurrently() {
+        CyclicBarrier bothSending = new CyclicBarrier(2);
+
+        ShardEntriesStream stream2 = mockTargetServer(2);
+        ShardEntriesStream stream3 = mockTargetServer(3);
+
+        // Each send waits for the other target, so sequential transfers would time out.
+        doAnswer(invocation -> bothSending.await(5, TimeUnit.SECONDS)).when(stream2).send(anyList());
+        doAnswer(invocation -> bothSending.await(5, TimeUnit.SECONDS)).when(stream3).send(anyList());
+
+        StatusResponseDTO processResponse = prepareAndProcessMoveToServers2And3();
+
+        assertTrue(processResponse.isSuccess(), processResponse.getMessage());
+        verify(stream2).complete();
+        verify(stream3).complete();
+    }
+
+    @Test
+    void processMoveFailsIfAnyTargetServerFails() {
+        mockTargetServer(2);
+        ShardEntriesStream failing = mockTargetServer(3);
+
+        when(failing.complete()).thenReturn(new StatusResponseDTO(false, "Staged shard 2 does not exist"));
+
+        StatusResponseDTO processResponse = prepareAndProcessMoveToServers2And3();
+
+        assertFalse(processResponse.isSuccess());
+        assertTrue(processResponse.getMessage().contains("Staged shard 2 does not exist"));
+        assertEquals(NodeState.MOVE_SHARDS_PROCESSING, nodeStorageService.getState());
+    }
+
+    @Test
+    void processMoveFailsOnceBeforeAnyTransferIfShardIsAbsent() {
+        ShardEntriesStream stream2 = mockTargetServer(2);
+        ShardEntriesStream stream3 = mockTargetServer(3);
+
+        nodeStorageService.getShards().getShardMap().put(1, new ShardData());
+        nodeStorageService.getShards().getShardMap().get(1).addToStorage("key1", "value1");
+
+        StatusResponseDTO prepareResponse = new StatusResponseDTO();
+
+        // Shard 2 is not on this node.
+        service.prepareMove(
+            List.of(),
+            List.of(new SendShardTaskDTO(1, 2), new SendShardTaskDTO(2, 3)),
+            2,
+            (success, message) -> {
+                prepareResponse.setSuccess(success);
+                prepareResponse.setMessage(message);
+            }
+        );
+
+        assertTrue(prepareResponse.isSuccess(), prepareResponse.getMessage());
+
+        List<StatusResponseDTO> processResponses = new ArrayList<>();
+
+        service.processAction(
+            Action.MOVE_SHARDS,
+            (success, message) -> processResponses.add(new StatusResponseDTO(success, message))
         );
+
+        assertEquals(1, processResponses.size());
+        assertFalse(processResponses.getFirst().isSuccess());
+        assertTrue(processResponses.getFirst().getMessage().contains("Shards [2] not found in this node"));
+        verifyNoInteractions(stream2, stream3);
+    }
+
+    @Test
+    void writeToMovedShardDuringMoveReachesReceiver() {
+        var receiverStorage = new NodeStorageService();
+        var receiver = new NodeManagementService(receiverStorage, discoveryClient, clientCachingFactory, new NodeTopology());
+        var receiverEntries = new NodeNodeService(receiverStorage, new ReplicationService(0, receiverStorage, mock()))
+            .receiveShardEntries();
+
+        ShardEntriesStream stream = mockTargetServer(2);
+
+        String key = IntStream.range(0, 1000)
+            .mapToObj(i -> "key" + i)
+            .filter(it -> ShardBoundaries.even(2).shardIdForKey(it) == 1)
+            .findFirst()
+            .orElseThrow();
+
+        nodeStorageService.changeState(nodeStorageService.getState(), NodeState.RUNNING);
+        nodeStorageService.stageShards(new ConcurrentHashMap<>(Map.of(0, new ShardData(), 1, new ShardData())), 2);
+        nodeStorageService.swapWithStaged();
+        nodeStorageService.set(key, "copied", Instant.now());
+
+        receiverStorage.changeState(receiverStorage.getState(), NodeState.RUNNING);
+
+        List<SetResponseDTO> senderResponses = new ArrayList<>();
+
+        doAnswer(invocation -> {
+            receiverEntries.accept(Action.MOVE_SHARDS, invocation.getArgument(0));
+
+            return null;
+        }).when(stream).send(anyList());
+
+        when(stream.complete()).thenAnswer(invocation -> {
+            // Client writes to the sender after the shard was scanned, and follows the transfer to the receiver.
+            SetResponseDTO response = nodeStorageService.set(key, "written", Instant.now());
+
+            senderResponses.add(response);
+
+            if (response.status() == SetStatus.TRANSFER) {
+                receiverStorage.set(key, "written", Instant.now());
+            }
+
+            return new StatusResponseDTO(true, "");
+        });
+
+        receiver.prepareMove(List.of(1), List.of(), 2, (success, message) -> assertTrue(success, message));
+        service.prepareMove(List.of(), List.of(new SendShardTaskDTO(1, 2)), 2, (success, message) -> assertTrue(success, message));
+
+        service.processAction(Action.MOVE_SHARDS, (success, message) -> assertTrue(success, message));
+        receiver.processAction(Action.MOVE_SHARDS, (success, message) -> assertTrue(success, message));
+
+        service.applyAction(Action.MOVE_SHARDS, (success, message) -> assertTrue(success, message));
+        receiver.applyAction(Action.MOVE_SHARDS, (success, message) -> assertTrue(success, message));
+
+        assertEquals(SetStatus.TRANSFER, senderResponses.getFirst().status());
+        assertEquals(2, senderResponses.getFirst().newNodeId());
+        assertEquals("written", receiverStorage.get(key));
+
+        // Sender does not keep a copy of the moved shard.
+        assertFalse(nodeStorageService.getShards().containsShard(1));
+    }
+
+    private ShardEntriesStream mockTargetServer(int serverId) {
+        when(discoveryClient.getNode(serverId))
+            .thenReturn(new DiscoverableServiceDTO(serverId, DiscoverableServiceType.NODE, "test", "test"));
+
+        NodeNodeClient nodeClient = mock();
+        ShardEntriesStream stream = mock();
+
+        when(clientCachingFactory.getClient(argThat(it -> it != null && it.id() == serverId), eq(NodeNodeClient.class)))
+            .thenReturn(nodeClient);
+        when(nodeClient.openShardEntriesStream(Action.MOVE_SHARDS)).thenReturn(stream);
+        when(stream.complete()).thenReturn(new StatusResponseDTO(true, ""));
+
+        return stream;
+    }
+
+    private StatusResponseDTO prepareAndProcessMoveToServers2And3() {
+        nodeStorageService.getShards().getShardMap().put(1, new ShardData());
+        nodeStorageService.getShards().getShardMap().put(2, new ShardData());
+        nodeStorageService.getShards().getShardMap().get(1).addToStorage("key1", "value1");
+        nodeStorageService.getShards().getShardMap().get(2).addToStorage("key2", "value2");
+
+        StatusResponseDTO prepareResponse = new StatusResponseDTO();
+        StatusResponseDTO processResponse = new StatusResponseDTO();
+
+        service.prepareMove(
+            List.of(),
+            List.of(new SendShardTaskDTO(1, 2), new SendShardTaskDTO(2, 3)),
+            2,
+            (success, message) -> {
+                prepareResponse.setSuccess(success);
+                prepareResponse.setMessage(message);
+            }
+        );
+
+        assertTrue(prepareResponse.isSuccess(), prepareResponse.getMessage());
+
+        service.processAction(
+            Action.MOVE_SHARDS,
+            (success, message) -> {
+                processResponse.setSuccess(success);
+                processResponse.setMessage(message);
+            });
+
+        return processResponse;
+    }
+
+    @Test
+    public void testIngestShardFileReplacesExistingEntries(@TempDir Path dir) throws IOException {
+        nodeStorageService.getShards().setFullShardCount(2);
+        nodeStorageService.getShards().getShardMap().put(0, new ShardData());
+        nodeStorageService.getShards().getShardMap().put(1, new ShardData());
+
+        var boundaries = nodeStorageService.getShards().getBoundaries();
+
+        List<String> keys = IntStream.range(0, 1000)
+            .mapToObj(i -> "key" + i)
+            .filter(key -> boundaries.shardIdForKey(key) == 0)
+            .sorted(Comparator.comparingLong(HashingUtils::calculate64BitHash).thenComparing(Comparator.naturalOrder()))
+            .toList();
+
+        nodeStorageService.getShards().getShardMap().get(0).addToStorage(keys.getFirst(), "older");
+        nodeStorageService.getShards().getShardMap().get(0).addToStorage(keys.getLast(), "existing");
+
+        Path file = dir.resolve(ShardFile.fileName(0));
+
+        try (var writer = new ShardFile.Writer(file, 0)) {
+            for (String key : keys.subList(0, keys.size() - 1)) {
+                writer.append(HashingUtils.calculate64BitHash(key), key, "value-" + key);
+            }
+        }
+
+        StatusResponseDTO response = new StatusResponseDTO();
+
+        service.ingestShardFile(0, file.toString(), (success, message) -> {
+            response.setSuccess(success);
+            response.setMessage(message);
+        });
+
+        assertTrue(response.isSuccess(), response.getMessage());
+        assertEquals(keys.size(), nodeStorageService.getShards().getShardMap().get(0).size());
+        assertEquals("value-" + keys.getFirst(), nodeStorageService.get(keys.getFirst()));
+        assertEquals("existing", nodeStorageService.get(keys.getLast()));
+    }
+
+    @Test
+    public void testIngestShardFileRejectsKeysOfOtherShard(@TempDir Path dir) throws IOException {
+        nodeStorageService.getShards().setFullShardCount(2);
+        nodeStorageService.getShards().getShardMap().put(0, new ShardData());
+
+        ShardData existing = nodeStorageService.getShards().getShardMap().get(0);
+
+        String key = IntStream.range(0, 1000)
+            .mapToObj(i -> "key" + i)
+            .filter(k -> nodeStorageService.getShards().getBoundaries().shardIdForKey(k) == 1)
+            .findFirst()
+            .orElseThrow();
+
+        Path file = dir.resolve(ShardFile.fileName(0));
+
+        try (var writer = new ShardFile.Writer(file, 0)) {
+            writer.append(HashingUtils.calculate64BitHash(key), key, "value");
+        }
+
+        StatusResponseDTO response = new StatusResponseDTO();
+
+        service.ingestShardFile(0, file.toString(), (success, message) -> {
+            response.setSuccess(success);
+            response.setMessage(message);
+        });
+
+        assertFalse(response.isSuccess());
+        assertSame(existing, nodeStorageService.getShards().getShardMap().get(0));
     }
 }
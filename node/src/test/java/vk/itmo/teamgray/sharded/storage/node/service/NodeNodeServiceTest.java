@@ -14,7 +14,9 @@ import vk.itmo.teamgray.sharded.storage.common.utils.ShardUtils;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
 import static vk.itmo.teamgray.sharded.storage.common.responsewriter.StatusResponseWriter.Helper.toDto;
 
 public class NodeNodeServiceTest {
@@ -37,7 +39,7 @@ public class NodeNodeServiceTest {
         nodeStorageService.stageShards(shards, shardCount);
         nodeStorageService.swapWithStaged();
 
-        nodeNodeService = new NodeNodeService(nodeStorageService);
+        nodeNodeService = new NodeNodeService(nodeStorageService, new ReplicationService(0, nodeStorageService, mock()));
     }
 
     @Test
@@ -97,4 +99,34 @@ public class NodeNodeServiceTest {
         assertEquals("valA", nodeStorageService.getStagedShards().getShardMap().get(shardId1).getValue("keyA"));
         assertEquals("valB", nodeStorageService.getStagedShards().getShardMap().get(shardId2).getValue("keyB"));
     }
+
+    @Test
+    public void receiveShardEntries_shouldApplyChunksAsTheyArriveAndReportErrorsOnComplete() {
+        Map<Integer, ShardData> stagedShards = IntStream.range(0, shardCount)
+            .boxed()
+            .collect(Collectors.toMap(
+                it -> it,
+                it -> new ShardData()
+            ));
+        nodeStorageService.stageShards(stagedShards, shardCount);
+
+        String key = "key6";
+        int shardId = Objects.requireNonNull(ShardUtils.getShardIdForKey(key, shardCount));
+
+        var receiver = nodeNodeService.receiveShardEntries();
+
+        receiver.accept(Action.MOVE_SHARDS, List.of(new SendShardDTO(shardId, Map.of(key, "first"))));
+
+        // Applied before the stream is completed.
+        assertEquals("first", nodeStorageService.getStagedShards().getShardMap().get(shardId).getValue(key));
+
+        receiver.accept(Action.MOVE_SHARDS, List.of(new SendShardDTO(99, Map.of("keyX", "valX"))));
+        receiver.accept(Action.MOVE_SHARDS, List.of(new SendShardDTO(shardId, Map.of(key, "second"))));
+
+        var response = toDto(receiver::complete);
+
+        assertFalse(response.isSuccess());
+        assertTrue(response.getMessage().contains("Staged shard 99 does not exist"));
+        assertEquals("second", nodeStorageService.getStagedShards().getShardMap().get(shardId).getValue(key));
+    }
 }
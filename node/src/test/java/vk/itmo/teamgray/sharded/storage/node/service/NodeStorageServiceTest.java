@@ -1,23 +1,36 @@
 package vk.itmo.teamgray.sharded.storage.node.service;
 
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import vk.itmo.teamgray.sharded.storage.common.dto.FragmentDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.NodeStatusResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.dto.SetResponseDTO;
 import vk.itmo.teamgray.sharded.storage.common.enums.SetStatus;
 import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
 import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
 import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.InMemoryShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStoreFactory;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageEngine;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class NodeStorageServiceTest {
     private final NodeStorageService service = new NodeStorageService();
@@ -93,18 +106,85 @@ class NodeStorageServiceTest {
     }
 
     @Test
-    void setQueuesForStagedShards() {
+    void setWritesToStagedShards() {
         service.changeState(NodeState.INIT, NodeState.MOVE_SHARDS_PREPARING);
 
         service.stageShards(service.getShards().getShardMap(), service.getShards().getFullShardCount());
 
         service.changeState(NodeState.MOVE_SHARDS_PREPARING, NodeState.MOVE_SHARDS_PREPARED);
         service.changeState(NodeState.MOVE_SHARDS_PREPARED, NodeState.MOVE_SHARDS_PROCESSING);
-        service.stageShards(Map.of(0, new ShardData()), 1);
+
+        ShardData receivedShard = new ShardData();
+
+        service.stageShards(Map.of(0, receivedShard), 1);
 
         SetResponseDTO response = service.set(testKey, testValue, testTimestamp);
 
-        assertThat(response.status()).isEqualTo(SetStatus.QUEUED);
+        assertThat(response.status()).isEqualTo(SetStatus.SUCCESS);
+        assertEquals(testValue, receivedShard.getValue(testKey));
+
+        // Entry copied from the previous owner is older than the written one.
+        receivedShard.addCopied(testKey, HashingUtils.calculate64BitHash(testKey), "copied");
+
+        assertEquals(testValue, receivedShard.getValue(testKey));
+    }
+
+    @Test
+    void setKeepsLatestWriteByTimestampInStagedShards() {
+        service.changeState(NodeState.INIT, NodeState.MOVE_SHARDS_PREPARING);
+
+        service.stageShards(service.getShards().getShardMap(), service.getShards().getFullShardCount());
+
+        service.changeState(NodeState.MOVE_SHARDS_PREPARING, NodeState.MOVE_SHARDS_PREPARED);
+        service.changeState(NodeState.MOVE_SHARDS_PREPARED, NodeState.MOVE_SHARDS_PROCESSING);
+
+        ShardData receivedShard = new ShardData();
+
+        service.stageShards(Map.of(0, receivedShard), 1);
+
+        // Redirected writes arrive in reverse order.
+        service.set(testKey, "later", testTimestamp.plusMillis(1));
+        service.set(testKey, "earlier", testTimestamp);
+
+        assertEquals("later", receivedShard.getValue(testKey));
+
+        receivedShard.addCopied(testKey, HashingUtils.calculate64BitHash(testKey), "copied");
+
+        assertEquals("later", receivedShard.getValue(testKey));
+
+        // Once swapped in, the shard takes copies as they are.
+        service.swapWithStaged();
+
+        receivedShard.addCopied("other", HashingUtils.calculate64BitHash("other"), "copied");
+
+        assertEquals("copied", receivedShard.getValue("other"));
+    }
+
+    @Test
+    void setWritesThroughCurrentShardDuringChange() {
+        ShardData currentShard = new ShardData();
+        ShardData stagedShard = new ShardData();
+
+        service.stageShards(new ConcurrentHashMap<>(Map.of(0, currentShard)), 1);
+        service.swapWithStaged();
+
+        service.changeState(NodeState.INIT, NodeState.REARRANGE_SHARDS_PREPARING);
+        service.prepareDataForResharding(
+            List.of(new FragmentDTO(0, 0, Long.MIN_VALUE, Long.MAX_VALUE)),
+            Map.of(),
+            new ConcurrentHashMap<>(Map.of(0, stagedShard)),
+            ShardBoundaries.even(1)
+        );
+        service.changeState(NodeState.REARRANGE_SHARDS_PREPARING, NodeState.REARRANGE_SHARDS_PREPARED);
+        service.changeState(NodeState.REARRANGE_SHARDS_PREPARED, NodeState.REARRANGE_SHARDS_PROCESSING);
+
+        SetResponseDTO response = service.set(testKey, testValue, testTimestamp);
+
+        assertThat(response.status()).isEqualTo(SetStatus.SUCCESS);
+
+        // Rollback keeps the current shard, apply swaps in the staged one, nothing is replayed in either case.
+        assertEquals(testValue, currentShard.getValue(testKey));
+        assertEquals(testValue, stagedShard.getValue(testKey));
     }
 
     @Test
@@ -118,7 +198,7 @@ class NodeStorageServiceTest {
             List.of(new FragmentDTO(0, 1, 0L, Long.MAX_VALUE)),
             Map.of(1, 3), // Shard 1 -> Node 3
             stagedShards,
-            2);
+            ShardBoundaries.even(2));
         service.changeState(NodeState.REARRANGE_SHARDS_PREPARING, NodeState.REARRANGE_SHARDS_PREPARED);
         service.changeState(NodeState.REARRANGE_SHARDS_PREPARED, NodeState.REARRANGE_SHARDS_PROCESSING);
 
@@ -128,6 +208,105 @@ class NodeStorageServiceTest {
         assertThat(response.newNodeId()).isEqualTo(3);
     }
 
+    @Test
+    void setDuringShardSwapIsKeptOverCopiedAndLoadedEntries() throws InterruptedException {
+        CountDownLatch copyStarted = new CountDownLatch(1);
+        CountDownLatch copyReleased = new CountDownLatch(1);
+
+        var current = new ShardData(new InMemoryShardStore() {
+            @Override
+            public void forEach(BiConsumer<String, String> action) {
+                copyStarted.countDown();
+
+                try {
+                    copyReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.forEach(action);
+            }
+        });
+
+        current.addToStorage("copied", "value");
+        current.addToStorage(testKey, "older");
+
+        service.getShards().getShardMap().put(0, current);
+        service.changeState(NodeState.INIT, NodeState.RUNNING);
+
+        var replacement = new ShardData();
+
+        Thread swapThread = new Thread(() -> service.swapShard(0, replacement, () -> {
+            replacement.addCopied(testKey, HashingUtils.calculate64BitHash(testKey), "loaded");
+            replacement.addCopied("loaded", HashingUtils.calculate64BitHash("loaded"), "value");
+        }));
+        swapThread.start();
+
+        copyStarted.await();
+
+        Thread writeThread = new Thread(() -> service.set(testKey, testValue, testTimestamp));
+        writeThread.start();
+
+        // Write does not wait for the copy and is visible in the current shard.
+        writeThread.join(5000);
+        assertFalse(writeThread.isAlive());
+        assertEquals(testValue, service.get(testKey));
+
+        copyReleased.countDown();
+
+        swapThread.join();
+
+        assertSame(replacement, service.getShards().getShardMap().get(0));
+        assertEquals(testValue, replacement.getValue(testKey));
+        assertEquals("value", replacement.getValue("copied"));
+        assertEquals("value", replacement.getValue("loaded"));
+    }
+
+    @Test
+    void loadedEntriesReplaceCopiedOnesInShardSwap() {
+        var current = new ShardData();
+
+        current.addToStorage(testKey, "older");
+
+        service.getShards().getShardMap().put(0, current);
+        service.changeState(NodeState.INIT, NodeState.RUNNING);
+
+        var replacement = new ShardData();
+
+        service.swapShard(0, replacement, () -> replacement.addCopied(testKey, HashingUtils.calculate64BitHash(testKey), "loaded"));
+
+        assertEquals("loaded", service.get(testKey));
+
+        // Writes after the swap are no longer tracked as written during the load.
+        service.set(testKey, testValue, testTimestamp);
+
+        assertEquals(testValue, service.get(testKey));
+    }
+
+    @Test
+    void trySetAllAppliesEntriesInRunningState() {
+        service.changeState(NodeState.INIT, NodeState.RUNNING);
+
+        assertTrue(service.trySetAll(Map.of("key1", "value1", "key2", "value2")));
+
+        assertEquals("value1", service.get("key1"));
+        assertEquals("value2", service.get("key2"));
+    }
+
+    @Test
+    void trySetAllSkipsWritesDuringProcessingPhase() {
+        service.stageShards(service.getShards().getShardMap(), 1);
+
+        service.changeState(NodeState.INIT, NodeState.REARRANGE_SHARDS_PREPARING);
+        service.changeState(NodeState.REARRANGE_SHARDS_PREPARING, NodeState.REARRANGE_SHARDS_PREPARED);
+        service.changeState(NodeState.REARRANGE_SHARDS_PREPARED, NodeState.REARRANGE_SHARDS_PROCESSING);
+
+        assertFalse(service.trySetAll(Map.of(testKey, testValue)));
+
+        // Written key would have created its shard.
+        assertFalse(service.getShards().containsShard(0));
+    }
+
     @Test
     void setFailsInDeadState() {
         service.changeState(NodeState.INIT, NodeState.DEAD);
@@ -163,7 +342,64 @@ class NodeStorageServiceTest {
         assertSame(NodeState.REARRANGE_SHARDS_PROCESSING, status.getState());
         assertEquals(1, status.getShardStats().size());
         assertEquals(1, status.getStagedShardStats().size());
-        assertEquals(0, status.getApplyQueueSize());
-        assertEquals(0, status.getRollbackQueueSize());
+    }
+
+    @Test
+    void getNodeStatusReportsSplitHashInsideShardRange() {
+        var boundaries = ShardBoundaries.even(2);
+
+        service.getShards().getShardMap().clear();
+        service.stageShards(new ConcurrentHashMap<>(Map.of(0, new ShardData(), 1, new ShardData())), boundaries);
+        service.swapWithStaged();
+        service.changeState(NodeState.INIT, NodeState.RUNNING);
+
+        for (int i = 0; i < 1000; i++) {
+            service.set("key" + i, testValue, testTimestamp);
+        }
+
+        var shardStats = service.getNodeStatus().getShardStats();
+
+        assertThat(shardStats.get(0).getSplitHash()).isLessThanOrEqualTo(boundaries.upperBoundAt(0));
+        assertThat(shardStats.get(1).getSplitHash()).isGreaterThan(boundaries.upperBoundAt(0));
+    }
+
+    @Test
+    void recoverRestoresAppliedSchemeAfterRestart(@TempDir Path storageDir) {
+        var config = StorageConfig.fromProperties()
+            .withEngine(StorageEngine.WAL)
+            .withDir(storageDir)
+            .withFsyncPolicy(FsyncPolicy.ALWAYS);
+
+        try {
+            ShardStoreFactory.configure(config);
+
+            var before = new NodeStorageService();
+            before.changeState(NodeState.INIT, NodeState.RUNNING);
+            before.stageShards(new ConcurrentHashMap<>(Map.of(0, new ShardData(), 1, new ShardData())), 2);
+            before.swapWithStaged();
+            before.clear();
+
+            for (int i = 0; i < 100; i++) {
+                before.set("key" + i, "value" + i, testTimestamp);
+            }
+
+            // Staged, but never applied scheme must not be recovered.
+            before.stageShards(new ConcurrentHashMap<>(Map.of(0, new ShardData())), 1);
+
+            ShardStoreFactory.configure(config);
+
+            var after = new NodeStorageService();
+            after.recover();
+            after.changeState(NodeState.INIT, NodeState.RUNNING);
+
+            assertEquals(2, after.getShards().getFullShardCount());
+            assertEquals(2, after.getShards().getShardMap().size());
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals("value" + i, after.get("key" + i));
+            }
+        } finally {
+            ShardStoreFactory.configure(StorageConfig.fromProperties());
+        }
     }
 }
@@ -0,0 +1,318 @@
+package vk.itmo.teamgray.sharded.storage.node.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
+import vk.itmo.teamgray.sharded.storage.common.discovery.DiscoverableServiceType;
+import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReadBoundsDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.ReplicateEntriesDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.StatusResponseDTO;
+import vk.itmo.teamgray.sharded.storage.common.dto.TopologyDTO;
+import vk.itmo.teamgray.sharded.storage.common.exception.NodeException;
+import vk.itmo.teamgray.sharded.storage.common.node.NodeState;
+import vk.itmo.teamgray.sharded.storage.common.utils.ShardBoundaries;
+import vk.itmo.teamgray.sharded.storage.node.client.NodeNodeClient;
+import vk.itmo.teamgray.sharded.storage.node.exception.ShardNotExistsException;
+import vk.itmo.teamgray.sharded.storage.node.service.shards.ShardData;
+import vk.itmo.teamgray.sharded.storage.node.storage.InMemoryShardStore;
+import vk.itmo.teamgray.sharded.storage.node.storage.ShardStoreFactory;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageEngine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReplicationServiceTest {
+    private static final int SHARD_COUNT = 2;
+
+    private final DiscoverableServiceDTO ownerServer = new DiscoverableServiceDTO(0, DiscoverableServiceType.NODE, "host0", null);
+
+    private final DiscoverableServiceDTO replicaServer = new DiscoverableServiceDTO(1, DiscoverableServiceType.NODE, "host1", null);
+
+    private final NodeStorageService ownerStorage = new NodeStorageService();
+
+    private final NodeNodeClient nodeNodeClient = mock();
+
+    private ReplicationService owner;
+
+    private ReplicationService replica;
+
+    @BeforeEach
+    void setUp() {
+        ownerStorage.stageShards(
+            IntStream.range(0, SHARD_COUNT).boxed().collect(Collectors.toMap(it -> it, it -> new ShardData())),
+            SHARD_COUNT
+        );
+        ownerStorage.swapWithStaged();
+        ownerStorage.changeState(ownerStorage.getState(), NodeState.INIT);
+        ownerStorage.changeState(NodeState.INIT, NodeState.RUNNING);
+
+        ClientCachingFactory clientCachingFactory = mock();
+
+        when(clientCachingFactory.getClient(eq(replicaServer), eq(NodeNodeClient.class))).thenReturn(nodeNodeClient);
+
+        replica = new ReplicationService(1, new NodeStorageService(), mock());
+        owner = new ReplicationService(0, ownerStorage, clientCachingFactory);
+
+        // Shipped entries go straight to the replica.
+        when(nodeNodeClient.replicateEntries(any())).thenAnswer(invocation -> {
+            replica.applyReplicated(invocation.getArgument(0));
+
+            return new StatusResponseDTO(true, "");
+        });
+
+        ownerStorage.setWriteListener(owner);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Stops shipping threads.
+        owner.onTopology(new TopologyDTO(Long.MAX_VALUE, Map.of(), Map.of(), Map.of()));
+    }
+
+    @Test
+    void replicaServesCopyAndLaterWrites() throws InterruptedException {
+        ownerStorage.set("before", "1", Instant.now());
+
+        var topology = topology(1, Map.of(0, List.of(1), 1, List.of(1)));
+
+        replica.onTopology(topology);
+        owner.onTopology(topology);
+
+        verify(nodeNodeClient, timeout(5000).times(SHARD_COUNT)).replicateEntries(argThat(ReplicateEntriesDTO::synced));
+
+        // Shipment is seen by the mock before the replica applies it.
+        assertThat(awaitReplicated("before", ReadBoundsDTO.NONE)).isEqualTo("1");
+        assertThat(awaitReplicated("absent", ReadBoundsDTO.NONE)).isNull();
+
+        ownerStorage.set("after", "2", Instant.now());
+        ownerStorage.set("before", "3", Instant.now());
+
+        long position = owner.getPosition("before");
+
+        verify(nodeNodeClient, timeout(5000)).replicateEntries(argThat(entries -> "3".equals(entries.entries().get("before"))));
+        verify(nodeNodeClient, timeout(5000).atLeastOnce()).replicateEntries(argThat(entries -> entries.position() >= position));
+
+        var boundaries = ShardBoundaries.even(SHARD_COUNT);
+        var session = new ReadBoundsDTO(0, Map.of(boundaries.shardIdForKey("before"), position));
+
+        assertThat(awaitReplicated("after", new ReadBoundsDTO(0, Map.of(boundaries.shardIdForKey("after"), owner.getPosition("after")))))
+            .isEqualTo("2");
+        assertThat(awaitReplicated("before", session)).isEqualTo("3");
+
+        // Idle replica is told it is still caught up.
+        verify(nodeNodeClient, timeout(5000).atLeastOnce()).replicateEntries(argThat(ReplicateEntriesDTO::caughtUp));
+
+        assertThat(awaitReplicated("before", new ReadBoundsDTO(5000, Map.of()))).isEqualTo("3");
+    }
+
+    @Test
+    void concurrentWritesOfSameKeysEndWithOwnerValuesOnReplica() throws InterruptedException {
+        // Writes pause after they are stored, so that concurrent writes of the same key overtake each other.
+        ownerStorage.stageShards(
+            IntStream.range(0, SHARD_COUNT).boxed().collect(Collectors.toMap(it -> it, it -> new ShardData(new InMemoryShardStore() {
+                @Override
+                public void put(String key, long hash, String value) {
+                    super.put(key, hash, value);
+
+                    LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(100_000));
+                }
+            }))),
+            SHARD_COUNT
+        );
+        ownerStorage.swapWithStaged();
+
+        var topology = topology(1, Map.of(0, List.of(1), 1, List.of(1)));
+
+        replica.onTopology(topology);
+        owner.onTopology(topology);
+
+        verify(nodeNodeClient, timeout(5000).times(SHARD_COUNT)).replicateEntries(argThat(ReplicateEntriesDTO::synced));
+
+        List<String> keys = IntStream.range(0, 10).mapToObj(i -> "key" + i).toList();
+
+        var round = new CyclicBarrier(8);
+
+        // Every round all writers write the same key at once.
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int thread = 0; thread < 8; thread++) {
+                int writer = thread;
+
+                executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        round.await(5, TimeUnit.SECONDS);
+
+                        ownerStorage.set(keys.get(i % keys.size()), writer + "-" + i, Instant.now());
+                    }
+
+                    return null;
+                });
+            }
+        }
+
+        var boundaries = ShardBoundaries.even(SHARD_COUNT);
+
+        // Replica applies writes in log order, so once it reaches the owner's position it has the value the owner applied last.
+        for (String key : keys) {
+            var session = new ReadBoundsDTO(0, Map.of(boundaries.shardIdForKey(key), owner.getPosition(key)));
+
+            assertThat(awaitReplicated(key, session)).isEqualTo(ownerStorage.get(key));
+        }
+    }
+
+    @Test
+    void replicaCopyIsDroppedWithPlacement() {
+        var topology = topology(1, Map.of(0, List.of(1), 1, List.of(1)));
+
+        replica.onTopology(topology);
+        owner.onTopology(topology);
+
+        verify(nodeNodeClient, timeout(5000).times(SHARD_COUNT)).replicateEntries(argThat(ReplicateEntriesDTO::synced));
+
+        replica.onTopology(topology(2, Map.of()));
+
+        assertThatThrownBy(() -> replica.getReplicated("before", ReadBoundsDTO.NONE)).isInstanceOf(ShardNotExistsException.class);
+    }
+
+    @Test
+    void unsyncedCopyIsNotServed() {
+        var boundaries = ShardBoundaries.even(SHARD_COUNT);
+
+        replica.onTopology(topology(1, Map.of(0, List.of(1), 1, List.of(1))));
+
+        int shardId = boundaries.shardIdForKey("key");
+        long rangeFrom = boundaries.lowerBoundAt(shardId);
+        long rangeTo = boundaries.upperBoundAt(shardId);
+
+        replica.applyReplicated(new ReplicateEntriesDTO(shardId, rangeFrom, rangeTo, true, false, Map.of("key", "value"), 10, false));
+
+        assertThatThrownBy(() -> replica.getReplicated("key", ReadBoundsDTO.NONE)).isInstanceOf(ShardNotExistsException.class);
+
+        // Entries not following a reset can not be applied, owner has to copy the shard again.
+        assertThatThrownBy(
+            () -> replica.applyReplicated(new ReplicateEntriesDTO(shardId, rangeFrom, rangeTo - 1, false, true, Map.of(), 10, false))
+        )
+            .isInstanceOf(NodeException.class);
+
+        replica.applyReplicated(new ReplicateEntriesDTO(shardId, rangeFrom, rangeTo, false, true, Map.of(), 10, false));
+
+        assertThat(replica.getReplicated("key", ReadBoundsDTO.NONE)).isEqualTo("value");
+    }
+
+    @Test
+    void boundedReadsNeedCaughtUpReplica() {
+        var boundaries = ShardBoundaries.even(SHARD_COUNT);
+
+        replica.onTopology(topology(1, Map.of(0, List.of(1), 1, List.of(1))));
+
+        int shardId = boundaries.shardIdForKey("key");
+        long rangeFrom = boundaries.lowerBoundAt(shardId);
+        long rangeTo = boundaries.upperBoundAt(shardId);
+
+        replica.applyReplicated(new ReplicateEntriesDTO(shardId, rangeFrom, rangeTo, true, true, Map.of("key", "value"), 10, false));
+
+        var stale = new ReadBoundsDTO(1000, Map.of());
+        var session = new ReadBoundsDTO(0, Map.of(shardId, 11L));
+
+        // Never caught up since the copy, nor applied the session's write.
+        assertThatThrownBy(() -> replica.getReplicated("key", stale)).isInstanceOf(ShardNotExistsException.class);
+        assertThatThrownBy(() -> replica.getReplicated("key", session)).isInstanceOf(ShardNotExistsException.class);
+
+        // Position of another shard does not matter.
+        assertThat(replica.getReplicated("key", new ReadBoundsDTO(0, Map.of(shardId + 1, 11L)))).isEqualTo("value");
+
+        replica.applyReplicated(new ReplicateEntriesDTO(shardId, rangeFrom, rangeTo, false, false, Map.of(), 11, true));
+
+        assertThat(replica.getReplicated("key", stale)).isEqualTo("value");
+        assertThat(replica.getReplicated("key", session)).isEqualTo("value");
+    }
+
+    @Test
+    void replicaCopyIsKeptInConfiguredStoreAndDestroyedWhenDropped(@TempDir Path storageDir) throws IOException {
+        var boundaries = ShardBoundaries.even(SHARD_COUNT);
+
+        int shardId = boundaries.shardIdForKey("key");
+
+        try {
+            ShardStoreFactory.configure(StorageConfig.fromProperties().withEngine(StorageEngine.LSM).withDir(storageDir));
+
+            replica.onTopology(topology(1, Map.of(0, List.of(1), 1, List.of(1))));
+            replica.applyReplicated(new ReplicateEntriesDTO(
+                shardId,
+                boundaries.lowerBoundAt(shardId),
+                boundaries.upperBoundAt(shardId),
+                true,
+                true,
+                Map.of("key", "value"),
+                10,
+                false
+            ));
+
+            assertThat(replica.getReplicated("key", ReadBoundsDTO.NONE)).isEqualTo("value");
+            assertThat(countStores(storageDir)).isEqualTo(1);
+
+            replica.onTopology(topology(2, Map.of()));
+
+            assertThat(countStores(storageDir)).isZero();
+        } finally {
+            ShardStoreFactory.configure(StorageConfig.fromProperties());
+        }
+    }
+
+    private TopologyDTO topology(long epoch, Map<Integer, List<Integer>> shardToReplicas) {
+        return new TopologyDTO(
+            epoch,
+            ShardBoundaries.even(SHARD_COUNT).toShardToHash(),
+            Map.of(0, 0, 1, 0),
+            Map.of(0, ownerServer, 1, replicaServer),
+            shardToReplicas
+        );
+    }
+
+    private String awaitReplicated(String key, ReadBoundsDTO bounds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (true) {
+            try {
+                return replica.getReplicated(key, bounds);
+            } catch (ShardNotExistsException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static long countStores(Path storageDir) throws IOException {
+        try (Stream<Path> stores = Files.list(storageDir.resolve("stores"))) {
+            return stores.count();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package vk.itmo.teamgray.sharded.storage.node.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.common.utils.HashingUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HashOrderedMapTest {
+    @Test
+    void hashRangeReturnsExactlyMatchingEntries() {
+        var map = new HashOrderedMap();
+
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key" + i;
+
+            map.put(key, HashingUtils.calculate64BitHash(key), "value" + i);
+        }
+
+        long from = -1L << 62;
+        long to = 1L << 61;
+
+        Map<String, String> expected = new HashMap<>();
+
+        map.forEach((key, value) -> {
+            long hash = HashingUtils.calculate64BitHash(key);
+
+            if (hash >= from && hash < to) {
+                expected.put(key, value);
+            }
+        });
+
+        Map<String, String> actual = new HashMap<>();
+
+        map.forEachInHashRange(from, to, (key, value) -> assertNull(actual.put(key, value)));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void rangeBoundsAreInclusiveExclusive() {
+        var map = new HashOrderedMap();
+
+        map.put("a", 10, "1");
+        map.put("b", 10, "2");
+        map.put("c", 20, "3");
+        map.put("d", 30, "4");
+
+        Map<String, String> actual = new HashMap<>();
+
+        map.forEachInHashRange(10, 30, actual::put);
+
+        assertEquals(Map.of("a", "1", "b", "2", "c", "3"), actual);
+    }
+
+    @Test
+    void sizeTracksPutsAndRemoves() {
+        var map = new HashOrderedMap();
+
+        map.put("a", 1, "1");
+        map.put("a", 1, "2");
+        map.put("b", 1, "3");
+        map.remove("c", 1);
+
+        assertEquals(2, map.size());
+        assertEquals("2", map.get("a", 1));
+
+        map.remove("a", 1);
+
+        assertEquals(1, map.size());
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get("b", 1));
+    }
+}
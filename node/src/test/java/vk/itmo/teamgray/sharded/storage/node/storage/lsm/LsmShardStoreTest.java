@@ -0,0 +1,303 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.lsm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageEngine;
+import vk.itmo.teamgray.sharded.storage.node.storage.wal.FsyncPolicy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LsmShardStoreTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @TempDir
+    private Path dir;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void readsThroughMemtableAndTables() {
+        var store = open();
+
+        for (int i = 0; i < 1000; i++) {
+            store.put("key" + i, "value" + i);
+        }
+
+        store.flush();
+
+        store.put("key0", "updated");
+        store.remove("key1");
+
+        assertEquals(1, store.getTableCount());
+        assertEquals("updated", store.get("key0"));
+        assertNull(store.get("key1"));
+        assertEquals("value999", store.get("key999"));
+        assertNull(store.get("missing"));
+
+        store.flush();
+
+        assertEquals("updated", store.get("key0"));
+        assertNull(store.get("key1"));
+
+        store.close();
+    }
+
+    @Test
+    void sizeCountsEachLiveKeyOnceBeforeCompaction() {
+        var store = open();
+
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "value" + i);
+        }
+
+        store.flush();
+
+        store.put("key0", "updated");
+        store.remove("key1");
+        store.remove("key1");
+        store.remove("missing");
+        store.put("key100", "value100");
+
+        assertEquals(100, store.size());
+
+        store.flush();
+
+        store.put("key1", "restored");
+        store.put("key2", "updated");
+
+        assertEquals(2, store.getTableCount());
+        assertEquals(101, store.size());
+
+        store.close();
+
+        var recovered = open();
+
+        assertEquals(101, recovered.size());
+
+        recovered.clear();
+
+        assertEquals(0, recovered.size());
+
+        recovered.close();
+    }
+
+    @Test
+    void recoversTablesAndWal() {
+        var store = open();
+
+        for (int i = 0; i < 1000; i++) {
+            store.put("key" + i, "value" + i);
+        }
+
+        store.flush();
+
+        store.put("key0", "updated");
+        store.remove("key1");
+        store.put("клю4", "значение");
+
+        store.close();
+
+        var recovered = open();
+
+        assertEquals(1, recovered.getTableCount());
+        assertEquals("updated", recovered.get("key0"));
+        assertNull(recovered.get("key1"));
+        assertEquals("value999", recovered.get("key999"));
+        assertEquals("значение", recovered.get("клю4"));
+
+        recovered.close();
+    }
+
+    @Test
+    void compactionKeepsLatestValuesAndDropsTombstones() throws IOException {
+        var store = open();
+
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 500; i++) {
+                store.put("key" + i, "value" + round + "-" + i);
+            }
+
+            store.remove("key" + round);
+            store.flush();
+        }
+
+        store.compact();
+
+        assertEquals(1, store.getTableCount());
+        assertEquals(1, countFiles(".sst"));
+        assertEquals(499, store.size());
+
+        for (int i = 0; i < 500; i++) {
+            if (i == 3) {
+                assertNull(store.get("key" + i));
+            } else {
+                assertEquals("value3-" + i, store.get("key" + i));
+            }
+        }
+
+        store.close();
+
+        var recovered = open();
+
+        assertEquals(499, recovered.size());
+        assertEquals("value3-10", recovered.get("key10"));
+
+        recovered.close();
+    }
+
+    @Test
+    void forEachMergesAllLevels() {
+        var store = open();
+
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "table");
+        }
+
+        store.flush();
+
+        for (int i = 50; i < 150; i++) {
+            store.put("key" + i, "memtable");
+        }
+
+        store.remove("key0");
+
+        Map<String, String> entries = new HashMap<>();
+
+        store.forEach((key, value) -> assertNull(entries.put(key, value)));
+
+        assertEquals(149, entries.size());
+        assertNull(entries.get("key0"));
+        assertEquals("table", entries.get("key49"));
+        assertEquals("memtable", entries.get("key50"));
+        assertEquals("memtable", entries.get("key149"));
+
+        store.close();
+    }
+
+    @Test
+    void clearSurvivesRestart() {
+        var store = open();
+
+        store.put("key1", "value1");
+        store.flush();
+        store.put("key2", "value2");
+
+        store.clear();
+
+        store.put("key3", "value3");
+
+        assertNull(store.get("key1"));
+        assertNull(store.get("key2"));
+        assertEquals(0, store.getTableCount());
+
+        store.close();
+
+        var recovered = open();
+
+        assertNull(recovered.get("key1"));
+        assertNull(recovered.get("key2"));
+        assertEquals("value3", recovered.get("key3"));
+
+        recovered.close();
+    }
+
+    @Test
+    void backgroundFlushKeepsConcurrentWrites() throws InterruptedException {
+        // Tiny memtable, so that writers constantly race with flushes and compactions.
+        var store = open(dir, 16 * MemoryUtils.KIBIBYTE);
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    store.put("key-" + thread + "-" + i, "value" + i);
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 2000; i++) {
+                assertEquals("value" + i, store.get("key-" + t + "-" + i));
+            }
+        }
+
+        store.close();
+
+        var recovered = open(dir, 16 * MemoryUtils.KIBIBYTE);
+
+        int[] count = new int[1];
+
+        recovered.forEach((key, value) -> count[0]++);
+
+        assertEquals(4 * 2000, count[0]);
+
+        recovered.close();
+    }
+
+    @Test
+    void destroyRemovesStoreDirectory() {
+        Path storeDir = dir.resolve("store");
+
+        var store = open(storeDir, MemoryUtils.MEBIBYTE);
+
+        store.put("key", "value");
+        store.flush();
+        store.destroy();
+
+        assertTrue(Files.notExists(storeDir));
+    }
+
+    private LsmShardStore open() {
+        return open(dir, MemoryUtils.MEBIBYTE);
+    }
+
+    private LsmShardStore open(Path storeDir, long memtableSize) {
+        var config = new StorageConfig(
+            StorageEngine.LSM,
+            storeDir,
+            FsyncPolicy.BATCH,
+            5,
+            MemoryUtils.MEBIBYTE,
+            MemoryUtils.MEBIBYTE,
+            memtableSize,
+            MemoryUtils.KIBIBYTE,
+            4,
+            MemoryUtils.MEBIBYTE
+        );
+
+        return new LsmShardStore("test", storeDir, config, scheduler);
+    }
+
+    private long countFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(it -> it.getFileName().toString().endsWith(suffix))
+                .count();
+        }
+    }
+}
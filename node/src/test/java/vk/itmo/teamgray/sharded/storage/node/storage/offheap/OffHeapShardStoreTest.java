@@ -0,0 +1,145 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.offheap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapShardStoreTest {
+    @Test
+    void putGetRemove() {
+        var store = new OffHeapShardStore(MemoryUtils.KIBIBYTE);
+
+        store.put("key1", "value1");
+        store.put("key2", "value2");
+        store.put("клю4", "значение");
+
+        store.put("key1", "value3");
+        store.put("key2", "longer value");
+        store.remove("key3");
+
+        assertEquals(3, store.size());
+        assertEquals("value3", store.get("key1"));
+        assertEquals("longer value", store.get("key2"));
+        assertEquals("значение", store.get("клю4"));
+
+        store.remove("key1");
+
+        assertEquals(2, store.size());
+        assertNull(store.get("key1"));
+    }
+
+    @Test
+    void matchesMapUnderRandomOperations() {
+        // Small slabs and key space, so that resizes, deletions with backward shift and compactions all happen.
+        var store = new OffHeapShardStore(4 * MemoryUtils.KIBIBYTE);
+
+        Map<String, String> expected = new HashMap<>();
+
+        var random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            String key = "key" + random.nextInt(5000);
+
+            if (random.nextInt(3) == 0) {
+                store.remove(key);
+                expected.remove(key);
+            } else {
+                String value = "value" + "x".repeat(random.nextInt(20)) + i;
+
+                store.put(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), store.size());
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.get("key" + i), store.get("key" + i));
+        }
+
+        Map<String, String> actual = new HashMap<>();
+
+        store.forEach((key, value) -> assertNull(actual.put(key, value)));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void forEachAllowsWritesDuringScan() {
+        var store = new OffHeapShardStore(4 * MemoryUtils.KIBIBYTE);
+
+        Map<String, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            store.put("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+
+        Map<String, String> visited = new HashMap<>();
+
+        // Lock is not held while the action runs, so writes causing resizes, deletions and compactions can be made from it.
+        store.forEach((key, value) -> {
+            assertNull(visited.put(key, value));
+
+            int i = visited.size();
+
+            store.remove("key" + (5000 - i));
+            expected.remove("key" + (5000 - i));
+
+            store.put("new" + i, "value" + i);
+            expected.put("new" + i, "value" + i);
+
+            store.put("key" + i, "overwritten value " + i);
+            expected.put("key" + i, "overwritten value " + i);
+        });
+
+        // Entries present when the scan started are visited once, even if they were removed or moved meanwhile.
+        assertEquals(5000, visited.size());
+
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(visited.containsKey("key" + i));
+        }
+
+        Map<String, String> actual = new HashMap<>();
+
+        store.forEach(actual::put);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void entryLargerThanSlab() {
+        var store = new OffHeapShardStore(MemoryUtils.KIBIBYTE);
+
+        String value = "v".repeat(10 * MemoryUtils.KIBIBYTE);
+
+        store.put("small", "value");
+        store.put("large", value);
+
+        assertEquals(value, store.get("large"));
+        assertEquals("value", store.get("small"));
+    }
+
+    @Test
+    void clearReleasesSlabs() {
+        var store = new OffHeapShardStore(MemoryUtils.KIBIBYTE);
+
+        for (int i = 0; i < 1000; i++) {
+            store.put("key" + i, "value" + i);
+        }
+
+        long used = store.getBytesUsed();
+
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertNull(store.get("key1"));
+        assertTrue(store.getBytesUsed() < used);
+    }
+}
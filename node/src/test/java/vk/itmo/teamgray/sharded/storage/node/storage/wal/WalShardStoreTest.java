@@ -0,0 +1,200 @@
+package vk.itmo.teamgray.sharded.storage.node.storage.wal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import vk.itmo.teamgray.sharded.storage.common.utils.MemoryUtils;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageConfig;
+import vk.itmo.teamgray.sharded.storage.node.storage.StorageEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WalShardStoreTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @TempDir
+    private Path dir;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void recoversAllOperationsWithEveryFsyncPolicy() {
+        for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+            recoversAllOperations(dir.resolve(fsyncPolicy.name()), fsyncPolicy);
+        }
+    }
+
+    private void recoversAllOperations(Path storeDir, FsyncPolicy fsyncPolicy) {
+        var store = open(storeDir, fsyncPolicy);
+
+        store.put("key1", "value1");
+        store.put("key2", "value2");
+        store.put("key1", "value3");
+        store.remove("key2");
+        store.put("клю4", "значение");
+
+        store.close();
+
+        var recovered = open(storeDir, fsyncPolicy);
+
+        assertEquals(2, recovered.size());
+        assertEquals("value3", recovered.get("key1"));
+        assertNull(recovered.get("key2"));
+        assertEquals("значение", recovered.get("клю4"));
+
+        recovered.close();
+    }
+
+    @Test
+    void recoversFromSnapshotAndNewerSegments() throws IOException {
+        var store = open(FsyncPolicy.ALWAYS);
+
+        for (int i = 0; i < 1000; i++) {
+            store.put("key" + i, "value" + i);
+        }
+
+        store.snapshot();
+
+        store.put("key0", "updated");
+        store.remove("key1");
+
+        store.close();
+
+        assertEquals(1, countFiles("snapshot-"));
+
+        var recovered = open(FsyncPolicy.ALWAYS);
+
+        assertEquals(999, recovered.size());
+        assertEquals("updated", recovered.get("key0"));
+        assertNull(recovered.get("key1"));
+        assertEquals("value999", recovered.get("key999"));
+
+        recovered.close();
+    }
+
+    @Test
+    void truncatesTornTailOnRecovery() throws IOException {
+        var store = open(FsyncPolicy.ALWAYS);
+
+        store.put("key1", "value1");
+        store.put("key2", "value2");
+
+        store.close();
+
+        // Simulating crash in the middle of the last record.
+        Path segment = segments().getLast();
+
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 3);
+        }
+
+        var recovered = open(FsyncPolicy.ALWAYS);
+
+        assertEquals(1, recovered.size());
+        assertEquals("value1", recovered.get("key1"));
+
+        recovered.put("key3", "value3");
+        recovered.close();
+
+        var recoveredAgain = open(FsyncPolicy.ALWAYS);
+
+        assertEquals(2, recoveredAgain.size());
+        assertEquals("value3", recoveredAgain.get("key3"));
+
+        recoveredAgain.close();
+    }
+
+    @Test
+    void concurrentWritesAreAllDurable() throws InterruptedException {
+        var store = open(FsyncPolicy.ALWAYS);
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 200; i++) {
+                    store.put("key-" + thread + "-" + i, "value" + i);
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        store.close();
+
+        var recovered = open(FsyncPolicy.ALWAYS);
+
+        assertEquals(8 * 200, recovered.size());
+
+        recovered.close();
+    }
+
+    @Test
+    void destroyRemovesStoreDirectory() {
+        Path storeDir = dir.resolve("store");
+
+        var store = open(storeDir, FsyncPolicy.BATCH);
+
+        store.put("key", "value");
+        store.destroy();
+
+        assertTrue(Files.notExists(storeDir));
+    }
+
+    private WalShardStore open(FsyncPolicy fsyncPolicy) {
+        return open(dir, fsyncPolicy);
+    }
+
+    private WalShardStore open(Path storeDir, FsyncPolicy fsyncPolicy) {
+        var config = new StorageConfig(
+            StorageEngine.WAL,
+            storeDir,
+            fsyncPolicy,
+            5,
+            MemoryUtils.MEBIBYTE,
+            MemoryUtils.MEBIBYTE,
+            MemoryUtils.MEBIBYTE,
+            4 * MemoryUtils.KIBIBYTE,
+            4,
+            MemoryUtils.MEBIBYTE
+        );
+
+        return new WalShardStore("test", storeDir, config, scheduler);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(it -> it.getFileName().toString().startsWith("wal-"))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private long countFiles(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(it -> it.getFileName().toString().startsWith(prefix))
+                .count();
+        }
+    }
+}
@@ -15,9 +15,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vk.itmo.teamgray.sharded.storage.client.client.MasterClient;
 import vk.itmo.teamgray.sharded.storage.client.client.NodeClient;
+import vk.itmo.teamgray.sharded.storage.client.client.NodeManagementClient;
 import vk.itmo.teamgray.sharded.storage.client.proto.MasterGrpcClient;
 import vk.itmo.teamgray.sharded.storage.client.proto.NodeGrpcClient;
+import vk.itmo.teamgray.sharded.storage.client.proto.NodeManagementGrpcClient;
 import vk.itmo.teamgray.sharded.storage.client.service.ClientService;
+import vk.itmo.teamgray.sharded.storage.client.service.FileReaderProvider;
 import vk.itmo.teamgray.sharded.storage.common.client.ClientCachingFactory;
 import vk.itmo.teamgray.sharded.storage.common.discovery.client.DiscoveryClient;
 import vk.itmo.teamgray.sharded.storage.common.discovery.dto.DiscoverableServiceDTO;
@@ -54,6 +57,7 @@ public abstract class BaseIntegrationTest extends BaseOrchestratedTest {
         clientCachingFactory.registerClientCreator(DiscoveryClient.class, DiscoveryGrpcClient::new);
         clientCachingFactory.registerClientCreator(MasterClient.class, MasterGrpcClient::new);
         clientCachingFactory.registerClientCreator(NodeClient.class, NodeGrpcClient::new);
+        clientCachingFactory.registerClientCreator(NodeManagementClient.class, NodeManagementGrpcClient::new);
         clientCachingFactory.registerClientCreator(FailpointClient.class, FailpointGrpcClient::new);
 
         discoveryClient = clientCachingFactory.getClient(
@@ -75,7 +79,7 @@ public abstract class BaseIntegrationTest extends BaseOrchestratedTest {
             masterClient,
             discoveryClient,
             clientCachingFactory,
-            fileName -> new BufferedReader(new FileReader(fileName))
+            fileName -> new BufferedReader(new FileReader(fileName), FileReaderProvider.BUFFER_SIZE)
         );
     }
 